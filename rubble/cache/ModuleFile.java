@@ -0,0 +1,733 @@
+package rubble.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import rubble.data.AST;
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Mode;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * A compact binary form of the parsed declarations of one source file, so
+ * that an unchanged file doesn't have to be lexed and parsed again.  The
+ * layout is:
+ *
+ *   magic "RBLM", version (4 bytes each)
+ *   SHA-256 of the source (32 bytes)
+ *   string table: count, then length-prefixed UTF-8 strings
+ *   declaration count, then one 4-byte offset per declaration
+ *   the declarations
+ *
+ * Every other number is a variable-length integer, and every name is an
+ * index into the string table.  The reader maps the file and only decodes a
+ * declaration when somebody asks for it.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class ModuleFile {
+
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = { 'R', 'B', 'L', 'M' };
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static byte[] hash(String source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256.
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private static final class Encoder {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> stringIndices;
+        private final ArrayList<String> strings;
+
+        public Encoder(HashMap<String, Integer> stringIndices, ArrayList<String> strings) {
+            this.stringIndices = stringIndices;
+            this.strings = strings;
+        }
+
+        public void u(long n) {
+            while ((n & ~0x7fL) != 0) {
+                out.write((int)((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            out.write((int)n);
+        }
+
+        public void string(String s) {
+            Integer ix = stringIndices.get(s);
+            if (ix == null) {
+                ix = strings.size();
+                strings.add(s);
+                stringIndices.put(s, ix);
+            }
+            u(ix);
+        }
+
+        public void loc(Location loc) {
+            u(loc.startRow);
+            u(loc.startColumn);
+            u(loc.endRow);
+            u(loc.endColumn);
+        }
+
+        public void declaration(AST.Declaration<String, Parsed> d) throws CompilerError {
+            u(d.tag.ordinal());
+            loc(d.loc);
+            switch (d.tag) {
+            case Def:
+                AST.Def<String, Parsed> def = (AST.Def<String, Parsed>)d;
+                string(def.name);
+                variables(def.arguments);
+                type(def.loc, def.returnType);
+                statements(def.body);
+                break;
+            case GlobalLet:
+                bindings(((AST.GlobalLet<String, Parsed>)d).bindings);
+                break;
+            }
+        }
+
+        private void bindings(ArrayList<AST.Binding<String, Parsed>> bs) throws CompilerError {
+            u(bs.size());
+            for (AST.Binding<String, Parsed> b: bs) {
+                loc(b.loc);
+                variables(b.references);
+                expression(b.value);
+            }
+        }
+
+        private void variables(ArrayList<Variable<String, Parsed>> vs) throws CompilerError {
+            u(vs.size());
+            for (Variable<String, Parsed> v: vs) {
+                loc(v.loc);
+                u(v.mode.ordinal());
+                string(v.name);
+                type(v.loc, v.type);
+            }
+        }
+
+        private void nat(Location loc, Nat<String, Parsed> n) throws CompilerError {
+            u(n.tag.ordinal());
+            switch (n.tag) {
+            case NatExternal:
+                NatExternal<String, Parsed> ne = (NatExternal<String, Parsed>)n;
+                loc(ne.loc);
+                string(ne.name);
+                break;
+            case NatKnown:
+                Nat<?, Mono> known = ((NatKnown<String, Parsed>)n).nat;
+                if (known.tag != NatTag.NatLiteral) {
+                    throw CompilerError.ice(loc, "Only literal sizes can be written to a module file.  The problematic term was " + n.toString());
+                }
+                u(((NatLiteral)known).value);
+                break;
+            case NatUnknown:
+                break;
+            default:
+                throw CompilerError.ice(loc, "Unhandled nat in ModuleFile.  The problematic term was " + n.toString());
+            }
+        }
+
+        private void type(Location loc, Types.Type<String, Parsed> t) throws CompilerError {
+            u(t.tag.ordinal());
+            switch (t.tag) {
+            case Arrow:
+                Arrow<String, Parsed> arrow = (Arrow<String, Parsed>)t;
+                variables(arrow.domain);
+                type(loc, arrow.codomain);
+                break;
+            case Buffer:
+                Buffer<String, Parsed> buffer = (Buffer<String, Parsed>)t;
+                nat(loc, buffer.size);
+                u(buffer.containedMode.ordinal());
+                type(loc, buffer.contained);
+                break;
+            case Known:
+                Types.Type<?, Mono> known = ((Known<String, Parsed>)t).type;
+                if (known.tag != Tag.Ground) {
+                    throw CompilerError.ice(loc, "Only ground types can be written to a module file.  The problematic term was " + t.toString());
+                }
+                u(((Ground)known).groundTag.ordinal());
+                break;
+            case Ptr:
+                Ptr<String, Parsed> ptr = (Ptr<String, Parsed>)t;
+                u(ptr.pointeeMode.ordinal());
+                type(loc, ptr.pointee);
+                break;
+            case Tuple:
+                variables(((Types.Tuple<String, Parsed>)t).members);
+                break;
+            case Unknown:
+                break;
+            default:
+                throw CompilerError.ice(loc, "Unhandled type in ModuleFile.  The problematic term was " + t.toString());
+            }
+        }
+
+        private void expressions(ArrayList<AST.Expression<String, Parsed>> es) throws CompilerError {
+            u(es.size());
+            for (AST.Expression<String, Parsed> e: es) {
+                expression(e);
+            }
+        }
+
+        private void expression(AST.Expression<String, Parsed> e) throws CompilerError {
+            u(e.tag.ordinal());
+            loc(e.loc);
+            type(e.loc, e.type);
+            switch (e.tag) {
+            case AddressOf:
+                expression(((AST.AddressOf<String, Parsed>)e).value);
+                break;
+            case Apply:
+                expression(((AST.Apply<String, Parsed>)e).function);
+                expression(((AST.Apply<String, Parsed>)e).argument);
+                break;
+            case AsType:
+                expression(((AST.AsType<String, Parsed>)e).value);
+                break;
+            case BufferLiteral:
+                expressions(((AST.BufferLiteral<String, Parsed>)e).es);
+                break;
+            case IfE:
+                AST.IfE<String, Parsed> ife = (AST.IfE<String, Parsed>)e;
+                expression(ife.cond);
+                expression(ife.trueBranch);
+                expression(ife.falseBranch);
+                break;
+            case Index:
+                expression(((AST.Index<String, Parsed>)e).base);
+                expression(((AST.Index<String, Parsed>)e).offset);
+                break;
+            case Number:
+                string(((AST.Number<String, Parsed>)e).number);
+                break;
+            case Tuple:
+                expressions(((AST.Tuple<String, Parsed>)e).es);
+                break;
+            case ValueAt:
+                expression(((AST.ValueAt<String, Parsed>)e).value);
+                break;
+            case Variable:
+                string(((AST.Reference<String, Parsed>)e).name);
+                break;
+            }
+        }
+
+        private void lValue(AST.LValue<String, Parsed> l) throws CompilerError {
+            u(l.tag.ordinal());
+            loc(l.loc);
+            type(l.loc, l.type);
+            switch (l.tag) {
+            case Direct:
+                string(((AST.Direct<String, Parsed>)l).name);
+                break;
+            case IndexL:
+                lValue(((AST.IndexL<String, Parsed>)l).base);
+                expression(((AST.IndexL<String, Parsed>)l).offset);
+                break;
+            case Indirect:
+                expression(((AST.Indirect<String, Parsed>)l).address);
+                break;
+            case TupleL:
+                ArrayList<AST.LValue<String, Parsed>> lValues = ((AST.TupleL<String, Parsed>)l).lValues;
+                u(lValues.size());
+                for (AST.LValue<String, Parsed> member: lValues) {
+                    lValue(member);
+                }
+                break;
+            }
+        }
+
+        private void statements(ArrayList<AST.Statement<String, Parsed>> ss) throws CompilerError {
+            u(ss.size());
+            for (AST.Statement<String, Parsed> s: ss) {
+                statement(s);
+            }
+        }
+
+        private void statement(AST.Statement<String, Parsed> s) throws CompilerError {
+            u(s.tag.ordinal());
+            loc(s.loc);
+            switch (s.tag) {
+            case Assign:
+                lValue(((AST.Assign<String, Parsed>)s).lValue);
+                expression(((AST.Assign<String, Parsed>)s).value);
+                break;
+            case Break:
+                u(((AST.Break<String, Parsed>)s).depth);
+                break;
+            case Call:
+                expression(((AST.Call<String, Parsed>)s).function);
+                expression(((AST.Call<String, Parsed>)s).argument);
+                break;
+            case Forever:
+                string(((AST.Forever<String, Parsed>)s).label);
+                statements(((AST.Forever<String, Parsed>)s).body);
+                break;
+            case IfS:
+                AST.IfS<String, Parsed> ifs = (AST.IfS<String, Parsed>)s;
+                expression(ifs.cond);
+                statements(ifs.trueBranch);
+                statements(ifs.falseBranch);
+                break;
+            case Let:
+                bindings(((AST.Let<String, Parsed>)s).bindings);
+                break;
+            case Nested:
+                statements(((AST.Nested<String, Parsed>)s).body);
+                break;
+            case Return:
+                expression(((AST.Return<String, Parsed>)s).value);
+                break;
+            }
+        }
+    }
+
+
+    private static IOException truncated() {
+        return new IOException("The module file ends too soon.");
+    }
+
+
+    private static final class Decoder {
+
+        private static final Mode[] modes = Mode.values();
+        private static final Tag[] typeTags = Tag.values();
+        private static final NatTag[] natTags = NatTag.values();
+        private static final GroundTag[] groundTags = GroundTag.values();
+        private static final AST.DeclarationTag[] declarationTags = AST.DeclarationTag.values();
+        private static final AST.ExpressionTag[] expressionTags = AST.ExpressionTag.values();
+        private static final AST.LValueTag[] lValueTags = AST.LValueTag.values();
+        private static final AST.StatementTag[] statementTags = AST.StatementTag.values();
+
+        private final ByteBuffer in;
+        private final String[] strings;
+        private int nextId = 0;
+
+        public Decoder(ByteBuffer in, String[] strings) {
+            this.in = in;
+            this.strings = strings;
+        }
+
+        public long u() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (!in.hasRemaining()) { throw truncated(); }
+                byte b = in.get();
+                result |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0) { return result; }
+            }
+            throw new IOException("The module file has a number that is too long.");
+        }
+
+        public int i() throws IOException {
+            long n = u();
+            if (n < 0 || n > Integer.MAX_VALUE) {
+                throw new IOException("The module file has a number that is out of range.");
+            }
+            return (int)n;
+        }
+
+        /**
+         * The number of things in a list, each of which takes at least a
+         * byte, so there can't be more of them than bytes left.
+         */
+        public int count() throws IOException {
+            int n = i();
+            if (n > in.remaining()) { throw truncated(); }
+            return n;
+        }
+
+        private <T> T tag(T[] tags) throws IOException {
+            int n = i();
+            if (n >= tags.length) {
+                throw new IOException("The module file has a tag this compiler doesn't know.");
+            }
+            return tags[n];
+        }
+
+        public String string() throws IOException {
+            int n = i();
+            if (n >= strings.length) {
+                throw new IOException("The module file refers to a string that isn't in its table.");
+            }
+            return strings[n];
+        }
+
+        /**
+         * Numbers the nodes of a declaration the way the parser does, each
+         * after its children.  The constructor calls take it last, after
+         * decoding the children.
+         */
+        private int id() {
+            return nextId++;
+        }
+
+        public Location loc() throws IOException {
+            return new Location(i(), i(), i(), i());
+        }
+
+        public AST.Declaration<String, Parsed> declaration() throws IOException {
+            nextId = 0;
+            AST.DeclarationTag tag = tag(declarationTags);
+            Location loc = loc();
+            switch (tag) {
+            case Def:
+                String name = string();
+                ArrayList<Variable<String, Parsed>> arguments = variables();
+                Types.Type<String, Parsed> returnType = type();
+                return new AST.Def<String, Parsed>(loc, name, arguments, returnType, statements(), id());
+            default:
+                return new AST.GlobalLet<String, Parsed>(loc, bindings(), id());
+            }
+        }
+
+        private ArrayList<AST.Binding<String, Parsed>> bindings() throws IOException {
+            int n = count();
+            ArrayList<AST.Binding<String, Parsed>> result = new ArrayList<AST.Binding<String, Parsed>>(n);
+            for (int ix = 0; ix < n; ix++) {
+                Location loc = loc();
+                ArrayList<Variable<String, Parsed>> references = variables();
+                result.add(new AST.Binding<String, Parsed>(loc, references, expression(), id()));
+            }
+            return result;
+        }
+
+        private ArrayList<Variable<String, Parsed>> variables() throws IOException {
+            int n = count();
+            ArrayList<Variable<String, Parsed>> result = new ArrayList<Variable<String, Parsed>>(n);
+            for (int ix = 0; ix < n; ix++) {
+                Location loc = loc();
+                Mode mode = tag(modes);
+                String name = string();
+                result.add(new Variable<String, Parsed>(loc, mode, name, type()));
+            }
+            return result;
+        }
+
+        private Nat<String, Parsed> nat() throws IOException {
+            switch (tag(natTags)) {
+            case NatExternal:
+                Location loc = loc();
+                return new NatExternal<String, Parsed>(loc, string());
+            case NatKnown:
+                return new NatKnown<String, Parsed>(new NatLiteral(u()));
+            default:
+                return new NatUnknown();
+            }
+        }
+
+        private Types.Type<String, Parsed> type() throws IOException {
+            switch (tag(typeTags)) {
+            case Arrow:
+                ArrayList<Variable<String, Parsed>> domain = variables();
+                return new Arrow<String, Parsed>(domain, type());
+            case Buffer:
+                Nat<String, Parsed> size = nat();
+                Mode containedMode = tag(modes);
+                return new Buffer<String, Parsed>(size, containedMode, type());
+            case Known:
+                return new Known<String, Parsed>(new Ground(tag(groundTags)));
+            case Ptr:
+                Mode pointeeMode = tag(modes);
+                return new Ptr<String, Parsed>(pointeeMode, type());
+            case Tuple:
+                return new Types.Tuple<String, Parsed>(variables());
+            default:
+                return Types.UNKNOWN;
+            }
+        }
+
+        private ArrayList<AST.Expression<String, Parsed>> expressions() throws IOException {
+            int n = count();
+            ArrayList<AST.Expression<String, Parsed>> result = new ArrayList<AST.Expression<String, Parsed>>(n);
+            for (int ix = 0; ix < n; ix++) {
+                result.add(expression());
+            }
+            return result;
+        }
+
+        private AST.Expression<String, Parsed> expression() throws IOException {
+            AST.ExpressionTag tag = tag(expressionTags);
+            Location loc = loc();
+            Types.Type<String, Parsed> type = type();
+            switch (tag) {
+            case AddressOf:
+                return new AST.AddressOf<String, Parsed>(loc, type, expression(), id());
+            case Apply:
+                AST.Expression<String, Parsed> function = expression();
+                return new AST.Apply<String, Parsed>(loc, type, function, expression(), id());
+            case AsType:
+                return new AST.AsType<String, Parsed>(loc, type, expression(), id());
+            case BufferLiteral:
+                return new AST.BufferLiteral<String, Parsed>(loc, type, expressions(), id());
+            case IfE:
+                AST.Expression<String, Parsed> cond = expression();
+                AST.Expression<String, Parsed> trueBranch = expression();
+                return new AST.IfE<String, Parsed>(loc, type, cond, trueBranch, expression(), id());
+            case Index:
+                AST.Expression<String, Parsed> base = expression();
+                return new AST.Index<String, Parsed>(loc, type, base, expression(), id());
+            case Number:
+                return new AST.Number<String, Parsed>(loc, type, string(), id());
+            case Tuple:
+                return new AST.Tuple<String, Parsed>(loc, type, expressions(), id());
+            case ValueAt:
+                return new AST.ValueAt<String, Parsed>(loc, type, expression(), id());
+            default:
+                return new AST.Reference<String, Parsed>(loc, type, string(), id());
+            }
+        }
+
+        private AST.LValue<String, Parsed> lValue() throws IOException {
+            AST.LValueTag tag = tag(lValueTags);
+            Location loc = loc();
+            Types.Type<String, Parsed> type = type();
+            switch (tag) {
+            case Direct:
+                return new AST.Direct<String, Parsed>(loc, type, string(), id());
+            case IndexL:
+                AST.LValue<String, Parsed> base = lValue();
+                return new AST.IndexL<String, Parsed>(loc, type, base, expression(), id());
+            case Indirect:
+                return new AST.Indirect<String, Parsed>(loc, type, expression(), id());
+            default:
+                int n = count();
+                ArrayList<AST.LValue<String, Parsed>> lValues = new ArrayList<AST.LValue<String, Parsed>>(n);
+                for (int ix = 0; ix < n; ix++) {
+                    lValues.add(lValue());
+                }
+                return new AST.TupleL<String, Parsed>(loc, type, lValues, id());
+            }
+        }
+
+        private ArrayList<AST.Statement<String, Parsed>> statements() throws IOException {
+            int n = count();
+            ArrayList<AST.Statement<String, Parsed>> result = new ArrayList<AST.Statement<String, Parsed>>(n);
+            for (int ix = 0; ix < n; ix++) {
+                result.add(statement());
+            }
+            return result;
+        }
+
+        private AST.Statement<String, Parsed> statement() throws IOException {
+            AST.StatementTag tag = tag(statementTags);
+            Location loc = loc();
+            switch (tag) {
+            case Assign:
+                AST.LValue<String, Parsed> lValue = lValue();
+                return new AST.Assign<String, Parsed>(loc, lValue, expression(), id());
+            case Break:
+                return new AST.Break<String, Parsed>(loc, i(), id());
+            case Call:
+                AST.Expression<String, Parsed> function = expression();
+                return new AST.Call<String, Parsed>(loc, function, expression(), id());
+            case Forever:
+                String label = string();
+                return new AST.Forever<String, Parsed>(loc, label, statements(), id());
+            case IfS:
+                AST.Expression<String, Parsed> cond = expression();
+                ArrayList<AST.Statement<String, Parsed>> trueBranch = statements();
+                return new AST.IfS<String, Parsed>(loc, cond, trueBranch, statements(), id());
+            case Let:
+                return new AST.Let<String, Parsed>(loc, bindings(), id());
+            case Nested:
+                return new AST.Nested<String, Parsed>(loc, statements(), id());
+            default:
+                return new AST.Return<String, Parsed>(loc, expression(), id());
+            }
+        }
+    }
+
+
+    /**
+     * Writes the declarations parsed from source to file.
+     *
+     * @param file
+     * @param source The text the declarations were parsed from.
+     * @param declarations
+     * @throws CompilerError if a declaration contains something that only
+     * appears after parsing.
+     * @throws IOException
+     */
+    public static void write(File file, String source, ArrayList<AST.Declaration<String, Parsed>> declarations) throws CompilerError, IOException {
+        HashMap<String, Integer> stringIndices = new HashMap<String, Integer>();
+        ArrayList<String> strings = new ArrayList<String>();
+        Encoder body = new Encoder(stringIndices, strings);
+        int[] offsets = new int[declarations.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = body.out.size();
+            body.declaration(declarations.get(i));
+        }
+
+        Encoder header = new Encoder(stringIndices, strings);
+        header.out.write(MAGIC);
+        writeInt(header.out, VERSION);
+        header.out.write(hash(source));
+        header.u(strings.size());
+        for (String s: strings) {
+            byte[] bytes = s.getBytes(UTF8);
+            header.u(bytes.length);
+            header.out.write(bytes);
+        }
+        header.u(offsets.length);
+
+        int base = header.out.size() + 4 * offsets.length;
+        for (int offset: offsets) {
+            writeInt(header.out, base + offset);
+        }
+
+        // The file is written beside its final name and then renamed, so a
+        // reader never sees it half written.
+        File temporary = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp" + Thread.currentThread().getId());
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                header.out.writeTo(out);
+                body.out.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("The module file " + file + " couldn't be replaced.");
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int n) {
+        out.write(n >>> 24);
+        out.write(n >>> 16);
+        out.write(n >>> 8);
+        out.write(n);
+    }
+
+    /**
+     * Maps a module file into memory.  Only the header and the string table
+     * are read here; declarations are decoded on first use.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file is not a module file or was written
+     * by a different version.
+     */
+    public static Reader open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    public static final class Reader {
+
+        private final MappedByteBuffer buffer;
+        private final byte[] sourceHash;
+        private final String[] strings;
+        private final int[] offsets;
+        private final AST.Declaration<?, ?>[] decoded;
+
+        private Reader(MappedByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+
+            byte[] magic = new byte[MAGIC.length];
+            if (buffer.remaining() < magic.length) { throw truncated(); }
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("This is not a Rubble module file.");
+            }
+            if (buffer.remaining() < 4) { throw truncated(); }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("The module file has version " + version + ", but this compiler reads version " + VERSION + ".");
+            }
+            sourceHash = new byte[32];
+            if (buffer.remaining() < sourceHash.length) { throw truncated(); }
+            buffer.get(sourceHash);
+
+            Decoder decoder = new Decoder(buffer, null);
+            strings = new String[decoder.count()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[decoder.i()];
+                if (buffer.remaining() < bytes.length) { throw truncated(); }
+                buffer.get(bytes);
+                strings[i] = new String(bytes, UTF8);
+            }
+            int count = decoder.count();
+            if (buffer.remaining() / 4 < count) { throw truncated(); }
+            offsets = new int[count];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = buffer.getInt();
+            }
+            // Each declaration takes at least a byte after the header.
+            for (int offset: offsets) {
+                if (offset < buffer.position() || offset >= buffer.limit()) {
+                    throw new IOException("The module file has a declaration outside the file.");
+                }
+            }
+            decoded = new AST.Declaration<?, ?>[offsets.length];
+        }
+
+        /**
+         * Checks whether the file was written from exactly this source.
+         */
+        public boolean isCurrent(String source) {
+            return Arrays.equals(sourceHash, hash(source));
+        }
+
+        public int size() {
+            return offsets.length;
+        }
+
+        /**
+         * Decodes a declaration, if it hasn't been already.
+         *
+         * @throws IOException if the declaration is cut short or malformed.
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized AST.Declaration<String, Parsed> declaration(int i) throws IOException {
+            if (decoded[i] == null) {
+                ByteBuffer view = buffer.duplicate();
+                view.position(offsets[i]);
+                decoded[i] = new Decoder(view, strings).declaration();
+            }
+            return (AST.Declaration<String, Parsed>)decoded[i];
+        }
+
+        public ArrayList<AST.Declaration<String, Parsed>> declarations() throws IOException {
+            ArrayList<AST.Declaration<String, Parsed>> result = new ArrayList<AST.Declaration<String, Parsed>>(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                result.add(declaration(i));
+            }
+            return result;
+        }
+    }
+}
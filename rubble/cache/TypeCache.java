@@ -0,0 +1,382 @@
+package rubble.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rubble.checks.Inference;
+import rubble.data.Location;
+import rubble.data.Mode;
+import rubble.data.Names;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.StructuralHash;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * The solved types of functions, so that a function doesn't have to be
+ * inferred again unless it or a signature it depends on has changed.  The
+ * key covers the function's structural hash, which includes its own
+ * signature, and the name and signature of every global it uses.
+ *
+ * Entries are kept in memory, and also in a directory if one is given, one
+ * file per key.  A file is:
+ *
+ *   magic "RBLT", version (4 bytes each)
+ *   the key (8 bytes)
+ *   the node, argument and local types, each as a count and then the types
+ *
+ * with every other number a variable-length integer.  A table with a type
+ * that can't be written, such as a size that names a global, is only kept
+ * in memory, and a file that can't be read is a miss.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class TypeCache {
+
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = { 'R', 'B', 'L', 'T' };
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Written in place of a tag for the entries of a table that are null.
+    private static final int ABSENT = Types.Tag.values().length;
+
+    private final ConcurrentHashMap<Long, Inference.Table> memory = new ConcurrentHashMap<Long, Inference.Table>();
+    private final File directory;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * A cache kept only in memory.
+     */
+    public TypeCache() {
+        this(null);
+    }
+
+    /**
+     * A cache kept in memory and in a directory, which is created if it
+     * doesn't exist.
+     */
+    public TypeCache(File directory) {
+        this.directory = directory;
+        if (directory != null) { directory.mkdirs(); }
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    /**
+     * The key of a function's types.
+     *
+     * @param r The resolution of a Def.
+     * @param signatures The inferred types of the global lets, as given to
+     *        Inference.infer().
+     * @return The key.
+     */
+    public static long key(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures) {
+        long key = StructuralHash.of(r.declaration).declaration();
+        for (ResolvedName name: r.used()) {
+            if (name.tag != Names.Tag.Global) { continue; }
+            Type<ResolvedName, Poly> signature = signatures.containsKey(name) ? signatures.get(name) : name.type;
+            key = StructuralHash.combine(key, StructuralHash.hash(name.source));
+            key = StructuralHash.combine(key, (signature == null) ? 0 : StructuralHash.hash(signature));
+        }
+        return key;
+    }
+
+    /**
+     * The table stored under a key, or null if there isn't one.  Counts as
+     * a hit or a miss.
+     */
+    public Inference.Table get(long key) {
+        Inference.Table table = memory.get(key);
+        if (table == null && directory != null) {
+            table = read(key);
+            if (table != null) { memory.put(key, table); }
+        }
+        if (table == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return table;
+    }
+
+    public void put(long key, Inference.Table table) {
+        memory.put(key, table);
+        if (directory == null) { return; }
+
+        Encoder out = new Encoder();
+        try {
+            out.types(table.nodes);
+            out.types(table.arguments);
+            out.types(table.locals);
+        } catch (IOException e) {
+            // The table has a type that can't be written.
+            return;
+        }
+
+        File file = file(key);
+        File temporary = new File(directory, file.getName() + ".tmp" + Thread.currentThread().getId());
+        try {
+            FileOutputStream stream = new FileOutputStream(temporary);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 12);
+                header.put(MAGIC);
+                header.putInt(VERSION);
+                header.putLong(key);
+                stream.write(header.array());
+                out.out.writeTo(stream);
+            } finally {
+                stream.close();
+            }
+            if (!temporary.renameTo(file)) { temporary.delete(); }
+        } catch (IOException e) {
+            // A cache that can't be written is only slower.
+            temporary.delete();
+        }
+    }
+
+
+    private File file(long key) {
+        return new File(directory, String.format("%016x.rblt", key));
+    }
+
+    private Inference.Table read(long key) {
+        File file = file(key);
+        if (!file.isFile()) { return null; }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            byte[] bytes;
+            try {
+                bytes = new byte[(int)raf.length()];
+                raf.readFully(bytes);
+            } finally {
+                raf.close();
+            }
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            byte[] magic = new byte[MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION || in.getLong() != key) { return null; }
+
+            Decoder decoder = new Decoder(in);
+            return new Inference.Table(decoder.types(), decoder.types(), decoder.types());
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // A truncated or corrupt file.
+            return null;
+        }
+    }
+
+
+    private static final class Encoder {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        public void u(long n) {
+            while ((n & ~0x7fL) != 0) {
+                out.write((int)((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            out.write((int)n);
+        }
+
+        public void string(String s) {
+            byte[] bytes = s.getBytes(UTF8);
+            u(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        public void types(Type<?, ?>[] ts) throws IOException {
+            u(ts.length);
+            for (Type<?, ?> t: ts) {
+                if (t == null) {
+                    u(ABSENT);
+                } else {
+                    type(t);
+                }
+            }
+        }
+
+        private void variables(ArrayList<? extends Variable<?, ?>> vs) throws IOException {
+            u(vs.size());
+            for (Variable<?, ?> v: vs) {
+                u(v.loc.startRow);
+                u(v.loc.startColumn);
+                u(v.loc.endRow);
+                u(v.loc.endColumn);
+                u(v.mode.ordinal());
+                string(v.name);
+                type(v.type);
+            }
+        }
+
+        private void nat(Nat<?, ?> n) throws IOException {
+            u(n.tag.ordinal());
+            switch (n.tag) {
+            case NatKnown:
+                nat(((NatKnown<?, ?>)n).nat);
+                break;
+            case NatLiteral:
+                u(((NatLiteral)n).value);
+                break;
+            case NatVar:
+                u(((NatVar)n).index);
+                break;
+            default:
+                throw new IOException("The size " + n + " can't be written to the type cache.");
+            }
+        }
+
+        private void type(Type<?, ?> t) throws IOException {
+            u(t.tag.ordinal());
+            switch (t.tag) {
+            case Arrow:
+                Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+                variables(arrow.domain);
+                type(arrow.codomain);
+                break;
+            case Buffer:
+                Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+                nat(buffer.size);
+                u(buffer.containedMode.ordinal());
+                type(buffer.contained);
+                break;
+            case Ground:
+                u(((Ground)t).groundTag.ordinal());
+                break;
+            case Known:
+                type(((Known<?, ?>)t).type);
+                break;
+            case Ptr:
+                Ptr<?, ?> ptr = (Ptr<?, ?>)t;
+                u(ptr.pointeeMode.ordinal());
+                type(ptr.pointee);
+                break;
+            case Tuple:
+                variables(((Types.Tuple<?, ?>)t).members);
+                break;
+            case TypeVar:
+                u(((TypeVar)t).id);
+                break;
+            default:
+                throw new IOException("The type " + t + " can't be written to the type cache.");
+            }
+        }
+    }
+
+    /**
+     * Reads what Encoder writes.  The phases of the types read back are
+     * whatever the caller says they are, as they were when written.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final class Decoder {
+
+        private static final Mode[] modes = Mode.values();
+        private static final Types.Tag[] typeTags = Types.Tag.values();
+        private static final NatTag[] natTags = NatTag.values();
+        private static final GroundTag[] groundTags = GroundTag.values();
+
+        private final ByteBuffer in;
+
+        public Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        public long u() {
+            long n = 0;
+            int shift = 0;
+            while (true) {
+                byte b = in.get();
+                n |= (long)(b & 0x7f) << shift;
+                if ((b & 0x80) == 0) { return n; }
+                shift += 7;
+            }
+        }
+
+        public int i() {
+            return (int)u();
+        }
+
+        public String string() {
+            byte[] bytes = new byte[i()];
+            in.get(bytes);
+            return new String(bytes, UTF8);
+        }
+
+        public Type<ResolvedName, Poly>[] types() {
+            Type<ResolvedName, Poly>[] ts = (Type<ResolvedName, Poly>[])new Type<?, ?>[i()];
+            for (int i = 0; i < ts.length; i++) {
+                int tag = i();
+                ts[i] = (tag == ABSENT) ? null : type(tag);
+            }
+            return ts;
+        }
+
+        private ArrayList variables() {
+            int size = i();
+            ArrayList vs = new ArrayList(size);
+            for (int i = 0; i < size; i++) {
+                Location loc = new Location(i(), i(), i(), i());
+                Mode mode = modes[i()];
+                String name = string();
+                vs.add(new Variable(loc, mode, name, type(i())));
+            }
+            return vs;
+        }
+
+        private Nat nat() {
+            switch (natTags[i()]) {
+            case NatKnown:
+                return new NatKnown(nat());
+            case NatLiteral:
+                return new NatLiteral(u());
+            default:
+                return new NatVar(i());
+            }
+        }
+
+        private Type type(int tag) {
+            switch (typeTags[tag]) {
+            case Arrow:
+                ArrayList domain = variables();
+                return new Arrow(domain, type(i()));
+            case Buffer:
+                Nat size = nat();
+                Mode containedMode = modes[i()];
+                return new Types.Buffer(size, containedMode, type(i()));
+            case Ground:
+                return new Ground(groundTags[i()]);
+            case Known:
+                return new Known(type(i()));
+            case Ptr:
+                Mode pointeeMode = modes[i()];
+                return new Ptr(pointeeMode, type(i()));
+            case Tuple:
+                return new Types.Tuple(variables());
+            default:
+                return new TypeVar(i());
+            }
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import rubble.data.AST;
+import rubble.data.AST.*;
+import rubble.data.Mode;
+import rubble.data.Names;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * A fast path for type inference in functions whose types are written out.
+ * Known types are pushed down through lets, returns, applications and
+ * conditionals, and the types of names, operators and the like are read
+ * back up, so a function can be typed in one pass without a unifier or any
+ * type variables.
+ *
+ * Anything this can't type at once, such as a number with no expected type
+ * or a use of an opaque global, or anything that is wrong, gives up on the
+ * whole function, and it is inferred as usual.  That way the errors and the
+ * defaults all come from one place.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Bidirectional {
+
+    private static final Type<ResolvedName, Poly> BOOLEAN = ground(GroundTag.Boolean);
+    private static final Type<ResolvedName, Poly> UNIT = ground(GroundTag.Unit);
+    private static final Type<ResolvedName, Poly> INDEX = ground(GroundTag.UInt64);
+
+    private final Resolution resolution;
+    private final IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures;
+    private final Type<ResolvedName, Poly>[] nodes;
+    private final IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> known = new IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>>();
+    private final Type<ResolvedName, Poly> returnType;
+    private int localCount = 0;
+
+    @SuppressWarnings("unchecked")
+    private Bidirectional(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures) {
+        this.resolution = r;
+        this.signatures = signatures;
+        this.nodes = (Type<ResolvedName, Poly>[])new Type<?, ?>[r.nodes];
+        this.returnType = r.returnType((Def<String, Parsed>)r.declaration);
+    }
+
+    /**
+     * Types a function without inference, if it can.
+     *
+     * @param r The resolution of a Def.
+     * @param signatures As for Inference.infer().
+     * @return The types, or null if the function has to be inferred.
+     */
+    @SuppressWarnings("unchecked")
+    public static Inference.Table check(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures) {
+        Def<String, Parsed> def = (Def<String, Parsed>)r.declaration;
+        ResolvedName[] names = r.arguments(def);
+        Type<ResolvedName, Poly>[] arguments = (Type<ResolvedName, Poly>[])new Type<?, ?>[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (Inference.hasVariables(names[i].type)) { return null; }
+            arguments[i] = names[i].type;
+        }
+
+        Bidirectional b = new Bidirectional(r, signatures);
+        if (b.returnType == null || Inference.hasVariables(b.returnType) || !b.block(def.body)) { return null; }
+
+        Type<ResolvedName, Poly>[] locals = (Type<ResolvedName, Poly>[])new Type<?, ?>[b.localCount];
+        for (ResolvedName name: b.known.keySet()) {
+            if (name.tag == Names.Tag.Local) { locals[((Local)name).index] = b.known.get(name); }
+        }
+        return new Inference.Table(b.nodes, arguments, locals);
+    }
+
+    private boolean block(ArrayList<Statement<String, Parsed>> body) {
+        for (Statement<String, Parsed> s: body) {
+            if (!statement(s)) { return false; }
+        }
+        return true;
+    }
+
+    private boolean statement(Statement<String, Parsed> s) {
+        switch (s.tag) {
+        case Assign:
+            Assign<String, Parsed> assign = (Assign<String, Parsed>)s;
+            Type<ResolvedName, Poly> target = lValue(assign.lValue);
+            return target != null && check(assign.value, target);
+
+        case Call:
+            Call<String, Parsed> call = (Call<String, Parsed>)s;
+            return apply(call.function, call.argument) != null;
+
+        case Forever:
+            return block(((Forever<String, Parsed>)s).body);
+
+        case IfS:
+            IfS<String, Parsed> ifs = (IfS<String, Parsed>)s;
+            return check(ifs.cond, BOOLEAN) && block(ifs.trueBranch) && block(ifs.falseBranch);
+
+        case Let:
+            for (Binding<String, Parsed> b: ((Let<String, Parsed>)s).bindings) {
+                if (!binding(b)) { return false; }
+            }
+            return true;
+
+        case Nested:
+            return block(((Nested<String, Parsed>)s).body);
+
+        case Return:
+            return check(((Return<String, Parsed>)s).value, returnType);
+
+        default:
+            // Break has no types in it.
+            return true;
+        }
+    }
+
+    /**
+     * A binding checks its value against the names' types where they are
+     * all written out, and otherwise gives the names without types the
+     * value's type.  A name whose type is only partly written out has to
+     * be inferred.
+     */
+    private boolean binding(Binding<String, Parsed> b) {
+        ResolvedName[] names = resolution.bound(b);
+        boolean annotated = true;
+        for (ResolvedName name: names) {
+            if (name.tag == Names.Tag.Local) { localCount = Math.max(localCount, ((Local)name).index + 1); }
+            if (name.type.tag != Types.Tag.TypeVar && Inference.hasVariables(name.type)) { return false; }
+            annotated &= name.type.tag != Types.Tag.TypeVar;
+        }
+
+        if (annotated) {
+            Type<ResolvedName, Poly> expected = names[0].type;
+            if (names.length > 1) {
+                ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+                for (int i = 0; i < names.length; i++) {
+                    members.add(new Variable<ResolvedName, Poly>(b.references.get(i).loc, names[i].mode, names[i].source, names[i].type));
+                }
+                expected = new Types.Tuple<ResolvedName, Poly>(members);
+            }
+            if (!check(b.value, expected)) { return false; }
+            for (ResolvedName name: names) {
+                known.put(name, name.type);
+            }
+            return true;
+        }
+
+        Type<ResolvedName, Poly> t = synthesize(b.value);
+        if (t == null) { return false; }
+        if (names.length == 1) {
+            known.put(names[0], t);
+            return true;
+        }
+        if (t.tag != Types.Tag.Tuple || ((Types.Tuple<?, ?>)t).members.size() != names.length) { return false; }
+        for (int i = 0; i < names.length; i++) {
+            Type<ResolvedName, Poly> member = ((Types.Tuple<ResolvedName, Poly>)t).members.get(i).type;
+            if (names[i].type.tag == Types.Tag.TypeVar) {
+                known.put(names[i], member);
+            } else if (fits(names[i].type, member)) {
+                known.put(names[i], names[i].type);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks an expression against a known type, and records the type.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean check(Expression<String, Parsed> e, Type<ResolvedName, Poly> expected) {
+        Type<ResolvedName, Poly> annotation = resolution.annotation(e);
+        if (annotation != null) {
+            if (Inference.hasVariables(annotation) || !fits(expected, annotation)) { return false; }
+            expected = annotation;
+        }
+
+        switch (e.tag) {
+        case BufferLiteral:
+            ArrayList<Expression<String, Parsed>> es = ((BufferLiteral<String, Parsed>)e).es;
+            Type<?, ?> buffer = unwrap(expected);
+            if (buffer.tag != Types.Tag.Buffer) { return false; }
+            Nat<?, ?> size = ((Types.Buffer<?, ?>)buffer).size;
+            if (size.tag == NatTag.NatKnown) { size = ((NatKnown<?, ?>)size).nat; }
+            if (size.tag != NatTag.NatLiteral || ((NatLiteral)size).value != es.size()) { return false; }
+            Type<ResolvedName, Poly> contained = ((Types.Buffer<ResolvedName, Poly>)buffer).contained;
+            for (Expression<String, Parsed> element: es) {
+                if (!check(element, contained)) { return false; }
+            }
+            nodes[e.id] = expected;
+            return true;
+
+        case IfE:
+            IfE<String, Parsed> ife = (IfE<String, Parsed>)e;
+            if (!check(ife.cond, BOOLEAN) || !check(ife.trueBranch, expected) || !check(ife.falseBranch, expected)) { return false; }
+            nodes[e.id] = expected;
+            return true;
+
+        case Number:
+            if (!in(expected, TypeClass.Num)) { return false; }
+            nodes[e.id] = expected;
+            return true;
+
+        case Tuple:
+            ArrayList<Expression<String, Parsed>> elements = ((AST.Tuple<String, Parsed>)e).es;
+            Type<?, ?> tuple = unwrap(expected);
+            if (tuple.tag != Types.Tag.Tuple || ((Types.Tuple<?, ?>)tuple).members.size() != elements.size()) { return false; }
+            for (int i = 0; i < elements.size(); i++) {
+                if (!check(elements.get(i), ((Types.Tuple<ResolvedName, Poly>)tuple).members.get(i).type)) { return false; }
+            }
+            nodes[e.id] = expected;
+            return true;
+
+        default:
+            Type<ResolvedName, Poly> t = read(e, annotation);
+            if (t == null || !fits(expected, t)) { return false; }
+            nodes[e.id] = (annotation != null) ? annotation : t;
+            return true;
+        }
+    }
+
+    /**
+     * The type of an expression, which is recorded, or null if it can't be
+     * known at once.
+     */
+    private Type<ResolvedName, Poly> synthesize(Expression<String, Parsed> e) {
+        Type<ResolvedName, Poly> annotation = resolution.annotation(e);
+        if (annotation != null && e.tag != ExpressionTag.AsType) {
+            return (!Inference.hasVariables(annotation) && check(e, annotation)) ? annotation : null;
+        }
+        return read(e, annotation);
+    }
+
+    /**
+     * The type of an expression read off its parts, leaving aside its
+     * annotation unless it is an AsType.
+     */
+    @SuppressWarnings("unchecked")
+    private Type<ResolvedName, Poly> read(Expression<String, Parsed> e, Type<ResolvedName, Poly> annotation) {
+        Type<ResolvedName, Poly> t = null;
+        switch (e.tag) {
+        case AddressOf:
+            Expression<String, Parsed> pointee = ((AddressOf<String, Parsed>)e).value;
+            Type<ResolvedName, Poly> value = synthesize(pointee);
+            if (value != null) { t = new Ptr<ResolvedName, Poly>(mode(pointee), value); }
+            break;
+
+        case Apply:
+            Apply<String, Parsed> apply = (Apply<String, Parsed>)e;
+            t = apply(apply.function, apply.argument);
+            break;
+
+        case AsType:
+            if (annotation == null || Inference.hasVariables(annotation)) { return null; }
+            t = check(((AsType<String, Parsed>)e).value, annotation) ? annotation : null;
+            break;
+
+        case IfE:
+            IfE<String, Parsed> ife = (IfE<String, Parsed>)e;
+            t = synthesize(ife.trueBranch);
+            if (t == null || !check(ife.cond, BOOLEAN) || !check(ife.falseBranch, t)) { return null; }
+            break;
+
+        case Index:
+            Index<String, Parsed> index = (Index<String, Parsed>)e;
+            Type<?, ?> base = unwrap(synthesize(index.base));
+            if (base == null || base.tag != Types.Tag.Buffer || !check(index.offset, INDEX)) { return null; }
+            t = ((Types.Buffer<ResolvedName, Poly>)base).contained;
+            break;
+
+        case Tuple:
+            ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (Expression<String, Parsed> element: ((AST.Tuple<String, Parsed>)e).es) {
+                Type<ResolvedName, Poly> member = synthesize(element);
+                if (member == null) { return null; }
+                members.add(new Variable<ResolvedName, Poly>(element.loc, Mode.Const, "", member));
+            }
+            t = new Types.Tuple<ResolvedName, Poly>(members);
+            break;
+
+        case ValueAt:
+            Type<?, ?> address = unwrap(synthesize(((ValueAt<String, Parsed>)e).value));
+            if (address == null || address.tag != Types.Tag.Ptr) { return null; }
+            t = ((Ptr<ResolvedName, Poly>)address).pointee;
+            break;
+
+        case Variable:
+            t = variable(resolution.name((Reference<String, Parsed>)e));
+            break;
+
+        default:
+            // Numbers and buffer literals need an expected type.
+            return null;
+        }
+        if (t != null) { nodes[e.id] = t; }
+        return t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Type<ResolvedName, Poly> lValue(LValue<String, Parsed> l) {
+        Type<ResolvedName, Poly> t = null;
+        switch (l.tag) {
+        case Direct:
+            ResolvedName name = resolution.name((Direct<String, Parsed>)l);
+            t = (name.mode == Mode.Var) ? variable(name) : null;
+            break;
+
+        case IndexL:
+            IndexL<String, Parsed> indexL = (IndexL<String, Parsed>)l;
+            Type<?, ?> base = unwrap(lValue(indexL.base));
+            if (base == null || base.tag != Types.Tag.Buffer || ((Types.Buffer<?, ?>)base).containedMode != Mode.Var || !check(indexL.offset, INDEX)) { return null; }
+            t = ((Types.Buffer<ResolvedName, Poly>)base).contained;
+            break;
+
+        case Indirect:
+            Type<?, ?> address = unwrap(synthesize(((Indirect<String, Parsed>)l).address));
+            if (address == null || address.tag != Types.Tag.Ptr || ((Ptr<?, ?>)address).pointeeMode != Mode.Var) { return null; }
+            t = ((Ptr<ResolvedName, Poly>)address).pointee;
+            break;
+
+        case TupleL:
+            ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (LValue<String, Parsed> element: ((TupleL<String, Parsed>)l).lValues) {
+                Type<ResolvedName, Poly> member = lValue(element);
+                if (member == null) { return null; }
+                members.add(new Variable<ResolvedName, Poly>(element.loc, Mode.Var, "", member));
+            }
+            t = new Types.Tuple<ResolvedName, Poly>(members);
+            break;
+        }
+        if (t != null) { nodes[l.id] = t; }
+        return t;
+    }
+
+    /**
+     * The type of an application.  The operators are typed as in
+     * Inference, but only on ground types.
+     */
+    @SuppressWarnings("unchecked")
+    private Type<ResolvedName, Poly> apply(Expression<String, Parsed> function, Expression<String, Parsed> argument) {
+        if (function.tag == ExpressionTag.Variable && resolution.name((Reference<String, Parsed>)function).tag == Names.Tag.Builtin) {
+            return builtin(resolution.name((Reference<String, Parsed>)function).source, argument);
+        }
+
+        Type<?, ?> f = unwrap(synthesize(function));
+        if (f == null || f.tag != Types.Tag.Arrow) { return null; }
+        Arrow<ResolvedName, Poly> arrow = (Arrow<ResolvedName, Poly>)f;
+        if (arrow.domain.size() == 1) {
+            if (!check(argument, arrow.domain.get(0).type)) { return null; }
+        } else {
+            if (argument.tag != ExpressionTag.Tuple || resolution.annotation(argument) != null) { return null; }
+            ArrayList<Expression<String, Parsed>> es = ((AST.Tuple<String, Parsed>)argument).es;
+            if (es.size() != arrow.domain.size()) { return null; }
+            ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (int i = 0; i < es.size(); i++) {
+                Type<ResolvedName, Poly> t = arrow.domain.get(i).type;
+                if (!check(es.get(i), t)) { return null; }
+                members.add(new Variable<ResolvedName, Poly>(es.get(i).loc, Mode.Const, "", t));
+            }
+            nodes[argument.id] = new Types.Tuple<ResolvedName, Poly>(members);
+        }
+        return arrow.codomain;
+    }
+
+    private Type<ResolvedName, Poly> builtin(String operator, Expression<String, Parsed> argument) {
+        if (operator.equals("not")) {
+            return check(argument, BOOLEAN) ? BOOLEAN : null;
+        }
+        if (operator.equals("negate")) {
+            Type<ResolvedName, Poly> t = synthesize(argument);
+            return in(t, TypeClass.Signed) ? t : null;
+        }
+
+        if (argument.tag != ExpressionTag.Tuple || resolution.annotation(argument) != null || ((AST.Tuple<String, Parsed>)argument).es.size() != 2) { return null; }
+        Expression<String, Parsed> left = ((AST.Tuple<String, Parsed>)argument).es.get(0);
+        Expression<String, Parsed> right = ((AST.Tuple<String, Parsed>)argument).es.get(1);
+
+        // One operand has to give the type for the other, as 1 + x does.
+        Type<ResolvedName, Poly> t;
+        if (left.tag != ExpressionTag.Number || resolution.annotation(left) != null) {
+            t = synthesize(left);
+            if (t == null || !check(right, t)) { return null; }
+        } else {
+            t = synthesize(right);
+            if (t == null || !check(left, t)) { return null; }
+        }
+        ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+        members.add(new Variable<ResolvedName, Poly>(left.loc, Mode.Const, "", t));
+        members.add(new Variable<ResolvedName, Poly>(right.loc, Mode.Const, "", t));
+        nodes[argument.id] = new Types.Tuple<ResolvedName, Poly>(members);
+
+        if (operator.equals("&&") || operator.equals("||")) {
+            return fits(BOOLEAN, t) ? BOOLEAN : null;
+        } else if (operator.equals("==") || operator.equals("!=")) {
+            return in(t, TypeClass.Eq) ? BOOLEAN : null;
+        } else if (operator.equals("<") || operator.equals(">") || operator.equals("<=") || operator.equals(">=")) {
+            return in(t, TypeClass.Num) ? BOOLEAN : null;
+        } else {
+            return in(t, TypeClass.Num) ? t : null;
+        }
+    }
+
+    /**
+     * The known type of a name, or null.
+     */
+    private Type<ResolvedName, Poly> variable(ResolvedName name) {
+        switch (name.tag) {
+        case Builtin:
+            if (name.source.equals("true") || name.source.equals("false")) { return BOOLEAN; }
+            return name.source.equals("()") ? UNIT : null;
+
+        case Global:
+            Type<ResolvedName, Poly> signature = signatures.containsKey(name) ? signatures.get(name) : name.type;
+            return (signature == null || Inference.hasVariables(signature)) ? null : signature;
+
+        default:
+            if (known.containsKey(name)) { return known.get(name); }
+            return Inference.hasVariables(name.type) ? null : name.type;
+        }
+    }
+
+    /**
+     * As Inference.mode(), but with the types known.
+     */
+    private Mode mode(Expression<String, Parsed> e) {
+        switch (e.tag) {
+        case AsType:
+            return mode(((AsType<String, Parsed>)e).value);
+
+        case Index:
+            Index<String, Parsed> index = (Index<String, Parsed>)e;
+            Type<?, ?> base = unwrap(nodes[index.base.id]);
+            if (base != null && base.tag == Types.Tag.Buffer && ((Types.Buffer<?, ?>)base).containedMode == Mode.Var) {
+                return mode(index.base);
+            }
+            return Mode.Const;
+
+        case ValueAt:
+            Type<?, ?> address = unwrap(nodes[((ValueAt<String, Parsed>)e).value.id]);
+            return (address != null && address.tag == Types.Tag.Ptr) ? ((Ptr<?, ?>)address).pointeeMode : Mode.Const;
+
+        case Variable:
+            return resolution.name((Reference<String, Parsed>)e).mode;
+
+        default:
+            return Mode.Const;
+        }
+    }
+
+    /**
+     * Whether a value of the found type can be used where the expected type
+     * is, as the unifier would allow without binding anything.
+     */
+    private static boolean fits(Type<?, ?> expected, Type<?, ?> found) {
+        expected = unwrap(expected);
+        found = unwrap(found);
+        if (expected.tag != found.tag) { return false; }
+
+        switch (expected.tag) {
+        case Arrow:
+            Arrow<?, ?> a = (Arrow<?, ?>)expected;
+            Arrow<?, ?> b = (Arrow<?, ?>)found;
+            return fits(a.domain, b.domain) && fits(a.codomain, b.codomain);
+
+        case Buffer:
+            Types.Buffer<?, ?> x = (Types.Buffer<?, ?>)expected;
+            Types.Buffer<?, ?> y = (Types.Buffer<?, ?>)found;
+            return fits(x.containedMode, y.containedMode) && fits(x.size, y.size) && fits(x.contained, y.contained);
+
+        case Ground:
+            return ((Ground)expected).groundTag == ((Ground)found).groundTag;
+
+        case Ptr:
+            Ptr<?, ?> p = (Ptr<?, ?>)expected;
+            Ptr<?, ?> q = (Ptr<?, ?>)found;
+            return fits(p.pointeeMode, q.pointeeMode) && fits(p.pointee, q.pointee);
+
+        case Tuple:
+            return fits(((Types.Tuple<?, ?>)expected).members, ((Types.Tuple<?, ?>)found).members);
+
+        default:
+            return false;
+        }
+    }
+
+    private static boolean fits(ArrayList<? extends Variable<?, ?>> expected, ArrayList<? extends Variable<?, ?>> found) {
+        if (expected.size() != found.size()) { return false; }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!fits(expected.get(i).type, found.get(i).type)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean fits(Mode expected, Mode found) {
+        return expected == Mode.Const || found == Mode.Var;
+    }
+
+    private static boolean fits(Nat<?, ?> expected, Nat<?, ?> found) {
+        if (expected.tag == NatTag.NatKnown) { expected = ((NatKnown<?, ?>)expected).nat; }
+        if (found.tag == NatTag.NatKnown) { found = ((NatKnown<?, ?>)found).nat; }
+        if (expected.tag != found.tag) { return false; }
+        switch (expected.tag) {
+        case NatExternal:
+            return ((NatExternal<?, ?>)expected).name == ((NatExternal<?, ?>)found).name;
+        case NatLiteral:
+            return ((NatLiteral)expected).value == ((NatLiteral)found).value;
+        default:
+            return false;
+        }
+    }
+
+    private static boolean in(Type<?, ?> t, TypeClass c) {
+        t = unwrap(t);
+        return t != null && t.tag == Types.Tag.Ground && (c.mask & (1 << ((Ground)t).groundTag.ordinal())) != 0;
+    }
+
+    private static Type<?, ?> unwrap(Type<?, ?> t) {
+        return (t != null && t.tag == Types.Tag.Known) ? ((Known<?, ?>)t).type : t;
+    }
+
+    private static Type<ResolvedName, Poly> ground(GroundTag tag) {
+        return new Known<ResolvedName, Poly>(new Ground(tag));
+    }
+}
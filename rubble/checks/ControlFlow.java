@@ -0,0 +1,293 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rubble.data.AST.*;
+import rubble.data.Types.*;
+
+/**
+ * The control-flow graph of a function.  Each basic block is a run of
+ * statements with no control flow between them.  Assignments, calls and
+ * lets belong to the block they're in; an if ends its block, which goes to
+ * the blocks of both branches; a return ends its block, which goes to EXIT.
+ * Loops and breaks only add edges.  Falling off the end of the body goes to
+ * END, which is a separate block so that checks can tell it apart from a
+ * return.
+ *
+ * Statements after a return or break start a block that nothing goes to.
+ *
+ * The graph is kept in arrays, with the edges of block b at
+ * successors[successorStart[b]] up to successors[successorStart[b + 1]],
+ * the predecessors likewise, and the statements likewise.  None of these
+ * should be modified.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class ControlFlow {
+
+    /** Where the body starts. */
+    public static final int ENTRY = 0;
+    /** Where every return goes. */
+    public static final int EXIT = 1;
+    /** Where the body goes if it reaches its end. */
+    public static final int END = 2;
+
+    /** The number of blocks. */
+    public final int blocks;
+
+    public final int[] successorStart;
+    public final int[] successors;
+    public final int[] predecessorStart;
+    public final int[] predecessors;
+    public final int[] statementStart;
+    public final ArrayList<Statement<String, Parsed>> statements;
+
+    /** The loops, in source order, and the header block of each. */
+    public final ArrayList<Forever<String, Parsed>> loops;
+    public final int[] headers;
+
+    /** The blocks reachable from ENTRY, in reverse postorder. */
+    public final int[] order;
+    /** Each block's index in order, or -1 if it can't be reached. */
+    public final int[] position;
+
+    private ControlFlow(Builder builder) {
+        blocks = builder.blocks;
+        loops = builder.loops;
+        headers = new int[loops.size()];
+        System.arraycopy(builder.headers, 0, headers, 0, headers.length);
+
+        successorStart = new int[blocks + 1];
+        successors = new int[builder.edges];
+        predecessorStart = new int[blocks + 1];
+        predecessors = new int[builder.edges];
+        group(builder.from, builder.to, builder.edges, blocks, successorStart, successors);
+        group(builder.to, builder.from, builder.edges, blocks, predecessorStart, predecessors);
+
+        // Statements are grouped by their block the same way, keeping them
+        // in source order within each block.
+        int size = builder.statements.size();
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) { indices[i] = i; }
+        int[] grouped = new int[size];
+        statementStart = new int[blocks + 1];
+        group(builder.owners, indices, size, blocks, statementStart, grouped);
+        statements = new ArrayList<Statement<String, Parsed>>(size);
+        for (int i: grouped) {
+            statements.add(builder.statements.get(i));
+        }
+
+        position = new int[blocks];
+        order = reversePostorder();
+    }
+
+    /**
+     * Builds the graph of a function.
+     *
+     * @param def
+     * @return The graph.
+     */
+    public static ControlFlow of(Def<String, Parsed> def) {
+        Builder builder = new Builder();
+        builder.block(def.body);
+        if (builder.current >= 0) { builder.edge(builder.current, END); }
+        return new ControlFlow(builder);
+    }
+
+    public boolean reachable(int block) {
+        return position[block] >= 0;
+    }
+
+    /**
+     * The statements in a block, in order.
+     */
+    public List<Statement<String, Parsed>> statements(int block) {
+        return statements.subList(statementStart[block], statementStart[block + 1]);
+    }
+
+
+    /**
+     * Sorts the pairs (keys[i], values[i]) by key, stably, into the values
+     * and the index in them where each key starts.  Keys are below count.
+     */
+    static void group(int[] keys, int[] values, int size, int count, int[] start, int[] grouped) {
+        for (int i = 0; i < size; i++) {
+            start[keys[i] + 1]++;
+        }
+        for (int k = 0; k < count; k++) {
+            start[k + 1] += start[k];
+        }
+        int[] next = new int[count];
+        System.arraycopy(start, 0, next, 0, count);
+        for (int i = 0; i < size; i++) {
+            grouped[next[keys[i]]++] = values[i];
+        }
+    }
+
+    /**
+     * A depth-first search from ENTRY with its own stack, numbering the
+     * blocks as it finishes them.
+     */
+    private int[] reversePostorder() {
+        for (int b = 0; b < blocks; b++) { position[b] = -1; }
+
+        int[] stack = new int[blocks];
+        int[] next = new int[blocks];
+        boolean[] seen = new boolean[blocks];
+        int[] postorder = new int[blocks];
+        int finished = 0;
+        int size = 0;
+
+        stack[size++] = ENTRY;
+        seen[ENTRY] = true;
+        next[ENTRY] = successorStart[ENTRY];
+        while (size > 0) {
+            int b = stack[size - 1];
+            if (next[b] < successorStart[b + 1]) {
+                int s = successors[next[b]++];
+                if (!seen[s]) {
+                    seen[s] = true;
+                    next[s] = successorStart[s];
+                    stack[size++] = s;
+                }
+            } else {
+                size--;
+                postorder[finished++] = b;
+            }
+        }
+
+        int[] result = new int[finished];
+        for (int i = 0; i < finished; i++) {
+            result[i] = postorder[finished - 1 - i];
+            position[result[i]] = i;
+        }
+        return result;
+    }
+
+    /**
+     * Lowers the body into blocks and edges.  The current block is -1 after
+     * a return or break, until a statement needs somewhere to go.
+     */
+    private static final class Builder {
+
+        public int blocks = END + 1;
+        public int current = ENTRY;
+
+        public int[] from = new int[16];
+        public int[] to = new int[16];
+        public int edges = 0;
+
+        public final ArrayList<Statement<String, Parsed>> statements = new ArrayList<Statement<String, Parsed>>();
+        public int[] owners = new int[16];
+
+        public final ArrayList<Forever<String, Parsed>> loops = new ArrayList<Forever<String, Parsed>>();
+        public int[] headers = new int[8];
+
+        // The block each enclosing loop's breaks go to, innermost last.
+        private int[] exits = new int[8];
+        private int open = 0;
+
+        public int newBlock() {
+            return blocks++;
+        }
+
+        public void edge(int source, int target) {
+            if (edges == from.length) {
+                int[] newFrom = new int[2 * edges];
+                int[] newTo = new int[2 * edges];
+                System.arraycopy(from, 0, newFrom, 0, edges);
+                System.arraycopy(to, 0, newTo, 0, edges);
+                from = newFrom;
+                to = newTo;
+            }
+            from[edges] = source;
+            to[edges] = target;
+            edges++;
+        }
+
+        private int here() {
+            if (current < 0) { current = newBlock(); }
+            return current;
+        }
+
+        private void add(Statement<String, Parsed> s) {
+            int size = statements.size();
+            if (size == owners.length) {
+                int[] newOwners = new int[2 * size];
+                System.arraycopy(owners, 0, newOwners, 0, size);
+                owners = newOwners;
+            }
+            owners[size] = here();
+            statements.add(s);
+        }
+
+        public void block(ArrayList<Statement<String, Parsed>> body) {
+            for (Statement<String, Parsed> s: body) {
+                switch (s.tag) {
+                case Break:
+                    edge(here(), exits[open - 1 - ((Break<String, Parsed>)s).depth]);
+                    current = -1;
+                    break;
+
+                case Forever:
+                    int header = newBlock();
+                    int exit = newBlock();
+                    edge(here(), header);
+                    if (loops.size() == headers.length) {
+                        int[] newHeaders = new int[2 * headers.length];
+                        System.arraycopy(headers, 0, newHeaders, 0, headers.length);
+                        headers = newHeaders;
+                    }
+                    headers[loops.size()] = header;
+                    loops.add((Forever<String, Parsed>)s);
+                    if (open == exits.length) {
+                        int[] newExits = new int[2 * open];
+                        System.arraycopy(exits, 0, newExits, 0, open);
+                        exits = newExits;
+                    }
+                    exits[open++] = exit;
+                    current = header;
+                    block(((Forever<String, Parsed>)s).body);
+                    if (current >= 0) { edge(current, header); }
+                    open--;
+                    current = exit;
+                    break;
+
+                case IfS:
+                    IfS<String, Parsed> ifs = (IfS<String, Parsed>)s;
+                    add(ifs);
+                    int test = current;
+                    int join = -1;
+                    for (int branch = 0; branch < 2; branch++) {
+                        current = newBlock();
+                        edge(test, current);
+                        block((branch == 0) ? ifs.trueBranch : ifs.falseBranch);
+                        if (current >= 0) {
+                            if (join < 0) { join = newBlock(); }
+                            edge(current, join);
+                        }
+                    }
+                    current = join;
+                    break;
+
+                case Nested:
+                    block(((Nested<String, Parsed>)s).body);
+                    break;
+
+                case Return:
+                    add(s);
+                    edge(current, EXIT);
+                    current = -1;
+                    break;
+
+                default:
+                    // Assign, Call, and Let don't change the flow.
+                    add(s);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package rubble.checks;
+
+/**
+ * Dominance in a function's control-flow graph: the dominator tree, the
+ * dominance frontiers, and the loops.  Only blocks reachable from ENTRY are
+ * in any of these.
+ *
+ * The tree is found with the iterative algorithm of Cooper, Harvey and
+ * Kennedy, working on reverse postorder numbers, and numbered once more in
+ * preorder so that whether one block dominates another is a comparison.
+ * The graphs built from Rubble's structured control flow are reducible, so
+ * the iteration settles after a pass or two and the whole is near linear.
+ *
+ * Each loop in the forest is a forever whose body can go around again.  Its
+ * blocks are those that reach a back edge to its header without passing
+ * through the header; a forever whose body always breaks or returns isn't a
+ * loop at all.
+ *
+ * As in ControlFlow, the children and frontier of block b are at
+ * children[childStart[b]] up to children[childStart[b + 1]], and likewise
+ * for frontiers.  None of the arrays should be modified.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Dominators {
+
+    public final ControlFlow cfg;
+
+    /** Each block's immediate dominator, or -1 for ENTRY and unreachable blocks. */
+    public final int[] idom;
+
+    public final int[] childStart;
+    public final int[] children;
+    public final int[] frontierStart;
+    public final int[] frontiers;
+
+    /**
+     * For each of cfg.loops, the loop it is nested in, or -1, and how deeply
+     * it is nested, counting from 1.  The depth is 0 if it isn't a loop.
+     */
+    public final int[] loopParent;
+    public final int[] loopDepth;
+    /** The innermost loop each block is in, or -1. */
+    public final int[] innermost;
+
+    // The interval of preorder numbers of each block's subtree.
+    private final int[] preorder;
+    private final int[] last;
+
+    private Dominators(ControlFlow cfg) {
+        this.cfg = cfg;
+        int blocks = cfg.blocks;
+
+        idom = immediateDominators(cfg);
+
+        int[] parents = new int[blocks];
+        int[] sons = new int[blocks];
+        int size = 0;
+        for (int b: cfg.order) {
+            if (idom[b] < 0) { continue; }
+            parents[size] = idom[b];
+            sons[size] = b;
+            size++;
+        }
+        childStart = new int[blocks + 1];
+        children = new int[size];
+        ControlFlow.group(parents, sons, size, blocks, childStart, children);
+
+        preorder = new int[blocks];
+        last = new int[blocks];
+        number();
+
+        frontierStart = new int[blocks + 1];
+        frontiers = frontiers(blocks);
+
+        int loops = cfg.loops.size();
+        loopParent = new int[loops];
+        loopDepth = new int[loops];
+        innermost = new int[blocks];
+        findLoops();
+    }
+
+    public static Dominators of(ControlFlow cfg) {
+        return new Dominators(cfg);
+    }
+
+    /**
+     * Whether every path from ENTRY to b goes through a.  A block dominates
+     * itself.
+     */
+    public boolean dominates(int a, int b) {
+        if (!cfg.reachable(a) || !cfg.reachable(b)) { return false; }
+        return preorder[a] <= preorder[b] && preorder[b] <= last[a];
+    }
+
+
+    /**
+     * The dominators are kept by reverse postorder number while they're
+     * found, so that the intersection of two only compares numbers: a
+     * block's dominators all come before it.
+     */
+    private static int[] immediateDominators(ControlFlow cfg) {
+        int size = cfg.order.length;
+        int[] doms = new int[size];
+        for (int i = 1; i < size; i++) { doms[i] = -1; }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < size; i++) {
+                int b = cfg.order[i];
+                int dom = -1;
+                for (int j = cfg.predecessorStart[b]; j < cfg.predecessorStart[b + 1]; j++) {
+                    int p = cfg.position[cfg.predecessors[j]];
+                    if (p < 0 || doms[p] < 0) { continue; }
+                    dom = (dom < 0) ? p : intersect(doms, p, dom);
+                }
+                if (doms[i] != dom) {
+                    doms[i] = dom;
+                    changed = true;
+                }
+            }
+        }
+
+        int[] idom = new int[cfg.blocks];
+        for (int b = 0; b < cfg.blocks; b++) { idom[b] = -1; }
+        for (int i = 1; i < size; i++) {
+            idom[cfg.order[i]] = cfg.order[doms[i]];
+        }
+        return idom;
+    }
+
+    private static int intersect(int[] doms, int a, int b) {
+        while (a != b) {
+            while (a > b) { a = doms[a]; }
+            while (b > a) { b = doms[b]; }
+        }
+        return a;
+    }
+
+    /**
+     * Numbers the tree in preorder, with its own stack.
+     */
+    private void number() {
+        int[] stack = new int[cfg.order.length];
+        int[] next = new int[cfg.blocks];
+        int count = 0;
+        int size = 0;
+
+        stack[size++] = ControlFlow.ENTRY;
+        preorder[ControlFlow.ENTRY] = count++;
+        next[ControlFlow.ENTRY] = childStart[ControlFlow.ENTRY];
+        while (size > 0) {
+            int b = stack[size - 1];
+            if (next[b] < childStart[b + 1]) {
+                int c = children[next[b]++];
+                preorder[c] = count++;
+                next[c] = childStart[c];
+                stack[size++] = c;
+            } else {
+                size--;
+                last[b] = count - 1;
+            }
+        }
+    }
+
+    /**
+     * A join point is in the frontier of each block from its predecessors up
+     * to, but not including, its immediate dominator.
+     */
+    private int[] frontiers(int blocks) {
+        int[] owners = new int[16];
+        int[] members = new int[16];
+        int size = 0;
+        int[] marks = new int[blocks];
+        for (int b = 0; b < blocks; b++) { marks[b] = -1; }
+
+        for (int b: cfg.order) {
+            if (cfg.predecessorStart[b + 1] - cfg.predecessorStart[b] < 2) { continue; }
+            for (int j = cfg.predecessorStart[b]; j < cfg.predecessorStart[b + 1]; j++) {
+                int runner = cfg.predecessors[j];
+                if (!cfg.reachable(runner)) { continue; }
+                while (runner != idom[b] && marks[runner] != b) {
+                    if (size == owners.length) {
+                        int[] newOwners = new int[2 * size];
+                        int[] newMembers = new int[2 * size];
+                        System.arraycopy(owners, 0, newOwners, 0, size);
+                        System.arraycopy(members, 0, newMembers, 0, size);
+                        owners = newOwners;
+                        members = newMembers;
+                    }
+                    owners[size] = runner;
+                    members[size] = b;
+                    size++;
+                    marks[runner] = b;
+                    runner = idom[runner];
+                }
+            }
+        }
+
+        int[] result = new int[size];
+        ControlFlow.group(owners, members, size, blocks, frontierStart, result);
+        return result;
+    }
+
+    /**
+     * Finds the loops from the innermost out, by going backwards from each
+     * header's back edges.  Each block found is merged into the header, so
+     * an inner loop is crossed in one step by way of its header, and the
+     * merging is a union-find with path compression.
+     */
+    private void findLoops() {
+        int blocks = cfg.blocks;
+        int[] heads = new int[blocks];
+        int[] up = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            heads[b] = -1;
+            up[b] = b;
+            innermost[b] = -1;
+        }
+        for (int i = 0; i < loopParent.length; i++) {
+            heads[cfg.headers[i]] = i;
+            loopParent[i] = -1;
+        }
+
+        int[] work = new int[cfg.predecessors.length];
+        for (int k = cfg.order.length - 1; k >= 0; k--) {
+            int h = cfg.order[k];
+            int loop = heads[h];
+            if (loop < 0) { continue; }
+
+            int size = 0;
+            for (int j = cfg.predecessorStart[h]; j < cfg.predecessorStart[h + 1]; j++) {
+                int p = cfg.predecessors[j];
+                if (dominates(h, p)) { work[size++] = p; }
+            }
+            if (size == 0) { continue; }
+            loopDepth[loop] = 1;
+            innermost[h] = loop;
+
+            while (size > 0) {
+                int r = find(up, work[--size]);
+                if (r == h) { continue; }
+                if (heads[r] >= 0 && loopDepth[heads[r]] > 0) {
+                    loopParent[heads[r]] = loop;
+                } else {
+                    innermost[r] = loop;
+                }
+                up[r] = h;
+                for (int j = cfg.predecessorStart[r]; j < cfg.predecessorStart[r + 1]; j++) {
+                    int p = cfg.predecessors[j];
+                    if (cfg.reachable(p)) { work[size++] = p; }
+                }
+            }
+        }
+
+        // A loop comes after the loop it is nested in.
+        for (int i = 0; i < loopDepth.length; i++) {
+            if (loopDepth[i] > 0 && loopParent[i] >= 0) {
+                loopDepth[i] = loopDepth[loopParent[i]] + 1;
+            }
+        }
+    }
+
+    private static int find(int[] up, int b) {
+        int root = b;
+        while (up[root] != root) { root = up[root]; }
+        while (up[b] != root) {
+            int next = up[b];
+            up[b] = root;
+            b = next;
+        }
+        return root;
+    }
+}
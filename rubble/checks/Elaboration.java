@@ -0,0 +1,356 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import rubble.data.AST.*;
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.StructuralHash;
+import rubble.data.Types.*;
+
+/**
+ * Orders the globals by what they depend on.  Each function and each binding
+ * of a global let is a unit, and a unit depends on every global it uses.
+ * The units are split into strongly connected components, which come out
+ * with each component after everything it depends on, so elaborating or
+ * initializing them in that order never reaches a global that isn't ready.
+ *
+ * Functions may be mutually recursive, but a global let whose value depends
+ * on itself, directly or through functions it calls, has no order it could
+ * be initialized in.
+ *
+ * Each component has a key covering its members' structural hashes and the
+ * keys of the components it depends on, so a later stage can skip the
+ * components whose keys haven't changed since the last time.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Elaboration {
+
+    // For each unit, the declaration it is in and its binding, or null for a
+    // function.
+    private final int[] declarations;
+    private final Binding<String, Parsed>[] bindings;
+    private final Location[] locations;
+    private final int units;
+
+    // The units each unit depends on, as with the uses in Resolution: the
+    // edges of unit u are edges[edgeStarts[u]] up to edges[edgeStarts[u+1]].
+    private int[] edgeStarts;
+    private int[] edges;
+
+    // The components, dependencies first.  The members of component c are
+    // members[memberStarts[c]] up to members[memberStarts[c+1]], in source
+    // order.
+    private int[] componentOf;
+    private int[] memberStarts;
+    private int[] members;
+    private int components = 0;
+
+    private long[] keys;
+
+    @SuppressWarnings("unchecked")
+    private Elaboration(int units) {
+        this.units = units;
+        this.declarations = new int[units];
+        this.bindings = (Binding<String, Parsed>[])new Binding<?, ?>[units];
+        this.locations = new Location[units];
+    }
+
+    /**
+     * Finds the components of a resolved program and checks that no global
+     * let depends on its own value.
+     *
+     * @param rs The resolutions of the whole program, in source order.
+     * @return The components.
+     * @throws CompilerError
+     */
+    public static Elaboration of(ArrayList<Resolution> rs) throws CompilerError {
+        int units = 0;
+        for (Resolution r: rs) {
+            units += (r.declaration.tag == DeclarationTag.Def) ? 1 : ((GlobalLet<String, Parsed>)r.declaration).bindings.size();
+        }
+        Elaboration e = new Elaboration(units);
+
+        IdentityHashMap<ResolvedName, Integer> definedBy = new IdentityHashMap<ResolvedName, Integer>();
+        int u = 0;
+        for (int i = 0; i < rs.size(); i++) {
+            Resolution r = rs.get(i);
+            switch (r.declaration.tag) {
+            case Def:
+                Def<String, Parsed> def = (Def<String, Parsed>)r.declaration;
+                e.declarations[u] = i;
+                e.locations[u] = def.loc;
+                definedBy.put(r.global(def), u++);
+                break;
+
+            case GlobalLet:
+                for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                    e.declarations[u] = i;
+                    e.bindings[u] = b;
+                    e.locations[u] = b.loc;
+                    for (ResolvedName name: r.bound(b)) {
+                        definedBy.put(name, u);
+                    }
+                    u++;
+                }
+                break;
+            }
+        }
+
+        e.findEdges(rs, definedBy);
+        e.findComponents();
+        e.checkLets();
+        e.findKeys(rs);
+        return e;
+    }
+
+    public int units() {
+        return units;
+    }
+
+    /**
+     * The index of the declaration a unit is in.
+     */
+    public int declaration(int unit) {
+        return declarations[unit];
+    }
+
+    /**
+     * The global let binding a unit is, or null if it is a function.
+     */
+    public Binding<String, Parsed> binding(int unit) {
+        return bindings[unit];
+    }
+
+    public int components() {
+        return components;
+    }
+
+    public int componentOf(int unit) {
+        return componentOf[unit];
+    }
+
+    /**
+     * The units in a component, in source order.
+     */
+    public int[] members(int component) {
+        return Arrays.copyOfRange(members, memberStarts[component], memberStarts[component + 1]);
+    }
+
+    /**
+     * The components a component depends on, each once and in order.  They
+     * all come before it.
+     */
+    public int[] dependencies(int component) {
+        boolean[] seen = new boolean[component];
+        int count = 0;
+        for (int i = memberStarts[component]; i < memberStarts[component + 1]; i++) {
+            int member = members[i];
+            for (int j = edgeStarts[member]; j < edgeStarts[member + 1]; j++) {
+                int c = componentOf[edges[j]];
+                if (c != component && !seen[c]) {
+                    seen[c] = true;
+                    count++;
+                }
+            }
+        }
+        int[] result = new int[count];
+        int n = 0;
+        for (int c = 0; c < component; c++) {
+            if (seen[c]) { result[n++] = c; }
+        }
+        return result;
+    }
+
+    /**
+     * A hash of a component's code and everything it depends on.  It is the
+     * same as long as none of that has changed, wherever it moved to.
+     */
+    public long key(int component) {
+        return keys[component];
+    }
+
+    /**
+     * The units in the order they can be initialized in.
+     */
+    public int[] order() {
+        return members.clone();
+    }
+
+
+    private void findEdges(ArrayList<Resolution> rs, IdentityHashMap<ResolvedName, Integer> definedBy) {
+        edgeStarts = new int[units + 1];
+        int[] edgeList = new int[16];
+        int count = 0;
+
+        int u = 0;
+        for (Resolution r: rs) {
+            // A binding's id is above those of the nodes in its value, and
+            // a global let's bindings are numbered one after the other, so
+            // each use belongs to the first binding numbered after it.
+            int first = u;
+            int[] ends;
+            if (r.declaration.tag == DeclarationTag.Def) {
+                ends = new int[] { r.declaration.id };
+            } else {
+                ArrayList<Binding<String, Parsed>> bs = ((GlobalLet<String, Parsed>)r.declaration).bindings;
+                ends = new int[bs.size()];
+                for (int k = 0; k < ends.length; k++) {
+                    ends[k] = bs.get(k).id;
+                }
+            }
+
+            // Find each unit's dependencies, deduplicated, in the order the
+            // used names first appear.
+            ArrayList<ArrayList<Integer>> found = new ArrayList<ArrayList<Integer>>();
+            for (int k = 0; k < ends.length; k++) {
+                found.add(new ArrayList<Integer>());
+            }
+            for (ResolvedName name: r.used()) {
+                Integer target = definedBy.get(name);
+                if (target == null) { continue; }
+
+                for (int id: r.uses(name)) {
+                    int k = Arrays.binarySearch(ends, id);
+                    if (k < 0) { k = -k - 1; }
+                    if (!found.get(k).contains(target)) {
+                        found.get(k).add(target);
+                    }
+                }
+            }
+
+            for (int k = 0; k < ends.length; k++) {
+                edgeStarts[first + k] = count;
+                for (int target: found.get(k)) {
+                    if (count == edgeList.length) {
+                        edgeList = Arrays.copyOf(edgeList, 2 * count);
+                    }
+                    edgeList[count++] = target;
+                }
+            }
+            u += ends.length;
+        }
+        edgeStarts[units] = count;
+        edges = edgeList;
+    }
+
+    /**
+     * Tarjan's algorithm, with an explicit stack so that long chains of
+     * globals can't overflow the Java one.  A component is finished only
+     * after every component it can reach, so they come out dependencies
+     * first.
+     */
+    private void findComponents() {
+        componentOf = new int[units];
+        members = new int[units];
+        memberStarts = new int[units + 1];
+
+        int[] index = new int[units];
+        int[] low = new int[units];
+        boolean[] onStack = new boolean[units];
+        int[] stack = new int[units];
+        int stackSize = 0;
+        int[] callStack = new int[units];
+        int[] nextEdge = new int[units];
+        int next = 1;
+        int finished = 0;
+
+        for (int root = 0; root < units; root++) {
+            if (index[root] != 0) { continue; }
+
+            int depth = 0;
+            callStack[0] = root;
+            index[root] = low[root] = next++;
+            nextEdge[root] = edgeStarts[root];
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int v = callStack[depth];
+                if (nextEdge[v] < edgeStarts[v + 1]) {
+                    int w = edges[nextEdge[v]++];
+                    if (index[w] == 0) {
+                        index[w] = low[w] = next++;
+                        nextEdge[w] = edgeStarts[w];
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[++depth] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+
+                if (low[v] == index[v]) {
+                    int start = finished;
+                    int w;
+                    do {
+                        w = stack[--stackSize];
+                        onStack[w] = false;
+                        componentOf[w] = components;
+                        members[finished++] = w;
+                    } while (w != v);
+                    Arrays.sort(members, start, finished);
+                    memberStarts[++components] = finished;
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callStack[depth];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+            }
+        }
+    }
+
+    private void checkLets() throws CompilerError {
+        for (int c = 0; c < components; c++) {
+            int first = members[memberStarts[c]];
+            boolean cyclic = memberStarts[c + 1] - memberStarts[c] > 1;
+            for (int j = edgeStarts[first]; j < edgeStarts[first + 1]; j++) {
+                if (edges[j] == first) { cyclic = true; }
+            }
+            if (!cyclic) { continue; }
+
+            for (int i = memberStarts[c]; i < memberStarts[c + 1]; i++) {
+                Binding<String, Parsed> b = bindings[members[i]];
+                if (b != null) {
+                    throw CompilerError.check(locations[members[i]], "The global " + b.references.get(0).name + " depends on its own value.");
+                }
+            }
+        }
+    }
+
+    private void findKeys(ArrayList<Resolution> rs) {
+        StructuralHash[] hashes = new StructuralHash[rs.size()];
+        keys = new long[components];
+        for (int c = 0; c < components; c++) {
+            long key = memberStarts[c + 1] - memberStarts[c];
+            for (int i = memberStarts[c]; i < memberStarts[c + 1]; i++) {
+                int u = members[i];
+                int d = declarations[u];
+                if (hashes[d] == null) { hashes[d] = StructuralHash.of(rs.get(d).declaration); }
+                key = StructuralHash.combine(key, bindings[u] == null ? hashes[d].declaration() : hashes[d].hash(bindings[u]));
+            }
+
+            // The dependencies' keys are sorted, so that moving code around
+            // doesn't change the key.
+            int[] dependencies = dependencies(c);
+            long[] dependencyKeys = new long[dependencies.length];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencyKeys[i] = keys[dependencies[i]];
+            }
+            Arrays.sort(dependencyKeys);
+            for (long k: dependencyKeys) {
+                key = StructuralHash.combine(key, k);
+            }
+            keys[c] = key;
+        }
+    }
+}
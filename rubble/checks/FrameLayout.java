@@ -0,0 +1,201 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+
+import rubble.data.AST.*;
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * Lays out the stack frame of a function.  Each argument and local gets a
+ * byte offset in the frame, sized and aligned by its type.  The frame is
+ * used like a stack: a block's locals go on top of whatever is live when the
+ * block begins, and are popped when it ends, so blocks that can't be live
+ * at the same time (the branches of an if, or two blocks one after the
+ * other) share the same bytes.
+ *
+ * Each slot is sized by the type inferred for its name, not the one it was
+ * annotated with, so an unannotated let is as wide as its value.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class FrameLayout {
+
+    private static final int WORD = 8;
+
+    /** The size of the frame in bytes. */
+    public int size = 0;
+
+    private int[] argumentOffsets;
+    private int[] localOffsets = new int[16];
+    private int top = 0;
+
+    private FrameLayout() { }
+
+    /**
+     * Lays out the frame of the function an inference belongs to.
+     *
+     * @param inference The inference of a Def.
+     * @return The layout.
+     * @throws CompilerError If the frame would be too large.
+     */
+    public static FrameLayout of(Inference inference) throws CompilerError {
+        Def<String, Parsed> def = (Def<String, Parsed>)inference.resolution.declaration;
+        FrameLayout frame = new FrameLayout();
+
+        frame.argumentOffsets = new int[inference.table.arguments.length];
+        for (int i = 0; i < frame.argumentOffsets.length; i++) {
+            frame.argumentOffsets[i] = frame.allocate(def.loc, inference.table.arguments[i]);
+        }
+
+        frame.block(inference, def.body);
+        return frame;
+    }
+
+    public int offset(Argument a) {
+        return argumentOffsets[a.index];
+    }
+
+    public int offset(Local l) {
+        return localOffsets[l.index];
+    }
+
+
+    private int allocate(Location loc, Type<ResolvedName, Poly> type) throws CompilerError {
+        int width = width(loc, type);
+        int alignment = alignment(loc, type);
+        long offset = ((long)top + alignment - 1) / alignment * alignment;
+        if (offset + width > Integer.MAX_VALUE) {
+            throw CompilerError.check(loc, "The stack frame is too large.");
+        }
+        top = (int)offset + width;
+        size = Math.max(size, top);
+        return (int)offset;
+    }
+
+    private void block(Inference inference, ArrayList<Statement<String, Parsed>> body) throws CompilerError {
+        int start = top;
+        for (Statement<String, Parsed> s: body) {
+            statement(inference, s);
+        }
+        top = start;
+    }
+
+    private void statement(Inference inference, Statement<String, Parsed> s) throws CompilerError {
+        switch (s.tag) {
+        case Forever:
+            block(inference, ((Forever<String, Parsed>)s).body);
+            break;
+
+        case IfS:
+            IfS<String, Parsed> ifs = (IfS<String, Parsed>)s;
+            block(inference, ifs.trueBranch);
+            block(inference, ifs.falseBranch);
+            break;
+
+        case Let:
+            for (Binding<String, Parsed> b: ((Let<String, Parsed>)s).bindings) {
+                for (ResolvedName name: inference.resolution.bound(b)) {
+                    Local l = (Local)name;
+                    if (l.index >= localOffsets.length) {
+                        int[] newOffsets = new int[Math.max(2 * localOffsets.length, l.index + 1)];
+                        System.arraycopy(localOffsets, 0, newOffsets, 0, localOffsets.length);
+                        localOffsets = newOffsets;
+                    }
+                    localOffsets[l.index] = allocate(b.loc, inference.type(l));
+                }
+            }
+            break;
+
+        case Nested:
+            block(inference, ((Nested<String, Parsed>)s).body);
+            break;
+
+        default:
+            // The rest define no names.
+        }
+    }
+
+
+    /**
+     * The number of bytes a value of the type takes.
+     *
+     * @param loc Where the value is, to report a type too large to fit.
+     * @throws CompilerError If the width doesn't fit in an int.
+     */
+    public static int width(Location loc, Type<?, ?> type) throws CompilerError {
+        switch (type.tag) {
+        case Buffer:
+            Buffer<?, ?> buffer = (Buffer<?, ?>)type;
+            Nat<?, ?> n = buffer.size;
+            if (n.tag == NatTag.NatKnown) { n = ((NatKnown<?, ?>)n).nat; }
+            if (n.tag != NatTag.NatLiteral) { return WORD; }
+            long size = ((NatLiteral)n).value;
+            int contained = width(loc, buffer.contained);
+            if (contained != 0 && size > Integer.MAX_VALUE / contained) {
+                throw CompilerError.check(loc, "The buffer of " + size + " elements is too large.");
+            }
+            return (int)size * contained;
+
+        case Ground:
+            switch (((Ground)type).groundTag) {
+            case Boolean: case Int8: case UInt8: return 1;
+            case Int16: case UInt16: return 2;
+            case Int32: case UInt32: return 4;
+            case Int64: case UInt64: return 8;
+            default: return 0;
+            }
+
+        case Known:
+            return width(loc, ((Known<?, ?>)type).type);
+
+        case Tuple:
+            long offset = 0;
+            for (Variable<?, ?> member: ((Types.Tuple<?, ?>)type).members) {
+                int alignment = alignment(loc, member.type);
+                offset = (offset + alignment - 1) / alignment * alignment + width(loc, member.type);
+                if (offset > Integer.MAX_VALUE) {
+                    throw CompilerError.check(loc, "The tuple is too large.");
+                }
+            }
+            // Pad the end so that the tuples in a buffer stay aligned.
+            int tupleAlignment = alignment(loc, type);
+            offset = (offset + tupleAlignment - 1) / tupleAlignment * tupleAlignment;
+            if (offset > Integer.MAX_VALUE) {
+                throw CompilerError.check(loc, "The tuple is too large.");
+            }
+            return (int)offset;
+
+        default:
+            // Arrows and pointers are addresses, and unknowns get a word.
+            return WORD;
+        }
+    }
+
+    private static int alignment(Location loc, Type<?, ?> type) throws CompilerError {
+        switch (type.tag) {
+        case Buffer:
+            return alignment(loc, ((Buffer<?, ?>)type).contained);
+
+        case Known:
+            return alignment(loc, ((Known<?, ?>)type).type);
+
+        case Tuple:
+            int alignment = 1;
+            for (Variable<?, ?> member: ((Types.Tuple<?, ?>)type).members) {
+                alignment = Math.max(alignment, alignment(loc, member.type));
+            }
+            return alignment;
+
+        default:
+            return Math.max(1, Math.min(WORD, width(loc, type)));
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package rubble.checks;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 import rubble.data.AST;
 import rubble.data.CompilerError;
 import rubble.data.Types.*;
+import rubble.data.Visitor;
 
 
 /**
@@ -18,86 +21,134 @@ import rubble.data.Types.*;
 public final class FunctionsReturn {
     
     /**
-     * Checks that each function must return a value.  If a loop contains
-     * a break, it assumes the break will be taken.  If a conditional exists,
-     * it assumes that both legs can be taken.
+     * Checks that each function must return a value, which is whether the
+     * end of its body can be reached.  Every break is assumed to be taken,
+     * and both legs of every conditional, as in ControlFlow.
      * 
      * @param loc
      * @param declarations
      * @throws CompilerError
      */
     public static void ensureFunctionsReturn(ArrayList<AST.Declaration<String, Parsed>> declarations) throws CompilerError {
-        for (AST.Declaration<String, Parsed> d: declarations) {
-            if (d.tag == AST.DeclarationTag.Def) {
-                if (statementsReturn(((AST.Def<String, Parsed>)d).body) >= 0) {
-                    throw CompilerError.check(d.loc, "The function may reach the end of control flow without returning a value.");
-                }
-            }
-        }
+        new PassManager(false).add(pass()).run(declarations);
     }
     
     /**
-     * Checks whether a list of statements returns or is broken out of.  If it
-     * returns or has a nonterminating loop, the value returned is negative.
-     * If it is broken out of, the value returned is the number of loops
-     * beside the current one to escape.  If it does not return, the value
-     * is 0.  I have guaranteed elsewhere that break statements can't escape,
-     * so I don't need to worry about that here.
+     * The same check as a pass, which looks at declarations and statements.
      * 
-     * @param body
-     * @return 0 if the statements return, a small number if the
-     * statements are broken out of, and a negative number otherwise.
-     * @throws CompilerError
+     * @return The pass, named "FunctionsReturn".
      */
-    private static int statementsReturn(ArrayList<AST.Statement<String, Parsed>> body) throws CompilerError {
-        for (int i = body.size() - 1; i >= 0; i--) {
-            
-            AST.Statement<String, Parsed> stmt = body.get(i);
-            int depth;
+    public static PassManager.Pass pass() {
+        return new PassManager.Pass("FunctionsReturn", EnumSet.of(PassManager.Kind.Declaration, PassManager.Kind.Statement)) {
+            public Visitor<String, Parsed> visitor(PassManager.Context context, AST.Declaration<String, Parsed> d) {
+                return new Reachability(context);
+            }
+        };
+    }
+    
+    /**
+     * Follows whether the statement being entered can be reached, in the
+     * order the walk enters them.  A loop's end can be reached if a break
+     * out of it can, and an if's end if the end of either branch can.  The
+     * walk doesn't say where an if's true branch ends, so the if's frame
+     * knows its false branch by its first statement.
+     */
+    private static final class Reachability extends Visitor<String, Parsed> {
+        
+        private final PassManager.Context context;
+        private boolean live;
+        
+        // For each enclosing loop, innermost last: whether a break out of it
+        // can be reached.
+        private boolean[] broken = new boolean[8];
+        private int loops = 0;
+        
+        // For each enclosing if, innermost last: the if, whether it can be
+        // reached, and once in the false branch, whether the end of the true
+        // branch can be.
+        private AST.IfS<?, ?>[] ifs = new AST.IfS<?, ?>[8];
+        private boolean[] before = new boolean[8];
+        private boolean[] trueEnd = new boolean[8];
+        private boolean[] inFalse = new boolean[8];
+        private int conditionals = 0;
+        
+        public Reachability(PassManager.Context context) {
+            this.context = context;
+        }
+        
+        public Action enterDeclaration(AST.Declaration<String, Parsed> d) {
+            if (d.tag != AST.DeclarationTag.Def) { return Action.Skip; }
+            live = true;
+            return Action.Continue;
+        }
+        
+        public void leaveDeclaration(AST.Declaration<String, Parsed> d) {
+            if (d.tag == AST.DeclarationTag.Def && live) {
+                context.report(CompilerError.check(d.loc, "The function may reach the end of control flow without returning a value."));
+            }
+        }
+        
+        public Action enterStatement(AST.Statement<String, Parsed> s) {
+            int top = conditionals - 1;
+            if (top >= 0 && !inFalse[top] && !ifs[top].falseBranch.isEmpty() && ifs[top].falseBranch.get(0) == s) {
+                trueEnd[top] = live;
+                inFalse[top] = true;
+                live = before[top];
+            }
             
-            switch (stmt.tag) {
+            switch (s.tag) {
             case Break:
-                return ((AST.Break<String, Parsed>)stmt).depth + 1;
+                if (live) { broken[loops - 1 - ((AST.Break<String, Parsed>)s).depth] = true; }
+                live = false;
+                break;
             
             case Forever:
-                depth = statementsReturn(((AST.Forever<String, Parsed>)stmt).body);
-                switch (depth) {
-                case 0:
-                    return -1;
-                case 1:
-                    break;
-                default:
-                    return depth - 1;
-                }
+                if (loops == broken.length) { broken = Arrays.copyOf(broken, 2 * loops); }
+                broken[loops++] = false;
                 break;
             
             case IfS:
-                AST.IfS<String, Parsed> ifs = (AST.IfS<String, Parsed>) stmt;
-                depth = Math.max(statementsReturn(ifs.trueBranch), statementsReturn(ifs.falseBranch));
-                switch(depth) {
-                case 0:
-                    break;
-                default:
-                    return depth;
+                if (conditionals == ifs.length) {
+                    int capacity = 2 * conditionals;
+                    ifs = Arrays.copyOf(ifs, capacity);
+                    before = Arrays.copyOf(before, capacity);
+                    trueEnd = Arrays.copyOf(trueEnd, capacity);
+                    inFalse = Arrays.copyOf(inFalse, capacity);
                 }
+                ifs[conditionals] = (AST.IfS<?, ?>)s;
+                before[conditionals] = live;
+                inFalse[conditionals] = false;
+                conditionals++;
                 break;
             
-            case Nested:
-                depth = statementsReturn(((AST.Nested<String, Parsed>)stmt).body);
-                switch (depth) {
-                case 0:
-                    break;
-                default:
-                    return depth;
-                }
+            case Return:
+                live = false;
+                break;
+            
+            default:
+                // Assign, Call, Let and Nested don't change the flow.
+            }
+            return Action.Continue;
+        }
+        
+        public void leaveStatement(AST.Statement<String, Parsed> s) {
+            switch (s.tag) {
+            case Forever:
+                live = broken[--loops];
+                break;
+            
+            case IfS:
+                conditionals--;
+                // An empty false branch ends where the if starts.
+                boolean falseEnd = inFalse[conditionals] ? live : before[conditionals];
+                boolean trueLive = inFalse[conditionals] ? trueEnd[conditionals] : live;
+                live = trueLive || falseEnd;
+                ifs[conditionals] = null;
                 break;
             
-            case Return:
-                return -1;
             default:
-                // Assign, Call, and Let have no nested statements.
+                // Only loops and ifs join flow back together.
             }
         }
-        return 0;
     }
 }
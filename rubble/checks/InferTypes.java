@@ -0,0 +1,161 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.RecursiveAction;
+
+import rubble.cache.TypeCache;
+import rubble.data.AST.*;
+import rubble.data.CompilerError;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * Driver for type inference.  This may go away.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class InferTypes {
+
+    /**
+     * Infers the types in each declaration, one result per declaration and
+     * in the same order.
+     *
+     * Functions declare their signatures, so only the global lets need
+     * inferring before anything else can use them.  They are inferred first,
+     * in the order Elaboration gives, and their types collected.  Then the
+     * functions are inferred in parallel, each with a unifier of its own.  A
+     * global let whose type isn't fully known by then is an error.  If there
+     * are errors, the one earliest in the source is thrown.
+     *
+     * @param rs The resolutions of the whole program.
+     * @return The inferred types of each declaration.
+     * @throws CompilerError
+     */
+    public static ArrayList<Inference> inferTypes(ArrayList<Resolution> rs) throws CompilerError {
+        return inferTypes(rs, null);
+    }
+
+    /**
+     * Infers the types in each declaration, taking the functions whose keys
+     * haven't changed from the cache and adding the rest to it.
+     */
+    public static ArrayList<Inference> inferTypes(ArrayList<Resolution> rs, TypeCache cache) throws CompilerError {
+        final int size = rs.size();
+        final Inference[] inferences = new Inference[size];
+        final CompilerError[] errors = new CompilerError[size];
+        final IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures = new IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>>();
+
+        // The bindings of a global let share a unifier, so it is inferred
+        // when the last of them comes up.
+        Elaboration elaboration = Elaboration.of(rs);
+        int[] order = elaboration.order();
+        int[] pending = new int[size];
+        for (int u: order) {
+            if (elaboration.binding(u) != null) { pending[elaboration.declaration(u)]++; }
+        }
+        for (int u: order) {
+            if (elaboration.binding(u) == null) { continue; }
+            int i = elaboration.declaration(u);
+            if (--pending[i] > 0) { continue; }
+
+            Resolution r = rs.get(i);
+            try {
+                inferences[i] = Inference.infer(r, signatures);
+            } catch (CompilerError e) {
+                errors[i] = e;
+                continue;
+            }
+            for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                for (ResolvedName name: r.bound(b)) {
+                    signatures.put(name, inferences[i].type(name));
+                }
+            }
+        }
+
+        // A global let whose type still has variables would be opaque to the
+        // declarations that use it, which would then never find its type.
+        for (int i = 0; i < size; i++) {
+            Resolution r = rs.get(i);
+            if (r.declaration.tag != DeclarationTag.GlobalLet || errors[i] != null) { continue; }
+            for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                ResolvedName[] names = r.bound(b);
+                for (int k = 0; k < names.length; k++) {
+                    if (errors[i] == null && Inference.hasVariables(signatures.get(names[k]))) {
+                        Variable<String, Parsed> v = b.references.get(k);
+                        errors[i] = CompilerError.type(v.loc, "The type of " + v.name + " can't be determined.");
+                    }
+                }
+            }
+        }
+
+        PassManager.pool.invoke(new Infer(rs, signatures, cache, inferences, errors, 0, size));
+
+        ArrayList<Inference> result = new ArrayList<Inference>(size);
+        for (int i = 0; i < size; i++) {
+            if (errors[i] != null) { throw errors[i]; }
+            result.add(inferences[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Infers the functions from start to end, splitting the range in half
+     * until there is only one.
+     */
+    private static final class Infer extends RecursiveAction {
+
+        public final static long serialVersionUID = 0;
+
+        private final ArrayList<Resolution> rs;
+        private final IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures;
+        private final TypeCache cache;
+        private final Inference[] inferences;
+        private final CompilerError[] errors;
+        private final int start;
+        private final int end;
+
+        public Infer(ArrayList<Resolution> rs, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures, TypeCache cache, Inference[] inferences, CompilerError[] errors, int start, int end) {
+            this.rs = rs;
+            this.signatures = signatures;
+            this.cache = cache;
+            this.inferences = inferences;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Infer(rs, signatures, cache, inferences, errors, start, middle),
+                          new Infer(rs, signatures, cache, inferences, errors, middle, end));
+                return;
+            }
+            if (start == end || rs.get(start).declaration.tag != DeclarationTag.Def) { return; }
+
+            Resolution r = rs.get(start);
+            long key = 0;
+            if (cache != null) {
+                key = TypeCache.key(r, signatures);
+                Inference.Table table = cache.get(key);
+                if (table != null) {
+                    inferences[start] = Inference.cached(r, table);
+                    return;
+                }
+            }
+
+            try {
+                inferences[start] = Inference.infer(r, signatures);
+            } catch (CompilerError e) {
+                errors[start] = e;
+                return;
+            }
+            if (cache != null) { cache.put(key, inferences[start].table); }
+        }
+    }
+}
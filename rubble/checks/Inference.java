@@ -0,0 +1,676 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import rubble.data.AST;
+import rubble.data.AST.*;
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Mode;
+import rubble.data.Names;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * Infers the types in one declaration.  Inference is local, as in C#: the
+ * types of the globals a declaration uses come from their signatures and
+ * are never changed by it, so every declaration can be inferred on its own,
+ * with a unifier of its own, once the signatures are known.
+ *
+ * A global whose signature still has variables in it is opaque: each use
+ * of it gets a copy of the signature with fresh variables in place of the
+ * signature's own, which belong to the declaration that defined it.  The
+ * use is checked against what the signature does fix, and what it leaves
+ * open is found again for each instance by Monomorphize.  The builtins are typed here, with the
+ * arithmetic and comparisons going through the type classes.
+ *
+ * Modes are constrained along with the types, in the direction values flow
+ * (see Unifier).  A value assigned, passed, returned, bound or annotated
+ * flows into where it goes, as do both branches of an if, so its modes only
+ * have to fit.  An assignment's names have to be var, and the pointers and
+ * buffers it writes through have to have var contents.  A pointer made by
+ * taking an address gets a mode variable, which can only be var if what it
+ * points to can be changed, and so can read-only uses of pointers and
+ * buffers, whose modes are then whatever the values used have.
+ *
+ * A function whose types are all written out is typed by Bidirectional
+ * instead, without a unifier.
+ *
+ * Once solved, the types are resolved into a Table, which is all later
+ * passes see, so that a table from the type cache can stand in for
+ * inferring the declaration again.
+ *
+ * Monomorphize infers functions again for each instance of their
+ * signatures, with the uses of opaque globals pinned to the types of the
+ * specializations they were matched with.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Inference {
+
+    /**
+     * The solved types of a declaration: the type of each expression and
+     * l-value by node id, and of each argument and local by index.  Other
+     * entries are null.
+     */
+    public static final class Table {
+
+        public final Type<ResolvedName, Poly>[] nodes;
+        public final Type<ResolvedName, Poly>[] arguments;
+        public final Type<ResolvedName, Poly>[] locals;
+
+        public Table(Type<ResolvedName, Poly>[] nodes, Type<ResolvedName, Poly>[] arguments, Type<ResolvedName, Poly>[] locals) {
+            this.nodes = nodes;
+            this.arguments = arguments;
+            this.locals = locals;
+        }
+    }
+
+    private static final Type<ResolvedName, Poly> BOOLEAN = ground(GroundTag.Boolean);
+    private static final Type<ResolvedName, Poly> UNIT = ground(GroundTag.Unit);
+
+    public final Resolution resolution;
+    public Table table;
+
+    /** The solved signature of a function, when it was instantiated. */
+    public Type<ResolvedName, Poly> signature;
+
+    // Only used while inferring.  The unsolved type of each expression and
+    // l-value is kept by node id.
+    private Unifier unifier;
+    private IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures;
+    private IdentityHashMap<ResolvedName, Boolean> own = new IdentityHashMap<ResolvedName, Boolean>();
+    private Type<?, ?>[] unsolved;
+    private ArrayList<Local> locals = new ArrayList<Local>();
+    private Type<ResolvedName, Poly>[] pins;
+
+    private Inference(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures) {
+        this.resolution = r;
+        this.unifier = new Unifier(r.typeVars, r.natVars);
+        this.signatures = signatures;
+        this.unsolved = new Type<?, ?>[r.nodes];
+    }
+
+    private Inference(Resolution r, Table table) {
+        this.resolution = r;
+        this.table = table;
+    }
+
+    /**
+     * The inference of a declaration whose types were already solved.
+     */
+    public static Inference cached(Resolution r, Table table) {
+        return new Inference(r, table);
+    }
+
+    /**
+     * Infers the types in a resolved declaration.
+     *
+     * @param r
+     * @param signatures The inferred types of the globals defined by global
+     *        lets, where they are known.  Other globals use the types they
+     *        were declared with.
+     * @return The inferred types.
+     * @throws CompilerError
+     */
+    public static Inference infer(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures) throws CompilerError {
+        return infer(r, signatures, null, null);
+    }
+
+    /**
+     * Infers the types in a resolved declaration again for one instance of
+     * it.  The variables the instance doesn't fix are inferred as usual.
+     *
+     * @param r
+     * @param signatures As for infer().
+     * @param instance For a function, its signature with some of the
+     *        variables substituted.  Null for a global let.
+     * @param pins The types of the uses of opaque globals, by node id.  A
+     *        use without one is still opaque.  Pins have no variables.
+     * @return The inferred types.
+     * @throws CompilerError
+     */
+    public static Inference instantiate(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures, Type<ResolvedName, Poly> instance, Type<ResolvedName, Poly>[] pins) throws CompilerError {
+        return infer(r, signatures, instance, pins);
+    }
+
+    private static Inference infer(Resolution r, IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures, Type<ResolvedName, Poly> instance, Type<ResolvedName, Poly>[] pins) throws CompilerError {
+        if (instance == null && r.declaration.tag == DeclarationTag.Def) {
+            Table table = Bidirectional.check(r, signatures);
+            if (table != null) { return new Inference(r, table); }
+        }
+
+        Inference inference = new Inference(r, signatures);
+        inference.pins = pins;
+
+        switch (r.declaration.tag) {
+        case Def:
+            Def<String, Parsed> def = (Def<String, Parsed>)r.declaration;
+            Global global = r.global(def);
+            if (instance != null) { inference.unifier.unify(def.loc, global.type, instance); }
+            inference.own.put(global, true);
+            inference.block(def.body);
+            inference.unifier.defaults();
+            inference.unifier.modes();
+            if (instance != null) { inference.signature = inference.unifier.resolve(global.type); }
+            break;
+
+        case GlobalLet:
+            for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                for (ResolvedName name: r.bound(b)) {
+                    inference.own.put(name, true);
+                }
+            }
+            for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                inference.binding(b);
+            }
+            inference.unifier.defaults();
+            inference.unifier.modes();
+            break;
+        }
+
+        inference.table = inference.solved();
+        inference.unifier = null;
+        inference.signatures = null;
+        inference.own = null;
+        inference.unsolved = null;
+        inference.locals = null;
+        inference.pins = null;
+        return inference;
+    }
+
+    public Type<ResolvedName, Poly> type(Expression<String, Parsed> e) {
+        return table.nodes[e.id];
+    }
+
+    public Type<ResolvedName, Poly> type(LValue<String, Parsed> l) {
+        return table.nodes[l.id];
+    }
+
+    /**
+     * The inferred type of an argument or local of this declaration, or of
+     * a global it defines.
+     */
+    public Type<ResolvedName, Poly> type(ResolvedName name) {
+        switch (name.tag) {
+        case Argument:
+            return table.arguments[((Argument)name).index];
+        case Local:
+            return table.locals[((Local)name).index];
+        default:
+            // A global let's names get their types from the values bound.
+            if (resolution.declaration.tag == DeclarationTag.GlobalLet) {
+                for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)resolution.declaration).bindings) {
+                    ResolvedName[] names = resolution.bound(b);
+                    for (int i = 0; i < names.length; i++) {
+                        if (names[i] != name) { continue; }
+                        Type<ResolvedName, Poly> t = table.nodes[b.value.id];
+                        return (names.length == 1) ? t : ((Types.Tuple<ResolvedName, Poly>)t).members.get(i).type;
+                    }
+                }
+            }
+            return name.type;
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private Table solved() {
+        Type<ResolvedName, Poly>[] nodes = (Type<ResolvedName, Poly>[])new Type<?, ?>[unsolved.length];
+        for (int id = 0; id < unsolved.length; id++) {
+            if (unsolved[id] != null) { nodes[id] = unifier.resolve(unsolved[id]); }
+        }
+
+        ResolvedName[] names = (resolution.declaration.tag == DeclarationTag.Def) ? resolution.arguments((Def<String, Parsed>)resolution.declaration) : new ResolvedName[0];
+        Type<ResolvedName, Poly>[] arguments = (Type<ResolvedName, Poly>[])new Type<?, ?>[names.length];
+        for (int i = 0; i < names.length; i++) {
+            arguments[i] = unifier.resolve(names[i].type);
+        }
+
+        int localCount = 0;
+        for (Local l: locals) {
+            localCount = Math.max(localCount, l.index + 1);
+        }
+        Type<ResolvedName, Poly>[] localTypes = (Type<ResolvedName, Poly>[])new Type<?, ?>[localCount];
+        for (Local l: locals) {
+            localTypes[l.index] = unifier.resolve(l.type);
+        }
+        return new Table(nodes, arguments, localTypes);
+    }
+
+    private void block(ArrayList<Statement<String, Parsed>> body) throws CompilerError {
+        for (Statement<String, Parsed> s: body) {
+            statement(s);
+        }
+    }
+
+    private void statement(Statement<String, Parsed> s) throws CompilerError {
+        switch (s.tag) {
+        case Assign:
+            Assign<String, Parsed> assign = (Assign<String, Parsed>)s;
+            expression(assign.value);
+            lValue(assign.lValue);
+            unifier.flow(assign.value.loc, typeOf(assign.lValue), typeOf(assign.value));
+            break;
+
+        case Call:
+            Call<String, Parsed> call = (Call<String, Parsed>)s;
+            apply(s.loc, call.function, call.argument, unifier.fresh());
+            break;
+
+        case Forever:
+            block(((Forever<String, Parsed>)s).body);
+            break;
+
+        case IfS:
+            IfS<String, Parsed> ifs = (IfS<String, Parsed>)s;
+            expression(ifs.cond);
+            unifier.unify(ifs.cond.loc, BOOLEAN, typeOf(ifs.cond));
+            block(ifs.trueBranch);
+            block(ifs.falseBranch);
+            break;
+
+        case Let:
+            for (Binding<String, Parsed> b: ((Let<String, Parsed>)s).bindings) {
+                binding(b);
+            }
+            break;
+
+        case Nested:
+            block(((Nested<String, Parsed>)s).body);
+            break;
+
+        case Return:
+            Expression<String, Parsed> value = ((Return<String, Parsed>)s).value;
+            expression(value);
+            unifier.flow(value.loc, resolution.returnType((Def<String, Parsed>)resolution.declaration), typeOf(value));
+            break;
+
+        default:
+            // Break has no types in it.
+        }
+    }
+
+    /**
+     * A binding of one name gives it the value's type.  A binding of several
+     * gives the value a tuple type with one member per name.
+     */
+    private void binding(Binding<String, Parsed> b) throws CompilerError {
+        expression(b.value);
+        ResolvedName[] names = resolution.bound(b);
+        for (ResolvedName name: names) {
+            if (name.tag == Names.Tag.Local) { locals.add((Local)name); }
+        }
+        if (names.length == 1) {
+            unifier.flow(b.value.loc, names[0].type, typeOf(b.value));
+            return;
+        }
+
+        ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+        for (int i = 0; i < names.length; i++) {
+            members.add(new Variable<ResolvedName, Poly>(b.references.get(i).loc, names[i].mode, names[i].source, names[i].type));
+        }
+        unifier.flow(b.value.loc, new Types.Tuple<ResolvedName, Poly>(members), typeOf(b.value));
+    }
+
+    private void expression(Expression<String, Parsed> e) throws CompilerError {
+        Type<ResolvedName, Poly> type = typeOf(e);
+        unsolved[e.id] = type;
+
+        switch (e.tag) {
+        case AddressOf:
+            Expression<String, Parsed> pointee = ((AddressOf<String, Parsed>)e).value;
+            expression(pointee);
+            int mode = unifier.freshMode();
+            place(e.loc, pointee, mode);
+            unifier.flow(e.loc, type, new Ptr<ResolvedName, Poly>(mode, typeOf(pointee)));
+            break;
+
+        case Apply:
+            Apply<String, Parsed> apply = (Apply<String, Parsed>)e;
+            apply(e.loc, apply.function, apply.argument, type);
+            break;
+
+        case AsType:
+            Expression<String, Parsed> value = ((AsType<String, Parsed>)e).value;
+            expression(value);
+            unifier.flow(e.loc, type, typeOf(value));
+            break;
+
+        case BufferLiteral:
+            ArrayList<Expression<String, Parsed>> es = ((BufferLiteral<String, Parsed>)e).es;
+            TypeVar contained = unifier.fresh();
+            for (Expression<String, Parsed> element: es) {
+                expression(element);
+                unifier.flow(element.loc, contained, typeOf(element));
+            }
+            Nat<ResolvedName, Poly> size = new NatKnown<ResolvedName, Poly>(new NatLiteral(es.size()));
+            // A literal is a new buffer, so its contents are as var as
+            // whatever it's bound to says they are.
+            unifier.flow(e.loc, type, new Types.Buffer<ResolvedName, Poly>(size, Mode.Var, contained));
+            break;
+
+        case IfE:
+            IfE<String, Parsed> ife = (IfE<String, Parsed>)e;
+            expression(ife.cond);
+            expression(ife.trueBranch);
+            expression(ife.falseBranch);
+            unifier.unify(ife.cond.loc, BOOLEAN, typeOf(ife.cond));
+            unifier.flow(ife.trueBranch.loc, type, typeOf(ife.trueBranch));
+            unifier.flow(ife.falseBranch.loc, type, typeOf(ife.falseBranch));
+            break;
+
+        case Index:
+            Index<String, Parsed> index = (Index<String, Parsed>)e;
+            expression(index.base);
+            expression(index.offset);
+            unifier.constrain(index.offset.loc, typeOf(index.offset), TypeClass.Index);
+            unifier.unify(index.base.loc, new Types.Buffer<ResolvedName, Poly>(unifier.freshNat(), unifier.freshMode(), type), typeOf(index.base));
+            break;
+
+        case Number:
+            unifier.constrain(e.loc, type, TypeClass.Num);
+            break;
+
+        case Tuple:
+            ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (Expression<String, Parsed> element: ((AST.Tuple<String, Parsed>)e).es) {
+                expression(element);
+                members.add(new Variable<ResolvedName, Poly>(element.loc, Mode.Const, "", typeOf(element)));
+            }
+            unifier.unify(e.loc, type, new Types.Tuple<ResolvedName, Poly>(members));
+            break;
+
+        case ValueAt:
+            Expression<String, Parsed> address = ((ValueAt<String, Parsed>)e).value;
+            expression(address);
+            unifier.unify(address.loc, new Ptr<ResolvedName, Poly>(unifier.freshMode(), type), typeOf(address));
+            break;
+
+        case Variable:
+            variable(e.loc, e.id, resolution.name((Reference<String, Parsed>)e), type);
+            break;
+        }
+    }
+
+    private void lValue(LValue<String, Parsed> l) throws CompilerError {
+        Type<ResolvedName, Poly> type = typeOf(l);
+        unsolved[l.id] = type;
+
+        switch (l.tag) {
+        case Direct:
+            ResolvedName name = resolution.name((Direct<String, Parsed>)l);
+            if (name.mode != Mode.Var) {
+                throw CompilerError.check(l.loc, "The name " + name.source + " isn't var, so it can't be assigned.");
+            }
+            variable(l.loc, l.id, name, type);
+            break;
+
+        case IndexL:
+            IndexL<String, Parsed> indexL = (IndexL<String, Parsed>)l;
+            lValue(indexL.base);
+            expression(indexL.offset);
+            unifier.constrain(indexL.offset.loc, typeOf(indexL.offset), TypeClass.Index);
+            unifier.unify(indexL.base.loc, new Types.Buffer<ResolvedName, Poly>(unifier.freshNat(), Mode.Var, type), typeOf(indexL.base));
+            break;
+
+        case Indirect:
+            Expression<String, Parsed> address = ((Indirect<String, Parsed>)l).address;
+            expression(address);
+            unifier.flow(address.loc, new Ptr<ResolvedName, Poly>(Mode.Var, type), typeOf(address));
+            break;
+
+        case TupleL:
+            ArrayList<Variable<ResolvedName, Poly>> members = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (LValue<String, Parsed> element: ((TupleL<String, Parsed>)l).lValues) {
+                lValue(element);
+                members.add(new Variable<ResolvedName, Poly>(element.loc, Mode.Var, "", typeOf(element)));
+            }
+            unifier.unify(l.loc, type, new Types.Tuple<ResolvedName, Poly>(members));
+            break;
+        }
+    }
+
+    /**
+     * Types a use of a name, whose value flows into the use.
+     */
+    private void variable(Location loc, int id, ResolvedName name, Type<ResolvedName, Poly> type) throws CompilerError {
+        switch (name.tag) {
+        case Builtin:
+            if (name.source.equals("true") || name.source.equals("false")) {
+                unifier.unify(loc, BOOLEAN, type);
+            } else if (name.source.equals("()")) {
+                unifier.unify(loc, UNIT, type);
+            }
+            // The operators are typed where they are applied.
+            break;
+
+        case Global:
+            if (own.containsKey(name)) {
+                unifier.flow(loc, type, name.type);
+                break;
+            }
+            Type<ResolvedName, Poly> signature = signatures.containsKey(name) ? signatures.get(name) : name.type;
+            if (signature != null && !hasVariables(signature)) {
+                unifier.flow(loc, type, signature);
+            } else if (pins != null && pins[id] != null) {
+                unifier.flow(loc, type, pins[id]);
+            } else if (signature != null) {
+                unifier.flow(loc, type, instantiate(signature, new HashMap<Integer, TypeVar>(), new HashMap<Integer, NatVar>()));
+            }
+            break;
+
+        default:
+            unifier.flow(loc, type, name.type);
+        }
+    }
+
+    /**
+     * A copy of an opaque global's signature with a fresh variable for each
+     * of its variables, the same one wherever that variable appears.
+     */
+    @SuppressWarnings("unchecked")
+    private Type<ResolvedName, Poly> instantiate(Type<?, ?> t, HashMap<Integer, TypeVar> types, HashMap<Integer, NatVar> nats) {
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+            return new Arrow<ResolvedName, Poly>(instantiate(arrow.domain, types, nats), instantiate(arrow.codomain, types, nats));
+
+        case Buffer:
+            Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+            return new Types.Buffer<ResolvedName, Poly>(instantiate(buffer.size, nats), buffer.containedMode, instantiate(buffer.contained, types, nats));
+
+        case Ptr:
+            Ptr<?, ?> ptr = (Ptr<?, ?>)t;
+            return new Ptr<ResolvedName, Poly>(ptr.pointeeMode, instantiate(ptr.pointee, types, nats));
+
+        case Tuple:
+            return new Types.Tuple<ResolvedName, Poly>(instantiate(((Types.Tuple<?, ?>)t).members, types, nats));
+
+        case TypeVar:
+            TypeVar fresh = types.get(((TypeVar)t).id);
+            if (fresh == null) {
+                fresh = unifier.fresh();
+                types.put(((TypeVar)t).id, fresh);
+            }
+            return fresh;
+
+        default:
+            // Ground types have no variables.
+            return (Type<ResolvedName, Poly>)t;
+        }
+    }
+
+    private ArrayList<Variable<ResolvedName, Poly>> instantiate(ArrayList<? extends Variable<?, ?>> vs, HashMap<Integer, TypeVar> types, HashMap<Integer, NatVar> nats) {
+        ArrayList<Variable<ResolvedName, Poly>> result = new ArrayList<Variable<ResolvedName, Poly>>();
+        for (Variable<?, ?> v: vs) {
+            result.add(new Variable<ResolvedName, Poly>(v.loc, v.mode, v.name, instantiate(v.type, types, nats)));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Nat<ResolvedName, Poly> instantiate(Nat<?, ?> n, HashMap<Integer, NatVar> nats) {
+        if (n.tag != NatTag.NatVar) { return (Nat<ResolvedName, Poly>)n; }
+        NatVar fresh = nats.get(((NatVar)n).index);
+        if (fresh == null) {
+            fresh = unifier.freshNat();
+            nats.put(((NatVar)n).index, fresh);
+        }
+        return fresh;
+    }
+
+    /**
+     * Types an application, whose result has the given type.  The builtin
+     * operators take a tuple of two operands, except not and negate, which
+     * take one.
+     */
+    private void apply(Location loc, Expression<String, Parsed> function, Expression<String, Parsed> argument, Type<ResolvedName, Poly> result) throws CompilerError {
+        expression(function);
+        expression(argument);
+
+        if (function.tag == ExpressionTag.Variable && resolution.name((Reference<String, Parsed>)function).tag == Names.Tag.Builtin) {
+            builtin(loc, resolution.name((Reference<String, Parsed>)function).source, argument, result);
+            return;
+        }
+
+        Type<?, ?> f = unifier.shallow(typeOf(function));
+        if (f.tag != Types.Tag.Arrow) {
+            ArrayList<Variable<ResolvedName, Poly>> domain = new ArrayList<Variable<ResolvedName, Poly>>();
+            domain.add(new Variable<ResolvedName, Poly>(argument.loc, Mode.Const, "", typeOf(argument)));
+            unifier.unify(function.loc, typeOf(function), new Arrow<ResolvedName, Poly>(domain, result));
+            return;
+        }
+
+        Arrow<?, ?> arrow = (Arrow<?, ?>)f;
+        if (arrow.domain.size() == 1) {
+            unifier.flow(argument.loc, arrow.domain.get(0).type, typeOf(argument));
+        } else if (argument.tag == ExpressionTag.Tuple && ((AST.Tuple<String, Parsed>)argument).es.size() == arrow.domain.size()) {
+            ArrayList<Expression<String, Parsed>> es = ((AST.Tuple<String, Parsed>)argument).es;
+            for (int i = 0; i < es.size(); i++) {
+                unifier.flow(es.get(i).loc, arrow.domain.get(i).type, typeOf(es.get(i)));
+            }
+        } else {
+            throw CompilerError.type(argument.loc, "The function takes " + arrow.domain.size() + " arguments.");
+        }
+        unifier.flow(loc, result, arrow.codomain);
+    }
+
+    private void builtin(Location loc, String operator, Expression<String, Parsed> argument, Type<ResolvedName, Poly> result) throws CompilerError {
+        if (operator.equals("not")) {
+            unifier.unify(argument.loc, BOOLEAN, typeOf(argument));
+            unifier.unify(loc, BOOLEAN, result);
+            return;
+        }
+        if (operator.equals("negate")) {
+            unifier.constrain(argument.loc, typeOf(argument), TypeClass.Signed);
+            unifier.unify(loc, result, typeOf(argument));
+            return;
+        }
+
+        if (argument.tag != ExpressionTag.Tuple || ((AST.Tuple<String, Parsed>)argument).es.size() != 2) {
+            throw CompilerError.type(argument.loc, "The operator " + operator + " takes two operands.");
+        }
+        Expression<String, Parsed> left = ((AST.Tuple<String, Parsed>)argument).es.get(0);
+        Expression<String, Parsed> right = ((AST.Tuple<String, Parsed>)argument).es.get(1);
+        unifier.unify(right.loc, typeOf(left), typeOf(right));
+
+        if (operator.equals("&&") || operator.equals("||")) {
+            unifier.unify(left.loc, BOOLEAN, typeOf(left));
+            unifier.unify(loc, BOOLEAN, result);
+        } else if (operator.equals("==") || operator.equals("!=")) {
+            unifier.constrain(left.loc, typeOf(left), TypeClass.Eq);
+            unifier.unify(loc, BOOLEAN, result);
+        } else if (operator.equals("<") || operator.equals(">") || operator.equals("<=") || operator.equals(">=")) {
+            unifier.constrain(left.loc, typeOf(left), TypeClass.Num);
+            unifier.unify(loc, BOOLEAN, result);
+        } else {
+            unifier.constrain(left.loc, typeOf(left), TypeClass.Num);
+            unifier.unify(loc, result, typeOf(left));
+        }
+    }
+
+    /**
+     * Constrains the mode of a pointer to what an expression refers to: it
+     * can only be var if what the expression refers to can be changed.
+     */
+    private void place(Location loc, Expression<String, Parsed> e, int mode) {
+        switch (e.tag) {
+        case AsType:
+            place(loc, ((AsType<String, Parsed>)e).value, mode);
+            break;
+
+        case Index:
+            Expression<String, Parsed> base = ((Index<String, Parsed>)e).base;
+            unifier.below(loc, "a pointer", unifier.mode(typeOf(base)), mode);
+            place(loc, base, mode);
+            break;
+
+        case ValueAt:
+            unifier.below(loc, "a pointer", unifier.mode(typeOf(((ValueAt<String, Parsed>)e).value)), mode);
+            break;
+
+        case Variable:
+            unifier.below(loc, "a pointer", Unifier.mode(resolution.name((Reference<String, Parsed>)e).mode), mode);
+            break;
+
+        default:
+            unifier.below(loc, "a pointer", Unifier.CONST, mode);
+        }
+    }
+
+    /**
+     * The type of an expression before solving: its annotation, or its type
+     * variable.
+     */
+    private Type<ResolvedName, Poly> typeOf(Expression<String, Parsed> e) {
+        Type<ResolvedName, Poly> annotation = resolution.annotation(e);
+        return (annotation != null) ? annotation : unifier.var(resolution.typeVar(e));
+    }
+
+    private Type<ResolvedName, Poly> typeOf(LValue<String, Parsed> l) {
+        Type<ResolvedName, Poly> annotation = resolution.annotation(l);
+        return (annotation != null) ? annotation : unifier.var(resolution.typeVar(l));
+    }
+
+    private static Type<ResolvedName, Poly> ground(GroundTag tag) {
+        return new Known<ResolvedName, Poly>(new Ground(tag));
+    }
+
+    static boolean hasVariables(Type<?, ?> t) {
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+            for (Variable<?, ?> v: arrow.domain) {
+                if (hasVariables(v.type)) { return true; }
+            }
+            return hasVariables(arrow.codomain);
+
+        case Buffer:
+            Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+            return buffer.size.tag == NatTag.NatVar || hasVariables(buffer.contained);
+
+        case Ptr:
+            return hasVariables(((Ptr<?, ?>)t).pointee);
+
+        case Tuple:
+            for (Variable<?, ?> v: ((Types.Tuple<?, ?>)t).members) {
+                if (hasVariables(v.type)) { return true; }
+            }
+            return false;
+
+        case TypeVar:
+            return true;
+
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+
+import rubble.data.AST.*;
+import rubble.data.Names;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.Types.*;
+import rubble.data.Visitor;
+
+/**
+ * Which arguments and locals of a function are live, that is, may still be
+ * read before they are next assigned, at the start and end of each block
+ * and each statement.
+ *
+ * Each argument and local has a slot: arguments first, by index, and then
+ * locals.  A set of slots is a bitset of words longs, and the sets of block
+ * b are in[b * words] up to in[(b + 1) * words], and likewise out.  None of
+ * these should be modified.
+ *
+ * Only a let or an assignment to the whole of a variable ends its life; an
+ * assignment to an element or through a pointer uses the pointer or buffer
+ * instead.  A variable whose address is taken can be read through the
+ * pointer at any time, so it is live everywhere.
+ *
+ * The sets are found by iterating backwards, in postorder, over the blocks
+ * whose successors have changed, so a body without loops takes one pass.
+ * The sets of the statements aren't kept: they are worked out from the end
+ * of their block when asked for, so only one thread should ask at a time,
+ * and beforeEach() is the way to ask for a whole block.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Liveness {
+
+    public final ControlFlow cfg;
+    private final Resolution r;
+
+    public final int arguments;
+    public final int slots;
+    public final int words;
+
+    public final long[] in;
+    public final long[] out;
+    /** The variables whose address is taken. */
+    public final long[] escaping;
+
+    // The slots a statement uses, set by the visitor below.
+    private long[] uses;
+    private final Visitor<String, Parsed> reads = new Visitor<String, Parsed>() {
+        public Action enterExpression(Expression<String, Parsed> e) {
+            if (e.tag == ExpressionTag.Variable) {
+                add(uses, slot(r.name((Reference<String, Parsed>)e)));
+            }
+            return Action.Continue;
+        }
+    };
+
+    private Liveness(Resolution r, ControlFlow cfg) {
+        this.cfg = cfg;
+        this.r = r;
+        Def<String, Parsed> def = (Def<String, Parsed>)r.declaration;
+
+        arguments = r.arguments(def).length;
+        final int[] locals = { 0 };
+        final ArrayList<Expression<String, Parsed>> addressed = new ArrayList<Expression<String, Parsed>>();
+        ArrayList<Def<String, Parsed>> d = new ArrayList<Def<String, Parsed>>();
+        d.add(def);
+        Visitor.walk(d, new Visitor<String, Parsed>() {
+            public Action enterBinding(Binding<String, Parsed> b) {
+                for (ResolvedName name: Liveness.this.r.bound(b)) {
+                    if (name.tag == Names.Tag.Local) { locals[0] = Math.max(locals[0], ((Local)name).index + 1); }
+                }
+                return Action.Continue;
+            }
+            public Action enterExpression(Expression<String, Parsed> e) {
+                if (e.tag == ExpressionTag.AddressOf) { addressed.add(((AddressOf<String, Parsed>)e).value); }
+                return Action.Continue;
+            }
+        });
+        slots = arguments + locals[0];
+        words = (slots + 63) >>> 6;
+
+        escaping = new long[words];
+        uses = escaping;
+        for (Expression<String, Parsed> e: addressed) {
+            Visitor.walkExpression(e, reads);
+        }
+
+        in = new long[cfg.blocks * words];
+        out = new long[cfg.blocks * words];
+        solve();
+    }
+
+    /**
+     * Finds which variables are live in a function.
+     *
+     * @param r The resolution of a Def.
+     * @param cfg The function's control-flow graph.
+     * @return The sets.
+     */
+    public static Liveness of(Resolution r, ControlFlow cfg) {
+        return new Liveness(r, cfg);
+    }
+
+    /**
+     * The slot of an argument or local, or -1 for any other name.
+     */
+    public int slot(ResolvedName name) {
+        switch (name.tag) {
+        case Argument:
+            return ((Argument)name).index;
+        case Local:
+            return arguments + ((Local)name).index;
+        default:
+            return -1;
+        }
+    }
+
+    public boolean liveIn(int block, int slot) {
+        return (in[block * words + (slot >>> 6)] & (1L << slot)) != 0;
+    }
+
+    public boolean liveOut(int block, int slot) {
+        return (out[block * words + (slot >>> 6)] & (1L << slot)) != 0;
+    }
+
+    /**
+     * The variables live before the statement at an index in cfg.statements.
+     */
+    public long[] before(int statement) {
+        return at(statement, true);
+    }
+
+    /**
+     * The variables live after the statement at an index in cfg.statements.
+     */
+    public long[] after(int statement) {
+        return at(statement, false);
+    }
+
+    /**
+     * The variables live before each statement in a block, in one pass: the
+     * set of statement i is at (i - cfg.statementStart[block]) * words.
+     */
+    public long[] beforeEach(int block) {
+        int first = cfg.statementStart[block];
+        int count = cfg.statementStart[block + 1] - first;
+        long[] sets = new long[count * words];
+        long[] live = new long[words];
+        System.arraycopy(out, block * words, live, 0, words);
+        for (int i = count - 1; i >= 0; i--) {
+            transfer(cfg.statements.get(first + i), live);
+            for (int w = 0; w < words; w++) { sets[i * words + w] = live[w] | escaping[w]; }
+        }
+        return sets;
+    }
+
+
+    private static void add(long[] set, int slot) {
+        if (slot >= 0) { set[slot >>> 6] |= 1L << slot; }
+    }
+
+    private static void remove(long[] set, int slot) {
+        if (slot >= 0) { set[slot >>> 6] &= ~(1L << slot); }
+    }
+
+    private long[] at(int statement, boolean before) {
+        // The block is the last whose statements start at or before this
+        // one, which can't be empty.
+        int low = 0;
+        int high = cfg.blocks - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (cfg.statementStart[middle] <= statement) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        long[] live = new long[words];
+        System.arraycopy(out, low * words, live, 0, words);
+        for (int i = cfg.statementStart[low + 1] - 1; i > statement || (before && i == statement); i--) {
+            transfer(cfg.statements.get(i), live);
+        }
+        for (int w = 0; w < words; w++) { live[w] |= escaping[w]; }
+        return live;
+    }
+
+    /**
+     * Takes what is live after a statement to what is live before it: first
+     * the variables it assigns are removed, then those it reads are added.
+     */
+    private void transfer(Statement<String, Parsed> s, long[] live) {
+        uses = live;
+        switch (s.tag) {
+        case Assign:
+            Assign<String, Parsed> assign = (Assign<String, Parsed>)s;
+            kill(assign.lValue, live);
+            read(assign.lValue);
+            Visitor.walkExpression(assign.value, reads);
+            break;
+
+        case Call:
+            Visitor.walkExpression(((Call<String, Parsed>)s).function, reads);
+            Visitor.walkExpression(((Call<String, Parsed>)s).argument, reads);
+            break;
+
+        case IfS:
+            Visitor.walkExpression(((IfS<String, Parsed>)s).cond, reads);
+            break;
+
+        case Let:
+            ArrayList<Binding<String, Parsed>> bindings = ((Let<String, Parsed>)s).bindings;
+            for (int i = bindings.size() - 1; i >= 0; i--) {
+                for (ResolvedName name: r.bound(bindings.get(i))) {
+                    remove(live, slot(name));
+                }
+                Visitor.walkExpression(bindings.get(i).value, reads);
+            }
+            break;
+
+        case Return:
+            Visitor.walkExpression(((Return<String, Parsed>)s).value, reads);
+            break;
+
+        default:
+            // Break, Forever and Nested are only edges in the graph.
+        }
+    }
+
+    private void kill(LValue<String, Parsed> l, long[] live) {
+        switch (l.tag) {
+        case Direct:
+            remove(live, slot(r.name((Direct<String, Parsed>)l)));
+            break;
+        case TupleL:
+            for (LValue<String, Parsed> m: ((TupleL<String, Parsed>)l).lValues) {
+                kill(m, live);
+            }
+            break;
+        default:
+            // Assigning to an element or through a pointer doesn't end the
+            // life of anything.
+        }
+    }
+
+    /**
+     * Adds what an l-value reads: the buffers it indexes, the offsets, and
+     * the pointers it assigns through.
+     */
+    private void read(LValue<String, Parsed> l) {
+        switch (l.tag) {
+        case IndexL:
+            IndexL<String, Parsed> index = (IndexL<String, Parsed>)l;
+            LValue<String, Parsed> base = index.base;
+            if (base.tag == LValueTag.Direct) {
+                add(uses, slot(r.name((Direct<String, Parsed>)base)));
+            } else {
+                read(base);
+            }
+            Visitor.walkExpression(index.offset, reads);
+            break;
+        case Indirect:
+            Visitor.walkExpression(((Indirect<String, Parsed>)l).address, reads);
+            break;
+        case TupleL:
+            for (LValue<String, Parsed> m: ((TupleL<String, Parsed>)l).lValues) {
+                read(m);
+            }
+            break;
+        default:
+            // A direct l-value reads nothing.
+        }
+    }
+
+    /**
+     * Iterates to a fixed point.  Each block's uses before any assignment
+     * and its assignments are summarised once, and then a block's in set is
+     * its uses and whatever is live out of it and not assigned.
+     */
+    private void solve() {
+        int blocks = cfg.blocks;
+        long[] gen = new long[blocks * words];
+        long[] kill = new long[blocks * words];
+        long[] live = new long[words];
+        long[] killed = new long[words];
+        long[] all = new long[words];
+        for (int b: cfg.order) {
+            for (int w = 0; w < words; w++) {
+                live[w] = 0;
+                killed[w] = 0;
+            }
+            for (int i = cfg.statementStart[b + 1] - 1; i >= cfg.statementStart[b]; i--) {
+                // What a statement assigns is what it removes from a full
+                // set.  Something it reads as well is put back, but then it
+                // is live before the statement anyway.
+                for (int w = 0; w < words; w++) { all[w] = -1L; }
+                transfer(cfg.statements.get(i), all);
+                transfer(cfg.statements.get(i), live);
+                for (int w = 0; w < words; w++) { killed[w] |= ~all[w]; }
+            }
+            System.arraycopy(live, 0, gen, b * words, words);
+            System.arraycopy(killed, 0, kill, b * words, words);
+        }
+
+        boolean[] pending = new boolean[blocks];
+        for (int b: cfg.order) { pending[b] = true; }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = cfg.order.length - 1; k >= 0; k--) {
+                int b = cfg.order[k];
+                if (!pending[b]) { continue; }
+                pending[b] = false;
+
+                int base = b * words;
+                for (int j = cfg.successorStart[b]; j < cfg.successorStart[b + 1]; j++) {
+                    int s = cfg.successors[j] * words;
+                    for (int w = 0; w < words; w++) { out[base + w] |= in[s + w]; }
+                }
+                boolean grew = false;
+                for (int w = 0; w < words; w++) {
+                    long next = gen[base + w] | (out[base + w] & ~kill[base + w]);
+                    if (next != in[base + w]) {
+                        in[base + w] = next;
+                        grew = true;
+                    }
+                }
+                if (!grew) { continue; }
+                for (int j = cfg.predecessorStart[b]; j < cfg.predecessorStart[b + 1]; j++) {
+                    int p = cfg.predecessors[j];
+                    if (cfg.reachable(p)) {
+                        pending[p] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (int b: cfg.order) {
+            for (int w = 0; w < words; w++) {
+                in[b * words + w] |= escaping[w];
+                out[b * words + w] |= escaping[w];
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package rubble.checks;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import rubble.data.AST;
 import rubble.data.CompilerError;
 import rubble.data.Location;
@@ -8,6 +9,7 @@ import rubble.data.Variable;
 import rubble.data.Names.*;
 import rubble.data.Types;
 import rubble.data.Types.*;
+import rubble.data.Visitor;
 
 
 /**
@@ -34,32 +36,69 @@ public final class MainExists {
      * @throws CompilerError
      */
     public static void ensureMainExists(Location loc, ArrayList<AST.Declaration<String, Parsed>> declarations) throws CompilerError {
-        boolean found = false;
-        for (AST.Declaration<String, Parsed> d: declarations) {
+        new PassManager(false).add(pass(loc)).run(declarations);
+    }
+    
+    /**
+     * The same check as a pass, which only looks at declarations, so the
+     * walk never goes into their bodies.  Whether main was found is only
+     * known once every declaration has been seen, and is forgotten when the
+     * next run starts.
+     * 
+     * @param loc
+     * @return The pass, named "MainExists".
+     */
+    public static PassManager.Pass pass(final Location loc) {
+        return new PassManager.Pass("MainExists", EnumSet.of(PassManager.Kind.Declaration)) {
+            private volatile boolean found = false;
             
-            if (d.tag == AST.DeclarationTag.Def) {
-                AST.Def<String, Parsed> def = (AST.Def<String, Parsed>)d;
-                
-                if (def.name.equals("main")) {
-                    Type<String, Parsed> returnType = def.returnType;
-                    if (!isSpecificGround(returnType, GroundTag.Int32)) {
-                        throw CompilerError.parse(def.loc, "main() must return an immutable Int32.");
-                    }
-                    
-                    ArrayList<Variable<String, Parsed>> args = def.arguments;
-                    if (args.size() != 1) {
-                        throw CompilerError.parse(def.loc, "main() must take one immutable () argument.");
-                    }
-                    
-                    Type<String, Parsed> type = args.get(0).type;
-                    if (!isSpecificGround(type, GroundTag.Unit)) {
-                        throw CompilerError.parse(def.loc, "main() must take one immutable () argument.");
+            public void start() {
+                found = false;
+            }
+            
+            public Visitor<String, Parsed> visitor(final PassManager.Context context, AST.Declaration<String, Parsed> d) {
+                return new Visitor<String, Parsed>() {
+                    public Action enterDeclaration(AST.Declaration<String, Parsed> d) {
+                        if (d.tag == AST.DeclarationTag.Def && ((AST.Def<String, Parsed>)d).name.equals("main")) {
+                            found = true;
+                            try {
+                                ensureMainType((AST.Def<String, Parsed>)d);
+                            } catch (CompilerError e) {
+                                context.report(e);
+                            }
+                        }
+                        return Action.Continue;
                     }
-                    found = true;
-                }
+                };
+            }
+            
+            public void finish() throws CompilerError {
+                if (!found) { throw CompilerError.parse(loc, "A function named main must exist."); }
             }
+        };
+    }
+    
+    /**
+     * Checks the type of main.
+     * 
+     * @param def
+     * @throws CompilerError
+     */
+    private static void ensureMainType(AST.Def<String, Parsed> def) throws CompilerError {
+        Type<String, Parsed> returnType = def.returnType;
+        if (!isSpecificGround(returnType, GroundTag.Int32)) {
+            throw CompilerError.parse(def.loc, "main() must return an immutable Int32.");
+        }
+        
+        ArrayList<Variable<String, Parsed>> args = def.arguments;
+        if (args.size() != 1) {
+            throw CompilerError.parse(def.loc, "main() must take one immutable () argument.");
+        }
+        
+        Type<String, Parsed> type = args.get(0).type;
+        if (!isSpecificGround(type, GroundTag.Unit)) {
+            throw CompilerError.parse(def.loc, "main() must take one immutable () argument.");
         }
-        if (!found) { throw CompilerError.parse(loc, "A function named main must exist."); }
     }
     
     private static boolean isSpecificGround(Type<String, Parsed> type, GroundTag tag) {
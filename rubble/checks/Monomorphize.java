@@ -0,0 +1,584 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import rubble.data.AST.*;
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
+import rubble.data.StructuralHash;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+import rubble.data.Visitor;
+
+/**
+ * Turns the inferred Poly types of a program into Mono types, specializing
+ * each function once for every distinct instance of its signature that is
+ * reachable from main or a global let.  Nothing else is specialized.
+ *
+ * A function whose signature has variables in it is opaque to the code
+ * that uses it (see Inference), so each use is matched against the
+ * signature here, and the variables the use fixes make up an instance.  The
+ * function is inferred again with that instance, and the variables the use
+ * doesn't fix are inferred from its body.  Once the functions a declaration
+ * uses are specialized, the declaration is inferred again with each of
+ * those uses pinned to the type of its specialization, which may fix more
+ * of the other uses, until no more are fixed.  The uses whose arguments
+ * are fixed go first, since the others may depend on what they return.  A
+ * pinned use has no variables, so each round pins at least one more use or
+ * is the last.  A use of a function that is still being specialized, which
+ * only happens in recursion, stays as it is.
+ *
+ * Specializations are memoized twice: by the instance a use gives, so each
+ * use after the first is a lookup, and by the solved signature, so
+ * instances that solve to the same types share one specialization.
+ *
+ * Type variables still unsolved are ones nothing depends on, and become ();
+ * sizes still unsolved are an error.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Monomorphize {
+
+    private static final Type<ResolvedName, Mono> UNIT = new Ground(GroundTag.Unit);
+
+    /**
+     * One specialization of a declaration.  A global let has only one.
+     */
+    public static final class Specialization {
+
+        public final Resolution resolution;
+
+        /** The signature of a function, or null for a global let. */
+        public Type<ResolvedName, Mono> signature;
+
+        /** The types, indexed as in Inference.Table. */
+        public Type<ResolvedName, Mono>[] nodes;
+        public Type<ResolvedName, Mono>[] arguments;
+        public Type<ResolvedName, Mono>[] locals;
+
+        /** The specialization each use of a function refers to, by node id. */
+        public final Specialization[] targets;
+
+        // Set when another specialization turned out to be the same.
+        private Specialization shared;
+
+        private Specialization(Resolution r) {
+            this.resolution = r;
+            this.targets = new Specialization[r.nodes];
+        }
+
+        private Specialization canonical() {
+            Specialization s = this;
+            while (s.shared != null) {
+                s = s.shared;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * A function and an instance of its signature, compared structurally.
+     */
+    private static final class Instance {
+
+        private final ResolvedName function;
+        private final Type<?, ?> type;
+        private final int hash;
+
+        public Instance(ResolvedName function, Type<?, ?> type) {
+            this.function = function;
+            this.type = type;
+            this.hash = (int)StructuralHash.combine(System.identityHashCode(function), StructuralHash.hash(type));
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Instance)) { return false; }
+            Instance other = (Instance)o;
+            return function == other.function && same(type, other.type);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final ArrayList<Resolution> rs;
+    private final ArrayList<Inference> inferences;
+    private final IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>> signatures = new IdentityHashMap<ResolvedName, Type<ResolvedName, Poly>>();
+    private final IdentityHashMap<ResolvedName, Integer> functions = new IdentityHashMap<ResolvedName, Integer>();
+
+    private final HashMap<Instance, Specialization> instances = new HashMap<Instance, Specialization>();
+    private final HashMap<Instance, Specialization> solved = new HashMap<Instance, Specialization>();
+    private final ArrayList<Specialization> result = new ArrayList<Specialization>();
+
+    private Monomorphize(ArrayList<Resolution> rs, ArrayList<Inference> inferences) {
+        this.rs = rs;
+        this.inferences = inferences;
+    }
+
+    /**
+     * Specializes the declarations reachable from main and the global lets.
+     *
+     * @param rs The resolutions of the whole program.
+     * @param inferences Their inferred types, as from InferTypes.
+     * @return The specializations, callees before their callers except in
+     *         recursion.
+     * @throws CompilerError
+     */
+    public static ArrayList<Specialization> monomorphize(ArrayList<Resolution> rs, ArrayList<Inference> inferences) throws CompilerError {
+        return new Monomorphize(rs, inferences).run();
+    }
+
+    private ArrayList<Specialization> run() throws CompilerError {
+        for (int i = 0; i < rs.size(); i++) {
+            Resolution r = rs.get(i);
+            switch (r.declaration.tag) {
+            case Def:
+                functions.put(r.global((Def<String, Parsed>)r.declaration), i);
+                break;
+            case GlobalLet:
+                for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                    for (ResolvedName name: r.bound(b)) {
+                        signatures.put(name, inferences.get(i).type(name));
+                    }
+                }
+                break;
+            }
+        }
+
+        for (int i = 0; i < rs.size(); i++) {
+            Resolution r = rs.get(i);
+            if (r.declaration.tag == DeclarationTag.GlobalLet) {
+                specialize(i, null, null);
+            } else if (((Def<String, Parsed>)r.declaration).name.equals("main")) {
+                Global main = r.global((Def<String, Parsed>)r.declaration);
+                specialize(i, main, main.type);
+            }
+        }
+
+        for (Specialization s: result) {
+            for (int id = 0; id < s.targets.length; id++) {
+                if (s.targets[id] != null) { s.targets[id] = s.targets[id].canonical(); }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The specialization of a declaration for an instance, which is made
+     * if there isn't one yet.
+     *
+     * @param index The declaration's index in rs.
+     * @param function The global a Def is bound to, or null for a global let.
+     * @param instance The instance of the Def's signature.
+     */
+    @SuppressWarnings("unchecked")
+    private Specialization specialize(int index, Global function, Type<ResolvedName, Poly> instance) throws CompilerError {
+        Resolution r = rs.get(index);
+        Instance key = (function == null) ? null : new Instance(function, instance);
+        if (key != null && instances.containsKey(key)) { return instances.get(key); }
+
+        Specialization s = new Specialization(r);
+        if (key != null) { instances.put(key, s); }
+
+        ArrayList<Reference<String, Parsed>> uses = uses(r);
+        Inference inference = (function != null && Inference.hasVariables(function.type))
+                            ? Inference.instantiate(r, signatures, instance, null)
+                            : inferences.get(index);
+        Type<ResolvedName, Poly>[] pins = (Type<ResolvedName, Poly>[])new Type<?, ?>[r.nodes];
+        while (true) {
+            boolean pinned = false;
+            ArrayList<Reference<String, Parsed>> waiting = new ArrayList<Reference<String, Parsed>>();
+            for (Reference<String, Parsed> use: uses) {
+                if (pins[use.id] != null) { continue; }
+                Global callee = (Global)r.name(use);
+                Type<ResolvedName, Poly> calleeInstance = instance(use.loc, callee, inference.type(use));
+                if (Inference.hasVariables(callee.type) && !fixesArguments(calleeInstance)) {
+                    waiting.add(use);
+                } else {
+                    pinned |= target(s, use, callee, calleeInstance, pins);
+                }
+            }
+            // A use whose arguments aren't fixed may be fixed by the uses
+            // pinned this round.  Only when none are is the first of them
+            // specialized as it is.
+            for (int i = 0; !pinned && i < waiting.size(); i++) {
+                Reference<String, Parsed> use = waiting.get(i);
+                Global callee = (Global)r.name(use);
+                pinned = target(s, use, callee, instance(use.loc, callee, inference.type(use)), pins);
+            }
+            if (!pinned) { break; }
+            inference = Inference.instantiate(r, signatures, instance, pins);
+        }
+
+        Location loc = r.declaration.loc;
+        if (function != null) {
+            s.signature = mono(loc, (inference.signature != null) ? inference.signature : function.type);
+            Instance solvedKey = new Instance(function, s.signature);
+            Specialization same = solved.get(solvedKey);
+            if (same != null) {
+                s.shared = same;
+                instances.put(key, same);
+                return same;
+            }
+            solved.put(solvedKey, s);
+        }
+
+        Inference.Table table = inference.table;
+        s.nodes = mono(loc, table.nodes);
+        s.arguments = mono(loc, table.arguments);
+        s.locals = mono(loc, table.locals);
+        result.add(s);
+        return s;
+    }
+
+    /**
+     * Specializes the function a use refers to, and pins the use to its
+     * type if the function is opaque.
+     *
+     * @return Whether the use was pinned.
+     */
+    private boolean target(Specialization s, Reference<String, Parsed> use, Global callee, Type<ResolvedName, Poly> instance, Type<ResolvedName, Poly>[] pins) throws CompilerError {
+        Specialization target = specialize(functions.get(callee), callee, instance);
+        s.targets[use.id] = target;
+
+        target = target.canonical();
+        if (target.signature == null || !Inference.hasVariables(callee.type)) { return false; }
+        pins[use.id] = poly(target.signature);
+        return true;
+    }
+
+    private static boolean fixesArguments(Type<ResolvedName, Poly> instance) {
+        if (instance.tag != Types.Tag.Arrow) { return !Inference.hasVariables(instance); }
+        for (Variable<ResolvedName, Poly> v: ((Arrow<ResolvedName, Poly>)instance).domain) {
+            if (Inference.hasVariables(v.type)) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * The references in a declaration to functions.
+     */
+    private ArrayList<Reference<String, Parsed>> uses(final Resolution r) {
+        final ArrayList<Reference<String, Parsed>> uses = new ArrayList<Reference<String, Parsed>>();
+        ArrayList<Declaration<String, Parsed>> d = new ArrayList<Declaration<String, Parsed>>();
+        d.add(r.declaration);
+        Visitor.walk(d, new Visitor<String, Parsed>() {
+            public Action enterExpression(Expression<String, Parsed> e) {
+                if (e.tag == ExpressionTag.Variable && functions.containsKey(r.name((Reference<String, Parsed>)e))) {
+                    uses.add((Reference<String, Parsed>)e);
+                }
+                return Action.Continue;
+            }
+        });
+        return uses;
+    }
+
+    /**
+     * Matches a use of a function against its signature, and substitutes
+     * the variables the use fixes into the signature.
+     */
+    @SuppressWarnings("unchecked")
+    private Type<ResolvedName, Poly> instance(Location loc, Global function, Type<ResolvedName, Poly> use) throws CompilerError {
+        Resolution r = rs.get(functions.get(function));
+        Type<ResolvedName, Mono>[] types = (Type<ResolvedName, Mono>[])new Type<?, ?>[r.typeVars];
+        Nat<ResolvedName, Mono>[] nats = (Nat<ResolvedName, Mono>[])new Nat<?, ?>[r.natVars];
+        if (use != null && !match(loc, function.type, use, types, nats)) {
+            throw CompilerError.type(loc, "This use of " + function.source + " doesn't match its signature.");
+        }
+        return substitute(function.type, types, nats);
+    }
+
+    private static boolean match(Location loc, Type<?, ?> pattern, Type<?, ?> use, Type<ResolvedName, Mono>[] types, Nat<ResolvedName, Mono>[] nats) throws CompilerError {
+        if (pattern.tag == Types.Tag.Known) { pattern = ((Known<?, ?>)pattern).type; }
+        if (use.tag == Types.Tag.Known) { use = ((Known<?, ?>)use).type; }
+        if (use.tag == Types.Tag.TypeVar) { return true; }
+
+        switch (pattern.tag) {
+        case Arrow:
+            if (use.tag != Types.Tag.Arrow) { return false; }
+            ArrayList<? extends Variable<?, ?>> domain = ((Arrow<?, ?>)pattern).domain;
+            ArrayList<? extends Variable<?, ?>> arguments = ((Arrow<?, ?>)use).domain;
+            if (domain.size() != arguments.size() && arguments.size() == 1) {
+                // A use as a function is applied to a single tuple.
+                Type<?, ?> argument = arguments.get(0).type;
+                if (argument.tag == Types.Tag.Known) { argument = ((Known<?, ?>)argument).type; }
+                if (argument.tag == Types.Tag.TypeVar) { return match(loc, ((Arrow<?, ?>)pattern).codomain, ((Arrow<?, ?>)use).codomain, types, nats); }
+                if (argument.tag != Types.Tag.Tuple) { return false; }
+                arguments = ((Types.Tuple<?, ?>)argument).members;
+            }
+            return matchAll(loc, domain, arguments, types, nats)
+                && match(loc, ((Arrow<?, ?>)pattern).codomain, ((Arrow<?, ?>)use).codomain, types, nats);
+
+        case Buffer:
+            if (use.tag != Types.Tag.Buffer) { return false; }
+            return match(((Types.Buffer<?, ?>)pattern).size, ((Types.Buffer<?, ?>)use).size, nats)
+                && match(loc, ((Types.Buffer<?, ?>)pattern).contained, ((Types.Buffer<?, ?>)use).contained, types, nats);
+
+        case Ground:
+            return use.tag == Types.Tag.Ground && ((Ground)pattern).groundTag == ((Ground)use).groundTag;
+
+        case Ptr:
+            if (use.tag != Types.Tag.Ptr) { return false; }
+            return match(loc, ((Ptr<?, ?>)pattern).pointee, ((Ptr<?, ?>)use).pointee, types, nats);
+
+        case Tuple:
+            if (use.tag != Types.Tag.Tuple) { return false; }
+            return matchAll(loc, ((Types.Tuple<?, ?>)pattern).members, ((Types.Tuple<?, ?>)use).members, types, nats);
+
+        case TypeVar:
+            if (Inference.hasVariables(use)) { return true; }
+            int id = ((TypeVar)pattern).id;
+            Type<ResolvedName, Mono> type = mono(loc, use);
+            if (types[id] == null) {
+                types[id] = type;
+                return true;
+            }
+            return same(types[id], type);
+
+        default:
+            return false;
+        }
+    }
+
+    private static boolean matchAll(Location loc, ArrayList<? extends Variable<?, ?>> patterns, ArrayList<? extends Variable<?, ?>> uses, Type<ResolvedName, Mono>[] types, Nat<ResolvedName, Mono>[] nats) throws CompilerError {
+        if (patterns.size() != uses.size()) { return false; }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!match(loc, patterns.get(i).type, uses.get(i).type, types, nats)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean match(Nat<?, ?> pattern, Nat<?, ?> use, Nat<ResolvedName, Mono>[] nats) {
+        if (pattern.tag == NatTag.NatKnown) { pattern = ((NatKnown<?, ?>)pattern).nat; }
+        if (use.tag == NatTag.NatKnown) { use = ((NatKnown<?, ?>)use).nat; }
+        if (use.tag == NatTag.NatVar) { return true; }
+
+        switch (pattern.tag) {
+        case NatExternal:
+            return use.tag == NatTag.NatExternal && ((NatExternal<?, ?>)pattern).name == ((NatExternal<?, ?>)use).name;
+
+        case NatLiteral:
+            return use.tag == NatTag.NatLiteral && ((NatLiteral)pattern).value == ((NatLiteral)use).value;
+
+        case NatVar:
+            int index = ((NatVar)pattern).index;
+            Nat<ResolvedName, Mono> nat = (use.tag == NatTag.NatLiteral) ? (NatLiteral)use : new NatExternal<ResolvedName, Mono>(((NatExternal<?, ?>)use).loc, (ResolvedName)((NatExternal<?, ?>)use).name);
+            if (nats[index] == null) {
+                nats[index] = nat;
+                return true;
+            }
+            return same(nats[index], nat);
+
+        default:
+            return false;
+        }
+    }
+
+    private static Type<ResolvedName, Poly> substitute(Type<ResolvedName, Poly> t, Type<ResolvedName, Mono>[] types, Nat<ResolvedName, Mono>[] nats) {
+        switch (t.tag) {
+        case Arrow:
+            Arrow<ResolvedName, Poly> arrow = (Arrow<ResolvedName, Poly>)t;
+            return new Arrow<ResolvedName, Poly>(substitute(arrow.domain, types, nats), substitute(arrow.codomain, types, nats));
+
+        case Buffer:
+            Types.Buffer<ResolvedName, Poly> buffer = (Types.Buffer<ResolvedName, Poly>)t;
+            Nat<ResolvedName, Poly> size = buffer.size;
+            if (size.tag == NatTag.NatVar && nats[((NatVar)size).index] != null) {
+                size = new NatKnown<ResolvedName, Poly>(nats[((NatVar)size).index]);
+            }
+            return new Types.Buffer<ResolvedName, Poly>(size, buffer.containedMode, substitute(buffer.contained, types, nats));
+
+        case Ptr:
+            Ptr<ResolvedName, Poly> ptr = (Ptr<ResolvedName, Poly>)t;
+            return new Ptr<ResolvedName, Poly>(ptr.pointeeMode, substitute(ptr.pointee, types, nats));
+
+        case Tuple:
+            return new Types.Tuple<ResolvedName, Poly>(substitute(((Types.Tuple<ResolvedName, Poly>)t).members, types, nats));
+
+        case TypeVar:
+            Type<ResolvedName, Mono> type = types[((TypeVar)t).id];
+            return (type == null) ? t : poly(type);
+
+        default:
+            return t;
+        }
+    }
+
+    private static ArrayList<Variable<ResolvedName, Poly>> substitute(ArrayList<Variable<ResolvedName, Poly>> vs, Type<ResolvedName, Mono>[] types, Nat<ResolvedName, Mono>[] nats) {
+        ArrayList<Variable<ResolvedName, Poly>> result = new ArrayList<Variable<ResolvedName, Poly>>(vs.size());
+        for (Variable<ResolvedName, Poly> v: vs) {
+            result.add(new Variable<ResolvedName, Poly>(v.loc, v.mode, v.name, substitute(v.type, types, nats)));
+        }
+        return result;
+    }
+
+    /**
+     * A Mono type as a Poly one, with the ground types and sizes known.
+     */
+    private static Type<ResolvedName, Poly> poly(Type<ResolvedName, Mono> t) {
+        switch (t.tag) {
+        case Arrow:
+            Arrow<ResolvedName, Mono> arrow = (Arrow<ResolvedName, Mono>)t;
+            return new Arrow<ResolvedName, Poly>(poly(arrow.domain), poly(arrow.codomain));
+
+        case Buffer:
+            Types.Buffer<ResolvedName, Mono> buffer = (Types.Buffer<ResolvedName, Mono>)t;
+            return new Types.Buffer<ResolvedName, Poly>(new NatKnown<ResolvedName, Poly>(buffer.size), buffer.containedMode, poly(buffer.contained));
+
+        case Ptr:
+            Ptr<ResolvedName, Mono> ptr = (Ptr<ResolvedName, Mono>)t;
+            return new Ptr<ResolvedName, Poly>(ptr.pointeeMode, poly(ptr.pointee));
+
+        case Tuple:
+            return new Types.Tuple<ResolvedName, Poly>(poly(((Types.Tuple<ResolvedName, Mono>)t).members));
+
+        default:
+            return new Known<ResolvedName, Poly>(t);
+        }
+    }
+
+    private static ArrayList<Variable<ResolvedName, Poly>> poly(ArrayList<Variable<ResolvedName, Mono>> vs) {
+        ArrayList<Variable<ResolvedName, Poly>> result = new ArrayList<Variable<ResolvedName, Poly>>(vs.size());
+        for (Variable<ResolvedName, Mono> v: vs) {
+            result.add(new Variable<ResolvedName, Poly>(v.loc, v.mode, v.name, poly(v.type)));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Type<ResolvedName, Mono>[] mono(Location loc, Type<ResolvedName, Poly>[] ts) throws CompilerError {
+        Type<ResolvedName, Mono>[] result = (Type<ResolvedName, Mono>[])new Type<?, ?>[ts.length];
+        for (int i = 0; i < ts.length; i++) {
+            if (ts[i] != null) { result[i] = mono(loc, ts[i]); }
+        }
+        return result;
+    }
+
+    /**
+     * A solved type as a Mono type.
+     *
+     * @param loc Where to report a size that isn't solved.
+     */
+    @SuppressWarnings("unchecked")
+    private static Type<ResolvedName, Mono> mono(Location loc, Type<?, ?> t) throws CompilerError {
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+            return new Arrow<ResolvedName, Mono>(mono(loc, arrow.domain), mono(loc, arrow.codomain));
+
+        case Buffer:
+            Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+            return new Types.Buffer<ResolvedName, Mono>(mono(loc, buffer.size), buffer.containedMode, mono(loc, buffer.contained));
+
+        case Ground:
+            return (Ground)t;
+
+        case Known:
+            return ((Known<?, ?>)t).type;
+
+        case Ptr:
+            Ptr<?, ?> ptr = (Ptr<?, ?>)t;
+            return new Ptr<ResolvedName, Mono>(ptr.pointeeMode, mono(loc, ptr.pointee));
+
+        case Tuple:
+            return new Types.Tuple<ResolvedName, Mono>(mono(loc, ((Types.Tuple<?, ?>)t).members));
+
+        case TypeVar:
+            return UNIT;
+
+        default:
+            throw CompilerError.ice(loc, "The type " + t + " was left after type inference.");
+        }
+    }
+
+    private static ArrayList<Variable<ResolvedName, Mono>> mono(Location loc, ArrayList<? extends Variable<?, ?>> vs) throws CompilerError {
+        ArrayList<Variable<ResolvedName, Mono>> result = new ArrayList<Variable<ResolvedName, Mono>>(vs.size());
+        for (Variable<?, ?> v: vs) {
+            result.add(new Variable<ResolvedName, Mono>(v.loc, v.mode, v.name, mono(loc, v.type)));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Nat<ResolvedName, Mono> mono(Location loc, Nat<?, ?> n) throws CompilerError {
+        switch (n.tag) {
+        case NatExternal:
+            NatExternal<?, ?> external = (NatExternal<?, ?>)n;
+            return new NatExternal<ResolvedName, Mono>(external.loc, (ResolvedName)external.name);
+
+        case NatKnown:
+            return ((NatKnown<?, ?>)n).nat;
+
+        case NatLiteral:
+            return (NatLiteral)n;
+
+        default:
+            throw CompilerError.type(loc, "The size of a buffer here can't be determined.");
+        }
+    }
+
+    private static boolean same(Type<?, ?> a, Type<?, ?> b) {
+        if (a.tag != b.tag) { return false; }
+        switch (a.tag) {
+        case Arrow:
+            return same(((Arrow<?, ?>)a).domain, ((Arrow<?, ?>)b).domain) && same(((Arrow<?, ?>)a).codomain, ((Arrow<?, ?>)b).codomain);
+
+        case Buffer:
+            Types.Buffer<?, ?> x = (Types.Buffer<?, ?>)a;
+            Types.Buffer<?, ?> y = (Types.Buffer<?, ?>)b;
+            return same(x.size, y.size) && x.containedMode == y.containedMode && same(x.contained, y.contained);
+
+        case Ground:
+            return ((Ground)a).groundTag == ((Ground)b).groundTag;
+
+        case Known:
+            return same(((Known<?, ?>)a).type, ((Known<?, ?>)b).type);
+
+        case Ptr:
+            return ((Ptr<?, ?>)a).pointeeMode == ((Ptr<?, ?>)b).pointeeMode && same(((Ptr<?, ?>)a).pointee, ((Ptr<?, ?>)b).pointee);
+
+        case Tuple:
+            return same(((Types.Tuple<?, ?>)a).members, ((Types.Tuple<?, ?>)b).members);
+
+        case TypeVar:
+            return ((TypeVar)a).id == ((TypeVar)b).id;
+
+        default:
+            return false;
+        }
+    }
+
+    private static boolean same(ArrayList<? extends Variable<?, ?>> as, ArrayList<? extends Variable<?, ?>> bs) {
+        if (as.size() != bs.size()) { return false; }
+        for (int i = 0; i < as.size(); i++) {
+            Variable<?, ?> a = as.get(i);
+            Variable<?, ?> b = bs.get(i);
+            if (a.mode != b.mode || !a.name.equals(b.name) || !same(a.type, b.type)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean same(Nat<?, ?> a, Nat<?, ?> b) {
+        if (a.tag != b.tag) { return false; }
+        switch (a.tag) {
+        case NatExternal:
+            return ((NatExternal<?, ?>)a).name == ((NatExternal<?, ?>)b).name;
+        case NatKnown:
+            return same(((NatKnown<?, ?>)a).nat, ((NatKnown<?, ?>)b).nat);
+        case NatLiteral:
+            return ((NatLiteral)a).value == ((NatLiteral)b).value;
+        case NatVar:
+            return ((NatVar)a).index == ((NatVar)b).index;
+        default:
+            return false;
+        }
+    }
+}
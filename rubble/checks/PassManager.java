@@ -0,0 +1,362 @@
+package rubble.checks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rubble.data.AST;
+import rubble.data.CompilerError;
+import rubble.data.Types.*;
+import rubble.data.Visitor;
+
+/**
+ * Runs the checks over a program.  Each pass says which passes it depends
+ * on and which kinds of nodes it looks at.  Passes are put in stages, each
+ * stage after every stage it depends on, and the passes in a stage share a
+ * single walk of each declaration.  Below any node, the walk only goes as
+ * deep as some pass in the stage still wants to look, so passes that only
+ * look at declarations never walk the bodies.  Declarations are walked in
+ * parallel.
+ *
+ * If the manager is measuring, each pass's hooks are timed, and the memory
+ * they allocate is counted where the JVM can say.  Measuring slows the
+ * walk down, so it is off unless asked for.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class PassManager {
+
+    public static enum Kind { Declaration, Binding, Statement, Expression, LValue }
+
+    /**
+     * One check.  A pass gives a visitor for each declaration, which may be
+     * called from several threads at once, and reports errors through the
+     * context instead of throwing them.
+     */
+    public static abstract class Pass {
+
+        public final String name;
+        public final EnumSet<Kind> kinds;
+        public final String[] dependencies;
+
+        protected Pass(String name, EnumSet<Kind> kinds, String... dependencies) {
+            this.name = name;
+            this.kinds = kinds;
+            this.dependencies = dependencies;
+        }
+
+        public abstract Visitor<String, Parsed> visitor(Context context, AST.Declaration<String, Parsed> d);
+
+        /**
+         * Called at the start of each run, before any declaration is walked,
+         * for a pass that keeps state across a run to clear it.
+         */
+        public void start() { }
+
+        /**
+         * Called once every declaration has been walked, for checks on the
+         * whole program.
+         */
+        public void finish() throws CompilerError { }
+    }
+
+    /**
+     * Where a declaration's passes report errors.  Only the first is kept.
+     */
+    public static final class Context {
+
+        private CompilerError error;
+
+        public void report(CompilerError e) {
+            if (error == null) { error = e; }
+        }
+    }
+
+    /**
+     * The one pool the checks run their parallel work on, with a thread per
+     * processor, so that resolving, inferring and walking don't each keep
+     * threads of their own.
+     */
+    static final ForkJoinPool pool = new ForkJoinPool();
+
+    private final ArrayList<Pass> passes = new ArrayList<Pass>();
+    private final HashMap<String, Pass> byName = new HashMap<String, Pass>();
+    private final boolean measuring;
+    private final HashMap<Pass, AtomicLong> nanos = new HashMap<Pass, AtomicLong>();
+    private final HashMap<Pass, AtomicLong> bytes = new HashMap<Pass, AtomicLong>();
+
+    public PassManager(boolean measuring) {
+        this.measuring = measuring;
+    }
+
+    /**
+     * Adds a pass.  The passes it depends on have to be added first.
+     */
+    public PassManager add(Pass pass) {
+        if (byName.containsKey(pass.name)) {
+            throw new IllegalArgumentException("There is already a pass named " + pass.name + ".");
+        }
+        for (String dependency: pass.dependencies) {
+            if (!byName.containsKey(dependency)) {
+                throw new IllegalArgumentException("The pass " + pass.name + " depends on " + dependency + ", which hasn't been added.");
+            }
+        }
+        passes.add(pass);
+        byName.put(pass.name, pass);
+        nanos.put(pass, new AtomicLong());
+        bytes.put(pass, new AtomicLong());
+        return this;
+    }
+
+    /**
+     * The passes in each stage, in the order the stages run.
+     */
+    public ArrayList<ArrayList<Pass>> stages() {
+        HashMap<Pass, Integer> levels = new HashMap<Pass, Integer>();
+        ArrayList<ArrayList<Pass>> stages = new ArrayList<ArrayList<Pass>>();
+        for (Pass pass: passes) {
+            int level = 0;
+            for (String dependency: pass.dependencies) {
+                level = Math.max(level, levels.get(byName.get(dependency)) + 1);
+            }
+            levels.put(pass, level);
+            while (stages.size() <= level) {
+                stages.add(new ArrayList<Pass>());
+            }
+            stages.get(level).add(pass);
+        }
+        return stages;
+    }
+
+    /**
+     * Runs every pass over the declarations.  If there are errors, the one
+     * from the earliest stage, and within that, the earliest declaration,
+     * is thrown.
+     */
+    public void run(ArrayList<AST.Declaration<String, Parsed>> declarations) throws CompilerError {
+        for (Pass pass: passes) {
+            pass.start();
+        }
+        for (ArrayList<Pass> stage: stages()) {
+            Context[] contexts = new Context[declarations.size()];
+            pool.invoke(new Walk(stage, declarations, contexts, 0, declarations.size()));
+            for (Context context: contexts) {
+                if (context.error != null) { throw context.error; }
+            }
+            for (Pass pass: stage) {
+                long start = measuring ? System.nanoTime() : 0;
+                long allocated = measuring ? allocated() : 0;
+                pass.finish();
+                if (measuring) { count(pass, start, allocated); }
+            }
+        }
+    }
+
+    /**
+     * The time spent in a pass, in nanoseconds, if measuring.
+     */
+    public long nanos(String pass) {
+        return nanos.get(byName.get(pass)).get();
+    }
+
+    /**
+     * The bytes a pass allocated, if measuring and the JVM can count them,
+     * and otherwise 0.
+     */
+    public long bytes(String pass) {
+        return bytes.get(byName.get(pass)).get();
+    }
+
+    /**
+     * One line per pass, in the order they were added.
+     */
+    public String report() {
+        StringBuilder result = new StringBuilder();
+        for (Pass pass: passes) {
+            result.append(pass.name + ": " + nanos(pass.name) / 1000 + " us, " + bytes(pass.name) + " bytes\n");
+        }
+        return result.toString();
+    }
+
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private static long allocated() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private void count(Pass pass, long start, long allocated) {
+        nanos.get(pass).addAndGet(System.nanoTime() - start);
+        long after = allocated();
+        if (after >= allocated) { bytes.get(pass).addAndGet(after - allocated); }
+    }
+
+    /**
+     * Walks the declarations from start to end, splitting the range in half
+     * until there is only one.
+     */
+    private final class Walk extends RecursiveAction {
+
+        public final static long serialVersionUID = 0;
+
+        private final ArrayList<Pass> stage;
+        private final ArrayList<AST.Declaration<String, Parsed>> declarations;
+        private final Context[] contexts;
+        private final int start;
+        private final int end;
+
+        public Walk(ArrayList<Pass> stage, ArrayList<AST.Declaration<String, Parsed>> declarations, Context[] contexts, int start, int end) {
+            this.stage = stage;
+            this.declarations = declarations;
+            this.contexts = contexts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @SuppressWarnings("unchecked")
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Walk(stage, declarations, contexts, start, middle),
+                          new Walk(stage, declarations, contexts, middle, end));
+                return;
+            }
+            if (start == end) { return; }
+
+            Context context = new Context();
+            contexts[start] = context;
+            AST.Declaration<String, Parsed> d = declarations.get(start);
+            Visitor<String, Parsed>[] visitors = (Visitor<String, Parsed>[])new Visitor<?, ?>[stage.size()];
+            for (int i = 0; i < visitors.length; i++) {
+                Pass pass = stage.get(i);
+                visitors[i] = new Hooks(pass, pass.visitor(context, d));
+            }
+            ArrayList<AST.Declaration<String, Parsed>> one = new ArrayList<AST.Declaration<String, Parsed>>(1);
+            one.add(d);
+            Visitor.walk(one, visitors);
+        }
+    }
+
+    /**
+     * Calls a pass's hooks for the kinds of nodes it looks at, skips the
+     * parts of the tree that have none of them, and measures the hooks.
+     */
+    private final class Hooks extends Visitor<String, Parsed> {
+
+        private final Pass pass;
+        private final Visitor<String, Parsed> visitor;
+        private final boolean expressions;
+        private final boolean bindings;
+        private final boolean lValues;
+        private final boolean statements;
+
+        public Hooks(Pass pass, Visitor<String, Parsed> visitor) {
+            this.pass = pass;
+            this.visitor = visitor;
+            // Whether anything the pass looks at can be below each kind.
+            this.expressions = pass.kinds.contains(Kind.Expression);
+            this.bindings = expressions || pass.kinds.contains(Kind.Binding);
+            this.lValues = expressions || pass.kinds.contains(Kind.LValue);
+            this.statements = bindings || lValues || pass.kinds.contains(Kind.Statement);
+        }
+
+        private Action below(Action action, boolean wanted) {
+            return (action == Action.Continue && !wanted) ? Action.Skip : action;
+        }
+
+        public Action enterDeclaration(AST.Declaration<String, Parsed> d) {
+            if (!pass.kinds.contains(Kind.Declaration)) { return below(Action.Continue, statements); }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            Action action = visitor.enterDeclaration(d);
+            if (measuring) { count(pass, start, allocated); }
+            return below(action, statements);
+        }
+
+        public Action enterBinding(AST.Binding<String, Parsed> b) {
+            if (!pass.kinds.contains(Kind.Binding)) { return below(Action.Continue, expressions); }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            Action action = visitor.enterBinding(b);
+            if (measuring) { count(pass, start, allocated); }
+            return below(action, expressions);
+        }
+
+        public Action enterStatement(AST.Statement<String, Parsed> s) {
+            if (!pass.kinds.contains(Kind.Statement)) { return below(Action.Continue, statements); }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            Action action = visitor.enterStatement(s);
+            if (measuring) { count(pass, start, allocated); }
+            return below(action, statements);
+        }
+
+        public Action enterExpression(AST.Expression<String, Parsed> e) {
+            if (!pass.kinds.contains(Kind.Expression)) { return Action.Skip; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            Action action = visitor.enterExpression(e);
+            if (measuring) { count(pass, start, allocated); }
+            return action;
+        }
+
+        public Action enterLValue(AST.LValue<String, Parsed> l) {
+            if (!pass.kinds.contains(Kind.LValue)) { return below(Action.Continue, lValues); }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            Action action = visitor.enterLValue(l);
+            if (measuring) { count(pass, start, allocated); }
+            return below(action, lValues);
+        }
+
+        public void leaveDeclaration(AST.Declaration<String, Parsed> d) {
+            if (!pass.kinds.contains(Kind.Declaration)) { return; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            visitor.leaveDeclaration(d);
+            if (measuring) { count(pass, start, allocated); }
+        }
+
+        public void leaveBinding(AST.Binding<String, Parsed> b) {
+            if (!pass.kinds.contains(Kind.Binding)) { return; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            visitor.leaveBinding(b);
+            if (measuring) { count(pass, start, allocated); }
+        }
+
+        public void leaveStatement(AST.Statement<String, Parsed> s) {
+            if (!pass.kinds.contains(Kind.Statement)) { return; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            visitor.leaveStatement(s);
+            if (measuring) { count(pass, start, allocated); }
+        }
+
+        public void leaveExpression(AST.Expression<String, Parsed> e) {
+            if (!pass.kinds.contains(Kind.Expression)) { return; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            visitor.leaveExpression(e);
+            if (measuring) { count(pass, start, allocated); }
+        }
+
+        public void leaveLValue(AST.LValue<String, Parsed> l) {
+            if (!pass.kinds.contains(Kind.LValue)) { return; }
+            long start = measuring ? System.nanoTime() : 0;
+            long allocated = measuring ? allocated() : 0;
+            visitor.leaveLValue(l);
+            if (measuring) { count(pass, start, allocated); }
+        }
+    }
+}
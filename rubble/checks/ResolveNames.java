@@ -1,29 +1,180 @@
 package rubble.checks;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.RecursiveAction;
 
 import rubble.data.AST.*;
 import rubble.data.CompilerError;
+import rubble.data.Location;
 import rubble.data.NamingContext;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
 import rubble.data.Types.*;
 
 /**
  * Driver for name resolution.  This may go away.
- * 
+ *
  * Copyright (c) 2011 Jared Putnam
  * Released under the terms of the 2-clause BSD license, which should be
  * included with this source.
  */
 public final class ResolveNames {
-    /*
-    public static void resolveNames(ArrayList<Declaration<Parsed>> ds) throws CompilerError {
-        
-        // Name resolution is in definition order.  Why?  Because I don't want
-        // to perform a topological sort to get a valid elaboration.
-        NamingContext context = new NamingContext();
-        for (Declaration<Parsed> d: ds) {
-            d.resolveNames(context);
-            context.discardNonGlobals();
-        }
-    }*/
+
+    /**
+     * Resolves the names in each declaration.  The parsed declarations are
+     * not copied; the results are in the side tables returned, one per
+     * declaration and in the same order.
+     *
+     * The first pass collects every global, in source order, into a table
+     * that is then frozen, so any declaration can refer to any global.  The
+     * order globals are initialized in comes from Elaboration.  The second
+     * pass resolves each declaration in parallel, each with a context of its
+     * own sharing the globals.  If there are errors, the one earliest in the
+     * source is thrown, as if the declarations had been resolved in order.
+     *
+     * @param ds
+     * @return The resolution of each declaration.
+     * @throws CompilerError
+     */
+    public static ArrayList<Resolution> resolveNames(ArrayList<Declaration<String, Parsed>> ds) throws CompilerError {
+        return resolveNames(ds, new NamingContext());
+    }
+
+    /**
+     * Resolves the names in each declaration, collecting the globals in the
+     * given context.  Afterwards, its globals can be used to resolve single
+     * declarations again.
+     */
+    public static ArrayList<Resolution> resolveNames(ArrayList<Declaration<String, Parsed>> ds, NamingContext context) throws CompilerError {
+        final int size = ds.size();
+        final Resolution[] resolutions = new Resolution[size];
+        final CompilerError[] errors = new CompilerError[size];
+
+        for (int i = 0; i < size; i++) {
+            try {
+                resolutions[i] = Resolution.declare(context, ds.get(i));
+            } catch (CompilerError e) {
+                errors[i] = e;
+            }
+        }
+        final NamingContext.Globals globals = context.globals();
+        globals.freeze();
+
+        PassManager.pool.invoke(new Define(globals, resolutions, errors, 0, size));
+
+        ArrayList<Resolution> result = new ArrayList<Resolution>(size);
+        for (int i = 0; i < size; i++) {
+            if (errors[i] != null) { throw errors[i]; }
+            result.add(resolutions[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves one declaration again after it was edited and reparsed,
+     * against the globals from resolving the whole program.  The
+     * declaration must define the same globals it did before, with the same
+     * signatures, since the other declarations were resolved against them.
+     * If it defines a new global, one that another declaration defines, or
+     * fewer than it did, or a signature has changed, the error says that the
+     * whole program has to be resolved again.
+     *
+     * @param globals
+     * @param old The resolution of the declaration before it was edited.
+     * @param d
+     * @return The new resolution of d.
+     * @throws CompilerError
+     */
+    public static Resolution resolveAgain(NamingContext.Globals globals, Resolution old, Declaration<String, Parsed> d) throws CompilerError {
+        NamingContext context = new NamingContext(globals);
+        Resolution r = Resolution.declare(context, d);
+
+        ArrayList<ResolvedName> previous = defined(old, null);
+        IdentityHashMap<ResolvedName, Boolean> before = new IdentityHashMap<ResolvedName, Boolean>();
+        for (ResolvedName name: previous) {
+            before.put(name, true);
+        }
+        ArrayList<Location> locations = new ArrayList<Location>();
+        ArrayList<ResolvedName> after = defined(r, locations);
+        for (int i = 0; i < after.size(); i++) {
+            if (before.remove(after.get(i)) == null) {
+                throw CompilerError.check(locations.get(i), "The global name " + after.get(i).source + " belongs to another declaration, so the whole program has to be resolved again.");
+            }
+        }
+        for (ResolvedName name: previous) {
+            if (before.containsKey(name)) {
+                throw CompilerError.check(d.loc, "The global name " + name.source + " is gone, so the whole program has to be resolved again.");
+            }
+        }
+
+        r.define(context);
+        return r;
+    }
+
+    /**
+     * The globals a declaration defines, in source order, and where each is
+     * defined if locations isn't null.
+     */
+    private static ArrayList<ResolvedName> defined(Resolution r, ArrayList<Location> locations) {
+        ArrayList<ResolvedName> names = new ArrayList<ResolvedName>();
+        switch (r.declaration.tag) {
+        case Def:
+            Def<String, Parsed> def = (Def<String, Parsed>)r.declaration;
+            names.add(r.global(def));
+            if (locations != null) { locations.add(def.loc); }
+            break;
+
+        case GlobalLet:
+            for (Binding<String, Parsed> b: ((GlobalLet<String, Parsed>)r.declaration).bindings) {
+                ResolvedName[] bound = r.bound(b);
+                for (int i = 0; i < bound.length; i++) {
+                    names.add(bound[i]);
+                    if (locations != null) { locations.add(b.references.get(i).loc); }
+                }
+            }
+            break;
+        }
+        return names;
+    }
+
+    /**
+     * Defines the declarations from start to end, splitting the range in
+     * half until there is only one.  Each error is stored by declaration so
+     * that the caller can pick the first.
+     */
+    private static final class Define extends RecursiveAction {
+
+        public final static long serialVersionUID = 0;
+
+        private final NamingContext.Globals globals;
+        private final Resolution[] resolutions;
+        private final CompilerError[] errors;
+        private final int start;
+        private final int end;
+
+        public Define(NamingContext.Globals globals, Resolution[] resolutions, CompilerError[] errors, int start, int end) {
+            this.globals = globals;
+            this.resolutions = resolutions;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Define(globals, resolutions, errors, start, middle),
+                          new Define(globals, resolutions, errors, middle, end));
+                return;
+            }
+            if (start == end || errors[start] != null) { return; }
+
+            try {
+                resolutions[start].define(new NamingContext(globals));
+            } catch (CompilerError e) {
+                errors[start] = e;
+            }
+        }
+    }
 }
@@ -0,0 +1,812 @@
+package rubble.checks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import rubble.data.CompilerError;
+import rubble.data.Location;
+import rubble.data.Mode;
+import rubble.data.Names.*;
+import rubble.data.Types;
+import rubble.data.Types.*;
+import rubble.data.Variable;
+
+/**
+ * The core of type inference: unification over type variables and nat
+ * variables, kept in one union-find.  Type variable i is variable i, and
+ * nat variable n is variable typeVars + n.  Each class of variables has a
+ * root, and the root holds what the class is bound to, if anything.
+ *
+ * Roots are joined by rank and paths are compressed as they are followed, so
+ * a run of unifications costs nearly linear time in the number of variables.
+ * Whether a variable occurs in what it is bound to is checked only when it
+ * is bound, since unifying two variables can't make a cycle.
+ *
+ * Each root also has a bitmask of the ground types its class may still be,
+ * one bit per GroundTag, from the type classes it has been constrained to.
+ * Joining two constraints is an AND, and a mask with no bits left is an
+ * error.  A class whose mask is down to one bit is put on a worklist and
+ * bound to that ground type once the current unification is done, and
+ * defaults() picks ground types for whatever is left.  None of this
+ * allocates, and neither does following variables: the unifier makes one
+ * TypeVar or NatVar per variable, the first time it is asked for it, and
+ * hands out that one from then on (see var()).
+ *
+ * Modes are constrained as the types are matched, with var below const.
+ * unify() makes the modes on the two sides equal, while flow(), for a value
+ * going where the expected type says, only keeps the found side's modes
+ * below the expected side's, so var contents can go where const contents
+ * are expected but not the other way.  A pointer or buffer whose mode isn't
+ * known yet has a mode variable (see Types.Ptr), and below() constrains
+ * modes directly.  Once the types are done, modes() makes a mode variable
+ * const only where something const has to be below it, and reports the
+ * first constraint that then fails.
+ *
+ * Every change made while a mark is open is recorded on a trail, so that
+ * rollback() can undo a failed attempt.  With no marks open, nothing is
+ * recorded.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Unifier {
+
+    /** The mask of a class that has no constraints. */
+    private static final int UNCONSTRAINED = -1;
+
+    /** The ground types defaults() tries, in order. */
+    private static final GroundTag[] DEFAULTS = {
+        GroundTag.Int32, GroundTag.Int64, GroundTag.UInt32, GroundTag.UInt64,
+        GroundTag.Int16, GroundTag.UInt16, GroundTag.Int8, GroundTag.UInt8,
+        GroundTag.Boolean, GroundTag.Unit
+    };
+
+    private static final Ground[] GROUNDS = new Ground[GroundTag.values().length];
+    static {
+        for (GroundTag tag: GroundTag.values()) {
+            GROUNDS[tag.ordinal()] = new Ground(tag);
+        }
+    }
+
+    /** The operands of a mode constraint that aren't mode variables. */
+    public static final int VAR = -1;
+    public static final int CONST = -2;
+
+    private final int typeVars;
+
+    private int[] parent;
+    private byte[] rank;
+    private Type<?, ?>[] types;
+    private Nat<?, ?>[] nats;
+    private int[] masks;
+    private int size;
+
+    // The one TypeVar or NatVar for each variable, once it has been made.
+    private TypeVar[] typeVarObjects;
+    private NatVar[] natVarObjects;
+
+    // The roots whose masks are down to one ground type.
+    private int[] worklist = new int[16];
+    private int worklistSize = 0;
+
+    // The trail: each variable changed while a mark is open, and what it
+    // was before.
+    private int[] trailVars = new int[64];
+    private int[] trailParents = new int[64];
+    private byte[] trailRanks = new byte[64];
+    private int[] trailMasks = new int[64];
+    private Object[] trailBindings = new Object[64];
+    private int trailSize = 0;
+    private int marks = 0;
+
+    // The mode constraints, each lower <= upper, with where each came from
+    // and what it was about.  Rolling back a mark drops the constraints
+    // added since, so the count at each open mark is kept.
+    private int modeVars = 0;
+    private int[] lowers = new int[16];
+    private int[] uppers = new int[16];
+    private Location[] constraintLocs = new Location[16];
+    private String[] constraintWhats = new String[16];
+    private int constraints = 0;
+    private int[] markConstraints = new int[4];
+
+    // The mode variables modes() made const.
+    private boolean[] constModes = new boolean[0];
+
+    /**
+     * A unifier for the variables a resolution handed out.
+     */
+    public Unifier(int typeVars, int natVars) {
+        this.typeVars = typeVars;
+        this.size = typeVars + natVars;
+        int capacity = Math.max(16, size);
+        parent = new int[capacity];
+        rank = new byte[capacity];
+        types = new Type<?, ?>[capacity];
+        nats = new Nat<?, ?>[capacity];
+        masks = new int[capacity];
+        typeVarObjects = new TypeVar[capacity];
+        natVarObjects = new NatVar[capacity];
+        for (int i = 0; i < size; i++) {
+            parent[i] = i;
+            masks[i] = UNCONSTRAINED;
+        }
+    }
+
+    /**
+     * A type variable no one else has.  Its id is past the resolution's.
+     */
+    public TypeVar fresh() {
+        return var(allocate());
+    }
+
+    /**
+     * A nat variable no one else has.
+     */
+    public NatVar freshNat() {
+        return natVar(allocate() - typeVars);
+    }
+
+    /**
+     * The TypeVar for type variable id, which is the same object every
+     * time.
+     */
+    public TypeVar var(int id) {
+        TypeVar v = typeVarObjects[id];
+        if (v == null) {
+            v = new TypeVar(id);
+            typeVarObjects[id] = v;
+        }
+        return v;
+    }
+
+    private NatVar natVar(int index) {
+        NatVar n = natVarObjects[typeVars + index];
+        if (n == null) {
+            n = new NatVar(index);
+            natVarObjects[typeVars + index] = n;
+        }
+        return n;
+    }
+
+    /**
+     * A mode variable no one else has.
+     */
+    public int freshMode() {
+        return modeVars++;
+    }
+
+    /**
+     * Starts recording changes.  Each mark must be either rolled back or
+     * committed, innermost first.
+     *
+     * @return The mark, for rollback().
+     */
+    public int mark() {
+        if (marks == markConstraints.length) {
+            markConstraints = Arrays.copyOf(markConstraints, 2 * marks);
+        }
+        markConstraints[marks] = constraints;
+        marks++;
+        return trailSize;
+    }
+
+    /**
+     * Undoes every change since the mark and closes it.
+     */
+    public void rollback(int mark) {
+        while (trailSize > mark) {
+            trailSize--;
+            int v = trailVars[trailSize];
+            parent[v] = trailParents[trailSize];
+            rank[v] = trailRanks[trailSize];
+            masks[v] = trailMasks[trailSize];
+            // A variable is only ever bound to a type or to a nat.
+            Object binding = trailBindings[trailSize];
+            types[v] = (binding instanceof Type<?, ?>) ? (Type<?, ?>)binding : null;
+            nats[v] = (binding instanceof Nat<?, ?>) ? (Nat<?, ?>)binding : null;
+            trailBindings[trailSize] = null;
+        }
+        worklistSize = 0;
+        marks--;
+        while (constraints > markConstraints[marks]) {
+            constraints--;
+            constraintLocs[constraints] = null;
+            constraintWhats[constraints] = null;
+        }
+    }
+
+    /**
+     * Keeps the changes since the mark and closes it.  If an outer mark is
+     * still open, they can still be rolled back with it.
+     */
+    public void commit(int mark) {
+        marks--;
+        if (marks == 0) {
+            for (int i = mark; i < trailSize; i++) {
+                trailBindings[i] = null;
+            }
+            trailSize = mark;
+        }
+    }
+
+    /**
+     * Makes two types equal, binding whatever variables that takes.
+     *
+     * @param loc Where the types came from, for errors.
+     * @param expected
+     * @param found
+     * @throws CompilerError If they can't be made equal.
+     */
+    public void unify(Location loc, Type<?, ?> expected, Type<?, ?> found) throws CompilerError {
+        match(loc, expected, found, false);
+        propagate(loc);
+    }
+
+    /**
+     * Makes two types equal, as unify() does, for a value of the found type
+     * going where the expected type says.  The found type's modes only have
+     * to be below the expected type's.
+     */
+    public void flow(Location loc, Type<?, ?> expected, Type<?, ?> found) throws CompilerError {
+        match(loc, expected, found, true);
+        propagate(loc);
+    }
+
+    public void unify(Location loc, Nat<?, ?> expected, Nat<?, ?> found) throws CompilerError {
+        match(loc, expected, found);
+    }
+
+    /**
+     * Constrains a type to a type class.
+     *
+     * @param loc Where the type came from, for errors.
+     * @param t
+     * @param c
+     * @throws CompilerError If t can't be in c.
+     */
+    public void constrain(Location loc, Type<?, ?> t, TypeClass c) throws CompilerError {
+        t = shallow(t);
+        switch (t.tag) {
+        case Ground:
+            GroundTag g = ((Ground)t).groundTag;
+            if ((c.mask & (1 << g.ordinal())) == 0) {
+                throw CompilerError.type(loc, "The type checker expected " + c.pretty + " but found " + g + ".");
+            }
+            break;
+
+        case TypeVar:
+            narrow(loc, ((TypeVar)t).id, c.mask);
+            propagate(loc);
+            break;
+
+        default:
+            throw CompilerError.type(loc, "The type checker expected " + c.pretty + " but found " + t.tag.pretty + ".");
+        }
+    }
+
+    /**
+     * The mode operand of a pointer's or buffer's contents, or CONST if the
+     * type isn't one.
+     */
+    public int mode(Type<?, ?> t) {
+        t = shallow(t);
+        switch (t.tag) {
+        case Buffer:
+            return operand(((Types.Buffer<?, ?>)t).containedMode, ((Types.Buffer<?, ?>)t).modeVar);
+        case Ptr:
+            return operand(((Ptr<?, ?>)t).pointeeMode, ((Ptr<?, ?>)t).modeVar);
+        default:
+            return CONST;
+        }
+    }
+
+    public static int mode(Mode m) {
+        return (m == Mode.Var) ? VAR : CONST;
+    }
+
+    /**
+     * Constrains one mode operand to be below another.
+     *
+     * @param loc Where the constraint came from, for errors.
+     * @param what What has the modes, for errors: "a pointer" or "a buffer".
+     * @param lower
+     * @param upper
+     */
+    public void below(Location loc, String what, int lower, int upper) {
+        if (lower == VAR || upper == CONST || lower == upper) { return; }
+        if (constraints == lowers.length) {
+            int capacity = 2 * constraints;
+            lowers = Arrays.copyOf(lowers, capacity);
+            uppers = Arrays.copyOf(uppers, capacity);
+            constraintLocs = Arrays.copyOf(constraintLocs, capacity);
+            constraintWhats = Arrays.copyOf(constraintWhats, capacity);
+        }
+        lowers[constraints] = lower;
+        uppers[constraints] = upper;
+        constraintLocs[constraints] = loc;
+        constraintWhats[constraints] = what;
+        constraints++;
+    }
+
+    /**
+     * Solves the mode constraints, making each mode variable const only if
+     * something const has to be below it, and var otherwise.  Const is
+     * pushed up the constraints from the variables it starts at, grouped by
+     * their lower variable, so this is linear in the constraints.
+     *
+     * @throws CompilerError The first constraint that puts const below var.
+     */
+    public void modes() throws CompilerError {
+        int[] starts = new int[modeVars + 1];
+        for (int i = 0; i < constraints; i++) {
+            if (lowers[i] >= 0) { starts[lowers[i] + 1]++; }
+        }
+        for (int v = 0; v < modeVars; v++) {
+            starts[v + 1] += starts[v];
+        }
+        int[] next = Arrays.copyOf(starts, modeVars);
+        int[] edges = new int[constraints];
+        for (int i = 0; i < constraints; i++) {
+            if (lowers[i] >= 0) { edges[next[lowers[i]]++] = uppers[i]; }
+        }
+
+        constModes = new boolean[modeVars];
+        int[] stack = new int[modeVars];
+        int top = 0;
+        for (int i = 0; i < constraints; i++) {
+            int upper = uppers[i];
+            if (lowers[i] == CONST && upper >= 0 && !constModes[upper]) {
+                constModes[upper] = true;
+                stack[top++] = upper;
+            }
+        }
+        while (top > 0) {
+            int v = stack[--top];
+            for (int k = starts[v]; k < starts[v + 1]; k++) {
+                int upper = edges[k];
+                if (upper >= 0 && !constModes[upper]) {
+                    constModes[upper] = true;
+                    stack[top++] = upper;
+                }
+            }
+        }
+
+        for (int i = 0; i < constraints; i++) {
+            if (uppers[i] == VAR && solved(lowers[i]) == Mode.Const) {
+                throw CompilerError.type(constraintLocs[i], "The type checker expected " + constraintWhats[i] + " with var contents but found one with const contents.");
+            }
+        }
+    }
+
+    /**
+     * Binds every class that is still free but constrained to the first
+     * ground type in DEFAULTS its constraints allow.  Classes with no
+     * constraints are left free.
+     */
+    public void defaults() {
+        for (int v = 0; v < size; v++) {
+            if (parent[v] != v || types[v] != null || masks[v] == UNCONSTRAINED) { continue; }
+            for (GroundTag g: DEFAULTS) {
+                if ((masks[v] & (1 << g.ordinal())) != 0) {
+                    record(v);
+                    types[v] = GROUNDS[g.ordinal()];
+                    break;
+                }
+            }
+        }
+    }
+
+    private void match(Location loc, Type<?, ?> expected, Type<?, ?> found, boolean flows) throws CompilerError {
+        expected = shallow(expected);
+        found = shallow(found);
+        if (expected == found) { return; }
+
+        if (expected.tag == Types.Tag.TypeVar) {
+            if (found.tag == Types.Tag.TypeVar) {
+                union(loc, ((TypeVar)expected).id, ((TypeVar)found).id);
+            } else {
+                bindType(loc, ((TypeVar)expected).id, found);
+            }
+            return;
+        }
+        if (found.tag == Types.Tag.TypeVar) {
+            bindType(loc, ((TypeVar)found).id, expected);
+            return;
+        }
+
+        if (expected.tag != found.tag) {
+            throw mismatch(loc, expected.tag.pretty, found.tag.pretty);
+        }
+        switch (expected.tag) {
+        case Arrow:
+            Arrow<?, ?> a = (Arrow<?, ?>)expected;
+            Arrow<?, ?> b = (Arrow<?, ?>)found;
+            variables(loc, "a function of " + a.domain.size() + " arguments", a.domain, b.domain, flows);
+            match(loc, a.codomain, b.codomain, flows);
+            break;
+
+        case Buffer:
+            Types.Buffer<?, ?> x = (Types.Buffer<?, ?>)expected;
+            Types.Buffer<?, ?> y = (Types.Buffer<?, ?>)found;
+            modes(loc, "a buffer", operand(x.containedMode, x.modeVar), operand(y.containedMode, y.modeVar), flows);
+            match(loc, x.size, y.size);
+            match(loc, x.contained, y.contained, flows);
+            break;
+
+        case Ground:
+            GroundTag g = ((Ground)expected).groundTag;
+            GroundTag h = ((Ground)found).groundTag;
+            if (g != h) { throw mismatch(loc, g.toString(), h.toString()); }
+            break;
+
+        case Ptr:
+            Ptr<?, ?> p = (Ptr<?, ?>)expected;
+            Ptr<?, ?> q = (Ptr<?, ?>)found;
+            modes(loc, "a pointer", operand(p.pointeeMode, p.modeVar), operand(q.pointeeMode, q.modeVar), flows);
+            match(loc, p.pointee, q.pointee, flows);
+            break;
+
+        case Tuple:
+            ArrayList<? extends Variable<?, ?>> m = ((Types.Tuple<?, ?>)expected).members;
+            variables(loc, "a tuple of " + m.size() + " members", m, ((Types.Tuple<?, ?>)found).members, flows);
+            break;
+
+        default:
+            throw CompilerError.ice(loc, "Unhandled type in unify.  The problematic term was " + expected.toString());
+        }
+    }
+
+    private void match(Location loc, Nat<?, ?> expected, Nat<?, ?> found) throws CompilerError {
+        expected = shallow(expected);
+        found = shallow(found);
+        if (expected == found) { return; }
+
+        if (expected.tag == NatTag.NatVar) {
+            int v = typeVars + ((NatVar)expected).index;
+            if (found.tag == NatTag.NatVar) {
+                union(loc, v, typeVars + ((NatVar)found).index);
+            } else {
+                bindNat(v, found);
+            }
+            return;
+        }
+        if (found.tag == NatTag.NatVar) {
+            bindNat(typeVars + ((NatVar)found).index, expected);
+            return;
+        }
+
+        if (expected.tag != found.tag) {
+            throw mismatch(loc, "the size " + expected, "the size " + found);
+        }
+        switch (expected.tag) {
+        case NatExternal:
+            Object n = ((NatExternal<?, ?>)expected).name;
+            Object o = ((NatExternal<?, ?>)found).name;
+            if (n != o && !n.toString().equals(o.toString())) { throw mismatch(loc, "the size " + n, "the size " + o); }
+            break;
+
+        case NatLiteral:
+            long i = ((NatLiteral)expected).value;
+            long j = ((NatLiteral)found).value;
+            if (i != j) { throw mismatch(loc, "the size " + i, "the size " + j); }
+            break;
+
+        default:
+            throw CompilerError.ice(loc, "Unhandled nat in unify.  The problematic term was " + expected.toString());
+        }
+    }
+
+    /**
+     * A type with every bound variable replaced by what it is bound to.
+     * Variables that are still free are replaced by their roots.
+     */
+    @SuppressWarnings("unchecked")
+    public Type<ResolvedName, Poly> resolve(Type<?, ?> t) {
+        t = shallow(t);
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+            return new Arrow<ResolvedName, Poly>(resolve(arrow.domain), resolve(arrow.codomain));
+
+        case Buffer:
+            Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+            return new Types.Buffer<ResolvedName, Poly>(resolve(buffer.size), solved(operand(buffer.containedMode, buffer.modeVar)), resolve(buffer.contained));
+
+        case Ground:
+            return new Known<ResolvedName, Poly>((Ground)t);
+
+        case Ptr:
+            Ptr<?, ?> ptr = (Ptr<?, ?>)t;
+            return new Ptr<ResolvedName, Poly>(solved(operand(ptr.pointeeMode, ptr.modeVar)), resolve(ptr.pointee));
+
+        case Tuple:
+            return new Types.Tuple<ResolvedName, Poly>(resolve(((Types.Tuple<?, ?>)t).members));
+
+        default:
+            // A free type variable.
+            return (Type<ResolvedName, Poly>)t;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public Nat<ResolvedName, Poly> resolve(Nat<?, ?> n) {
+        n = shallow(n);
+        if (n.tag == NatTag.NatLiteral) {
+            return new NatKnown<ResolvedName, Poly>((NatLiteral)n);
+        }
+        return (Nat<ResolvedName, Poly>)n;
+    }
+
+
+    private int allocate() {
+        if (size == parent.length) {
+            int capacity = 2 * size;
+            int[] newParent = new int[capacity];
+            byte[] newRank = new byte[capacity];
+            Type<?, ?>[] newTypes = new Type<?, ?>[capacity];
+            Nat<?, ?>[] newNats = new Nat<?, ?>[capacity];
+            int[] newMasks = new int[capacity];
+            System.arraycopy(parent, 0, newParent, 0, size);
+            System.arraycopy(rank, 0, newRank, 0, size);
+            System.arraycopy(types, 0, newTypes, 0, size);
+            System.arraycopy(nats, 0, newNats, 0, size);
+            System.arraycopy(masks, 0, newMasks, 0, size);
+            parent = newParent;
+            rank = newRank;
+            types = newTypes;
+            nats = newNats;
+            masks = newMasks;
+            typeVarObjects = Arrays.copyOf(typeVarObjects, capacity);
+            natVarObjects = Arrays.copyOf(natVarObjects, capacity);
+        }
+        parent[size] = size;
+        masks[size] = UNCONSTRAINED;
+        return size++;
+    }
+
+    /**
+     * The root of v's class, compressing the path to it.
+     */
+    private int find(int v) {
+        int root = v;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        while (parent[v] != root) {
+            int next = parent[v];
+            record(v);
+            parent[v] = root;
+            v = next;
+        }
+        return root;
+    }
+
+    /**
+     * Follows variables and Knowns until reaching a structure or a free
+     * variable, which is returned as its root.  The structure's own members
+     * are left as they are.
+     */
+    public Type<?, ?> shallow(Type<?, ?> t) {
+        while (true) {
+            switch (t.tag) {
+            case Known:
+                t = ((Known<?, ?>)t).type;
+                break;
+            case TypeVar:
+                int root = find(((TypeVar)t).id);
+                if (types[root] == null) {
+                    return (root == ((TypeVar)t).id) ? t : var(root);
+                }
+                t = types[root];
+                break;
+            default:
+                return t;
+            }
+        }
+    }
+
+    private Nat<?, ?> shallow(Nat<?, ?> n) {
+        while (true) {
+            switch (n.tag) {
+            case NatKnown:
+                n = ((NatKnown<?, ?>)n).nat;
+                break;
+            case NatVar:
+                int root = find(typeVars + ((NatVar)n).index);
+                if (nats[root] == null) {
+                    return (root == typeVars + ((NatVar)n).index) ? n : natVar(root - typeVars);
+                }
+                n = nats[root];
+                break;
+            default:
+                return n;
+            }
+        }
+    }
+
+    /**
+     * Joins the classes of two free roots, putting the shallower tree under
+     * the deeper one.
+     */
+    private void union(Location loc, int v, int w) throws CompilerError {
+        if (v == w) { return; }
+        if (rank[v] < rank[w]) {
+            int swap = v;
+            v = w;
+            w = swap;
+        }
+        record(w);
+        parent[w] = v;
+        if (rank[v] == rank[w]) {
+            record(v);
+            rank[v]++;
+        }
+        narrow(loc, v, masks[w]);
+    }
+
+    /**
+     * Intersects a free root's mask with another.
+     */
+    private void narrow(Location loc, int root, int mask) throws CompilerError {
+        int narrowed = masks[root] & mask;
+        if (narrowed == masks[root]) { return; }
+        if (narrowed == 0) {
+            throw CompilerError.type(loc, "No type is in every type class this value has to be in.");
+        }
+        record(root);
+        masks[root] = narrowed;
+
+        if ((narrowed & (narrowed - 1)) == 0) {
+            if (worklistSize == worklist.length) {
+                int[] newWorklist = new int[2 * worklistSize];
+                System.arraycopy(worklist, 0, newWorklist, 0, worklistSize);
+                worklist = newWorklist;
+            }
+            worklist[worklistSize++] = root;
+        }
+    }
+
+    /**
+     * Binds each class on the worklist that is still free to the one ground
+     * type left in its mask.
+     */
+    private void propagate(Location loc) throws CompilerError {
+        while (worklistSize > 0) {
+            int root = find(worklist[--worklistSize]);
+            if (types[root] == null) {
+                bindType(loc, root, GROUNDS[Integer.numberOfTrailingZeros(masks[root])]);
+            }
+        }
+    }
+
+    private void bindType(Location loc, int root, Type<?, ?> t) throws CompilerError {
+        if (occurs(root, t)) {
+            throw CompilerError.type(loc, "The type " + resolve(t) + " would have to contain itself.");
+        }
+        if (masks[root] != UNCONSTRAINED) {
+            if (t.tag != Types.Tag.Ground) {
+                throw CompilerError.type(loc, "The type checker expected a ground type but found " + t.tag.pretty + ".");
+            }
+            GroundTag g = ((Ground)t).groundTag;
+            if ((masks[root] & (1 << g.ordinal())) == 0) {
+                throw CompilerError.type(loc, "The type " + g + " is not in every type class this value has to be in.");
+            }
+        }
+        record(root);
+        types[root] = t;
+    }
+
+    private void bindNat(int root, Nat<?, ?> n) {
+        // Nats have no structure, so they can't contain themselves.
+        record(root);
+        nats[root] = n;
+    }
+
+    /**
+     * Whether the variable root occurs in t, once t's bound variables are
+     * followed.
+     */
+    private boolean occurs(int root, Type<?, ?> t) {
+        t = shallow(t);
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> arrow = (Arrow<?, ?>)t;
+            for (Variable<?, ?> v: arrow.domain) {
+                if (occurs(root, v.type)) { return true; }
+            }
+            return occurs(root, arrow.codomain);
+
+        case Buffer:
+            return occurs(root, ((Types.Buffer<?, ?>)t).contained);
+
+        case Ptr:
+            return occurs(root, ((Ptr<?, ?>)t).pointee);
+
+        case Tuple:
+            for (Variable<?, ?> v: ((Types.Tuple<?, ?>)t).members) {
+                if (occurs(root, v.type)) { return true; }
+            }
+            return false;
+
+        case TypeVar:
+            return ((TypeVar)t).id == root;
+
+        default:
+            return false;
+        }
+    }
+
+    private void variables(Location loc, String expected, ArrayList<? extends Variable<?, ?>> vs, ArrayList<? extends Variable<?, ?>> ws, boolean flows) throws CompilerError {
+        if (vs.size() != ws.size()) {
+            throw mismatch(loc, expected, expected.replaceFirst("[0-9]+", Integer.toString(ws.size())));
+        }
+        for (int i = 0; i < vs.size(); i++) {
+            match(loc, vs.get(i).type, ws.get(i).type, flows);
+        }
+    }
+
+    /**
+     * Constrains the modes of two matched pointers or buffers: the found
+     * one below the expected one, and the other way as well unless a value
+     * is flowing.
+     */
+    private void modes(Location loc, String what, int expected, int found, boolean flows) {
+        below(loc, what, found, expected);
+        if (!flows) { below(loc, what, expected, found); }
+    }
+
+    private static int operand(Mode m, int modeVar) {
+        return (modeVar >= 0) ? modeVar : mode(m);
+    }
+
+    /**
+     * The mode an operand was solved to.  Before modes() has run, every
+     * mode variable is var.
+     */
+    private Mode solved(int operand) {
+        if (operand == CONST) { return Mode.Const; }
+        return (operand >= 0 && operand < constModes.length && constModes[operand]) ? Mode.Const : Mode.Var;
+    }
+
+    private ArrayList<Variable<ResolvedName, Poly>> resolve(ArrayList<? extends Variable<?, ?>> vs) {
+        ArrayList<Variable<ResolvedName, Poly>> result = new ArrayList<Variable<ResolvedName, Poly>>();
+        for (Variable<?, ?> v: vs) {
+            result.add(new Variable<ResolvedName, Poly>(v.loc, v.mode, v.name, resolve(v.type)));
+        }
+        return result;
+    }
+
+    private static CompilerError mismatch(Location loc, String expected, String found) {
+        return CompilerError.type(loc, "The type checker expected " + expected + " but found " + found + ".");
+    }
+
+    private void record(int v) {
+        if (marks == 0) { return; }
+        if (trailSize == trailVars.length) {
+            int capacity = 2 * trailSize;
+            int[] newVars = new int[capacity];
+            int[] newParents = new int[capacity];
+            byte[] newRanks = new byte[capacity];
+            int[] newMasks = new int[capacity];
+            Object[] newBindings = new Object[capacity];
+            System.arraycopy(trailVars, 0, newVars, 0, trailSize);
+            System.arraycopy(trailParents, 0, newParents, 0, trailSize);
+            System.arraycopy(trailRanks, 0, newRanks, 0, trailSize);
+            System.arraycopy(trailMasks, 0, newMasks, 0, trailSize);
+            System.arraycopy(trailBindings, 0, newBindings, 0, trailSize);
+            trailVars = newVars;
+            trailParents = newParents;
+            trailRanks = newRanks;
+            trailMasks = newMasks;
+            trailBindings = newBindings;
+        }
+        trailVars[trailSize] = v;
+        trailParents[trailSize] = parent[v];
+        trailRanks[trailSize] = rank[v];
+        trailMasks[trailSize] = masks[v];
+        trailBindings[trailSize] = (types[v] != null) ? types[v] : nats[v];
+        trailSize++;
+    }
+}
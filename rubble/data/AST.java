@@ -1,60 +1,66 @@
 package rubble.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
-import rubble.data.Names.ResolvedName;
-import rubble.data.Types.Poly;
+import rubble.data.Printer.Printable;
 
 /**
  * A container class for the abstract term-level syntax.  Types are elsewhere,
  * as are modes.
  * 
+ * Every node has an id, its number within the declaration it belongs to.
+ * The parser numbers a declaration's nodes from 0 as it finishes them, so a
+ * node's id is above those of its children and the declaration's own id is
+ * the largest.  Nodes the parser builds and then throws away leave gaps.
+ * The later phases keep their results in arrays indexed by id rather than
+ * building a new tree.
+ * 
  * Copyright (c) 2011 Jared Putnam
  * Released under the terms of the 2-clause BSD license, which should be
  * included with this source.
  */
 public final class AST {
     
-    public static final class Binding<Name, Phase> {
+    public static final class Binding<Name, Phase> implements Printable {
         
         public final Location loc;
         public final ArrayList<Variable<Name, Phase>> references;
         public final Expression<Name, Phase> value;
+        public final int id;
         
-        public Binding(Location loc, ArrayList<Variable<Name, Phase>> references, Expression<Name, Phase> value) {
+        public Binding(Location loc, ArrayList<Variable<Name, Phase>> references, Expression<Name, Phase> value, int id) {
             this.loc = loc;
             this.references = references;
             this.value = value;
+            this.id = id;
         }
         
-        public Binding<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            ArrayList<Variable<ResolvedName, Poly>> newReferences = new ArrayList<Variable<ResolvedName, Poly>>();
-            for (Variable<Name, Phase> r: references) {
-                newReferences.add(r.resolveNames(context));
-            }
-            return new Binding<ResolvedName, Poly>(loc, newReferences, value.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(Binding ").append(loc.toString()).append(" ");
+            Printer.appendAll(out, references);
+            value.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            String refs = "";
-            for (Variable<Name, Phase> r: references) {
-                refs += r.toString();
-            }
-            return "(Binding " + loc.toString() + " " + refs + value.toString() + ")";
+            return Printer.show(this);
         }
     }
     
     
     public static enum DeclarationTag { Def, GlobalLet }
     
-    public abstract static class Declaration<Name, Phase> {
+    public abstract static class Declaration<Name, Phase> implements Printable {
         
         public final Location loc;
         public final DeclarationTag tag;
+        public final int id;
         
-        public Declaration(Location loc, DeclarationTag tag) {
+        public Declaration(Location loc, DeclarationTag tag, int id) {
             this.loc = loc;
             this.tag = tag;
+            this.id = id;
         }
     }
     
@@ -65,36 +71,26 @@ public final class AST {
         public final Types.Type<Name, Phase> returnType;
         public final ArrayList<Statement<Name, Phase>> body;
         
-        public Def(Location loc, String name, ArrayList<Variable<Name, Phase>> arguments, Types.Type<Name, Phase> returnType, ArrayList<Statement<Name, Phase>> body) {
-            super(loc, DeclarationTag.Def);
+        public Def(Location loc, String name, ArrayList<Variable<Name, Phase>> arguments, Types.Type<Name, Phase> returnType, ArrayList<Statement<Name, Phase>> body, int id) {
+            super(loc, DeclarationTag.Def, id);
             this.name = name;
             this.arguments = arguments;
             this.returnType = returnType;
             this.body = body;
         }
-        /* 
-        public void resolveNames(NamingContext context) throws CompilerError {
-            context.observeGlobal(loc, name);
-            for (Reference<Phase> r: arguments) {
-                r.resolveNames(context);
-                context.observeArgument(loc, r.name);
-            }
-            returnType.resolveNames(context);
-            for (Statement<Name, Phase> s: body) {
-                s.resolveNames(context);
-            }
-        }
-        */
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Def ").append(loc.toString()).append(" ").append(name).append(" ");
+            Printer.appendAll(out, arguments);
+            out.append(" : ");
+            returnType.print(out);
+            out.append("{");
+            Printer.printAll(out, body);
+            out.append("})");
+        }
+        
         public String toString() {
-            String args = "";
-            for (Variable<Name, Phase> r: arguments) {
-                args += r.toString();
-            }
-            String bodyString = "";
-            for (Statement<Name, Phase> s: body) {
-                bodyString += s.toString();
-            }
-            return "(Def " + loc.toString() + " " + name + " " + args + " : " + returnType.toString() + "{" + bodyString + "})";
+            return Printer.show(this);
         }
     }
     
@@ -102,60 +98,57 @@ public final class AST {
         
         public final ArrayList<Binding<Name, Phase>> bindings;
         
-        public GlobalLet(Location loc, ArrayList<Binding<Name, Phase>> bindings) {
-            super(loc, DeclarationTag.GlobalLet);
+        public GlobalLet(Location loc, ArrayList<Binding<Name, Phase>> bindings, int id) {
+            super(loc, DeclarationTag.GlobalLet, id);
             this.bindings = bindings;
         }
-        /*
-         * Don't forget that resolving the bindings doesn't observe the names.
-        public void resolveNames(NamingContext context) throws CompilerError {
-            for (Binding<Phase> binding: bindings) {
-                binding.resolveNames(context, false);
-            }
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(GlobalLet ").append(loc.toString()).append(" ");
+            Printer.printAll(out, bindings);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            String bs = "";
-            for (Binding<Name, Phase> b: bindings) {
-                bs += b.toString();
-            }
-            return "(GlobalLet " + loc.toString() + " " + bs + ")";
+            return Printer.show(this);
         }
     }
     
     
     public static enum ExpressionTag { AddressOf, Apply, AsType, BufferLiteral, IfE, Index, Number, Tuple, ValueAt, Variable }
     
-    public abstract static class Expression<Name, Phase> {
+    public abstract static class Expression<Name, Phase> implements Printable {
         
         public final Location loc;
         public final Types.Type<Name, Phase> type;
         public final ExpressionTag tag;
+        public final int id;
         
-        public Expression(Location loc, Types.Type<Name, Phase> type, ExpressionTag tag) {
+        public Expression(Location loc, Types.Type<Name, Phase> type, ExpressionTag tag, int id) {
             this.loc = loc;
             this.type = type;
             this.tag = tag;
+            this.id = id;
         }
-        
-        public abstract Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError;
     }
 
     public static final class AddressOf<Name, Phase> extends Expression<Name, Phase> {
         
         public final Expression<Name, Phase> value;
         
-        public AddressOf(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value) {
-            super(loc, type, ExpressionTag.AddressOf);
+        public AddressOf(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value, int id) {
+            super(loc, type, ExpressionTag.AddressOf, id);
             this.value = value;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new AddressOf<ResolvedName, Poly>(loc, type.resolveNames(context), value.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(& ").append(loc.toString()).append(" ");
+            value.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(& " + loc.toString() + " " + value.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -164,18 +157,22 @@ public final class AST {
         public final Expression<Name, Phase> function;
         public final Expression<Name, Phase> argument;
         
-        public Apply(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> function, Expression<Name, Phase> argument) {
-            super(loc, type, ExpressionTag.Apply);
+        public Apply(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> function, Expression<Name, Phase> argument, int id) {
+            super(loc, type, ExpressionTag.Apply, id);
             this.function = function;
             this.argument = argument;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Apply<ResolvedName, Poly>(loc, type.resolveNames(context), function.resolveNames(context), argument.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(A ").append(loc.toString()).append(" ");
+            function.print(out);
+            out.append(" $ ");
+            argument.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(A " + loc.toString() + " " + function.toString() + " $ " + argument.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -183,17 +180,21 @@ public final class AST {
         
         public final Expression<Name, Phase> value;
         
-        public AsType(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value) {
-            super(loc, type, ExpressionTag.AsType);
+        public AsType(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value, int id) {
+            super(loc, type, ExpressionTag.AsType, id);
             this.value = value;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new AsType<ResolvedName, Poly>(loc, type.resolveNames(context), value.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(AsType ").append(loc.toString()).append(" ");
+            value.print(out);
+            out.append(" : ");
+            type.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(AsType " + loc.toString() + " " + value.toString() + " : " + type.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -201,25 +202,19 @@ public final class AST {
         
         public final ArrayList<Expression<Name, Phase>> es;
         
-        public BufferLiteral(Location loc, Types.Type<Name, Phase> type, ArrayList<Expression<Name, Phase>> es) {
-            super(loc, type, ExpressionTag.BufferLiteral);
+        public BufferLiteral(Location loc, Types.Type<Name, Phase> type, ArrayList<Expression<Name, Phase>> es, int id) {
+            super(loc, type, ExpressionTag.BufferLiteral, id);
             this.es = es;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            ArrayList<Expression<ResolvedName, Poly>> newEs = new ArrayList<Expression<ResolvedName, Poly>>();
-            for (Expression<Name, Phase> e: es) {
-                newEs.add(e.resolveNames(context));
-            }
-            return new BufferLiteral<ResolvedName, Poly>(loc, type.resolveNames(context), newEs);
+        public void print(Appendable out) throws IOException {
+            out.append("[").append(loc.toString()).append(" ");
+            Printer.printAll(out, es);
+            out.append("]");
         }
         
         public String toString() {
-            String ess = "";
-            for (Expression<Name, Phase> e: es) {
-                ess += e.toString();
-            }
-            return "[" + loc.toString() + " " + ess + "]";
+            return Printer.show(this);
         }
     }
     
@@ -229,19 +224,25 @@ public final class AST {
         public final Expression<Name, Phase> trueBranch;
         public final Expression<Name, Phase> falseBranch;
         
-        public IfE(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> cond, Expression<Name, Phase> trueBranch, Expression<Name, Phase> falseBranch) {
-            super(loc, type, ExpressionTag.IfE);
+        public IfE(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> cond, Expression<Name, Phase> trueBranch, Expression<Name, Phase> falseBranch, int id) {
+            super(loc, type, ExpressionTag.IfE, id);
             this.cond = cond;
             this.trueBranch = trueBranch;
             this.falseBranch = falseBranch;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new IfE<ResolvedName, Poly>(loc, type.resolveNames(context), cond.resolveNames(context), trueBranch.resolveNames(context), falseBranch.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(IfE ").append(loc.toString()).append(" ");
+            cond.print(out);
+            out.append(" ");
+            trueBranch.print(out);
+            out.append(" ");
+            falseBranch.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(IfE " + loc.toString() + " " + cond.toString() + " " + trueBranch.toString() + " " + falseBranch.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -250,18 +251,22 @@ public final class AST {
         public final Expression<Name, Phase> base;
         public final Expression<Name, Phase> offset;
         
-        public Index(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> base, Expression<Name, Phase> offset) {
-            super(loc, type, ExpressionTag.Index);
+        public Index(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> base, Expression<Name, Phase> offset, int id) {
+            super(loc, type, ExpressionTag.Index, id);
             this.base = base;
             this.offset = offset;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Index<ResolvedName, Poly>(loc, type.resolveNames(context), base.resolveNames(context), offset.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(Index ").append(loc.toString()).append(" ");
+            base.print(out);
+            out.append(" ");
+            offset.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(Index " + loc.toString() + " " + base.toString() + " " + offset.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -269,8 +274,8 @@ public final class AST {
         
         public final String number;
         
-        public Number(Location loc, Types.Type<Name, Phase> type, String number) {
-            super(loc, type, ExpressionTag.Number);
+        public Number(Location loc, Types.Type<Name, Phase> type, String number, int id) {
+            super(loc, type, ExpressionTag.Number, id);
             this.number = number;
         }
         
@@ -278,12 +283,12 @@ public final class AST {
             return number.charAt(0) != '-' && !(number.equals("0"));
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Number<ResolvedName, Poly>(loc, type.resolveNames(context), number);
+        public void print(Appendable out) throws IOException {
+            out.append("(").append(loc.toString()).append(" {").append(number).append("})");
         }
         
         public String toString() {
-            return "(" + loc.toString() + " {" + number + "})";
+            return Printer.show(this);
         }
     }
     
@@ -291,17 +296,17 @@ public final class AST {
         
         public final Name name;
         
-        public Reference(Location loc, Types.Type<Name, Phase> type, Name name) {
-            super(loc, type, ExpressionTag.Variable);
+        public Reference(Location loc, Types.Type<Name, Phase> type, Name name, int id) {
+            super(loc, type, ExpressionTag.Variable, id);
             this.name = name;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Reference<ResolvedName, Poly>(loc, type.resolveNames(context), context.resolve(loc, name.toString()));
+        public void print(Appendable out) throws IOException {
+            out.append("(Var ").append(loc.toString()).append(" {").append(name.toString()).append("})");
         }
         
         public String toString() {
-            return "(Var " + loc.toString() + " {" + name.toString() + "})";
+            return Printer.show(this);
         }
     }
     
@@ -309,25 +314,19 @@ public final class AST {
         
         public final ArrayList<Expression<Name, Phase>> es;
         
-        public Tuple(Location loc, Types.Type<Name, Phase> type, ArrayList<Expression<Name, Phase>> es) {
-            super(loc, type, ExpressionTag.Tuple);
+        public Tuple(Location loc, Types.Type<Name, Phase> type, ArrayList<Expression<Name, Phase>> es, int id) {
+            super(loc, type, ExpressionTag.Tuple, id);
             this.es = es;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            ArrayList<Expression<ResolvedName, Poly>> newEs = new ArrayList<Expression<ResolvedName, Poly>>();
-            for (Expression<Name, Phase> e: es) {
-                newEs.add(e.resolveNames(context));
-            }
-            return new Tuple<ResolvedName, Poly>(loc, type.resolveNames(context), newEs);
+        public void print(Appendable out) throws IOException {
+            out.append("(Tuple ").append(loc.toString()).append(" ");
+            Printer.printAll(out, es);
+            out.append(")");
         }
         
         public String toString() {
-            String ess = "";
-            for (Expression<Name, Phase> e: es) {
-                ess += e.toString();
-            }
-            return "(Tuple " + loc.toString() + " " + ess + ")";
+            return Printer.show(this);
         }
     }
     
@@ -335,53 +334,55 @@ public final class AST {
         
         public final Expression<Name, Phase> value;
         
-        public ValueAt(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value) {
-            super(loc, type, ExpressionTag.ValueAt);
+        public ValueAt(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> value, int id) {
+            super(loc, type, ExpressionTag.ValueAt, id);
             this.value = value;
         }
         
-        public Expression<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new ValueAt<ResolvedName, Poly>(loc, type.resolveNames(context), value.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(* ").append(loc.toString()).append(" ");
+            value.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(* " + loc.toString() + " " + value.toString() + ")";
+            return Printer.show(this);
         }
     }
     
     
     public static enum LValueTag { Direct, IndexL, Indirect, TupleL };
     
-    public abstract static class LValue<Name, Phase>{
+    public abstract static class LValue<Name, Phase> implements Printable {
         
         public final Location loc;
         public final Types.Type<Name, Phase> type;
         public final LValueTag tag;
+        public final int id;
         
-        public LValue(Location loc, Types.Type<Name, Phase> type, LValueTag tag) {
+        public LValue(Location loc, Types.Type<Name, Phase> type, LValueTag tag, int id) {
             this.loc = loc;
             this.type = type;
             this.tag = tag;
+            this.id = id;
         }
-        
-        public abstract LValue<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError;
     }
     
     public static final class Direct<Name, Phase> extends LValue<Name, Phase> {
         
         public final Name name;
         
-        public Direct(Location loc, Types.Type<Name, Phase> type, Name name) {
-            super(loc, type, LValueTag.Direct);
+        public Direct(Location loc, Types.Type<Name, Phase> type, Name name, int id) {
+            super(loc, type, LValueTag.Direct, id);
             this.name = name;
         }
         
-        public LValue<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Direct<ResolvedName, Poly>(loc, type.resolveNames(context), context.resolve(loc, name.toString())); 
+        public void print(Appendable out) throws IOException {
+            out.append("(Direct ").append(loc.toString()).append(" {").append(String.valueOf(name)).append("})");
         }
         
         public String toString() {
-            return "(Direct " + loc.toString() + " {" + name + "})";
+            return Printer.show(this);
         }
     }
     
@@ -390,18 +391,22 @@ public final class AST {
         public final LValue<Name, Phase> base;
         public final Expression<Name, Phase> offset;
         
-        public IndexL(Location loc, Types.Type<Name, Phase> type, LValue<Name, Phase> base, Expression<Name, Phase> offset) {
-            super(loc, type, LValueTag.IndexL);
+        public IndexL(Location loc, Types.Type<Name, Phase> type, LValue<Name, Phase> base, Expression<Name, Phase> offset, int id) {
+            super(loc, type, LValueTag.IndexL, id);
             this.base = base;
             this.offset = offset;
         }
         
-        public LValue<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new IndexL<ResolvedName, Poly>(loc, type.resolveNames(context), base.resolveNames(context), offset.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(IndexL ").append(loc.toString()).append(" ");
+            base.print(out);
+            out.append("[");
+            offset.print(out);
+            out.append("])");
         }
         
         public String toString() {
-            return "(IndexL " + loc.toString() + " " + base.toString() + "[" + offset.toString() + "])";
+            return Printer.show(this);
         }
     }
     
@@ -409,17 +414,19 @@ public final class AST {
         
         public final Expression<Name, Phase> address;
         
-        public Indirect(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> address) {
-            super(loc, type, LValueTag.Indirect);
+        public Indirect(Location loc, Types.Type<Name, Phase> type, Expression<Name, Phase> address, int id) {
+            super(loc, type, LValueTag.Indirect, id);
             this.address = address;
         }
         
-        public LValue<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            return new Indirect<ResolvedName, Poly>(loc, type.resolveNames(context), address.resolveNames(context));
+        public void print(Appendable out) throws IOException {
+            out.append("(Indirect ").append(loc.toString()).append(" ");
+            address.print(out);
+            out.append(")");
         }
         
         public String toString() {
-            return "(Indirect " + loc.toString() + " " + address.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -427,42 +434,36 @@ public final class AST {
         
         public final ArrayList<LValue<Name, Phase>> lValues;
         
-        public TupleL(Location loc, Types.Type<Name, Phase> type, ArrayList<LValue<Name, Phase>> lValues) {
-            super(loc, type, LValueTag.TupleL);
+        public TupleL(Location loc, Types.Type<Name, Phase> type, ArrayList<LValue<Name, Phase>> lValues, int id) {
+            super(loc, type, LValueTag.TupleL, id);
             this.lValues = lValues;
         }
         
-        public LValue<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
-            ArrayList<LValue<ResolvedName, Poly>> newLValues = new ArrayList<LValue<ResolvedName, Poly>>();
-            for (LValue<Name, Phase> lValue: lValues) {
-                newLValues.add(lValue.resolveNames(context));
-            }
-            return new TupleL<ResolvedName, Poly>(loc, type.resolveNames(context), newLValues);
+        public void print(Appendable out) throws IOException {
+            out.append("(TupleL ").append(loc.toString()).append(" ");
+            Printer.printAll(out, lValues);
+            out.append(")");
         }
         
         public String toString() {
-            String lvs = "";
-            for (LValue<Name, Phase> l: lValues) {
-                lvs += l.toString();
-            }
-            return "(TupleL " + loc.toString() + " " + lvs + ")";
+            return Printer.show(this);
         }
     }
     
     
     public static enum StatementTag { Assign, Break, Call, Forever, IfS, Let, Nested, Return }
     
-    public abstract static class Statement<Name, Phase> {
+    public abstract static class Statement<Name, Phase> implements Printable {
         
         public final Location loc;
         public final StatementTag tag;
+        public final int id;
         
-        public Statement(Location loc, StatementTag tag) {
+        public Statement(Location loc, StatementTag tag, int id) {
             this.loc = loc;
             this.tag = tag;
+            this.id = id;
         }
-        
-        // public abstract void resolveNames(NamingContext context) throws CompilerError;
     }
     
     public static final class Assign<Name, Phase> extends Statement<Name, Phase> {
@@ -470,19 +471,22 @@ public final class AST {
         public final LValue<Name, Phase> lValue;
         public final Expression<Name, Phase> value;
         
-        public Assign(Location loc, LValue<Name, Phase> lValue, Expression<Name, Phase> value) {
-            super(loc, StatementTag.Assign);
+        public Assign(Location loc, LValue<Name, Phase> lValue, Expression<Name, Phase> value, int id) {
+            super(loc, StatementTag.Assign, id);
             this.lValue = lValue;
             this.value = value;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            lValue.resolveNames(context);
-            value.resolveNames(context);
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Assign ").append(loc.toString()).append(" ");
+            lValue.print(out);
+            out.append(" ");
+            value.print(out);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            return "(Assign " + loc.toString() + " " + lValue.toString() + " " + value.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -490,15 +494,17 @@ public final class AST {
         
         public final int depth;
         
-        public Break(Location loc, int depth) {
-            super(loc, StatementTag.Break);
+        public Break(Location loc, int depth, int id) {
+            super(loc, StatementTag.Break, id);
             this.depth = depth;
         }
         
-        // public void resolveNames(NamingContext context) throws CompilerError { }
+        public void print(Appendable out) throws IOException {
+            out.append("(Break ").append(loc.toString()).append(" ").append(Integer.toString(depth)).append(")");
+        }
         
         public String toString() {
-            return "(Break " + loc.toString() + " " + depth + ")";
+            return Printer.show(this);
         }
     }
     
@@ -507,19 +513,22 @@ public final class AST {
         public final Expression<Name, Phase> function;
         public final Expression<Name, Phase> argument;
         
-        public Call(Location loc, Expression<Name, Phase> function, Expression<Name, Phase> argument) {
-            super(loc, StatementTag.Call);
+        public Call(Location loc, Expression<Name, Phase> function, Expression<Name, Phase> argument, int id) {
+            super(loc, StatementTag.Call, id);
             this.function = function;
             this.argument = argument;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            function.resolveNames(context);
-            argument.resolveNames(context);
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Call ").append(loc.toString()).append(" ");
+            function.print(out);
+            out.append(" ");
+            argument.print(out);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            return "(Call " + loc.toString() + " " + function.toString() + " " + argument.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -528,25 +537,20 @@ public final class AST {
         public final String label;
         public final ArrayList<Statement<Name, Phase>> body;
         
-        public Forever(Location loc, String label, ArrayList<Statement<Name, Phase>> block) {
-            super(loc, StatementTag.Forever);
+        public Forever(Location loc, String label, ArrayList<Statement<Name, Phase>> block, int id) {
+            super(loc, StatementTag.Forever, id);
             this.label = label;
             this.body = block;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            context.newScope();
-            for (Statement<Name, Phase> s: body) {
-                s.resolveNames(context);
-            }
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Forever ").append(loc.toString()).append(" {").append(label).append("} ");
+            Printer.printAll(out, body);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            String bs = "";
-            for (Statement<Name, Phase> b: body) {
-                bs += b.toString();
-            }
-            return "(Forever " + loc.toString() + " {" + label + "} "  + bs + ")";
+            return Printer.show(this);
         }
     }
     
@@ -556,33 +560,25 @@ public final class AST {
         public final ArrayList<Statement<Name, Phase>> trueBranch;
         public final ArrayList<Statement<Name, Phase>> falseBranch;
         
-        public IfS(Location loc, Expression<Name, Phase> cond, ArrayList<Statement<Name, Phase>> trueBranch, ArrayList<Statement<Name, Phase>> falseBranch) {
-            super(loc, StatementTag.IfS);
+        public IfS(Location loc, Expression<Name, Phase> cond, ArrayList<Statement<Name, Phase>> trueBranch, ArrayList<Statement<Name, Phase>> falseBranch, int id) {
+            super(loc, StatementTag.IfS, id);
             this.cond = cond;
             this.trueBranch = trueBranch;
             this.falseBranch = falseBranch;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            cond.resolveNames(context);
-            for (Statement<Name, Phase> s: trueBranch) {
-                s.resolveNames(context);
-            }
-            for (Statement<Name, Phase> s: falseBranch) {
-                s.resolveNames(context);
-            }
-        }
-        */
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(IfS ").append(loc.toString()).append(" ");
+            cond.print(out);
+            out.append(" ");
+            Printer.printAll(out, trueBranch);
+            out.append(" ");
+            Printer.printAll(out, falseBranch);
+            out.append(")");
+        }
+        
         public String toString() {
-            String ts = "";
-            for (Statement<Name, Phase> t: trueBranch) {
-                ts += t.toString();
-            }
-            String fs = "";
-            for (Statement<Name, Phase> f: falseBranch) {
-                fs += f.toString();
-            }
-            return "(IfS " + loc.toString() + " " + cond.toString() + " " + ts + " " + fs + ")";
+            return Printer.show(this);
         }
     }
     
@@ -590,24 +586,19 @@ public final class AST {
         
         public final ArrayList<Binding<Name, Phase>> bindings;
         
-        public Let(Location loc, ArrayList<Binding<Name, Phase>> bindings) {
-            super(loc, StatementTag.Let);
+        public Let(Location loc, ArrayList<Binding<Name, Phase>> bindings, int id) {
+            super(loc, StatementTag.Let, id);
             this.bindings = bindings;
         }
-        /*
-         * Don't forget that binding resolution doesn't observe the names.
-        public void resolveNames(NamingContext context) throws CompilerError {
-            for (Binding<Phase> b: bindings) {
-                b.resolveNames(context, true);
-            }
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Let ").append(loc.toString()).append(" ");
+            Printer.printAll(out, bindings);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            String bs = "";
-            for (Binding<Name, Phase> b: bindings) {
-                bs += b.toString();
-            }
-            return "(Let " + loc.toString() + " " + bs + ")";
+            return Printer.show(this);
         }
     }
     
@@ -615,24 +606,19 @@ public final class AST {
         
         public final ArrayList<Statement<Name, Phase>> body;
         
-        public Nested(Location loc, ArrayList<Statement<Name, Phase>> statements) {
-            super(loc, StatementTag.Nested);
+        public Nested(Location loc, ArrayList<Statement<Name, Phase>> statements, int id) {
+            super(loc, StatementTag.Nested, id);
             this.body = statements;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            context.newScope();
-            for (Statement<Name, Phase> s: body) {
-                s.resolveNames(context);
-            }
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Nested ").append(loc.toString()).append(" ");
+            Printer.printAll(out, body);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            String ss = "";
-            for (Statement<Name, Phase> s: body) {
-                ss += s.toString();
-            }
-            return "(Nested " + loc.toString() + " " + ss + ")";
+            return Printer.show(this);
         }
     }
     
@@ -640,17 +626,19 @@ public final class AST {
         
         public final Expression<Name, Phase> value;
         
-        public Return(Location loc, Expression<Name, Phase> value) {
-            super(loc, StatementTag.Return);
+        public Return(Location loc, Expression<Name, Phase> value, int id) {
+            super(loc, StatementTag.Return, id);
             this.value = value;
         }
-        /*
-        public void resolveNames(NamingContext context) throws CompilerError {
-            value.resolveNames(context);
+        
+        public void print(Appendable out) throws IOException {
+            out.append("(Return ").append(loc.toString()).append(" ");
+            value.print(out);
+            out.append(")");
         }
-        */
+        
         public String toString() {
-            return "(Return " + loc.toString() + " " + value.toString() + ")";
+            return Printer.show(this);
         }
     }
 }
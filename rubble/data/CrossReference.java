@@ -0,0 +1,133 @@
+package rubble.data;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import rubble.data.Names.*;
+
+/**
+ * Where each name in a program is used.  Every resolution already knows
+ * which of its nodes use which names; this adds, for each global, the
+ * declarations that use it, so finding every use of a global only visits
+ * the declarations that have one.  Arguments and locals are only used in
+ * the declaration that defines them.
+ *
+ * The entries are built in two passes over the declarations, one counting
+ * each global's users and one filling in arrays of exactly that size, in
+ * order.  When one declaration is resolved again, replace() updates only
+ * the entries for the globals its old and new resolutions use.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class CrossReference {
+
+    private static final int[] NONE = new int[0];
+
+    private final ArrayList<Resolution> resolutions;
+
+    /** The declarations using each global, in increasing order. */
+    private final IdentityHashMap<ResolvedName, int[]> users = new IdentityHashMap<ResolvedName, int[]>();
+
+    public CrossReference(ArrayList<Resolution> resolutions) {
+        this.resolutions = new ArrayList<Resolution>(resolutions);
+
+        // Each global's count of users, which becomes where the next user
+        // goes once its array is made.
+        IdentityHashMap<ResolvedName, int[]> counts = new IdentityHashMap<ResolvedName, int[]>();
+        for (Resolution r: resolutions) {
+            for (ResolvedName name: r.used()) {
+                if (name.tag != Tag.Global && name.tag != Tag.Builtin) { continue; }
+                int[] count = counts.get(name);
+                if (count == null) {
+                    count = new int[1];
+                    counts.put(name, count);
+                }
+                count[0]++;
+            }
+        }
+        for (Map.Entry<ResolvedName, int[]> entry: counts.entrySet()) {
+            users.put(entry.getKey(), new int[entry.getValue()[0]]);
+            entry.getValue()[0] = 0;
+        }
+        for (int i = 0; i < resolutions.size(); i++) {
+            for (ResolvedName name: resolutions.get(i).used()) {
+                if (name.tag != Tag.Global && name.tag != Tag.Builtin) { continue; }
+                users.get(name)[counts.get(name)[0]++] = i;
+            }
+        }
+    }
+
+    public Resolution resolution(int declaration) {
+        return resolutions.get(declaration);
+    }
+
+    /**
+     * The indices of the declarations that use a global or builtin, in
+     * order.
+     */
+    public int[] declarationsUsing(ResolvedName global) {
+        int[] ds = users.get(global);
+        return (ds == null) ? NONE : ds.clone();
+    }
+
+    /**
+     * The ids of the nodes in a declaration that use a name.
+     */
+    public int[] uses(int declaration, ResolvedName name) {
+        return resolutions.get(declaration).uses(name);
+    }
+
+    /**
+     * Replaces the resolution of the i-th declaration with a new one.
+     *
+     * @param i
+     * @param resolution
+     */
+    public void replace(int i, Resolution resolution) {
+        for (ResolvedName name: resolutions.get(i).used()) {
+            if (name.tag == Tag.Global || name.tag == Tag.Builtin) { remove(name, i); }
+        }
+        resolutions.set(i, resolution);
+        for (ResolvedName name: resolution.used()) {
+            if (name.tag == Tag.Global || name.tag == Tag.Builtin) { add(name, i); }
+        }
+    }
+
+
+    /**
+     * Inserts one user, keeping the order.  Only replace() needs this.
+     */
+    private void add(ResolvedName name, int declaration) {
+        int[] ds = users.get(name);
+        if (ds == null) {
+            users.put(name, new int[] { declaration });
+            return;
+        }
+
+        int at = 0;
+        while (at < ds.length && ds[at] < declaration) { at++; }
+        int[] newDs = new int[ds.length + 1];
+        System.arraycopy(ds, 0, newDs, 0, at);
+        newDs[at] = declaration;
+        System.arraycopy(ds, at, newDs, at + 1, ds.length - at);
+        users.put(name, newDs);
+    }
+
+    private void remove(ResolvedName name, int declaration) {
+        int[] ds = users.get(name);
+        int at = 0;
+        while (ds[at] != declaration) { at++; }
+        if (ds.length == 1) {
+            users.remove(name);
+            return;
+        }
+
+        int[] newDs = new int[ds.length - 1];
+        System.arraycopy(ds, 0, newDs, 0, at);
+        System.arraycopy(ds, at + 1, newDs, at, ds.length - at - 1);
+        users.put(name, newDs);
+    }
+}
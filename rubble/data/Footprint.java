@@ -0,0 +1,348 @@
+package rubble.data;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import rubble.data.Printer.Printable;
+
+/**
+ * Estimates how much heap the front end's data uses, broken down by kind of
+ * node.  A driver or a test hands it what a phase produced (tokens or
+ * declarations), and it reports, for each token tag, declaration,
+ * statement, expression, l-value, type and nat tag, and for Location,
+ * ArrayList, String and Variable, how many there are, their shallow size,
+ * and their retained size.
+ *
+ * Sizes are estimates for a 64-bit JVM with compressed references: a 12
+ * byte header, 4 byte references, and objects padded to 8 bytes.  An
+ * ArrayList's backing array is assumed to be exactly full.  A node's
+ * retained size is its own size plus everything under it that nothing
+ * measured earlier already claimed, so shared objects like Types.UNKNOWN
+ * are counted once.  Retained sizes of nested nodes of the same kind
+ * overlap, so a row's retained size can exceed the total.
+ *
+ * Measuring reads the structures and doesn't change them, and it only
+ * runs when asked, so it doesn't disturb the phases being measured.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Footprint implements Printable {
+
+    private static final long HEADER = 12;
+    private static final long REFERENCE = 4;
+
+    public static final class Row {
+        public long count = 0;
+        public long shallow = 0;
+        public long retained = 0;
+    }
+
+    private static final Hashtable<Class<?>, Long> shallowSizes = new Hashtable<Class<?>, Long>();
+
+    private final TreeMap<String, Row> rows = new TreeMap<String, Row>();
+    private final IdentityHashMap<Object, Object> seen = new IdentityHashMap<Object, Object>();
+    private long total = 0;
+
+    /**
+     * The rows measured so far, by name, such as "Expression.Apply",
+     * "Token.Identifier", or "Location".
+     */
+    public Map<String, Row> rows() {
+        return rows;
+    }
+
+    /**
+     * The estimated number of bytes measured so far, with nothing counted
+     * twice.
+     */
+    public long total() {
+        return total;
+    }
+
+    public void addTokens(List<Token> tokens) {
+        for (Token t: tokens) {
+            token(t);
+        }
+    }
+
+    public <Name, Phase> void addDeclarations(ArrayList<? extends AST.Declaration<Name, Phase>> declarations) {
+        Visitor.walk(declarations, new Measure<Name, Phase>());
+    }
+
+    public void print(Appendable out) throws IOException {
+        out.append(String.format("%-24s %10s %12s %12s%n", "kind", "count", "shallow", "retained"));
+        for (Map.Entry<String, Row> e: rows.entrySet()) {
+            Row r = e.getValue();
+            out.append(String.format("%-24s %10d %12d %12d%n", e.getKey(), r.count, r.shallow, r.retained));
+        }
+        out.append(String.format("%-24s %10s %12d%n", "total", "", total));
+    }
+
+    public String toString() {
+        return Printer.show(this);
+    }
+
+
+    /**
+     * Folds the retained size up the tree.  Each node's value is what it
+     * owns directly plus its children's values.
+     */
+    private final class Measure<Name, Phase> extends Visitor.Fold<Name, Phase, Long> {
+
+        private long sum(String kind, Object node, long own, List<Long> children) {
+            long retained = own;
+            for (Long child: children) {
+                retained += child;
+            }
+            count(kind, node, retained);
+            return retained;
+        }
+
+        protected Long foldDeclaration(AST.Declaration<Name, Phase> d, List<Long> children) {
+            long own = claim(d) + location(d.loc);
+            if (d.tag == AST.DeclarationTag.Def) {
+                AST.Def<Name, Phase> def = (AST.Def<Name, Phase>)d;
+                own += string(def.name) + variables(def.arguments) + type(def.returnType) + list(def.body);
+            } else {
+                own += list(((AST.GlobalLet<Name, Phase>)d).bindings);
+            }
+            return sum("Declaration." + d.tag, d, own, children);
+        }
+
+        protected Long foldBinding(AST.Binding<Name, Phase> b, List<Long> children) {
+            long own = claim(b) + location(b.loc) + variables(b.references);
+            return sum("Binding", b, own, children);
+        }
+
+        protected Long foldStatement(AST.Statement<Name, Phase> s, List<Long> children) {
+            long own = claim(s) + location(s.loc);
+            switch (s.tag) {
+            case Forever:
+                AST.Forever<Name, Phase> forever = (AST.Forever<Name, Phase>)s;
+                own += string(forever.label) + list(forever.body);
+                break;
+            case IfS:
+                AST.IfS<Name, Phase> ifs = (AST.IfS<Name, Phase>)s;
+                own += list(ifs.trueBranch) + list(ifs.falseBranch);
+                break;
+            case Let:
+                own += list(((AST.Let<Name, Phase>)s).bindings);
+                break;
+            case Nested:
+                own += list(((AST.Nested<Name, Phase>)s).body);
+                break;
+            default:
+                // The rest only hold other nodes.
+            }
+            return sum("Statement." + s.tag, s, own, children);
+        }
+
+        protected Long foldExpression(AST.Expression<Name, Phase> e, List<Long> children) {
+            long own = claim(e) + location(e.loc) + type(e.type);
+            switch (e.tag) {
+            case BufferLiteral:
+                own += list(((AST.BufferLiteral<Name, Phase>)e).es);
+                break;
+            case Number:
+                own += string(((AST.Number<Name, Phase>)e).number);
+                break;
+            case Tuple:
+                own += list(((AST.Tuple<Name, Phase>)e).es);
+                break;
+            case Variable:
+                own += name(((AST.Reference<Name, Phase>)e).name);
+                break;
+            default:
+                // The rest only hold other nodes.
+            }
+            return sum("Expression." + e.tag, e, own, children);
+        }
+
+        protected Long foldLValue(AST.LValue<Name, Phase> l, List<Long> children) {
+            long own = claim(l) + location(l.loc) + type(l.type);
+            switch (l.tag) {
+            case Direct:
+                own += name(((AST.Direct<Name, Phase>)l).name);
+                break;
+            case TupleL:
+                own += list(((AST.TupleL<Name, Phase>)l).lValues);
+                break;
+            default:
+                // The rest only hold other nodes.
+            }
+            return sum("LValue." + l.tag, l, own, children);
+        }
+    }
+
+
+    private void count(String kind, Object o, long retained) {
+        Row r = rows.get(kind);
+        if (r == null) {
+            r = new Row();
+            rows.put(kind, r);
+        }
+        r.count++;
+        r.shallow += shallow(o);
+        r.retained += retained;
+    }
+
+    /**
+     * Marks o as measured and adds its shallow size to the total.
+     *
+     * @return o's shallow size, or 0 if it was already measured.
+     */
+    private long claim(Object o) {
+        if (o == null || seen.put(o, o) != null) { return 0; }
+        long size = shallow(o);
+        total += size;
+        return size;
+    }
+
+    private long token(Token t) {
+        long retained = claim(t) + location(t.loc) + string(t.source);
+        if (!seen.containsKey(t.subtokens)) {
+            retained += list(t.subtokens);
+            for (Token sub: t.subtokens) {
+                retained += token(sub);
+            }
+        }
+        count("Token." + t.tag, t, retained);
+        return retained;
+    }
+
+    private long location(Location loc) {
+        long size = claim(loc);
+        if (size > 0) { count("Location", loc, size); }
+        return size;
+    }
+
+    private long string(String s) {
+        if (s == null || seen.containsKey(s)) { return 0; }
+        long size = claim(s) + array(s.length(), 1);
+        total += size - shallow(s);
+        count("String", s, size);
+        return size;
+    }
+
+    private long name(Object name) {
+        if (name instanceof String) { return string((String)name); }
+
+        // Resolved names are shared by every reference to them.
+        return claim(name);
+    }
+
+    private long list(ArrayList<?> list) {
+        if (seen.containsKey(list)) { return 0; }
+        long size = claim(list) + array(list.size(), REFERENCE);
+        total += size - shallow(list);
+        count("ArrayList", list, size);
+        return size;
+    }
+
+    private <Name, Phase> long variables(ArrayList<Variable<Name, Phase>> vs) {
+        long retained = list(vs);
+        for (Variable<Name, Phase> v: vs) {
+            if (seen.containsKey(v)) { continue; }
+            long size = claim(v) + location(v.loc) + string(v.name) + type(v.type);
+            count("Variable", v, size);
+            retained += size;
+        }
+        return retained;
+    }
+
+    private <Name, Phase> long type(Types.Type<Name, Phase> t) {
+        if (t == null || seen.containsKey(t)) { return 0; }
+        long retained = claim(t);
+        switch (t.tag) {
+        case Arrow:
+            Types.Arrow<Name, Phase> arrow = (Types.Arrow<Name, Phase>)t;
+            retained += variables(arrow.domain) + type(arrow.codomain);
+            break;
+        case Buffer:
+            Types.Buffer<Name, Phase> buffer = (Types.Buffer<Name, Phase>)t;
+            retained += nat(buffer.size) + type(buffer.contained);
+            break;
+        case Known:
+            retained += type(((Types.Known<?, ?>)t).type);
+            break;
+        case Ptr:
+            retained += type(((Types.Ptr<Name, Phase>)t).pointee);
+            break;
+        case Tuple:
+            retained += variables(((Types.Tuple<Name, Phase>)t).members);
+            break;
+        default:
+            // Ground, TypeVar and Unknown hold no other objects.
+        }
+        count("Type." + t.tag, t, retained);
+        return retained;
+    }
+
+    private <Name, Phase> long nat(Types.Nat<Name, Phase> n) {
+        if (n == null || seen.containsKey(n)) { return 0; }
+        long retained = claim(n);
+        switch (n.tag) {
+        case NatExternal:
+            retained += name(((Types.NatExternal<Name, Phase>)n).name);
+            break;
+        case NatKnown:
+            retained += nat(((Types.NatKnown<?, ?>)n).nat);
+            break;
+        default:
+            // Literals, variables and unknowns hold no other objects.
+        }
+        count("Nat." + n.tag, n, retained);
+        return retained;
+    }
+
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long array(int length, long elementSize) {
+        return align(HEADER + 4 + length * elementSize);
+    }
+
+    /**
+     * The size of an instance of o's class, not counting anything it refers
+     * to.  Strings and ArrayLists are measured without their arrays, which
+     * are added by the callers above.
+     */
+    private static long shallow(Object o) {
+        Class<?> c = o.getClass();
+        Long size = shallowSizes.get(c);
+        if (size != null) { return size; }
+
+        long bytes = HEADER;
+        for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+            for (Field f: k.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers())) { continue; }
+                Class<?> t = f.getType();
+                if (t == long.class || t == double.class) {
+                    bytes += 8;
+                } else if (t == int.class || t == float.class) {
+                    bytes += 4;
+                } else if (t == short.class || t == char.class) {
+                    bytes += 2;
+                } else if (t == byte.class || t == boolean.class) {
+                    bytes += 1;
+                } else {
+                    bytes += REFERENCE;
+                }
+            }
+        }
+        size = align(bytes);
+        shallowSizes.put(c, size);
+        return size;
+    }
+}
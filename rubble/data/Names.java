@@ -12,7 +12,16 @@ import rubble.data.Types.*;
  */
 public final class Names {
     
-    public static enum Tag { Argument, Global, Local }
+    public static enum Tag { Argument, Builtin, Global, Local }
+    
+    /**
+     * The names every program starts with.  Operators are parsed as
+     * references to these, and () is the unit value.
+     */
+    public static final String[] builtins = {
+        "()", "true", "false", "not", "negate",
+        "+", "-", "*", "/", "<", ">", "<=", ">=", "==", "!=", "&&", "||"
+    };
     
     public static abstract class ResolvedName {
         
@@ -43,6 +52,21 @@ public final class Names {
         }
     }
     
+    /**
+     * A name from the list above.  Builtins are overloaded, so they have no
+     * single type; the type checker knows them by their source.
+     */
+    public static final class Builtin extends ResolvedName {
+        
+        public Builtin(String source) {
+            super(Tag.Builtin, Mode.Const, source, null);
+        }
+        
+        public String toString() {
+            return "B " + source;
+        }
+    }
+    
     public static final class Global extends ResolvedName {
         
         public Global(Mode mode, String source, Type<ResolvedName, Poly> type) {
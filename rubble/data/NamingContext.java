@@ -1,6 +1,6 @@
 package rubble.data;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
 
 import rubble.data.Names.*;
 import rubble.data.Types.*;
@@ -9,105 +9,354 @@ import rubble.data.Types.*;
  * The naming contexts used to perform name resolution.  The context is also
  * used to initialize type checking.  This is abstract, though, to make the
  * whole thing type safe.  The concrete version should be in the type checker.
- * 
+ *
+ * Arguments and locals are in a single open-addressing table that maps each
+ * name to its innermost definition, so a lookup is one probe no matter how
+ * deeply the scopes are nested.  Defining an argument or local logs
+ * whatever it shadowed, and leaving a scope replays the log back to where
+ * the scope began.  Names not found there are looked up in the globals,
+ * which several contexts can share once they are frozen.
+ *
  * Copyright (c) 2011 Jared Putnam
  * Released under the terms of the 2-clause BSD license, which should be
  * included with this source.
  */
 public final class NamingContext {
-    
-    private final static class Locals {
-        
-        public final static Locals NIL = new Locals(null, 0);
-        
-        private final Hashtable<String, Local> locals;
-        private int level;
-        public final Locals next;
-        
-        private Locals(Locals next, int level) {
-            this.locals = new Hashtable<String, Local>();
-            this.level = level;
-            this.next = next;
-        }
-        
-        public Local find(String name) {
-            Local l = locals.get(name);
-            if (l != null) { return l; }
-            if (next != null) { return next.find(name); }
-            return null;
-        }
-        
-        public Locals nestScope() {
-            return new Locals(this, level);
-        }
-        
-        public void observe(Location loc, String name, Mode mode, Type<ResolvedName, Poly> type) throws CompilerError {
-            if (locals.containsKey(name)) {
-                throw CompilerError.check(loc, "The name " + name + " is already defined in this scope.");
+
+    /**
+     * The global names, which are visible everywhere.  Once frozen, the
+     * table can't change, and any number of threads can read it.
+     */
+    public static final class Globals {
+
+        private String[] keys = new String[64];
+        private ResolvedName[] values = new ResolvedName[64];
+        private int used = 0;
+        private boolean frozen = false;
+
+        public Globals() {
+            for (String builtin: Names.builtins) {
+                put(builtin, new Builtin(builtin));
+            }
+        }
+
+        public void freeze() {
+            frozen = true;
+        }
+
+        public boolean isFrozen() {
+            return frozen;
+        }
+
+        private int find(String name) {
+            int mask = keys.length - 1;
+            int h = name.hashCode();
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (keys[slot] != null && !keys[slot].equals(name)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private ResolvedName get(String name) {
+            return values[find(name)];
+        }
+
+        private void put(String name, ResolvedName value) {
+            int slot = find(name);
+            keys[slot] = name;
+            values[slot] = value;
+            used++;
+
+            if (2 * used > keys.length) {
+                String[] oldKeys = keys;
+                ResolvedName[] oldValues = values;
+                keys = new String[2 * oldKeys.length];
+                values = new ResolvedName[2 * oldKeys.length];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] == null) { continue; }
+                    int newSlot = find(oldKeys[i]);
+                    keys[newSlot] = oldKeys[i];
+                    values[newSlot] = oldValues[i];
+                }
             }
-            locals.put(name, new Local(mode, name, type, level));
-            level++;
         }
     }
-    
-    
-    private final Hashtable<String, Global> globals;
-    private Hashtable<String, Argument> arguments;
+
+
+    // Scope depths.  Locals are at LOCALS and deeper.
+    private static final int ARGUMENTS = 1;
+    private static final int LOCALS = 2;
+
+    // The table.  Keys are never removed; a name that goes out of scope
+    // keeps its slot with a null value.
+    private String[] keys = new String[64];
+    private ResolvedName[] values = new ResolvedName[64];
+    private int[] depths = new int[64];
+    private int used = 0;
+
+    // The undo log: what each name was bound to before it was shadowed.
+    private String[] logKeys = new String[64];
+    private ResolvedName[] logValues = new ResolvedName[64];
+    private int[] logDepths = new int[64];
+    private int logSize = 0;
+
+    // The log size when each open scope began.
+    private int[] marks = new int[16];
+    private int depth;
+
+    private final Globals globals;
+
     private int argumentLevel;
-    private Locals locals;
+    private int localLevel;
     public int natLevel;
     public int typeLevel;
-    
+
     public NamingContext() {
-        globals = new Hashtable<String, Global>();
-        arguments = new Hashtable<String, Argument>();
-        argumentLevel = 0;
-        locals = Locals.NIL.nestScope();
-        natLevel = 0;
-        typeLevel = 0;
+        this(new Globals());
     }
-    
+
+    public NamingContext(Globals globals) {
+        this.globals = globals;
+        discardNonGlobals();
+    }
+
+    public Globals globals() {
+        return globals;
+    }
+
     public void discardNonGlobals() {
-        arguments = new Hashtable<String, Argument>();
+        undo(0);
+        depth = LOCALS;
         argumentLevel = 0;
-        locals = Locals.NIL.nestScope();
+        localLevel = 0;
         natLevel = 0;
         typeLevel = 0;
     }
-    
+
     public void newScope() {
-        locals.nestScope();
+        if (depth - LOCALS == marks.length) {
+            int[] newMarks = new int[2 * marks.length];
+            System.arraycopy(marks, 0, newMarks, 0, marks.length);
+            marks = newMarks;
+        }
+        marks[depth - LOCALS] = logSize;
+        depth++;
+    }
+
+    public void exitScope() {
+        depth--;
+        undo(marks[depth - LOCALS]);
     }
-    
-    public void observeArgument(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
-        if (arguments.containsKey(name)) {
+
+    public Argument observeArgument(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
+        if (definedAt(name, ARGUMENTS)) {
             throw CompilerError.check(loc, "The name " + name + " is already defined in this scope.");
         }
-        arguments.put(name, new Argument(mode, name, type, argumentLevel));
+        Argument argument = new Argument(mode, name, type, argumentLevel);
+        shadow(name, argument, ARGUMENTS);
         argumentLevel++;
+        return argument;
     }
-    
-    public void observeGlobal(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
-        if (globals.contains(name)) {
+
+    public Global observeGlobal(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
+        if (globals.frozen) {
+            throw CompilerError.ice(loc, "The global " + name + " was defined after the globals were frozen.");
+        }
+        if (globals.keys[globals.find(name)] != null) {
             throw CompilerError.check(loc, "The global name " + name + " has already been defined.");
         }
-        globals.put(name, new Global(mode, name, type));
+        Global global = new Global(mode, name, type);
+        globals.put(name, global);
+        return global;
+    }
+
+    /**
+     * Finds a global that was defined the first time a declaration was
+     * resolved.  Once the globals are frozen, a declaration that is
+     * resolved again finds its own globals this way instead of defining
+     * them, and since the other declarations were resolved against them,
+     * their modes and types can't have changed.
+     */
+    public Global existingGlobal(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
+        int slot = globals.find(name);
+        if (globals.keys[slot] == null || globals.values[slot].tag != Names.Tag.Global) {
+            throw CompilerError.check(loc, "The global name " + name + " is new, so the whole program has to be resolved again.");
+        }
+        Global global = (Global)globals.values[slot];
+        if (global.mode != mode || !same(global.type, type)) {
+            throw CompilerError.check(loc, "The signature of " + name + " has changed, so the whole program has to be resolved again.");
+        }
+        return global;
+    }
+
+    /**
+     * Whether two resolved signatures are the same, leaving aside where
+     * they were written and the names of arguments.
+     */
+    private static boolean same(Type<?, ?> t, Type<?, ?> u) {
+        if (t.tag != u.tag) { return false; }
+        switch (t.tag) {
+        case Arrow:
+            Arrow<?, ?> a = (Arrow<?, ?>)t;
+            Arrow<?, ?> b = (Arrow<?, ?>)u;
+            return same(a.domain, b.domain) && same(a.codomain, b.codomain);
+
+        case Buffer:
+            Types.Buffer<?, ?> x = (Types.Buffer<?, ?>)t;
+            Types.Buffer<?, ?> y = (Types.Buffer<?, ?>)u;
+            return x.containedMode == y.containedMode && same(x.size, y.size) && same(x.contained, y.contained);
+
+        case Ground:
+            return ((Ground)t).groundTag == ((Ground)u).groundTag;
+
+        case Known:
+            return same(((Known<?, ?>)t).type, ((Known<?, ?>)u).type);
+
+        case Ptr:
+            Ptr<?, ?> p = (Ptr<?, ?>)t;
+            Ptr<?, ?> q = (Ptr<?, ?>)u;
+            return p.pointeeMode == q.pointeeMode && same(p.pointee, q.pointee);
+
+        case Tuple:
+            return same(((Types.Tuple<?, ?>)t).members, ((Types.Tuple<?, ?>)u).members);
+
+        case TypeVar:
+            return ((TypeVar)t).id == ((TypeVar)u).id;
+
+        default:
+            return true;
+        }
+    }
+
+    private static boolean same(ArrayList<? extends Variable<?, ?>> vs, ArrayList<? extends Variable<?, ?>> ws) {
+        if (vs.size() != ws.size()) { return false; }
+        for (int i = 0; i < vs.size(); i++) {
+            if (vs.get(i).mode != ws.get(i).mode || !same(vs.get(i).type, ws.get(i).type)) { return false; }
+        }
+        return true;
     }
-    
-    public void observeLocal(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
-        locals.observe(loc, name, mode, type);
+
+    private static boolean same(Nat<?, ?> n, Nat<?, ?> m) {
+        if (n.tag != m.tag) { return false; }
+        switch (n.tag) {
+        case NatExternal:
+            return ((NatExternal<?, ?>)n).name.toString().equals(((NatExternal<?, ?>)m).name.toString());
+        case NatKnown:
+            return same(((NatKnown<?, ?>)n).nat, ((NatKnown<?, ?>)m).nat);
+        case NatLiteral:
+            return ((NatLiteral)n).value == ((NatLiteral)m).value;
+        case NatVar:
+            return ((NatVar)n).index == ((NatVar)m).index;
+        default:
+            return true;
+        }
     }
-    
+
+    /**
+     * Local indices are never reused within a function, so they can
+     * identify the local in later analyses.
+     */
+    public Local observeLocal(Location loc, Mode mode, String name, Type<ResolvedName, Poly> type) throws CompilerError {
+        if (definedAt(name, depth)) {
+            throw CompilerError.check(loc, "The name " + name + " is already defined in this scope.");
+        }
+        Local local = new Local(mode, name, type, localLevel++);
+        shadow(name, local, depth);
+        return local;
+    }
+
     public ResolvedName resolve(Location loc, String source) throws CompilerError {
-        ResolvedName name = locals.find(source);
-        if (name != null) { return name; }
-        
-        name = arguments.get(source);
-        if (name != null) { return name; }
-        
-        name = globals.get(source);
+        int slot = find(source);
+        if (keys[slot] != null && values[slot] != null) { return values[slot]; }
+
+        ResolvedName name = globals.get(source);
         if (name != null) { return name; }
-        
+
         throw CompilerError.check(loc, "The variable " + source + " is not in scope.");
     }
+
+
+    /**
+     * The slot holding name, or the empty slot where it would go.
+     */
+    private int find(String name) {
+        int mask = keys.length - 1;
+        int h = name.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != null && !keys[slot].equals(name)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean definedAt(String name, int scope) {
+        int slot = find(name);
+        return keys[slot] != null && values[slot] != null && depths[slot] == scope;
+    }
+
+    private void put(String name, ResolvedName value, int scope) {
+        int slot = find(name);
+        if (keys[slot] == null) {
+            keys[slot] = name;
+            used++;
+        }
+        values[slot] = value;
+        depths[slot] = scope;
+
+        if (2 * used > keys.length) { grow(); }
+    }
+
+    /**
+     * Binds name, remembering what it was bound to so that undo() can put
+     * it back.
+     */
+    private void shadow(String name, ResolvedName value, int scope) {
+        if (logSize == logKeys.length) {
+            String[] newKeys = new String[2 * logSize];
+            ResolvedName[] newValues = new ResolvedName[2 * logSize];
+            int[] newDepths = new int[2 * logSize];
+            System.arraycopy(logKeys, 0, newKeys, 0, logSize);
+            System.arraycopy(logValues, 0, newValues, 0, logSize);
+            System.arraycopy(logDepths, 0, newDepths, 0, logSize);
+            logKeys = newKeys;
+            logValues = newValues;
+            logDepths = newDepths;
+        }
+        int slot = find(name);
+        logKeys[logSize] = name;
+        logValues[logSize] = (keys[slot] == null) ? null : values[slot];
+        logDepths[logSize] = depths[slot];
+        logSize++;
+
+        put(name, value, scope);
+    }
+
+    private void undo(int mark) {
+        while (logSize > mark) {
+            logSize--;
+            int slot = find(logKeys[logSize]);
+            values[slot] = logValues[logSize];
+            depths[slot] = logDepths[logSize];
+            logKeys[logSize] = null;
+            logValues[logSize] = null;
+        }
+    }
+
+    private void grow() {
+        String[] oldKeys = keys;
+        ResolvedName[] oldValues = values;
+        int[] oldDepths = depths;
+        keys = new String[2 * oldKeys.length];
+        values = new ResolvedName[2 * oldKeys.length];
+        depths = new int[2 * oldKeys.length];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) { continue; }
+            int slot = find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            depths[slot] = oldDepths[i];
+        }
+    }
 }
@@ -0,0 +1,257 @@
+package rubble.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An index from source positions to the term-level nodes at them, for the
+ * questions an editor asks: what is under the cursor, and which function is
+ * it in.  It is built once after parsing and kept per declaration, so
+ * reparsing one declaration only rebuilds that declaration's part.
+ *
+ * Each declaration's nodes are sorted by where they start.  The node at a
+ * position is found by a binary search for the last node starting at or
+ * before it, then following parent links up to the first node that covers
+ * the position.  A few nodes don't lie inside their parents (an IndexL, for
+ * instance, only covers its base), so the climb checks every ancestor
+ * rather than stopping at the first that doesn't cover it.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class PositionIndex<Name, Phase> {
+
+    private static final class Table {
+
+        public final AST.Declaration<?, ?> declaration;
+
+        /**
+         * The nodes and their parents, by node id.  The root's parent is -1.
+         * Ids the parser skipped have no node.
+         */
+        public final Object[] nodes;
+        public final int[] parents;
+
+        /** The node ids sorted by start, and the sorted starts. */
+        public final int[] order;
+        public final long[] starts;
+
+        public Table(AST.Declaration<?, ?> declaration, Object[] nodes, int[] parents, int[] order, long[] starts) {
+            this.declaration = declaration;
+            this.nodes = nodes;
+            this.parents = parents;
+            this.order = order;
+            this.starts = starts;
+        }
+    }
+
+    private final ArrayList<Table> tables;
+
+    public PositionIndex(ArrayList<AST.Declaration<Name, Phase>> declarations) {
+        tables = new ArrayList<Table>(declarations.size());
+        for (AST.Declaration<Name, Phase> d: declarations) {
+            tables.add(build(d));
+        }
+    }
+
+    /**
+     * Replaces the index of the i-th declaration after it has been reparsed.
+     * The other declarations are left as they are, so if the edit moved
+     * them, they have to be replaced too.
+     *
+     * @param i
+     * @param declaration
+     */
+    public void replace(int i, AST.Declaration<Name, Phase> declaration) {
+        tables.set(i, build(declaration));
+    }
+
+    /**
+     * The declaration covering a position, or null if it is between
+     * declarations.
+     */
+    @SuppressWarnings("unchecked")
+    public AST.Declaration<Name, Phase> declarationAt(int row, int column) {
+        Table t = tableAt(key(row, column));
+        return (t == null) ? null : (AST.Declaration<Name, Phase>)t.declaration;
+    }
+
+    /**
+     * The function whose definition covers a position, or null if it isn't
+     * in one.
+     */
+    public AST.Def<Name, Phase> defAt(int row, int column) {
+        AST.Declaration<Name, Phase> d = declarationAt(row, column);
+        return (d == null || d.tag != AST.DeclarationTag.Def) ? null : (AST.Def<Name, Phase>)d;
+    }
+
+    /**
+     * The innermost node covering a position, or null if it is between
+     * declarations.  The node is an AST Declaration, Binding, Statement,
+     * Expression or LValue.
+     */
+    public Object nodeAt(int row, int column) {
+        long position = key(row, column);
+        Table t = tableAt(position);
+        if (t == null) { return null; }
+
+        int id = t.order[lastAtOrBefore(t.starts, position)];
+        while (!covers(t.nodes[id], position)) {
+            id = t.parents[id];
+        }
+        return t.nodes[id];
+    }
+
+    /**
+     * The syntactic parent of a node in this index, or null for a
+     * declaration.
+     */
+    public Object parent(Object node) {
+        Location loc = loc(node);
+        Table t = tableAt(key(loc.startRow, loc.startColumn));
+        if (t == null) { return null; }
+
+        int id = id(node);
+        if (id >= t.nodes.length || t.nodes[id] != node) {
+            throw new IllegalArgumentException("The node isn't in the index.");
+        }
+        int parent = t.parents[id];
+        return (parent < 0) ? null : t.nodes[parent];
+    }
+
+
+    private static long key(int row, int column) {
+        return ((long)row << 32) | (column & 0xffffffffL);
+    }
+
+    private static long start(Location loc) {
+        return key(loc.startRow, loc.startColumn);
+    }
+
+    private static long end(Location loc) {
+        return key(loc.endRow, loc.endColumn);
+    }
+
+    private static boolean covers(Object node, long position) {
+        Location loc = loc(node);
+        return start(loc) <= position && position < end(loc);
+    }
+
+    private static int id(Object node) {
+        if (node instanceof AST.Expression) { return ((AST.Expression<?, ?>)node).id; }
+        if (node instanceof AST.Statement) { return ((AST.Statement<?, ?>)node).id; }
+        if (node instanceof AST.LValue) { return ((AST.LValue<?, ?>)node).id; }
+        if (node instanceof AST.Binding) { return ((AST.Binding<?, ?>)node).id; }
+        return ((AST.Declaration<?, ?>)node).id;
+    }
+
+    private static Location loc(Object node) {
+        if (node instanceof AST.Expression) { return ((AST.Expression<?, ?>)node).loc; }
+        if (node instanceof AST.Statement) { return ((AST.Statement<?, ?>)node).loc; }
+        if (node instanceof AST.LValue) { return ((AST.LValue<?, ?>)node).loc; }
+        if (node instanceof AST.Binding) { return ((AST.Binding<?, ?>)node).loc; }
+        return ((AST.Declaration<?, ?>)node).loc;
+    }
+
+    /**
+     * The index of the last element of the sorted array that is at most
+     * position, or -1 if there is none.
+     */
+    private static int lastAtOrBefore(long[] sorted, long position) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private Table tableAt(long position) {
+        // The declarations are in source order and don't overlap.
+        int low = 0;
+        int high = tables.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (start(tables.get(middle).declaration.loc) <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == 0) { return null; }
+        Table t = tables.get(low - 1);
+        return (position < end(t.declaration.loc)) ? t : null;
+    }
+
+    private static <Name, Phase> Table build(AST.Declaration<Name, Phase> declaration) {
+        final int size = declaration.id + 1;
+        final Object[] nodes = new Object[size];
+        final int[] parents = new int[size];
+        final int[] stack = new int[size];
+        final int[] depth = { 0 };
+        final int[] present = new int[size];
+        final int[] count = { 0 };
+
+        ArrayList<AST.Declaration<Name, Phase>> ds = new ArrayList<AST.Declaration<Name, Phase>>();
+        ds.add(declaration);
+        Visitor.walk(ds, new Visitor<Name, Phase>() {
+            private Action enter(Object node, int id) {
+                nodes[id] = node;
+                parents[id] = (depth[0] == 0) ? -1 : stack[depth[0] - 1];
+                stack[depth[0]++] = id;
+                present[count[0]++] = id;
+                return Action.Continue;
+            }
+
+            public Action enterDeclaration(AST.Declaration<Name, Phase> d) { return enter(d, d.id); }
+            public Action enterBinding(AST.Binding<Name, Phase> b) { return enter(b, b.id); }
+            public Action enterStatement(AST.Statement<Name, Phase> s) { return enter(s, s.id); }
+            public Action enterExpression(AST.Expression<Name, Phase> e) { return enter(e, e.id); }
+            public Action enterLValue(AST.LValue<Name, Phase> l) { return enter(l, l.id); }
+
+            public void leaveDeclaration(AST.Declaration<Name, Phase> d) { depth[0]--; }
+            public void leaveBinding(AST.Binding<Name, Phase> b) { depth[0]--; }
+            public void leaveStatement(AST.Statement<Name, Phase> s) { depth[0]--; }
+            public void leaveExpression(AST.Expression<Name, Phase> e) { depth[0]--; }
+            public void leaveLValue(AST.LValue<Name, Phase> l) { depth[0]--; }
+        });
+
+        // Among nodes starting at the same place, the longer ones come first
+        // and then the outer ones, so the last candidate is the innermost.
+        // A node's id is above its descendants', so outer means a higher id.
+        Integer[] sorted = new Integer[count[0]];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = present[i];
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                Location la = loc(nodes[a]);
+                Location lb = loc(nodes[b]);
+                int c = compareKeys(start(la), start(lb));
+                if (c != 0) { return c; }
+                c = compareKeys(end(lb), end(la));
+                if (c != 0) { return c; }
+                return b - a;
+            }
+        });
+
+        int[] order = new int[sorted.length];
+        long[] starts = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            order[i] = sorted[i];
+            starts[i] = start(loc(nodes[order[i]]));
+        }
+        return new Table(declaration, nodes, parents, order, starts);
+    }
+
+    private static int compareKeys(long a, long b) {
+        return (a < b) ? -1 : (a == b) ? 0 : 1;
+    }
+}
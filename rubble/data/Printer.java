@@ -0,0 +1,66 @@
+package rubble.data;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Support for printing tokens, types and terms.  Each of them prints itself
+ * to an Appendable, writing its children straight into the same one, so
+ * printing a tree takes time linear in the output.  toString() is print()
+ * into a StringBuilder, and the format is the same either way.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Printer {
+
+    public static interface Printable {
+        public void print(Appendable out) throws IOException;
+    }
+
+    /**
+     * Prints p to a string.
+     *
+     * @param p
+     * @return What p.print() writes.
+     */
+    public static String show(Printable p) {
+        StringBuilder out = new StringBuilder();
+        try {
+            p.print(out);
+        } catch (IOException e) {
+            // StringBuilder.append() doesn't throw.
+            throw new AssertionError(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Prints each of ps in order, with nothing between them.
+     *
+     * @param out
+     * @param ps
+     * @throws IOException
+     */
+    public static void printAll(Appendable out, List<? extends Printable> ps) throws IOException {
+        for (Printable p: ps) {
+            p.print(out);
+        }
+    }
+
+    /**
+     * Prints the toString() of each of os in order, with nothing between
+     * them.  This is for the pieces of the tree that don't print themselves,
+     * such as variable declarations.
+     *
+     * @param out
+     * @param os
+     * @throws IOException
+     */
+    public static void appendAll(Appendable out, List<?> os) throws IOException {
+        for (Object o: os) {
+            out.append(o.toString());
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package rubble.data;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import rubble.data.AST.*;
+import rubble.data.Names.*;
+import rubble.data.Types.*;
+
+/**
+ * The results of name resolution for one declaration.  Rather than copying
+ * the parsed tree into a <ResolvedName, Poly> tree, the results are kept in
+ * arrays indexed by the node ids the parser assigns, and the parsed tree is
+ * left alone.  The accessors only take parsed nodes, so the phases still
+ * can't be mixed up.
+ *
+ * Nodes whose type was left unknown get a type variable number instead of a
+ * TypeVar, so resolving an unannotated program allocates nothing but these
+ * arrays and the names themselves.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class Resolution {
+
+    public final Declaration<String, Parsed> declaration;
+    public final int nodes;
+
+    /** The number of type variables and nat variables handed out. */
+    public int typeVars;
+    public int natVars;
+
+    // Left by declare() for define().
+    private ArrayList<Variable<ResolvedName, Poly>> domain;
+
+    private Global function;
+
+    private final ResolvedName[] names;
+    private final ResolvedName[][] bound;
+    private final Type<?, ?>[] annotations;
+    private final int[] typeVarIndices;
+
+    // The ids of the references and direct l-values, in the order they were
+    // resolved, and then the same ids grouped by the name they use.  The
+    // uses of used[i] are useIds[useStarts[i]] up to useIds[useStarts[i+1]].
+    private int[] useIds;
+    private int useCount = 0;
+    private ResolvedName[] used;
+    private int[] useStarts;
+    private IdentityHashMap<ResolvedName, Integer> groups;
+
+    private Resolution(Declaration<String, Parsed> declaration) {
+        this.declaration = declaration;
+        this.nodes = declaration.id + 1;
+        this.names = new ResolvedName[nodes];
+        this.bound = new ResolvedName[nodes][];
+        this.annotations = new Type<?, ?>[nodes];
+        this.typeVarIndices = new int[nodes];
+        this.useIds = new int[16];
+    }
+
+    /**
+     * The first pass.  Resolves a declaration's signature and adds the
+     * globals it defines to the context.  Declarations are declared in
+     * source order, and the globals are complete once they all have been.
+     * If the globals are already frozen, the declaration is being resolved
+     * again, and its globals must already be there.
+     *
+     * @param context
+     * @param d
+     * @return The side tables for d, with only the signature filled in.
+     * @throws CompilerError
+     */
+    public static Resolution declare(NamingContext context, Declaration<String, Parsed> d) throws CompilerError {
+        Resolution r = new Resolution(d);
+        context.discardNonGlobals();
+
+        switch (d.tag) {
+        case Def:
+            Def<String, Parsed> def = (Def<String, Parsed>)d;
+            ArrayList<Variable<ResolvedName, Poly>> domain = new ArrayList<Variable<ResolvedName, Poly>>();
+            for (Variable<String, Parsed> v: def.arguments) {
+                domain.add(v.resolveNames(context));
+            }
+            Type<ResolvedName, Poly> codomain = def.returnType.resolveNames(context);
+            r.annotations[def.id] = codomain;
+            r.domain = domain;
+            if (context.globals().isFrozen()) {
+                r.function = context.existingGlobal(def.loc, Mode.Const, def.name, new Arrow<ResolvedName, Poly>(domain, codomain));
+            } else {
+                r.function = context.observeGlobal(def.loc, Mode.Const, def.name, new Arrow<ResolvedName, Poly>(domain, codomain));
+            }
+            break;
+
+        case GlobalLet:
+            boolean again = context.globals().isFrozen();
+            for (Binding<String, Parsed> binding: ((GlobalLet<String, Parsed>)d).bindings) {
+                ResolvedName[] names = new ResolvedName[binding.references.size()];
+                for (int i = 0; i < names.length; i++) {
+                    Variable<String, Parsed> v = binding.references.get(i);
+                    Type<ResolvedName, Poly> type = v.type.resolveNames(context);
+                    names[i] = again ? context.existingGlobal(v.loc, v.mode, v.name, type) : context.observeGlobal(v.loc, v.mode, v.name, type);
+                }
+                r.bound[binding.id] = names;
+            }
+            break;
+        }
+
+        r.typeVars = context.typeLevel;
+        r.natVars = context.natLevel;
+        return r;
+    }
+
+    /**
+     * The second pass.  Resolves the rest of the declaration against the
+     * globals from the first pass.  The context's argument and local scopes
+     * are discarded first, so each declaration can have a context of its
+     * own and be defined on its own thread.
+     *
+     * @param context
+     * @throws CompilerError
+     */
+    public void define(NamingContext context) throws CompilerError {
+        context.discardNonGlobals();
+        context.typeLevel = typeVars;
+        context.natLevel = natVars;
+
+        switch (declaration.tag) {
+        case Def:
+            Def<String, Parsed> def = (Def<String, Parsed>)declaration;
+            ResolvedName[] arguments = new ResolvedName[domain.size()];
+            for (int i = 0; i < arguments.length; i++) {
+                Variable<ResolvedName, Poly> v = domain.get(i);
+                arguments[i] = context.observeArgument(v.loc, v.mode, v.name, v.type);
+            }
+            bound[def.id] = arguments;
+            domain = null;
+            break;
+
+        case GlobalLet:
+            // The names were bound by declare().
+            break;
+        }
+
+        ArrayList<Declaration<String, Parsed>> d = new ArrayList<Declaration<String, Parsed>>(1);
+        d.add(declaration);
+        Definer definer = new Definer(context);
+        Visitor.walk(d, definer);
+        if (definer.error != null) { throw definer.error; }
+
+        typeVars = context.typeLevel;
+        natVars = context.natLevel;
+        groupUses();
+    }
+
+    /**
+     * The names a Let or GlobalLet binding introduces, in order.
+     */
+    public ResolvedName[] bound(Binding<String, Parsed> b) {
+        return bound[b.id];
+    }
+
+    /**
+     * The global a function is bound to.
+     */
+    public Global global(Def<String, Parsed> def) {
+        return function;
+    }
+
+    /**
+     * The function's arguments, in order.
+     */
+    public ResolvedName[] arguments(Def<String, Parsed> def) {
+        return bound[def.id];
+    }
+
+    public ResolvedName name(Reference<String, Parsed> e) {
+        return names[e.id];
+    }
+
+    public ResolvedName name(Direct<String, Parsed> l) {
+        return names[l.id];
+    }
+
+    /**
+     * The names this declaration uses, each once.
+     */
+    public ResolvedName[] used() {
+        return used;
+    }
+
+    /**
+     * The ids of the references and direct l-values in this declaration
+     * that use a name, in the order name resolution reached them.
+     */
+    public int[] uses(ResolvedName name) {
+        Integer g = groups.get(name);
+        if (g == null) { return new int[0]; }
+
+        int[] result = new int[useStarts[g + 1] - useStarts[g]];
+        System.arraycopy(useIds, useStarts[g], result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * The resolved return type of a function.
+     */
+    @SuppressWarnings("unchecked")
+    public Type<ResolvedName, Poly> returnType(Def<String, Parsed> def) {
+        return (Type<ResolvedName, Poly>)annotations[def.id];
+    }
+
+    /**
+     * The resolved type annotation on an expression, or null if its type was
+     * unknown.  In that case typeVar() gives its type variable.
+     */
+    @SuppressWarnings("unchecked")
+    public Type<ResolvedName, Poly> annotation(Expression<String, Parsed> e) {
+        return (Type<ResolvedName, Poly>)annotations[e.id];
+    }
+
+    @SuppressWarnings("unchecked")
+    public Type<ResolvedName, Poly> annotation(LValue<String, Parsed> l) {
+        return (Type<ResolvedName, Poly>)annotations[l.id];
+    }
+
+    /**
+     * The type variable standing for an unannotated expression's type, or
+     * -1 if the expression is annotated.
+     */
+    public int typeVar(Expression<String, Parsed> e) {
+        return typeVarIndices[e.id];
+    }
+
+    public int typeVar(LValue<String, Parsed> l) {
+        return typeVarIndices[l.id];
+    }
+
+
+    private void use(int id) {
+        if (useCount == useIds.length) {
+            int[] newIds = new int[2 * useCount];
+            System.arraycopy(useIds, 0, newIds, 0, useCount);
+            useIds = newIds;
+        }
+        useIds[useCount++] = id;
+    }
+
+    /**
+     * Sorts the uses into groups by name.  Each group stays in the order
+     * the uses were found.
+     */
+    private void groupUses() {
+        groups = new IdentityHashMap<ResolvedName, Integer>();
+        ArrayList<ResolvedName> names = new ArrayList<ResolvedName>();
+        int[] group = new int[useCount];
+        int[] counts = new int[useCount + 1];
+        for (int i = 0; i < useCount; i++) {
+            ResolvedName name = this.names[useIds[i]];
+            Integer g = groups.get(name);
+            if (g == null) {
+                g = names.size();
+                groups.put(name, g);
+                names.add(name);
+            }
+            group[i] = g;
+            counts[g + 1]++;
+        }
+
+        used = names.toArray(new ResolvedName[names.size()]);
+        useStarts = new int[used.length + 1];
+        for (int g = 0; g < used.length; g++) {
+            useStarts[g + 1] = useStarts[g] + counts[g + 1];
+        }
+        int[] next = new int[used.length];
+        System.arraycopy(useStarts, 0, next, 0, used.length);
+        int[] grouped = new int[useCount];
+        for (int i = 0; i < useCount; i++) {
+            grouped[next[group[i]]++] = useIds[i];
+        }
+        useIds = grouped;
+    }
+
+    private void annotate(NamingContext context, int id, Type<String, Parsed> type) throws CompilerError {
+        if (type.tag == Types.Tag.Unknown) {
+            typeVarIndices[id] = context.typeLevel++;
+        } else {
+            typeVarIndices[id] = -1;
+            annotations[id] = type.resolveNames(context);
+        }
+    }
+
+    /**
+     * The walk for define().  Each block is a scope, and since the walk
+     * doesn't say where an if's true branch ends, the false branch's scope
+     * starts at its first statement.  A binding's value is resolved before
+     * its names are bound, so a binding can't refer to itself, and the
+     * names stay in scope until the end of the enclosing block.  The first
+     * error stops the walk and is kept for define() to throw.
+     */
+    private final class Definer extends Visitor<String, Parsed> {
+
+        private final NamingContext context;
+        private CompilerError error;
+
+        // The enclosing ifs, innermost last.
+        private IfS<?, ?>[] ifs = new IfS<?, ?>[8];
+        private int open = 0;
+
+        public Definer(NamingContext context) {
+            this.context = context;
+        }
+
+        public Action enterDeclaration(Declaration<String, Parsed> d) {
+            if (d.tag == DeclarationTag.Def) { context.newScope(); }
+            return Action.Continue;
+        }
+
+        public void leaveDeclaration(Declaration<String, Parsed> d) {
+            if (d.tag == DeclarationTag.Def) { context.exitScope(); }
+        }
+
+        public Action enterBinding(Binding<String, Parsed> b) {
+            return (error == null) ? Action.Continue : Action.Stop;
+        }
+
+        public void leaveBinding(Binding<String, Parsed> b) {
+            // A global let's names were bound by declare().
+            if (error != null || declaration.tag != DeclarationTag.Def) { return; }
+            try {
+                ResolvedName[] names = new ResolvedName[b.references.size()];
+                for (int i = 0; i < names.length; i++) {
+                    Variable<String, Parsed> v = b.references.get(i);
+                    names[i] = context.observeLocal(v.loc, v.mode, v.name, v.type.resolveNames(context));
+                }
+                bound[b.id] = names;
+            } catch (CompilerError e) {
+                error = e;
+            }
+        }
+
+        public Action enterStatement(Statement<String, Parsed> s) {
+            if (error != null) { return Action.Stop; }
+            if (open > 0 && !ifs[open - 1].falseBranch.isEmpty() && ifs[open - 1].falseBranch.get(0) == s) {
+                context.exitScope();
+                context.newScope();
+            }
+
+            switch (s.tag) {
+            case Forever:
+            case Nested:
+                context.newScope();
+                break;
+
+            case IfS:
+                // The condition can't bind names, so it can share the true
+                // branch's scope.
+                if (open == ifs.length) {
+                    IfS<?, ?>[] newIfs = new IfS<?, ?>[2 * open];
+                    System.arraycopy(ifs, 0, newIfs, 0, open);
+                    ifs = newIfs;
+                }
+                ifs[open++] = (IfS<?, ?>)s;
+                context.newScope();
+                break;
+
+            default:
+                // The other statements have no blocks in them.
+            }
+            return Action.Continue;
+        }
+
+        public void leaveStatement(Statement<String, Parsed> s) {
+            switch (s.tag) {
+            case Forever:
+            case Nested:
+                context.exitScope();
+                break;
+
+            case IfS:
+                ifs[--open] = null;
+                context.exitScope();
+                break;
+
+            default:
+                // The other statements have no blocks in them.
+            }
+        }
+
+        public Action enterExpression(Expression<String, Parsed> e) {
+            if (error != null) { return Action.Stop; }
+            try {
+                annotate(context, e.id, e.type);
+                if (e.tag == ExpressionTag.Variable) {
+                    names[e.id] = context.resolve(e.loc, ((Reference<String, Parsed>)e).name);
+                    use(e.id);
+                }
+            } catch (CompilerError x) {
+                error = x;
+                return Action.Stop;
+            }
+            return Action.Continue;
+        }
+
+        public Action enterLValue(LValue<String, Parsed> l) {
+            if (error != null) { return Action.Stop; }
+            try {
+                annotate(context, l.id, l.type);
+                if (l.tag == LValueTag.Direct) {
+                    names[l.id] = context.resolve(l.loc, ((Direct<String, Parsed>)l).name);
+                    use(l.id);
+                }
+            } catch (CompilerError x) {
+                error = x;
+                return Action.Stop;
+            }
+            return Action.Continue;
+        }
+    }
+}
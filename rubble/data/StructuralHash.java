@@ -0,0 +1,267 @@
+package rubble.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Structural hashes of a declaration and every node in it, for caches that
+ * need to tell cheaply whether something changed.  A node's hash covers its
+ * kind, its names, numbers and types, and its children's hashes, but not
+ * where it is, so identical code hashes the same anywhere in the program.
+ * The hashes only depend on the tree, so they are the same from run to run.
+ *
+ * The hashes are computed bottom-up in one fold over a parsed declaration
+ * and kept in an array indexed by node id, like the other side tables.
+ * Types have no ids and are small, so hash() computes theirs on demand.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class StructuralHash {
+
+    // Seeds that keep different kinds of node with the same tag apart.
+    private static final long DECLARATION = 0x6a09e667f3bcc908L;
+    private static final long BINDING = 0xbb67ae8584caa73bL;
+    private static final long STATEMENT = 0x3c6ef372fe94f82bL;
+    private static final long EXPRESSION = 0xa54ff53a5f1d36f1L;
+    private static final long LVALUE = 0x510e527fade682d1L;
+    private static final long TYPE = 0x9b05688c2b3e6c1fL;
+    private static final long NAT = 0x1f83d9abfb41bd6bL;
+    private static final long VARIABLE = 0x5be0cd19137e2179L;
+    private static final long BODY = 0xcbbb9d5dc1059ed8L;
+
+    private final int declaration;
+    private final long[] hashes;
+
+    private StructuralHash(int declaration, long[] hashes) {
+        this.declaration = declaration;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Hashes d and all of its nodes.
+     *
+     * @param d
+     * @return The hashes, by node id.
+     */
+    public static <Name, Phase> StructuralHash of(AST.Declaration<Name, Phase> d) {
+        final long[] hashes = new long[d.id + 1];
+        ArrayList<AST.Declaration<Name, Phase>> ds = new ArrayList<AST.Declaration<Name, Phase>>();
+        ds.add(d);
+        Visitor.walk(ds, new Visitor.Fold<Name, Phase, Long>() {
+            protected Long foldDeclaration(AST.Declaration<Name, Phase> d, List<Long> children) {
+                return hashes[d.id] = hashDeclaration(d, children);
+            }
+            protected Long foldBinding(AST.Binding<Name, Phase> b, List<Long> children) {
+                return hashes[b.id] = finish(mix(variables(BINDING, b.references), children));
+            }
+            protected Long foldStatement(AST.Statement<Name, Phase> s, List<Long> children) {
+                return hashes[s.id] = hashStatement(s, children);
+            }
+            protected Long foldExpression(AST.Expression<Name, Phase> e, List<Long> children) {
+                return hashes[e.id] = hashExpression(e, children);
+            }
+            protected Long foldLValue(AST.LValue<Name, Phase> l, List<Long> children) {
+                return hashes[l.id] = hashLValue(l, children);
+            }
+        });
+        return new StructuralHash(d.id, hashes);
+    }
+
+    public long declaration() {
+        return hashes[declaration];
+    }
+
+    public long hash(AST.Binding<?, ?> b) {
+        return hashes[b.id];
+    }
+
+    public long hash(AST.Statement<?, ?> s) {
+        return hashes[s.id];
+    }
+
+    public long hash(AST.Expression<?, ?> e) {
+        return hashes[e.id];
+    }
+
+    public long hash(AST.LValue<?, ?> l) {
+        return hashes[l.id];
+    }
+
+    /**
+     * The hash of a function's body alone, without its name or signature.
+     */
+    public long body(AST.Def<?, ?> def) {
+        long h = mix(BODY, def.body.size());
+        for (AST.Statement<?, ?> s: def.body) {
+            h = mix(h, hashes[s.id]);
+        }
+        return finish(h);
+    }
+
+    public static long hash(Types.Type<?, ?> t) {
+        long h = mix(TYPE, t.tag.ordinal());
+        switch (t.tag) {
+        case Arrow:
+            Types.Arrow<?, ?> arrow = (Types.Arrow<?, ?>)t;
+            h = mix(mix(h, variables(h, arrow.domain)), hash(arrow.codomain));
+            break;
+        case Buffer:
+            Types.Buffer<?, ?> buffer = (Types.Buffer<?, ?>)t;
+            h = mix(mix(mix(h, hash(buffer.size)), buffer.containedMode.ordinal()), hash(buffer.contained));
+            break;
+        case Ground:
+            h = mix(h, ((Types.Ground)t).groundTag.ordinal());
+            break;
+        case Known:
+            h = mix(h, hash(((Types.Known<?, ?>)t).type));
+            break;
+        case Ptr:
+            Types.Ptr<?, ?> ptr = (Types.Ptr<?, ?>)t;
+            h = mix(mix(h, ptr.pointeeMode.ordinal()), hash(ptr.pointee));
+            break;
+        case Tuple:
+            h = variables(h, ((Types.Tuple<?, ?>)t).members);
+            break;
+        case TypeVar:
+            h = mix(h, ((Types.TypeVar)t).id);
+            break;
+        default:
+            // Unknown has nothing else to it.
+        }
+        return finish(h);
+    }
+
+    public static long hash(Types.Nat<?, ?> n) {
+        long h = mix(NAT, n.tag.ordinal());
+        switch (n.tag) {
+        case NatExternal:
+            h = mix(h, string(((Types.NatExternal<?, ?>)n).name.toString()));
+            break;
+        case NatKnown:
+            h = mix(h, hash(((Types.NatKnown<?, ?>)n).nat));
+            break;
+        case NatLiteral:
+            h = mix(h, ((Types.NatLiteral)n).value);
+            break;
+        case NatVar:
+            h = mix(h, ((Types.NatVar)n).index);
+            break;
+        default:
+            // NatUnknown has nothing else to it.
+        }
+        return finish(h);
+    }
+
+    /**
+     * The hash of a name, for keys that cover names as well as code.
+     */
+    public static long hash(String name) {
+        return finish(string(name));
+    }
+
+    /**
+     * Combines two hashes, for keys built out of several of them.  The
+     * order matters.
+     */
+    public static long combine(long h, long x) {
+        return finish(mix(h, x));
+    }
+
+
+    private static <Name, Phase> long hashDeclaration(AST.Declaration<Name, Phase> d, List<Long> children) {
+        long h = mix(DECLARATION, d.tag.ordinal());
+        if (d.tag == AST.DeclarationTag.Def) {
+            AST.Def<Name, Phase> def = (AST.Def<Name, Phase>)d;
+            h = mix(mix(mix(h, string(def.name)), variables(h, def.arguments)), hash(def.returnType));
+        }
+        return finish(mix(h, children));
+    }
+
+    private static <Name, Phase> long hashStatement(AST.Statement<Name, Phase> s, List<Long> children) {
+        long h = mix(STATEMENT, s.tag.ordinal());
+        switch (s.tag) {
+        case Break:
+            h = mix(h, ((AST.Break<Name, Phase>)s).depth);
+            break;
+        case Forever:
+            h = mix(h, string(((AST.Forever<Name, Phase>)s).label));
+            break;
+        case IfS:
+            // The children run together, so say where the true branch ends.
+            h = mix(h, ((AST.IfS<Name, Phase>)s).trueBranch.size());
+            break;
+        default:
+            // The rest are determined by their children.
+        }
+        return finish(mix(h, children));
+    }
+
+    private static <Name, Phase> long hashExpression(AST.Expression<Name, Phase> e, List<Long> children) {
+        long h = mix(mix(EXPRESSION, e.tag.ordinal()), hash(e.type));
+        switch (e.tag) {
+        case Number:
+            h = mix(h, string(((AST.Number<Name, Phase>)e).number));
+            break;
+        case Variable:
+            h = mix(h, string(((AST.Reference<Name, Phase>)e).name.toString()));
+            break;
+        default:
+            // The rest are determined by their children.
+        }
+        return finish(mix(h, children));
+    }
+
+    private static <Name, Phase> long hashLValue(AST.LValue<Name, Phase> l, List<Long> children) {
+        long h = mix(mix(LVALUE, l.tag.ordinal()), hash(l.type));
+        if (l.tag == AST.LValueTag.Direct) {
+            h = mix(h, string(((AST.Direct<Name, Phase>)l).name.toString()));
+        }
+        return finish(mix(h, children));
+    }
+
+    private static long variables(long h, ArrayList<? extends Variable<?, ?>> vs) {
+        h = mix(h, vs.size());
+        for (Variable<?, ?> v: vs) {
+            h = mix(mix(mix(mix(h, VARIABLE), string(v.name)), v.mode.ordinal()), hash(v.type));
+        }
+        return h;
+    }
+
+
+    /**
+     * FNV-1a over the characters, so the result doesn't depend on
+     * String.hashCode() or on identity.
+     */
+    private static long string(String s) {
+        if (s == null) { return 0; }
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h, long x) {
+        return (h ^ x) * 0x100000001b3L + 0x9e3779b97f4a7c15L;
+    }
+
+    private static long mix(long h, List<Long> children) {
+        h = mix(h, children.size());
+        for (Long child: children) {
+            h = mix(h, child);
+        }
+        return h;
+    }
+
+    /**
+     * The splitmix64 finalizer, so every bit of the input affects every bit
+     * of the hash.
+     */
+    private static long finish(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -1,8 +1,11 @@
 package rubble.data;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
 
+import rubble.data.Printer.Printable;
+
 /**
  * Tokens that the source gets transformed into.  Block tokens are used for
  * bracket pairs; the subtoken list is the tokens enclosed by that block.
@@ -12,7 +15,7 @@ import java.util.ArrayList;
  * Released under the terms of the 2-clause BSD license, which should be
  * included with this source.
  */
-public final class Token {
+public final class Token implements Printable {
     
 	public static enum Tag {
 		Block, Comma, Identifier, Number, Operator, Reserved, Semicolon
@@ -47,13 +50,13 @@ public final class Token {
 		this.subtokens = new ArrayList<Token>(Arrays.asList(subtokens));
 	}
 	
+	public void print(Appendable out) throws IOException {
+		out.append("(Token ").append(loc.toString()).append(" {").append(source).append("} ").append(tag.toString()).append(" {");
+		Printer.printAll(out, subtokens);
+		out.append("})");
+	}
+	
 	public String toString() {
-		StringBuilder result = new StringBuilder();
-		result.append("(Token " + loc.toString() + " {" + source + "} " + tag.toString() + " {");
-		for (Token t: subtokens) {
-			result.append(t.toString());
-		}
-		result.append("})");
-		return result.toString();
+		return Printer.show(this);
 	}
 }
@@ -1,8 +1,10 @@
 package rubble.data;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import rubble.data.Names.*;
+import rubble.data.Printer.Printable;
 
 /**
  * A container class for types, type-level numbers, and witnesses indicating
@@ -27,7 +29,7 @@ public final class Types {
     
     public static enum NatTag { NatExternal, NatKnown, NatLiteral, NatVar, NatUnknown }
     
-    public static abstract class Nat<Name, Phase> {
+    public static abstract class Nat<Name, Phase> implements Printable {
         
         public final NatTag tag;
         
@@ -44,7 +46,7 @@ public final class Types {
         public final Name name;
         
         public NatExternal(Location loc, Name name) {
-            super(NatTag.NatVar);
+            super(NatTag.NatExternal);
             this.loc = loc;
             this.name = name;
         }
@@ -53,8 +55,12 @@ public final class Types {
             return new NatExternal<ResolvedName, Poly>(this.loc, context.resolve(loc, name.toString()));
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("{NE ").append(name.toString()).append("}");
+        }
+        
         public String toString() {
-            return "{NE " + name.toString() + "}";
+            return Printer.show(this);
         }
     }
     
@@ -71,8 +77,14 @@ public final class Types {
             return new NatKnown<ResolvedName, Poly>(nat);
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("<");
+            nat.print(out);
+            out.append(">");
+        }
+        
         public String toString() {
-            return "<" + nat.toString() + ">";
+            return Printer.show(this);
         }
     }
     
@@ -89,8 +101,12 @@ public final class Types {
             throw CompilerError.ice(new Location(1,1,1,1), "resolveNames() was called on a NatLiteral.");
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("{").append(Long.toString(value)).append("}");
+        }
+        
         public String toString() {
-            return "{" + value + "}";
+            return Printer.show(this);
         }
     }
     
@@ -107,8 +123,12 @@ public final class Types {
             return this;
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("{NV ").append(Integer.toString(index)).append("}");
+        }
+        
         public String toString() {
-            return "{NV " + index + "}";
+            return Printer.show(this);
         }
     }
     
@@ -122,8 +142,12 @@ public final class Types {
             return new NatVar(context.natLevel++);
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("?");
+        }
+        
         public String toString() {
-            return "?";
+            return Printer.show(this);
         }
     }
     
@@ -149,9 +173,35 @@ public final class Types {
         Boolean, Int8, Int16, Int32, Int64,
         Unit, UInt8, UInt16, UInt32, UInt64
     }
+
+    /**
+     * The fixed set of type classes.  Each allows some of the ground types,
+     * kept as a bitmask with bit GroundTag.ordinal() set for each of them.
+     */
+    public static enum TypeClass {
+        Eq("comparable", GroundTag.values()),
+        Num("a number", GroundTag.Int8, GroundTag.Int16, GroundTag.Int32, GroundTag.Int64,
+                        GroundTag.UInt8, GroundTag.UInt16, GroundTag.UInt32, GroundTag.UInt64),
+        Signed("a signed number", GroundTag.Int8, GroundTag.Int16, GroundTag.Int32, GroundTag.Int64),
+        Bits("a boolean or a number", GroundTag.Boolean, GroundTag.Int8, GroundTag.Int16, GroundTag.Int32, GroundTag.Int64,
+                                      GroundTag.UInt8, GroundTag.UInt16, GroundTag.UInt32, GroundTag.UInt64),
+        Index("an index", GroundTag.UInt64);
+        
+        public final String pretty;
+        public final int mask;
+        
+        TypeClass(String pretty, GroundTag... members) {
+            this.pretty = pretty;
+            int mask = 0;
+            for (GroundTag member: members) {
+                mask |= 1 << member.ordinal();
+            }
+            this.mask = mask;
+        }
+    }
     
     
-    public static abstract class Type<Name, Phase> {
+    public static abstract class Type<Name, Phase> implements Printable {
         
         public final Tag tag;
         
@@ -183,8 +233,20 @@ public final class Types {
             return new Arrow<ResolvedName, Poly>(newDomain, codomain.resolveNames(context));
         }
         
+        public void print(Appendable out) throws IOException {
+            // The domain is printed the way ArrayList.toString() prints it.
+            out.append("(Arrow [");
+            for (int i = 0; i < domain.size(); i++) {
+                if (i > 0) { out.append(", "); }
+                out.append(domain.get(i).toString());
+            }
+            out.append("]->");
+            codomain.print(out);
+            out.append(")");
+        }
+        
         public String toString() {
-            return "(Arrow " + domain.toString() + "->" + codomain.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -194,19 +256,42 @@ public final class Types {
         public final Type<Name, Phase> contained;
         public final Nat<Name, Phase> size;
         
+        /**
+         * While inferring, the unifier's variable for containedMode, which
+         * is null until the unifier resolves the type.  Otherwise -1.
+         */
+        public final int modeVar;
+        
         public Buffer(Nat<Name, Phase> size, Mode containedMode, Type<Name, Phase> contained) {
             super(Tag.Buffer);
             this.size = size;
             this.containedMode = containedMode;
             this.contained = contained;
+            this.modeVar = -1;
+        }
+        
+        public Buffer(Nat<Name, Phase> size, int modeVar, Type<Name, Phase> contained) {
+            super(Tag.Buffer);
+            this.size = size;
+            this.containedMode = null;
+            this.contained = contained;
+            this.modeVar = modeVar;
         }
         
         public Type<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
             return new Buffer<ResolvedName, Poly>(size.resolveNames(context), containedMode, contained.resolveNames(context));
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(Buffer ");
+            size.print(out);
+            out.append(" ");
+            contained.print(out);
+            out.append(")");
+        }
+        
         public String toString() {
-            return "(Buffer " + size.toString() + " " + contained.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -223,8 +308,12 @@ public final class Types {
             throw CompilerError.ice(new Location(1,1), "resolveNames() was called on a ground type.");
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(Ground ").append(groundTag.toString()).append(")");
+        }
+        
         public String toString() {
-            return "(Ground " + groundTag.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -241,8 +330,14 @@ public final class Types {
             return new Known<ResolvedName, Poly>(type);
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("<");
+            type.print(out);
+            out.append(">");
+        }
+        
         public String toString() {
-            return "<" + type.toString() + ">";
+            return Printer.show(this);
         }
     }
     
@@ -251,18 +346,35 @@ public final class Types {
         public final Mode pointeeMode;
         public final Type<Name, Phase> pointee;
         
+        /** As for Buffer. */
+        public final int modeVar;
+        
         public Ptr(Mode pointeeMode, Type<Name, Phase> pointee) {
             super(Tag.Ptr);
             this.pointeeMode = pointeeMode;
             this.pointee = pointee;
+            this.modeVar = -1;
+        }
+        
+        public Ptr(int modeVar, Type<Name, Phase> pointee) {
+            super(Tag.Ptr);
+            this.pointeeMode = null;
+            this.pointee = pointee;
+            this.modeVar = modeVar;
         }
         
         public Type<ResolvedName, Poly> resolveNames(NamingContext context) throws CompilerError {
             return new Ptr<ResolvedName, Poly>(pointeeMode, pointee.resolveNames(context));
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(Ptr ");
+            pointee.print(out);
+            out.append(")");
+        }
+        
         public String toString() {
-            return "(Ptr " + pointee.toString() + ")";
+            return Printer.show(this);
         }
     }
     
@@ -283,12 +395,14 @@ public final class Types {
             return new Tuple<ResolvedName, Poly>(newMembers);
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(Tuple ");
+            Printer.appendAll(out, members);
+            out.append(")");
+        }
+        
         public String toString() {
-            String ms = "";
-            for (Variable<Name, Phase> t: members) {
-                ms += t.toString();
-            }
-            return "(Tuple " + ms + ")";
+            return Printer.show(this);
         }
     }
     
@@ -305,8 +419,12 @@ public final class Types {
             return this;
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(TypeVar ").append(Integer.toString(id)).append(")");
+        }
+        
         public String toString() {
-            return "(TypeVar " + id + ")";
+            return Printer.show(this);
         }
     }
     
@@ -322,8 +440,12 @@ public final class Types {
             return new TypeVar(context.typeLevel++);
         }
         
+        public void print(Appendable out) throws IOException {
+            out.append("(?)");
+        }
+        
         public String toString() {
-            return "(?)";
+            return Printer.show(this);
         }
     }
 }
@@ -0,0 +1,378 @@
+package rubble.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass over the term-level syntax.  Passes override the hooks for the
+ * kinds of nodes they care about, and walk() runs any number of them in a
+ * single traversal.  The traversal keeps its own stack, so deeply nested
+ * code can't overflow the Java stack, and it dispatches on the node tags
+ * rather than through virtual methods on the nodes.
+ *
+ * Each enter hook decides what happens to the pass below that node:
+ * Continue visits the children, Skip doesn't (the leave hook is still
+ * called), and Stop ends the pass altogether.  The other passes in the same
+ * walk are not affected.
+ *
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public abstract class Visitor<Name, Phase> {
+
+    public static enum Action { Continue, Skip, Stop }
+
+    public Action enterDeclaration(AST.Declaration<Name, Phase> d) { return Action.Continue; }
+    public Action enterBinding(AST.Binding<Name, Phase> b) { return Action.Continue; }
+    public Action enterStatement(AST.Statement<Name, Phase> s) { return Action.Continue; }
+    public Action enterExpression(AST.Expression<Name, Phase> e) { return Action.Continue; }
+    public Action enterLValue(AST.LValue<Name, Phase> l) { return Action.Continue; }
+
+    public void leaveDeclaration(AST.Declaration<Name, Phase> d) { }
+    public void leaveBinding(AST.Binding<Name, Phase> b) { }
+    public void leaveStatement(AST.Statement<Name, Phase> s) { }
+    public void leaveExpression(AST.Expression<Name, Phase> e) { }
+    public void leaveLValue(AST.LValue<Name, Phase> l) { }
+
+
+    /**
+     * A bottom-up computation.  Each hook receives the values already
+     * computed for the node's children, in source order.  For IfS, the
+     * condition comes first, then the true branch, then the false branch.
+     *
+     * @param <A> The value computed for each node.
+     */
+    public abstract static class Fold<Name, Phase, A> extends Visitor<Name, Phase> {
+
+        private final ArrayList<A> values = new ArrayList<A>();
+        private int[] marks = new int[16];
+        private int depth = 0;
+
+        protected abstract A foldDeclaration(AST.Declaration<Name, Phase> d, List<A> children);
+        protected abstract A foldBinding(AST.Binding<Name, Phase> b, List<A> children);
+        protected abstract A foldStatement(AST.Statement<Name, Phase> s, List<A> children);
+        protected abstract A foldExpression(AST.Expression<Name, Phase> e, List<A> children);
+        protected abstract A foldLValue(AST.LValue<Name, Phase> l, List<A> children);
+
+        /**
+         * The values of the outermost nodes walked so far.
+         */
+        public final List<A> results() {
+            return values;
+        }
+
+        private Action mark() {
+            if (depth == marks.length) {
+                int[] newMarks = new int[2 * depth];
+                System.arraycopy(marks, 0, newMarks, 0, depth);
+                marks = newMarks;
+            }
+            marks[depth++] = values.size();
+            return Action.Continue;
+        }
+
+        private void fold(A value) {
+            int mark = marks[--depth];
+            values.subList(mark, values.size()).clear();
+            values.add(value);
+        }
+
+        private List<A> children() {
+            return values.subList(marks[depth - 1], values.size());
+        }
+
+        public final Action enterDeclaration(AST.Declaration<Name, Phase> d) { return mark(); }
+        public final Action enterBinding(AST.Binding<Name, Phase> b) { return mark(); }
+        public final Action enterStatement(AST.Statement<Name, Phase> s) { return mark(); }
+        public final Action enterExpression(AST.Expression<Name, Phase> e) { return mark(); }
+        public final Action enterLValue(AST.LValue<Name, Phase> l) { return mark(); }
+
+        public final void leaveDeclaration(AST.Declaration<Name, Phase> d) { fold(foldDeclaration(d, children())); }
+        public final void leaveBinding(AST.Binding<Name, Phase> b) { fold(foldBinding(b, children())); }
+        public final void leaveStatement(AST.Statement<Name, Phase> s) { fold(foldStatement(s, children())); }
+        public final void leaveExpression(AST.Expression<Name, Phase> e) { fold(foldExpression(e, children())); }
+        public final void leaveLValue(AST.LValue<Name, Phase> l) { fold(foldLValue(l, children())); }
+    }
+
+
+    private static final byte DECLARATION = 0;
+    private static final byte BINDING = 1;
+    private static final byte STATEMENT = 2;
+    private static final byte EXPRESSION = 3;
+    private static final byte LVALUE = 4;
+
+    /**
+     * The explicit stack.  Every node is pushed once to be entered; entering
+     * it pushes a frame to leave it, and above that, its children in reverse
+     * order.  The mask says which passes are still looking at that part of
+     * the tree.
+     */
+    private static final class Walk<Name, Phase> {
+
+        private final Visitor<Name, Phase>[] visitors;
+        private long stopped = 0;
+
+        private Object[] nodes = new Object[64];
+        private byte[] kinds = new byte[64];
+        private boolean[] leaving = new boolean[64];
+        private long[] masks = new long[64];
+        private int size = 0;
+
+        // The passes are copied in one by one, since handing on the varargs
+        // array itself is what would make walk() unsafe.
+        @SuppressWarnings("unchecked")
+        public Walk(int passes) {
+            if (passes > 64) {
+                throw new IllegalArgumentException("At most 64 passes can share a walk.");
+            }
+            this.visitors = (Visitor<Name, Phase>[])new Visitor<?, ?>[passes];
+        }
+
+        private long all() {
+            return (visitors.length == 64) ? -1L : (1L << visitors.length) - 1;
+        }
+
+        private void push(Object node, byte kind, boolean leave, long mask) {
+            if (size == nodes.length) {
+                int capacity = 2 * size;
+                Object[] newNodes = new Object[capacity];
+                byte[] newKinds = new byte[capacity];
+                boolean[] newLeaving = new boolean[capacity];
+                long[] newMasks = new long[capacity];
+                System.arraycopy(nodes, 0, newNodes, 0, size);
+                System.arraycopy(kinds, 0, newKinds, 0, size);
+                System.arraycopy(leaving, 0, newLeaving, 0, size);
+                System.arraycopy(masks, 0, newMasks, 0, size);
+                nodes = newNodes;
+                kinds = newKinds;
+                leaving = newLeaving;
+                masks = newMasks;
+            }
+            nodes[size] = node;
+            kinds[size] = kind;
+            leaving[size] = leave;
+            masks[size] = mask;
+            size++;
+        }
+
+        private void pushStatements(ArrayList<AST.Statement<Name, Phase>> ss, long mask) {
+            for (int i = ss.size() - 1; i >= 0; i--) {
+                push(ss.get(i), STATEMENT, false, mask);
+            }
+        }
+
+        private void pushExpressions(ArrayList<AST.Expression<Name, Phase>> es, long mask) {
+            for (int i = es.size() - 1; i >= 0; i--) {
+                push(es.get(i), EXPRESSION, false, mask);
+            }
+        }
+
+        private void pushBindings(ArrayList<AST.Binding<Name, Phase>> bs, long mask) {
+            for (int i = bs.size() - 1; i >= 0; i--) {
+                push(bs.get(i), BINDING, false, mask);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Action enter(Visitor<Name, Phase> v, Object node, byte kind) {
+            switch (kind) {
+            case DECLARATION: return v.enterDeclaration((AST.Declaration<Name, Phase>)node);
+            case BINDING:     return v.enterBinding((AST.Binding<Name, Phase>)node);
+            case STATEMENT:   return v.enterStatement((AST.Statement<Name, Phase>)node);
+            case EXPRESSION:  return v.enterExpression((AST.Expression<Name, Phase>)node);
+            default:          return v.enterLValue((AST.LValue<Name, Phase>)node);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void leave(Visitor<Name, Phase> v, Object node, byte kind) {
+            switch (kind) {
+            case DECLARATION: v.leaveDeclaration((AST.Declaration<Name, Phase>)node); break;
+            case BINDING:     v.leaveBinding((AST.Binding<Name, Phase>)node); break;
+            case STATEMENT:   v.leaveStatement((AST.Statement<Name, Phase>)node); break;
+            case EXPRESSION:  v.leaveExpression((AST.Expression<Name, Phase>)node); break;
+            default:          v.leaveLValue((AST.LValue<Name, Phase>)node);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void pushChildren(Object node, byte kind, long mask) {
+            switch (kind) {
+            case DECLARATION:
+                AST.Declaration<Name, Phase> d = (AST.Declaration<Name, Phase>)node;
+                switch (d.tag) {
+                case Def:
+                    pushStatements(((AST.Def<Name, Phase>)d).body, mask);
+                    break;
+                case GlobalLet:
+                    pushBindings(((AST.GlobalLet<Name, Phase>)d).bindings, mask);
+                    break;
+                }
+                break;
+
+            case BINDING:
+                push(((AST.Binding<Name, Phase>)node).value, EXPRESSION, false, mask);
+                break;
+
+            case STATEMENT:
+                AST.Statement<Name, Phase> s = (AST.Statement<Name, Phase>)node;
+                switch (s.tag) {
+                case Assign:
+                    push(((AST.Assign<Name, Phase>)s).value, EXPRESSION, false, mask);
+                    push(((AST.Assign<Name, Phase>)s).lValue, LVALUE, false, mask);
+                    break;
+                case Call:
+                    push(((AST.Call<Name, Phase>)s).argument, EXPRESSION, false, mask);
+                    push(((AST.Call<Name, Phase>)s).function, EXPRESSION, false, mask);
+                    break;
+                case Forever:
+                    pushStatements(((AST.Forever<Name, Phase>)s).body, mask);
+                    break;
+                case IfS:
+                    AST.IfS<Name, Phase> ifs = (AST.IfS<Name, Phase>)s;
+                    pushStatements(ifs.falseBranch, mask);
+                    pushStatements(ifs.trueBranch, mask);
+                    push(ifs.cond, EXPRESSION, false, mask);
+                    break;
+                case Let:
+                    pushBindings(((AST.Let<Name, Phase>)s).bindings, mask);
+                    break;
+                case Nested:
+                    pushStatements(((AST.Nested<Name, Phase>)s).body, mask);
+                    break;
+                case Return:
+                    push(((AST.Return<Name, Phase>)s).value, EXPRESSION, false, mask);
+                    break;
+                default:
+                    // Break has no children.
+                }
+                break;
+
+            case EXPRESSION:
+                AST.Expression<Name, Phase> e = (AST.Expression<Name, Phase>)node;
+                switch (e.tag) {
+                case AddressOf:
+                    push(((AST.AddressOf<Name, Phase>)e).value, EXPRESSION, false, mask);
+                    break;
+                case Apply:
+                    push(((AST.Apply<Name, Phase>)e).argument, EXPRESSION, false, mask);
+                    push(((AST.Apply<Name, Phase>)e).function, EXPRESSION, false, mask);
+                    break;
+                case AsType:
+                    push(((AST.AsType<Name, Phase>)e).value, EXPRESSION, false, mask);
+                    break;
+                case BufferLiteral:
+                    pushExpressions(((AST.BufferLiteral<Name, Phase>)e).es, mask);
+                    break;
+                case IfE:
+                    AST.IfE<Name, Phase> ife = (AST.IfE<Name, Phase>)e;
+                    push(ife.falseBranch, EXPRESSION, false, mask);
+                    push(ife.trueBranch, EXPRESSION, false, mask);
+                    push(ife.cond, EXPRESSION, false, mask);
+                    break;
+                case Index:
+                    push(((AST.Index<Name, Phase>)e).offset, EXPRESSION, false, mask);
+                    push(((AST.Index<Name, Phase>)e).base, EXPRESSION, false, mask);
+                    break;
+                case Tuple:
+                    pushExpressions(((AST.Tuple<Name, Phase>)e).es, mask);
+                    break;
+                case ValueAt:
+                    push(((AST.ValueAt<Name, Phase>)e).value, EXPRESSION, false, mask);
+                    break;
+                default:
+                    // Number and Variable have no children.
+                }
+                break;
+
+            default:
+                AST.LValue<Name, Phase> l = (AST.LValue<Name, Phase>)node;
+                switch (l.tag) {
+                case IndexL:
+                    push(((AST.IndexL<Name, Phase>)l).offset, EXPRESSION, false, mask);
+                    push(((AST.IndexL<Name, Phase>)l).base, LVALUE, false, mask);
+                    break;
+                case Indirect:
+                    push(((AST.Indirect<Name, Phase>)l).address, EXPRESSION, false, mask);
+                    break;
+                case TupleL:
+                    ArrayList<AST.LValue<Name, Phase>> lValues = ((AST.TupleL<Name, Phase>)l).lValues;
+                    for (int i = lValues.size() - 1; i >= 0; i--) {
+                        push(lValues.get(i), LVALUE, false, mask);
+                    }
+                    break;
+                default:
+                    // Direct has no children.
+                }
+            }
+        }
+
+        public void run() {
+            while (size > 0 && stopped != all()) {
+                size--;
+                Object node = nodes[size];
+                byte kind = kinds[size];
+                long mask = masks[size] & ~stopped;
+                nodes[size] = null;
+
+                if (leaving[size]) {
+                    for (int i = 0; i < visitors.length; i++) {
+                        if ((mask & (1L << i)) != 0) { leave(visitors[i], node, kind); }
+                    }
+                    continue;
+                }
+
+                long childMask = mask;
+                for (int i = 0; i < visitors.length; i++) {
+                    if ((mask & (1L << i)) == 0) { continue; }
+                    switch (enter(visitors[i], node, kind)) {
+                    case Skip:
+                        childMask &= ~(1L << i);
+                        break;
+                    case Stop:
+                        stopped |= 1L << i;
+                        childMask &= ~(1L << i);
+                        break;
+                    default:
+                    }
+                }
+                push(node, kind, true, mask);
+                if (childMask != 0) { pushChildren(node, kind, childMask); }
+            }
+        }
+    }
+
+    /**
+     * Walks the declarations in order, running every pass in the same
+     * traversal.
+     *
+     * @param declarations
+     * @param visitors
+     */
+    @SafeVarargs
+    public static <Name, Phase> void walk(ArrayList<? extends AST.Declaration<Name, Phase>> declarations, Visitor<Name, Phase>... visitors) {
+        Walk<Name, Phase> walk = new Walk<Name, Phase>(visitors.length);
+        for (int i = 0; i < visitors.length; i++) { walk.visitors[i] = visitors[i]; }
+        for (int i = declarations.size() - 1; i >= 0; i--) {
+            walk.push(declarations.get(i), DECLARATION, false, walk.all());
+        }
+        walk.run();
+    }
+
+    @SafeVarargs
+    public static <Name, Phase> void walkStatements(ArrayList<AST.Statement<Name, Phase>> statements, Visitor<Name, Phase>... visitors) {
+        Walk<Name, Phase> walk = new Walk<Name, Phase>(visitors.length);
+        for (int i = 0; i < visitors.length; i++) { walk.visitors[i] = visitors[i]; }
+        walk.pushStatements(statements, walk.all());
+        walk.run();
+    }
+
+    @SafeVarargs
+    public static <Name, Phase> void walkExpression(AST.Expression<Name, Phase> expression, Visitor<Name, Phase>... visitors) {
+        Walk<Name, Phase> walk = new Walk<Name, Phase>(visitors.length);
+        for (int i = 0; i < visitors.length; i++) { walk.visitors[i] = visitors[i]; }
+        walk.push(expression, EXPRESSION, false, walk.all());
+        walk.run();
+    }
+}
@@ -26,10 +26,6 @@ public final class Binding extends Parser<AST.Binding<String, Types.Parsed>> {
         super(loc, tokens, "a variable binding", ";");
     }
     
-    protected LeftDenotation<AST.Binding<String, Types.Parsed>> leftDenotation(Token token) throws CompilerError {
-        return null;
-    }
-    
     protected AST.Binding<String, Types.Parsed> nullDenotation(Token token) throws CompilerError {
         switch(token.tag) {
         case Identifier:
@@ -40,9 +36,9 @@ public final class Binding extends Parser<AST.Binding<String, Types.Parsed>> {
                 throw ParseContext.errorUnexpected(token.loc, "a variable binding", "did not find one");
             }
             context.requireToken("=");
-            AST.Expression<String, Types.Parsed> value = new Expression(context).parseOpenTuple();
+            AST.Expression<String, Types.Parsed> value = context.expression().parseOpenTuple();
             Location loc = new Location(token.loc, value.loc);
-            return new AST.Binding<String, Types.Parsed>(loc, names, value);
+            return new AST.Binding<String, Types.Parsed>(loc, names, value, context.id());
         default: throw errorUnexpectedToken(token.loc, token.source);
         }
     }
@@ -27,11 +27,8 @@ public final class Declaration extends Parser<AST.Declaration<String, Types.Pars
         super(new ParseContext(loc, tokens), "a declaration", ";");
     }
 
-    protected LeftDenotation<AST.Declaration<String, Types.Parsed>> leftDenotation(Token token) throws CompilerError {
-        return null;
-    }
-
     protected AST.Declaration<String, Types.Parsed> nullDenotation(Token token) throws CompilerError {
+        context.startDeclaration();
         if (token.source.equals("def")) {
             // The function name
             Token name = nextToken();
@@ -44,7 +41,9 @@ public final class Declaration extends Parser<AST.Declaration<String, Types.Pars
             if (!argumentToken.source.equals("(")) {
                 throw ParseContext.errorUnexpected(argumentToken.loc, "an argument list", "found " + argumentToken.source);
             }
-            ArrayList<Variable<String, Types.Parsed>> arguments = VariableDeclaration.parse(new ParseContext(argumentToken.loc, argumentToken.subtokens));
+            context.enter(argumentToken);
+            ArrayList<Variable<String, Types.Parsed>> arguments = VariableDeclaration.parse(context);
+            context.leave();
             
             // Function types always have at least one argument, so empty
             // argument lists are special cases to implicitly have a Unit
@@ -55,18 +54,20 @@ public final class Declaration extends Parser<AST.Declaration<String, Types.Pars
             
             
             // The return type
-            Types.Type<String, Types.Parsed> returnType = (new Type(context)).parse(0);
+            Types.Type<String, Types.Parsed> returnType = context.type().parse(0);
             
             // The body
             Token bodyLookahead = context.lookahead();
-            ArrayList<AST.Statement<String, Types.Parsed>> body = (new Statement(context.inBraces())).parseListFull("}");
+            context.enterBraces();
+            ArrayList<AST.Statement<String, Types.Parsed>> body = context.statement().parseListFull("}");
+            context.leave();
             
             Location defLoc = new Location(token.loc, bodyLookahead.loc);
-            return new AST.Def<String, Types.Parsed>(defLoc, name.source, arguments, returnType, body);
+            return new AST.Def<String, Types.Parsed>(defLoc, name.source, arguments, returnType, body, context.id());
             
         } if (token.source.equals("let")) {
-            AST.Let<String, Types.Parsed> let = (new Statement(context)).parseLet(token.loc);
-            return new AST.GlobalLet<String, Types.Parsed>(let.loc, let.bindings);
+            AST.Let<String, Types.Parsed> let = context.statement().parseLet(token.loc);
+            return new AST.GlobalLet<String, Types.Parsed>(let.loc, let.bindings, context.id());
         }
         throw errorUnexpectedToken(token.loc, token.source);
     }
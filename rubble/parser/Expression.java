@@ -26,117 +26,117 @@ public final class Expression extends Parser<AST.Expression<String, Types.Parsed
         super(loc, tokens, "an expression", ",");
     }
     
-    private LeftDenotation<AST.Expression<String, Types.Parsed>> application(final AST.Expression<String, Types.Parsed> ast) throws CompilerError {
-        return new LeftDenotation<AST.Expression<String, Types.Parsed>>() {
-            
-            public int lbp() { return 11; }
-            private final int rbp = 10;
-            
-            public AST.Expression<String, Types.Parsed> apply(AST.Expression<String, Types.Parsed> left) throws CompilerError {
-                return new AST.Apply<String, Types.Parsed>(left.loc, Types.UNKNOWN, left, parseLeft(ast, rbp));
-            }
-        };
+    private AST.Expression<String, Types.Parsed> application(AST.Expression<String, Types.Parsed> left, AST.Expression<String, Types.Parsed> argument) throws CompilerError {
+        argument = parseLeft(argument, 10);
+        return new AST.Apply<String, Types.Parsed>(left.loc, Types.UNKNOWN, left, argument, context.id());
     }
     
-    private LeftDenotation<AST.Expression<String, Types.Parsed>> infixExpression(final int precedence, final AST.Expression<String, Types.Parsed> center) throws CompilerError {
-        return new LeftDenotation<AST.Expression<String, Types.Parsed>>() {
-            
-            public int lbp() { return precedence; }
-            
-            public AST.Expression<String, Types.Parsed> apply(AST.Expression<String, Types.Parsed> left) throws CompilerError {
-                AST.Expression<String, Types.Parsed> right = parse(precedence);
-                switch (center.tag) {
-                case Apply:
-                    AST.Apply<String, Types.Parsed> result = (AST.Apply<String, Types.Parsed>)center;
-                    ArrayList<AST.Expression<String, Types.Parsed>> aArguments;
-                    if (result.argument.tag == ExpressionTag.Tuple) {
-                        aArguments = ((AST.Tuple<String, Types.Parsed>)result.argument).es;
-                    } else {
-                        aArguments = new ArrayList<AST.Expression<String, Types.Parsed>>();
-                        aArguments.add(result.argument);
-                    }
-                    aArguments.add(left);
-                    aArguments.add(right);
-                    return new AST.Apply<String, Types.Parsed>(result.loc, Types.UNKNOWN, result.function, new AST.Tuple<String, Types.Parsed>(result.argument.loc, Types.UNKNOWN, aArguments));
-                    
-                default:
-                    ArrayList<AST.Expression<String, Types.Parsed>> bArguments = new ArrayList<AST.Expression<String, Types.Parsed>>();
-                    bArguments.add(left);
-                    bArguments.add(right);
-                    return new AST.Apply<String, Types.Parsed>(center.loc, Types.UNKNOWN, center, new AST.Tuple<String, Types.Parsed>(left.loc, Types.UNKNOWN, bArguments));
-                }
+    private AST.Expression<String, Types.Parsed> infix(int precedence, AST.Expression<String, Types.Parsed> center, AST.Expression<String, Types.Parsed> left) throws CompilerError {
+        AST.Expression<String, Types.Parsed> right = parse(precedence);
+        switch (center.tag) {
+        case Apply:
+            AST.Apply<String, Types.Parsed> result = (AST.Apply<String, Types.Parsed>)center;
+            ArrayList<AST.Expression<String, Types.Parsed>> aArguments;
+            if (result.argument.tag == ExpressionTag.Tuple) {
+                aArguments = ((AST.Tuple<String, Types.Parsed>)result.argument).es;
+            } else {
+                aArguments = new ArrayList<AST.Expression<String, Types.Parsed>>();
+                aArguments.add(result.argument);
             }
-        };
+            aArguments.add(left);
+            aArguments.add(right);
+            AST.Tuple<String, Types.Parsed> aTuple = new AST.Tuple<String, Types.Parsed>(result.argument.loc, Types.UNKNOWN, aArguments, context.id());
+            return new AST.Apply<String, Types.Parsed>(result.loc, Types.UNKNOWN, result.function, aTuple, context.id());
+            
+        default:
+            ArrayList<AST.Expression<String, Types.Parsed>> bArguments = new ArrayList<AST.Expression<String, Types.Parsed>>();
+            bArguments.add(left);
+            bArguments.add(right);
+            AST.Tuple<String, Types.Parsed> bTuple = new AST.Tuple<String, Types.Parsed>(left.loc, Types.UNKNOWN, bArguments, context.id());
+            return new AST.Apply<String, Types.Parsed>(center.loc, Types.UNKNOWN, center, bTuple, context.id());
+        }
     }
     
-    private LeftDenotation<AST.Expression<String, Types.Parsed>> infixOperator(final int precedence, Token center) throws CompilerError {
-        return infixExpression(precedence, new AST.Reference<String, Types.Parsed>(center.loc, Types.UNKNOWN, center.source));
+    private int precedence(Token operator) throws CompilerError {
+        if (operator.source.equals("+")) {
+            return 6;
+        } else if (operator.source.equals("-")) {
+            return 6;
+        } else if (operator.source.equals("*")) {
+            return 7;
+        } else if (operator.source.equals("/")) {
+            return 7;
+        } else if (operator.source.equals("<")) {
+            return 3;
+        } else if (operator.source.equals(">")) {
+            return 3;
+        } else if (operator.source.equals("<=")) {
+            return 3;
+        } else if (operator.source.equals(">=")) {
+            return 3;
+        } else if (operator.source.equals("==")) {
+            return 2;
+        } else if (operator.source.equals("!=")) {
+            return 2;
+        } else if (operator.source.equals("&&")) {
+            return 1;
+        } else if (operator.source.equals("||")) {
+            return 1;
+        }
+        throw errorUnexpectedToken(operator.loc, "an unrecognized operator");
     }
     
-    protected LeftDenotation<AST.Expression<String, Types.Parsed>> leftDenotation(final Token token) throws CompilerError {
+    protected int lbp(Token token) throws CompilerError {
         switch (token.tag) {
         case Block:
             if (token.source.equals("`")) {
-                return infixExpression(5, (new Expression(token.loc, token.subtokens)).parseFull("`"));
+                return 5;
             } else if (token.source.equals("(")) {
-                return application(parseTuple(token.loc, token.subtokens));
+                return 11;
             } else if (token.source.equals("[")) {
-                return new LeftDenotation<AST.Expression<String, Types.Parsed>>() {
-                    
-                    public int lbp() { return 14; }
-                    
-                    public AST.Expression<String, Types.Parsed> apply(AST.Expression<String, Types.Parsed> left) throws CompilerError {
-                        return new AST.Index<String, Types.Parsed>(left.loc, Types.UNKNOWN, left, (new Expression(token.loc, token.subtokens)).parseFull("]"));
-                    }
-                };
+                return 14;
             }
-            return null;
+            return 0;
         case Identifier:
-            return application(new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source));
         case Number:
-            return application(new AST.Number<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source));
+            return 11;
         case Operator:
-            if (token.source.equals("+")) {
-                return infixOperator(6, token);
-            } else if (token.source.equals("-")) {
-                return infixOperator(6, token);
-            } else if (token.source.equals("*")) {
-                return infixOperator(7, token);
-            } else if (token.source.equals("/")) {
-                return infixOperator(7, token);
-            } else if (token.source.equals("<")) {
-                return infixOperator(3, token);
-            } else if (token.source.equals(">")) {
-                return infixOperator(3, token);
-            } else if (token.source.equals("<=")) {
-                return infixOperator(3, token);
-            } else if (token.source.equals(">=")) {
-                return infixOperator(3, token);
-            } else if (token.source.equals("==")) {
-                return infixOperator(2, token);
-            } else if (token.source.equals("!=")) {
-                return infixOperator(2, token);
-            } else if (token.source.equals("&&")) {
-                return infixOperator(1, token);
-            } else if (token.source.equals("||")) {
-                return infixOperator(1, token);
-            }
-            throw errorUnexpectedToken(token.loc, "an unrecognized operator");
+            return precedence(token);
         case Reserved:
-            if (token.source.equals("asType")) {
-                return new LeftDenotation<AST.Expression<String, Types.Parsed>>() {
-                    
-                    public int lbp() { return 12; }
-                    
-                    public AST.Expression<String, Types.Parsed> apply(AST.Expression<String, Types.Parsed> left) throws CompilerError {
-                        final Types.Type<String, Types.Parsed> tau = (new Type(context)).parse(11);
-                        return new AST.AsType<String, Types.Parsed>(left.loc, tau, left);
-                    }
-                };
+            return token.source.equals("asType") ? 12 : 0;
+        default:
+            return 0;
+        }
+    }
+    
+    protected AST.Expression<String, Types.Parsed> leftDenotation(Token token, AST.Expression<String, Types.Parsed> left) throws CompilerError {
+        switch (token.tag) {
+        case Block:
+            if (token.source.equals("`")) {
+                context.enter(token);
+                AST.Expression<String, Types.Parsed> center = parseFull("`");
+                context.leave();
+                return infix(5, center, left);
+            } else if (token.source.equals("(")) {
+                return application(left, parseTuple(token));
+            } else {
+                context.enter(token);
+                AST.Expression<String, Types.Parsed> offset = parseFull("]");
+                context.leave();
+                return new AST.Index<String, Types.Parsed>(left.loc, Types.UNKNOWN, left, offset, context.id());
             }
-            return null;
+        case Identifier:
+            return application(left, new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source, context.id()));
+        case Number:
+            return application(left, new AST.Number<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source, context.id()));
+        case Operator:
+            int precedence = precedence(token);
+            return infix(precedence, new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source, context.id()), left);
+        case Reserved:
+            Types.Type<String, Types.Parsed> tau = context.type().parse(11);
+            return new AST.AsType<String, Types.Parsed>(left.loc, tau, left, context.id());
         default:
-            return null;
+            throw CompilerError.ice(token.loc, "Nonexhaustive pattern match in rubble.parser.Expression.leftDenotation().");
         }
     }
     
@@ -144,9 +144,12 @@ public final class Expression extends Parser<AST.Expression<String, Types.Parsed
         switch (token.tag) {
         case Block:
             if (token.source.equals("(")) {
-                return parseTuple(token.loc, token.subtokens);
+                return parseTuple(token);
             } else if (token.source.equals("[")) {
-                return new AST.BufferLiteral<String, Types.Parsed>(token.loc, Types.UNKNOWN, (new Expression(token.loc, token.subtokens)).parseListFull("]"));
+                context.enter(token);
+                ArrayList<AST.Expression<String, Types.Parsed>> es = parseListFull("]");
+                context.leave();
+                return new AST.BufferLiteral<String, Types.Parsed>(token.loc, Types.UNKNOWN, es, context.id());
             } else if (token.source.equals("`")) {
                 throw errorUnexpectedToken(token.loc, "a backtick sequence");
             } else {
@@ -155,25 +158,29 @@ public final class Expression extends Parser<AST.Expression<String, Types.Parsed
         case Comma:
             throw errorUnexpectedToken(token.loc, "a comma");
         case Identifier:
-            return new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source);
+            return new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source, context.id());
         case Number:
-            return new AST.Number<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source);
+            return new AST.Number<String, Types.Parsed>(token.loc, Types.UNKNOWN, token.source, context.id());
         case Operator:
             throw errorUnexpectedToken(token.loc, "an operator");
         case Reserved:
             if (token.source.equals("addressOf")) {
-                return new AST.AddressOf<String, Types.Parsed>(token.loc, Types.UNKNOWN, parse(12));
+                AST.Expression<String, Types.Parsed> value = parse(12);
+                return new AST.AddressOf<String, Types.Parsed>(token.loc, Types.UNKNOWN, value, context.id());
             } else if (token.source.equals("if")) {
                 AST.Expression<String, Types.Parsed> cond = parse(0);
                 context.requireToken("then");
                 AST.Expression<String, Types.Parsed> trueBranch = parse(0);
                 context.requireToken("else");
                 AST.Expression<String, Types.Parsed> falseBranch = parse(0);
-                return new AST.IfE<String, Types.Parsed>(token.loc, Types.UNKNOWN, cond, trueBranch, falseBranch);
+                return new AST.IfE<String, Types.Parsed>(token.loc, Types.UNKNOWN, cond, trueBranch, falseBranch, context.id());
             } else if (token.source.equals("negate")) {
-                return new AST.Apply<String, Types.Parsed>(token.loc, Types.UNKNOWN, new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, "negate"), parse(12));
+                AST.Expression<String, Types.Parsed> argument = parse(12);
+                AST.Expression<String, Types.Parsed> negate = new AST.Reference<String, Types.Parsed>(token.loc, Types.UNKNOWN, "negate", context.id());
+                return new AST.Apply<String, Types.Parsed>(token.loc, Types.UNKNOWN, negate, argument, context.id());
             } else if (token.source.equals("valueAt")) {
-                return new AST.ValueAt<String, Types.Parsed>(token.loc, Types.UNKNOWN, parse(12));
+                AST.Expression<String, Types.Parsed> value = parse(12);
+                return new AST.ValueAt<String, Types.Parsed>(token.loc, Types.UNKNOWN, value, context.id());
             }
             throw errorUnexpectedToken(token.loc, token.source);
         case Semicolon:
@@ -192,19 +199,21 @@ public final class Expression extends Parser<AST.Expression<String, Types.Parsed
             return result.get(0);
         default:
             Location loc = new Location(result.get(0).loc, result.get(result.size() - 1).loc);
-            return new AST.Tuple<String, Types.Parsed>(loc, Types.UNKNOWN, result);
+            return new AST.Tuple<String, Types.Parsed>(loc, Types.UNKNOWN, result, context.id());
         }
     }
     
-    public static AST.Expression<String, Types.Parsed> parseTuple(Location loc, ArrayList<Token> tokens) throws CompilerError {
-        ArrayList<AST.Expression<String, Types.Parsed>> result = (new Expression(loc, tokens)).parseListFull(")");
+    private AST.Expression<String, Types.Parsed> parseTuple(Token block) throws CompilerError {
+        context.enter(block);
+        ArrayList<AST.Expression<String, Types.Parsed>> result = parseListFull(")");
+        context.leave();
         switch (result.size()) {
         case 0:
-            return new AST.Reference<String, Types.Parsed>(loc, Types.UNKNOWN, "()");
+            return new AST.Reference<String, Types.Parsed>(block.loc, Types.UNKNOWN, "()", context.id());
         case 1:
             return result.get(0);
         default:
-            return new AST.Tuple<String, Types.Parsed>(loc, Types.UNKNOWN, result);
+            return new AST.Tuple<String, Types.Parsed>(block.loc, Types.UNKNOWN, result, context.id());
         }
     }
 }
@@ -1,6 +1,7 @@
 package rubble.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import rubble.data.CompilerError;
 import rubble.data.Location;
@@ -10,16 +11,33 @@ import rubble.data.Token;
  * The context in which a parse is occurring.  The point of this is to treat
  * objects as the State monad.
  * 
+ * One context serves a whole parse, so that it can number the nodes of each
+ * declaration: entering a block saves the position in the enclosing one on a
+ * stack rather than making a new context, and the parsers working on the
+ * context are made once and shared.
+ * 
  * Copyright (c) 2011 Jared Putnam
  * Released under the terms of the 2-clause BSD license, which should be
  * included with this source.
  */
 public final class ParseContext {
     
-    public final Location loc;
-    public final ArrayList<Token> tokens;
+    public Location loc;
+    public ArrayList<Token> tokens;
     public int index;
     
+    private Location[] outerLocs = new Location[8];
+    private ArrayList<?>[] outerTokens = new ArrayList<?>[8];
+    private int[] outerIndices = new int[8];
+    private int depth = 0;
+    
+    private int nextId = 0;
+    
+    private Binding binding = null;
+    private Expression expression = null;
+    private Statement statement = null;
+    private Type type = null;
+    
     public ParseContext(Location loc, ArrayList<Token> tokens) {
         this.loc = loc;
         this.tokens = tokens;
@@ -30,10 +48,58 @@ public final class ParseContext {
         return CompilerError.parse(loc, "The parser expected " + expected + " but " + message + ".");
     }
     
-    public ParseContext inBraces() throws CompilerError {
+    /**
+     * Takes the id for a node.  The parsers take it as they build the node,
+     * after its children, which gives the order AST describes.
+     * 
+     * @return The next id in the declaration being parsed.
+     */
+    public int id() {
+        return nextId++;
+    }
+    
+    /**
+     * Numbers the nodes from 0 again, for a new declaration.
+     */
+    public void startDeclaration() {
+        nextId = 0;
+    }
+    
+    /**
+     * Moves the parse into a block token, remembering where it was so that
+     * leave() can return there.
+     * 
+     * @param block
+     */
+    public void enter(Token block) {
+        if (depth == outerIndices.length) {
+            outerLocs = Arrays.copyOf(outerLocs, 2 * depth);
+            outerTokens = Arrays.copyOf(outerTokens, 2 * depth);
+            outerIndices = Arrays.copyOf(outerIndices, 2 * depth);
+        }
+        outerLocs[depth] = loc;
+        outerTokens[depth] = tokens;
+        outerIndices[depth] = index;
+        depth++;
+        loc = block.loc;
+        tokens = block.subtokens;
+        index = 0;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public void leave() {
+        depth--;
+        loc = outerLocs[depth];
+        tokens = (ArrayList<Token>)outerTokens[depth];
+        index = outerIndices[depth];
+        outerTokens[depth] = null;
+    }
+    
+    public void enterBraces() throws CompilerError {
         Token t = nextTokenExpecting("{");
         if (t.source.equals("{") || (t.source.equals(Token.IMPLICIT_BRACE))) {
-            return new ParseContext(t.loc, t.subtokens);
+            enter(t);
+            return;
         }
         throw errorUnexpected(t.loc, "{", t.source);
     }
@@ -58,4 +124,24 @@ public final class ParseContext {
         Token t = nextTokenExpecting(expected);
         if (!t.source.equals(expected)) { throw errorUnexpected(t.loc, expected, "found " + t.source); }
     }
+    
+    public Binding binding() {
+        if (binding == null) { binding = new Binding(this); }
+        return binding;
+    }
+    
+    public Expression expression() {
+        if (expression == null) { expression = new Expression(this); }
+        return expression;
+    }
+    
+    public Statement statement() {
+        if (statement == null) { statement = new Statement(this); }
+        return statement;
+    }
+    
+    public Type type() {
+        if (type == null) { type = new Type(this); }
+        return type;
+    }
 }
@@ -21,12 +21,6 @@ import rubble.data.Types;
  */
 public abstract class Parser<T> {
     
-    public static abstract class LeftDenotation<A> {
-        
-        public abstract int lbp();
-        public abstract A apply(A ast) throws CompilerError;
-    }
-    
     public final ParseContext context;
     public final String name;
     public final String separator;
@@ -48,39 +42,36 @@ public abstract class Parser<T> {
         return ParseContext.errorUnexpected(loc, name, "found " + source);
     }
     
-    protected final ParseContext inBraces() throws CompilerError {
-        Token t = nextToken();
-        switch(t.tag) {
-        case Block:
-            if (t.source.equals("{") || t.source.equals(Token.IMPLICIT_BRACE)) {
-                return new ParseContext(t.loc, t.subtokens);
-            }
-            // Intentional fallthrough.
-        default:
-            throw ParseContext.errorUnexpected(t.loc, "{", "found " + t.source);
-        }
+    protected final Token nextToken() throws CompilerError {
+        return context.nextTokenExpecting(name);
     }
     
-    protected final ParseContext inParens() throws CompilerError {
-        Token t = nextToken();
-        switch(t.tag) {
-        case Block:
-            if (t.source.equals("(")) {
-                return new ParseContext(t.loc, t.subtokens);
-            }
-            // Intentional fallthrough.
-        default:
-            throw ParseContext.errorUnexpected(t.loc, "(", "found " + t.source);
-        }
+    /**
+     * The left binding power of a token that might continue an expression,
+     * or 0 if it can't.
+     * 
+     * @param token
+     * @return How tightly the token binds to the tree on its left.
+     * @throws CompilerError
+     */
+    protected int lbp(Token token) throws CompilerError {
+        return 0;
     }
     
-    protected final Token nextToken() throws CompilerError {
-        return context.nextTokenExpecting(name);
+    /**
+     * Continues the tree to the left of a token, which lbp() accepted and
+     * which has been consumed.  Nothing after the token is parsed until
+     * then, so no node is built that the parse throws away.
+     * 
+     * @param token
+     * @param left
+     * @return The tree with the token and what follows it added.
+     * @throws CompilerError
+     */
+    protected T leftDenotation(Token token, T left) throws CompilerError {
+        throw CompilerError.ice(token.loc, "There is no left denotation in " + getClass().getName() + ".");
     }
     
-    /// This is allowed to return null.
-    protected abstract LeftDenotation<T> leftDenotation(Token token) throws CompilerError;
-    
     protected abstract T nullDenotation(Token token) throws CompilerError;
     
     public static final ArrayList<AST.Declaration<String, Types.Parsed>> parse(ArrayList<Token> tokens) throws CompilerError {
@@ -104,13 +95,12 @@ public abstract class Parser<T> {
     
     protected final T parseLeft(T ast, int rbp) throws CompilerError {
         while (context.isLive()) {
-            LeftDenotation<T> ld = leftDenotation(context.tokens.get(context.index));
-            if (ld != null && rbp < ld.lbp()) {
-                context.index++;
-                ast = ld.apply(ast);
-            } else {
+            Token token = context.tokens.get(context.index);
+            if (rbp >= lbp(token)) {
                 return ast;
             }
+            context.index++;
+            ast = leftDenotation(token, ast);
         }
         return ast;
     }
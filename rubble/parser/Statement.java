@@ -1,6 +1,7 @@
 package rubble.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import rubble.data.AST;
 import rubble.data.CompilerError;
@@ -17,78 +18,93 @@ import rubble.data.Types;
  */
 public final class Statement extends Parser<AST.Statement<String, Types.Parsed>> {
     
-    private static final class StringStack {
-        
-        public final String head;
-        public final StringStack tail;
-        public final int size;
-        
-        public final static StringStack NIL = new StringStack("", null);
-        
-        public StringStack(String head, StringStack tail) {
-            this.head = head;
-            this.tail = tail;
-            this.size = tail == null ? 0 : tail.size + 1;
-        }
-        
-        public int find(String target) {
-            return head.equals(target) ? 0 : tail == null ? 1 : 1 + tail.find(target);
-        }
-    }
-    
-    private StringStack scopeStack;
+    // The labels of the loops around the statement being parsed, innermost
+    // last.  Unlabelled loops have the empty label, which break can't name.
+    private String[] labels = new String[8];
+    private int loops = 0;
     
     public Statement(ParseContext context) {
         super(context, "a statement", ";");
-        scopeStack = StringStack.NIL;
     }
     
     public Statement(Location loc, ArrayList<Token> tokens) {
         super(new ParseContext(loc, tokens), "a statement", ";");
-        scopeStack = StringStack.NIL;
-    }
-    
-    private Statement(ParseContext context, StringStack scopeStack) {
-        super(context, "a statement", ";");
-        this.scopeStack = scopeStack;
-    }
-    
-    private Statement(Location loc, ArrayList<Token> tokens, StringStack scopeStack) {
-        super(new ParseContext(loc, tokens), "a statement", ";");
-        this.scopeStack = scopeStack;
     }
     
-    private static AST.LValue<String, Types.Parsed> certifyLValue(AST.Expression<String, Types.Parsed> ast) throws CompilerError {
+    private AST.LValue<String, Types.Parsed> certifyLValue(AST.Expression<String, Types.Parsed> ast) throws CompilerError {
         switch (ast.tag) {
         case Index:
             AST.Index<String, Types.Parsed> ix = (AST.Index<String, Types.Parsed>)ast;
-            return new AST.IndexL<String, Types.Parsed>(ast.loc, Types.UNKNOWN, certifyLValue(ix.base), ix.offset);
+            AST.LValue<String, Types.Parsed> base = certifyLValue(ix.base);
+            return new AST.IndexL<String, Types.Parsed>(ast.loc, Types.UNKNOWN, base, ix.offset, context.id());
         case Tuple:
             AST.Tuple<String, Types.Parsed> tuple = (AST.Tuple<String, Types.Parsed>)ast;
             ArrayList<AST.LValue<String, Types.Parsed>> ls = new ArrayList<AST.LValue<String, Types.Parsed>>();
             for (AST.Expression<String, Types.Parsed> e: tuple.es){
                 ls.add(certifyLValue(e));
             }
-            return new AST.TupleL<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ls);
+            return new AST.TupleL<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ls, context.id());
         case ValueAt:
-            return new AST.Indirect<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ((AST.ValueAt<String, Types.Parsed>)ast).value);
+            return new AST.Indirect<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ((AST.ValueAt<String, Types.Parsed>)ast).value, context.id());
         case Variable:
-            return new AST.Direct<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ((AST.Reference<String, Types.Parsed>)ast).name);
+            return new AST.Direct<String, Types.Parsed>(ast.loc, Types.UNKNOWN, ((AST.Reference<String, Types.Parsed>)ast).name, context.id());
         default:
             throw ParseContext.errorUnexpected(ast.loc, "an lvalue", "found another kind of expression");
         }
     }
     
-    protected LeftDenotation<rubble.data.AST.Statement<String, Types.Parsed>> leftDenotation(Token token) throws CompilerError {
-        return null;
+    /**
+     * Parses the body of a loop, which the parse has entered.
+     * 
+     * @param label
+     * @return The statements in the body.
+     * @throws CompilerError
+     */
+    private ArrayList<AST.Statement<String, Types.Parsed>> parseLoopBody(String label) throws CompilerError {
+        if (loops == labels.length) {
+            labels = Arrays.copyOf(labels, 2 * loops);
+        }
+        labels[loops] = label;
+        loops++;
+        ArrayList<AST.Statement<String, Types.Parsed>> body = parseBlock();
+        loops--;
+        return body;
     }
-
+    
+    /**
+     * Parses the statements in a block, which the parse has entered, and
+     * leaves it.
+     * 
+     * @return The statements.
+     * @throws CompilerError
+     */
+    private ArrayList<AST.Statement<String, Types.Parsed>> parseBlock() throws CompilerError {
+        ArrayList<AST.Statement<String, Types.Parsed>> body = parseListFull("}");
+        context.leave();
+        return body;
+    }
+    
+    /**
+     * Finds how many loops out a break with a label goes.
+     * 
+     * @param label
+     * @return The depth of the loop, or -1 if there is no loop with the label.
+     */
+    private int findLoop(String label) {
+        for (int i = loops - 1; i >= 0; --i) {
+            if (labels[i].equals(label)) { return loops - 1 - i; }
+        }
+        return -1;
+    }
+    
     protected AST.Statement<String, Types.Parsed> nullDenotation(Token token) throws CompilerError {
         Token lookahead;
         switch(token.tag) {
         case Block:
             if (token.source.equals("{") || token.source.equals(Token.IMPLICIT_BRACE)) {
-                return new AST.Nested<String, Types.Parsed>(token.loc, ((new Statement(token.loc, token.subtokens, scopeStack)).parseListFull("}")));
+                context.enter(token);
+                ArrayList<AST.Statement<String, Types.Parsed>> body = parseBlock();
+                return new AST.Nested<String, Types.Parsed>(token.loc, body, context.id());
             } else if (token.source.equals("(")) {
                 return parseCallOrAssignment(token);
             }
@@ -99,43 +115,50 @@ public final class Statement extends Parser<AST.Statement<String, Types.Parsed>>
                 throw errorUnexpectedToken(token.loc, "an incomplete statement");
             } else if (lookahead.source.equals("forever")) {
                 context.index++;
-                return new AST.Forever<String, Types.Parsed>(token.loc, token.source, ((new Statement(context.inBraces(), new StringStack(token.source, scopeStack))).parseListFull("}")));
+                context.enterBraces();
+                ArrayList<AST.Statement<String, Types.Parsed>> body = parseLoopBody(token.source);
+                return new AST.Forever<String, Types.Parsed>(token.loc, token.source, body, context.id());
             }
             return parseCallOrAssignment(token);
         case Reserved:
             if (token.source.equals("break")) {
-                if (scopeStack.size == 0) {
+                if (loops == 0) {
                     throw CompilerError.parse(token.loc, "There is no enclosing loop to break out of.");
                 }
                 lookahead = context.lookahead();
                 if (lookahead == null || lookahead.tag == Token.Tag.Semicolon) {
-                    return new AST.Break<String, Types.Parsed>(token.loc, 0);
+                    return new AST.Break<String, Types.Parsed>(token.loc, 0, context.id());
                 } else if (lookahead.tag == Token.Tag.Identifier) {
-                    int target = scopeStack.find(lookahead.source);
-                    if (target >= scopeStack.size) {
+                    int target = findLoop(lookahead.source);
+                    if (target < 0) {
                         throw CompilerError.parse(token.loc, "The break target was not found.");
                     }
                     context.index++;
-                    return new AST.Break<String, Types.Parsed>(token.loc, target);
+                    return new AST.Break<String, Types.Parsed>(token.loc, target, context.id());
                 }
                 else throw ParseContext.errorUnexpected(token.loc, "the end of the statement or a label", "found " + lookahead.source);
             } else if (token.source.equals("if")) {
-                AST.Expression<String, Types.Parsed> cond = (new Expression(context)).parse(0);
+                AST.Expression<String, Types.Parsed> cond = context.expression().parse(0);
                 context.requireToken("then");
-                ArrayList<AST.Statement<String, Types.Parsed>> trueBranch = (new Statement(context.inBraces(), scopeStack)).parseListFull("}");
+                context.enterBraces();
+                ArrayList<AST.Statement<String, Types.Parsed>> trueBranch = parseBlock();
                 ArrayList<AST.Statement<String, Types.Parsed>> falseBranch = new ArrayList<AST.Statement<String, Types.Parsed>>();
                 lookahead = context.lookahead();
                 if (lookahead != null && lookahead.source.equals("else")) {
                     context.index++;
-                    falseBranch = (new Statement(context.inBraces(), scopeStack)).parseListFull("}");
+                    context.enterBraces();
+                    falseBranch = parseBlock();
                 }
-                return new AST.IfS<String, Types.Parsed>(token.loc, cond, trueBranch, falseBranch);
+                return new AST.IfS<String, Types.Parsed>(token.loc, cond, trueBranch, falseBranch, context.id());
             } else if (token.source.equals("forever")) {
-                return new AST.Forever<String, Types.Parsed>(token.loc, "", (new Statement(context.inBraces(), new StringStack("", scopeStack)).parseListFull("}")));
+                context.enterBraces();
+                ArrayList<AST.Statement<String, Types.Parsed>> body = parseLoopBody("");
+                return new AST.Forever<String, Types.Parsed>(token.loc, "", body, context.id());
             } else if (token.source.equals("let")) {
                 return parseLet(token.loc);
             } else if (token.source.equals("return")) {
-                return new AST.Return<String, Types.Parsed>(token.loc, (new Expression(context).parseOpenTuple()));
+                AST.Expression<String, Types.Parsed> value = context.expression().parseOpenTuple();
+                return new AST.Return<String, Types.Parsed>(token.loc, value, context.id());
             } else if (token.source.equals("valueAt")) {
                 return parseCallOrAssignment(token);
             }
@@ -147,17 +170,19 @@ public final class Statement extends Parser<AST.Statement<String, Types.Parsed>>
     
     private AST.Statement<String, Types.Parsed> parseCallOrAssignment(Token token) throws CompilerError {
         context.index -= 1;
-        AST.Expression<String, Types.Parsed> ast = (new Expression(context)).parseOpenTuple();
+        Expression expression = context.expression();
+        AST.Expression<String, Types.Parsed> ast = expression.parseOpenTuple();
         Token lookahead = context.lookahead();
         if (lookahead == null || lookahead.tag == Token.Tag.Semicolon) {
             if (ast.tag == AST.ExpressionTag.Apply) {
-                return new AST.Call<String, Types.Parsed>(token.loc, ((AST.Apply<String, Types.Parsed>)ast).function, ((AST.Apply<String, Types.Parsed>)ast).argument);
+                return new AST.Call<String, Types.Parsed>(token.loc, ((AST.Apply<String, Types.Parsed>)ast).function, ((AST.Apply<String, Types.Parsed>)ast).argument, context.id());
             }
             throw errorUnexpectedToken(token.loc, token.source);
         } else if (lookahead.source.equals("=")) {
             AST.LValue<String, Types.Parsed> lValue = certifyLValue(ast);
             context.index++;
-            return new AST.Assign<String, Types.Parsed>(token.loc, lValue, (new Expression(context)).parseOpenTuple());
+            AST.Expression<String, Types.Parsed> value = expression.parseOpenTuple();
+            return new AST.Assign<String, Types.Parsed>(token.loc, lValue, value, context.id());
         }
         throw errorUnexpectedToken(token.loc, token.source);
     }
@@ -171,18 +196,20 @@ public final class Statement extends Parser<AST.Statement<String, Types.Parsed>>
         ArrayList<AST.Binding<String, Types.Parsed>> bs;
         switch (lookahead.tag) {
         case Block:
-            bs = new Binding(lookahead.loc, lookahead.subtokens).parseListFull("}");
+            context.enter(lookahead);
+            bs = context.binding().parseListFull("}");
+            context.leave();
             if (bs.size() == 0) {
                 throw CompilerError.parse(loc, "You cannot have an empty let block.");
             }
             letLoc = new Location(loc, bs.get(bs.size() - 1).loc);
-            return new AST.Let<String, Types.Parsed>(letLoc, bs);
+            return new AST.Let<String, Types.Parsed>(letLoc, bs, context.id());
         case Identifier:
         case Reserved:
             bs = new ArrayList<AST.Binding<String, Types.Parsed>>();
-            bs.add((new Binding(context)).parse(0));
+            bs.add(context.binding().parse(0));
             letLoc = new Location(loc, bs.get(bs.size() - 1).loc);
-            return new AST.Let<String, Types.Parsed>(letLoc, bs);
+            return new AST.Let<String, Types.Parsed>(letLoc, bs, context.id());
         }
         throw ParseContext.errorUnexpected(loc, "an identifier or binding block", "found " + lookahead.source);
     }
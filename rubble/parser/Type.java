@@ -31,10 +31,6 @@ public final class Type extends Parser<Types.Type<String, Types.Parsed>> {
         return new Types.Known<String, Types.Parsed>(new Types.Ground(tag));
     }
     
-    protected LeftDenotation<Types.Type<String, Types.Parsed>> leftDenotation(Token token) throws CompilerError {
-        return null;
-    }
-    
     protected Types.Type<String, Types.Parsed> nullDenotation(Token token) throws CompilerError {
         switch (token.tag){
         case Block:
@@ -70,10 +66,10 @@ public final class Type extends Parser<Types.Type<String, Types.Parsed>> {
                 if (!block.source.equals("[")) {
                     throw ParseContext.errorUnexpected(block.loc, "[", "found " + block.source);
                 }
-                Type parser = new Type(block.loc, block.subtokens);
+                context.enter(block);
                 
                 Types.Nat<String, Types.Parsed> size;
-                Token sizeToken = parser.context.nextTokenExpecting("a buffer size");
+                Token sizeToken = context.nextTokenExpecting("a buffer size");
                 switch (sizeToken.tag) {
                 case Identifier:
                     if (sizeToken.source.equals("_")) {
@@ -91,14 +87,16 @@ public final class Type extends Parser<Types.Type<String, Types.Parsed>> {
                 default:
                     throw ParseContext.errorUnexpected(sizeToken.loc, "the buffer's size", "found " + sizeToken.source);
                 }
-                parser.context.requireToken(",");
+                context.requireToken(",");
                 
                 Mode mode = Mode.Const;
-                if ("var".equals(parser.context.lookahead())) {
-                    parser.context.index++;
+                if (context.isLive() && context.lookahead().source.equals("var")) {
+                    context.index++;
                     mode = Mode.Var;
                 }
-                return new Types.Buffer<String, Types.Parsed>(size, mode, parser.parseFull("]"));
+                Types.Type<String, Types.Parsed> contents = parseFull("]");
+                context.leave();
+                return new Types.Buffer<String, Types.Parsed>(size, mode, contents);
             
             } else if (token.source.equals("Int8")) {
                 return groundType(GroundTag.Int8);
@@ -114,14 +112,16 @@ public final class Type extends Parser<Types.Type<String, Types.Parsed>> {
                 if (!block.source.equals("[")) {
                     throw ParseContext.errorUnexpected(block.loc, "[", "found " + block.source);
                 }
-                Type parser = new Type(block.loc, block.subtokens);
+                context.enter(block);
                 
                 Mode mode = Mode.Const;
-                if ("var".equals(parser.context.lookahead())) {
-                    parser.context.index++;
+                if (context.isLive() && context.lookahead().source.equals("var")) {
+                    context.index++;
                     mode = Mode.Var;
                 }
-                return new Types.Ptr<String, Types.Parsed>(mode, parser.parseFull("]"));
+                Types.Type<String, Types.Parsed> contents = parseFull("]");
+                context.leave();
+                return new Types.Ptr<String, Types.Parsed>(mode, contents);
             
             } else if (token.source.equals("UInt8")) {
                 return groundType(GroundTag.UInt8);
@@ -1,7 +1,22 @@
 package rubble.test;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import rubble.data.AST;
+import rubble.data.CompilerError;
+import rubble.data.Footprint;
+import rubble.data.Token;
+import rubble.data.Types.Parsed;
+import rubble.parser.Layout;
+import rubble.parser.Lexer;
+import rubble.parser.Parser;
+
 /**
- * The test driver.
+ * The test driver.  Given --footprint and a source file, it instead reports
+ * how much memory each phase's output for that file takes.
  * 
  * Copyright (c) 2011 Jared Putnam
  * Released under the terms of the 2-clause BSD license, which should be
@@ -10,6 +25,11 @@ package rubble.test;
 public class Main {
     
     public static void main(String[] args) {
+        if (args.length == 2 && args[0].equals("--footprint")) {
+            footprint(args[1]);
+            return;
+        }
+        
         System.out.print("Test Lexer: ");
         TestHarness.testAll(TestLexer.cases);
         System.out.print("\nTest Layout: ");
@@ -18,5 +38,43 @@ public class Main {
         TestHarness.testAll(TestParser.cases);
         System.out.print("\nTest Checker: ");
         TestHarness.testAll(TestChecker.cases);
+        System.out.print("\nTest Visitor: ");
+        TestHarness.testAll(TestVisitor.cases);
+        System.out.print("\nTest Cache: ");
+        TestHarness.testAll(TestCache.cases);
+    }
+    
+    private static void footprint(String path) {
+        try {
+            StringBuilder source = new StringBuilder();
+            BufferedReader in = new BufferedReader(new FileReader(path));
+            try {
+                char[] buffer = new char[4096];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    source.append(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            
+            ArrayList<Token> lexed = new Lexer(source.toString()).lex();
+            Footprint f = new Footprint();
+            f.addTokens(lexed);
+            System.out.println("After lexing:\n" + f);
+            
+            ArrayList<Token> laidOut = new Layout(lexed).layout();
+            f = new Footprint();
+            f.addTokens(laidOut);
+            System.out.println("After layout:\n" + f);
+            
+            ArrayList<AST.Declaration<String, Parsed>> declarations = Parser.parse(laidOut);
+            f = new Footprint();
+            f.addDeclarations(declarations);
+            System.out.println("After parsing:\n" + f);
+        } catch (IOException e) {
+            System.out.println("The file couldn't be read.  " + e.getMessage());
+        } catch (CompilerError e) {
+            System.out.println(e.loc.toString() + " " + e.message);
+        }
     }
 }
@@ -0,0 +1,179 @@
+package rubble.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import rubble.cache.ModuleFile;
+import rubble.cache.TypeCache;
+import rubble.checks.InferTypes;
+import rubble.checks.Inference;
+import rubble.checks.ResolveNames;
+import rubble.data.AST;
+import rubble.data.CompilerError;
+import rubble.data.Resolution;
+import rubble.data.Types.Parsed;
+import rubble.parser.Layout;
+import rubble.parser.Lexer;
+import rubble.parser.Parser;
+import rubble.test.TestHarness.*;
+
+/**
+ * Tests the compilation caches.
+ * 
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class TestCache {
+    
+    private static String show(ArrayList<AST.Declaration<String, Parsed>> declarations) {
+        StringBuilder result = new StringBuilder();
+        for (AST.Declaration<String, Parsed> d: declarations) {
+            result.append(d.toString());
+        }
+        return result.toString();
+    }
+    
+    private static String roundTrip(String source, String changedSource) throws CompilerError {
+        try {
+            ArrayList<AST.Declaration<String, Parsed>> declarations = Parser.parse(new Layout(new Lexer(source).lex()).layout());
+            File file = File.createTempFile("rubble", ".rblm");
+            try {
+                ModuleFile.write(file, source, declarations);
+                ModuleFile.Reader reader = ModuleFile.open(file);
+                if (!reader.isCurrent(source) || reader.isCurrent(changedSource)) {
+                    return "The source hash was wrong.";
+                }
+                String expected = show(declarations);
+                String found = show(reader.declarations());
+                return expected.equals(found) ? "ok" : found;
+            } finally {
+                file.delete();
+            }
+        } catch (IOException e) {
+            return "An I/O error was thrown.  " + e.getMessage();
+        }
+    }
+    
+    /**
+     * Writes a module file, cuts off all but its first bytes (or all but its
+     * last bytes, when the count is negative), and reads it back.
+     */
+    private static String truncated(String source, int keep) throws CompilerError {
+        try {
+            ArrayList<AST.Declaration<String, Parsed>> declarations = Parser.parse(new Layout(new Lexer(source).lex()).layout());
+            File file = File.createTempFile("rubble", ".rblm");
+            try {
+                ModuleFile.write(file, source, declarations);
+                RandomAccessFile cut = new RandomAccessFile(file, "rw");
+                try {
+                    cut.setLength(keep < 0 ? cut.length() + keep : keep);
+                } finally {
+                    cut.close();
+                }
+                return show(ModuleFile.open(file).declarations());
+            } finally {
+                file.delete();
+            }
+        } catch (IOException e) {
+            return "An I/O error was thrown.  " + e.getMessage();
+        }
+    }
+    
+    /**
+     * Infers the types in a program with the cache, and lists the inferred
+     * type of each function's result and the cache's counts so far.
+     */
+    private static String inferCached(TypeCache cache, String source) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(source).lex()).layout()));
+        StringBuilder result = new StringBuilder();
+        for (Inference inference: InferTypes.inferTypes(rs, cache)) {
+            AST.Def<String, Parsed> def = (AST.Def<String, Parsed>)inference.resolution.declaration;
+            AST.Return<String, Parsed> ret = (AST.Return<String, Parsed>)def.body.get(def.body.size() - 1);
+            result.append(def.name + ":" + inference.type(ret.value) + " ");
+        }
+        return result.append(cache.hits() + "/" + cache.misses() + " ").toString();
+    }
+    
+    /**
+     * Deletes a cache directory and everything in it.
+     */
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f: files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    public static final TestHarness.TestCase[] cases = {
+        new Matches() {
+            public String name() { return "Module file 1"; }
+            public String expected() { return "ok"; }
+            public String userCode() throws CompilerError {
+                return roundTrip("def main() Int32 do return 0", "def main() Int32 do return 1");
+            }
+        },
+        new Matches() {
+            public String name() { return "Module file 2"; }
+            public String expected() { return "ok"; }
+            public String userCode() throws CompilerError {
+                return roundTrip("let a = [1, 2] : Buffer[2, Int8]; def f() () do l forever { if a[0] == 1 then { break l } else { *b, c = &d, negate e } }; f g h; return ()", "");
+            }
+        },
+        new Matches() {
+            public String name() { return "Module file 3"; }
+            public String expected() { return "ok"; }
+            public String userCode() throws CompilerError {
+                return roundTrip("", " ");
+            }
+        },
+        new Matches() {
+            public String name() { return "Module file 4"; }
+            public String expected() { return "An I/O error was thrown.  The module file ends too soon."; }
+            public String userCode() throws CompilerError {
+                return truncated("def main() Int32 do return 0", 10);
+            }
+        },
+        new Matches() {
+            public String name() { return "Module file 5"; }
+            public String expected() { return "An I/O error was thrown.  The module file ends too soon."; }
+            public String userCode() throws CompilerError {
+                return truncated("def main() Int32 do return 0", -1);
+            }
+        },
+        new Matches() {
+            public String name() { return "Type cache 1"; }
+            public String expected() { return "f:<(Ground Int32)> g:<(Ground Int32)> 0/2 | f:<(Ground Int32)> g:<(Ground Int32)> 1/3 | f:<(Ground Int64)> g:<(Ground Int64)> 1/5 "; }
+            public String userCode() throws CompilerError {
+                TypeCache cache = new TypeCache();
+                return inferCached(cache, "def f() Int32 { return 1 }; def g() Int32 { let x = f (); return x }") + "| "
+                     + inferCached(cache, "def f() Int32 { return 2 }; def g() Int32 { let x = f (); return x }") + "| "
+                     + inferCached(cache, "def f() Int64 { return 2 }; def g() Int64 { let x = f (); return x }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Type cache 2"; }
+            public String expected() { return "f:(Ptr <(Ground UInt8)>) g:(Buffer <{2}> <(Ground Int32)>) 0/2 | f:(Ptr <(Ground UInt8)>) g:(Buffer <{2}> <(Ground Int32)>) 2/0 "; }
+            public String userCode() throws CompilerError {
+                try {
+                    File directory = File.createTempFile("rubble", ".types");
+                    directory.delete();
+                    try {
+                        String source = "def f(p: Ptr[UInt8]) Ptr[UInt8] { return p }; def g() Buffer[_, Int32] { let b = [1, 2]; return b }";
+                        return inferCached(new TypeCache(directory), source) + "| "
+                             + inferCached(new TypeCache(directory), source);
+                    } finally {
+                        delete(directory);
+                    }
+                } catch (IOException e) {
+                    return "An I/O error was thrown.  " + e.getMessage();
+                }
+            }
+        }
+    };
+}
@@ -1,12 +1,37 @@
 package rubble.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import rubble.checks.Bidirectional;
+import rubble.checks.ControlFlow;
+import rubble.checks.Dominators;
+import rubble.checks.Elaboration;
+import rubble.checks.FrameLayout;
 import rubble.checks.FunctionsReturn;
+import rubble.checks.InferTypes;
+import rubble.checks.Inference;
+import rubble.checks.Liveness;
 import rubble.checks.MainExists;
+import rubble.checks.Monomorphize;
+import rubble.checks.PassManager;
+import rubble.checks.ResolveNames;
+import rubble.checks.Unifier;
+import rubble.data.AST;
 import rubble.data.CompilerError;
+import rubble.data.CrossReference;
 import rubble.data.Location;
+import rubble.data.Mode;
+import rubble.data.NamingContext;
+import rubble.data.Names.*;
+import rubble.data.Resolution;
 import rubble.data.Token;
+import rubble.data.Types;
+import rubble.data.Types.Parsed;
+import rubble.data.Visitor;
 import rubble.parser.Layout;
 import rubble.parser.Lexer;
 import rubble.parser.Parser;
@@ -36,6 +61,449 @@ public final class TestChecker {
         return "ok";
     }
     
+    /**
+     * Builds the control-flow graph of the first declaration, which must be
+     * a function, and lists each block's successors and number of
+     * statements, then the reverse postorder.
+     */
+    private static String controlFlow(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        ControlFlow cfg = ControlFlow.of((AST.Def<String, Parsed>)Parser.parse(tokens).get(0));
+        
+        StringBuilder result = new StringBuilder();
+        for (int b = 0; b < cfg.blocks; b++) {
+            result.append(b + ":");
+            for (int i = cfg.successorStart[b]; i < cfg.successorStart[b + 1]; i++) {
+                result.append((i == cfg.successorStart[b] ? "" : ",") + cfg.successors[i]);
+            }
+            result.append("/" + cfg.statements(b).size() + " ");
+        }
+        result.append("order");
+        for (int b: cfg.order) {
+            result.append(" " + b);
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Finds the dominators of the first declaration, which must be a
+     * function, and lists each reachable block's immediate dominator and
+     * frontier, then each loop's label, header, parent and depth.
+     */
+    private static String dominators(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        ControlFlow cfg = ControlFlow.of((AST.Def<String, Parsed>)Parser.parse(tokens).get(0));
+        Dominators doms = Dominators.of(cfg);
+        
+        StringBuilder result = new StringBuilder();
+        for (int b: cfg.order) {
+            result.append(b + "<" + doms.idom[b] + "[");
+            for (int i = doms.frontierStart[b]; i < doms.frontierStart[b + 1]; i++) {
+                result.append((i == doms.frontierStart[b] ? "" : ",") + doms.frontiers[i]);
+            }
+            result.append("] ");
+        }
+        for (int i = 0; i < cfg.loops.size(); i++) {
+            result.append(cfg.loops.get(i).label + "@" + cfg.headers[i] + " " + doms.loopParent[i] + " " + doms.loopDepth[i] + "; ");
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Builds the graph of a function with thousands of blocks, nested in
+     * loops, and lists the number of blocks, whether EXIT is dominated by
+     * the first loop's header, the depth of each loop, and the number of
+     * blocks in the inner loop.
+     */
+    private static String manyBlocks(int ifs) throws CompilerError {
+        StringBuilder program = new StringBuilder("def f(a: Int8) Int8 do a forever { forever { ");
+        for (int i = 0; i < ifs; i++) {
+            program.append("if a < " + (i % 100) + " then { break } else { a = a - 1 }; ");
+        }
+        program.append("}; if a < 0 then { break a } else { } }; return a");
+        ArrayList<Token> tokens = new Layout(new Lexer(program.toString()).lex()).layout();
+        ControlFlow cfg = ControlFlow.of((AST.Def<String, Parsed>)Parser.parse(tokens).get(0));
+        Dominators doms = Dominators.of(cfg);
+        
+        int inner = 0;
+        for (int b = 0; b < cfg.blocks; b++) {
+            if (doms.innermost[b] == 1) { inner++; }
+        }
+        return cfg.blocks + " " + doms.dominates(cfg.headers[0], ControlFlow.EXIT) + " " + doms.loopDepth[0] + " " + doms.loopDepth[1] + " " + inner;
+    }
+    
+    /**
+     * Finds the live variables of the first declaration, which must be a
+     * function, and lists those live before each statement, by block.
+     */
+    private static String liveness(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        Resolution r = ResolveNames.resolveNames(Parser.parse(tokens)).get(0);
+        AST.Def<String, Parsed> def = (AST.Def<String, Parsed>)r.declaration;
+        ControlFlow cfg = ControlFlow.of(def);
+        Liveness live = Liveness.of(r, cfg);
+        
+        final String[] names = new String[live.slots];
+        for (ResolvedName a: r.arguments(def)) {
+            names[live.slot(a)] = a.source;
+        }
+        ArrayList<AST.Declaration<String, Parsed>> ds = new ArrayList<AST.Declaration<String, Parsed>>();
+        ds.add(def);
+        for (AST.Binding<String, Parsed> b: bindings(ds)) {
+            for (ResolvedName l: r.bound(b)) {
+                names[live.slot(l)] = l.source;
+            }
+        }
+        
+        StringBuilder result = new StringBuilder();
+        for (int b: cfg.order) {
+            for (int i = cfg.statementStart[b]; i < cfg.statementStart[b + 1]; i++) {
+                long[] set = live.before(i);
+                result.append("{");
+                for (int slot = 0; slot < live.slots; slot++) {
+                    if ((set[slot >>> 6] & (1L << slot)) != 0) { result.append(" " + names[slot]); }
+                }
+                result.append(" } ");
+            }
+            result.append("| ");
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Finds the live variables of a function with thousands of locals, each
+     * read only by the next, and lists the number of slots and the most that
+     * are live before any statement.  The body is a single block.
+     */
+    private static String manyLocals(int locals) throws CompilerError {
+        StringBuilder program = new StringBuilder("def f(a: Int8) Int8 { let x0 = a; ");
+        for (int i = 1; i < locals; i++) {
+            program.append("let x" + i + " = x" + (i - 1) + " + 1; ");
+        }
+        program.append("return x" + (locals - 1) + " }");
+        ArrayList<Token> tokens = new Layout(new Lexer(program.toString()).lex()).layout();
+        Resolution r = ResolveNames.resolveNames(Parser.parse(tokens)).get(0);
+        ControlFlow cfg = ControlFlow.of((AST.Def<String, Parsed>)r.declaration);
+        Liveness live = Liveness.of(r, cfg);
+        
+        int most = 0;
+        long[] sets = live.beforeEach(ControlFlow.ENTRY);
+        for (int i = 0; i < sets.length; i += live.words) {
+            int count = 0;
+            for (int w = 0; w < live.words; w++) { count += Long.bitCount(sets[i + w]); }
+            most = Math.max(most, count);
+        }
+        return live.slots + " " + most;
+    }
+    
+    /**
+     * Resolves the names in decl and lists what each reference and direct
+     * l-value in it refers to, in order.
+     */
+    private static String resolve(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        ArrayList<AST.Declaration<String, Parsed>> ds = Parser.parse(tokens);
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(ds);
+        
+        final StringBuilder names = new StringBuilder();
+        for (final Resolution r: rs) {
+            ArrayList<AST.Declaration<String, Parsed>> d = new ArrayList<AST.Declaration<String, Parsed>>();
+            d.add(r.declaration);
+            Visitor.walk(d, new Visitor<String, Parsed>() {
+                public Action enterExpression(AST.Expression<String, Parsed> e) {
+                    if (e.tag == AST.ExpressionTag.Variable) {
+                        names.append("[" + r.name((AST.Reference<String, Parsed>)e) + "]");
+                    }
+                    return Action.Continue;
+                }
+                public Action enterLValue(AST.LValue<String, Parsed> l) {
+                    if (l.tag == AST.LValueTag.Direct) {
+                        names.append("[" + r.name((AST.Direct<String, Parsed>)l) + "]");
+                    }
+                    return Action.Continue;
+                }
+            });
+        }
+        return names.toString();
+    }
+    
+    /**
+     * Infers the types in the first declaration, which must be a function,
+     * lays out its frame, and lists the size and each argument's and local's
+     * offset.
+     */
+    private static String frame(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        Inference inference = InferTypes.inferTypes(ResolveNames.resolveNames(Parser.parse(tokens))).get(0);
+        final Resolution r = inference.resolution;
+        final FrameLayout frame = FrameLayout.of(inference);
+        
+        final StringBuilder result = new StringBuilder("size " + frame.size);
+        for (ResolvedName a: r.arguments((AST.Def<String, Parsed>)r.declaration)) {
+            result.append(" " + a.source + "@" + frame.offset((Argument)a));
+        }
+        ArrayList<AST.Declaration<String, Parsed>> d = new ArrayList<AST.Declaration<String, Parsed>>();
+        d.add(r.declaration);
+        Visitor.walk(d, new Visitor<String, Parsed>() {
+            public Action enterBinding(AST.Binding<String, Parsed> b) {
+                for (ResolvedName l: r.bound(b)) {
+                    result.append(" " + l.source + "@" + frame.offset((Local)l));
+                }
+                return Action.Continue;
+            }
+        });
+        return result.toString();
+    }
+    
+    /**
+     * Resolves a program, edits its second declaration, resolves that again,
+     * and lists which declarations use the global f and where, before and
+     * after.
+     */
+    private static String crossReference(String program, String edited) throws CompilerError {
+        NamingContext context = new NamingContext();
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()), context);
+        CrossReference xref = new CrossReference(rs);
+        ResolvedName f = context.resolve(new Location(1,1), "f");
+        String before = uses(xref, f);
+        
+        AST.Declaration<String, Parsed> d = Parser.parse(new Layout(new Lexer(edited).lex()).layout()).get(1);
+        xref.replace(1, ResolveNames.resolveAgain(context.globals(), rs.get(1), d));
+        return before + "| " + uses(xref, f);
+    }
+    
+    /**
+     * Lists a program's components in elaboration order, each as the names
+     * its members define.
+     */
+    private static String elaborate(String program) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()));
+        Elaboration e = Elaboration.of(rs);
+        
+        String result = "";
+        for (int c = 0; c < e.components(); c++) {
+            result += "[";
+            for (int u: e.members(c)) {
+                AST.Binding<String, Parsed> b = e.binding(u);
+                result += " " + ((b == null) ? ((AST.Def<String, Parsed>)rs.get(e.declaration(u)).declaration).name : b.references.get(0).name);
+            }
+            result += " ]";
+        }
+        return result;
+    }
+    
+    /**
+     * Whether the component defining g has the same key in both programs.
+     */
+    private static String sameKey(String program, String edited) throws CompilerError {
+        return (key(program) == key(edited)) ? "same" : "different";
+    }
+    
+    private static long key(String program) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()));
+        Elaboration e = Elaboration.of(rs);
+        for (int u = 0; u < e.units(); u++) {
+            AST.Declaration<String, Parsed> d = rs.get(e.declaration(u)).declaration;
+            if (d.tag == AST.DeclarationTag.Def && ((AST.Def<String, Parsed>)d).name.equals("g")) {
+                return e.key(e.componentOf(u));
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Infers the types in a function and lists the size of each buffer
+     * argument and local, or ? if it isn't known.
+     */
+    private static String bufferSizes(String decl) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(decl).lex()).layout()));
+        Inference inference = InferTypes.inferTypes(rs).get(0);
+        Resolution r = inference.resolution;
+        
+        StringBuilder result = new StringBuilder();
+        ArrayList<ResolvedName> names = new ArrayList<ResolvedName>(Arrays.asList(r.arguments((AST.Def<String, Parsed>)r.declaration)));
+        ArrayList<AST.Declaration<String, Parsed>> d = new ArrayList<AST.Declaration<String, Parsed>>();
+        d.add(r.declaration);
+        for (AST.Binding<String, Parsed> b: bindings(d)) {
+            names.addAll(Arrays.asList(r.bound(b)));
+        }
+        for (ResolvedName name: names) {
+            Types.Type<?, ?> t = inference.type(name);
+            if (t.tag == Types.Tag.Known) { t = ((Types.Known<?, ?>)t).type; }
+            if (t.tag != Types.Tag.Buffer) { continue; }
+            Types.Nat<?, ?> size = ((Types.Buffer<?, ?>)t).size;
+            if (size.tag == Types.NatTag.NatKnown) { size = ((Types.NatKnown<?, ?>)size).nat; }
+            result.append(name.source + ":" + ((size.tag == Types.NatTag.NatLiteral) ? Long.toString(((Types.NatLiteral)size).value) : "?") + " ");
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Infers the types in a program and lists the type of every name a let
+     * binds.
+     */
+    private static String infer(String program) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()));
+        ArrayList<Inference> inferences = InferTypes.inferTypes(rs);
+        
+        StringBuilder result = new StringBuilder();
+        for (Inference inference: inferences) {
+            ArrayList<AST.Declaration<String, Parsed>> d = new ArrayList<AST.Declaration<String, Parsed>>();
+            d.add(inference.resolution.declaration);
+            for (AST.Binding<String, Parsed> b: bindings(d)) {
+                for (ResolvedName name: inference.resolution.bound(b)) {
+                    result.append(name.source + ":" + inference.type(name) + " ");
+                }
+            }
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Lists each specialization: a function's name and signature, then the
+     * types of its locals.
+     */
+    private static String monomorphize(String program) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()));
+        
+        StringBuilder result = new StringBuilder();
+        for (Monomorphize.Specialization s: Monomorphize.monomorphize(rs, InferTypes.inferTypes(rs))) {
+            if (s.signature != null) {
+                result.append(((AST.Def<String, Parsed>)s.resolution.declaration).name + s.signature);
+            } else {
+                result.append("let");
+            }
+            for (Types.Type<ResolvedName, Types.Mono> t: s.locals) {
+                result.append(" " + t);
+            }
+            result.append("; ");
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Lists each function's locals as typed by the fast path, or says it was
+     * inferred, and whether the fast path agrees with inference on every
+     * node that inference solves.  The operators are left unsolved.
+     */
+    private static String bidirectional(String program) throws CompilerError {
+        ArrayList<Resolution> rs = ResolveNames.resolveNames(Parser.parse(new Layout(new Lexer(program).lex()).layout()));
+        IdentityHashMap<ResolvedName, Types.Type<ResolvedName, Types.Poly>> signatures = new IdentityHashMap<ResolvedName, Types.Type<ResolvedName, Types.Poly>>();
+        
+        StringBuilder result = new StringBuilder();
+        for (Resolution r: rs) {
+            AST.Def<String, Parsed> def = (AST.Def<String, Parsed>)r.declaration;
+            Inference.Table table = Bidirectional.check(r, signatures);
+            result.append(def.name + ":");
+            if (table == null) {
+                result.append(" inferred; ");
+                continue;
+            }
+            for (Types.Type<ResolvedName, Types.Poly> t: table.locals) {
+                result.append(" " + t);
+            }
+            
+            Inference.Table inferred = Inference.instantiate(r, signatures, r.global(def).type, null).table;
+            boolean same = true;
+            for (int id = 0; id < r.nodes; id++) {
+                if (inferred.nodes[id] == null || inferred.nodes[id].tag == Types.Tag.TypeVar) { continue; }
+                same &= inferred.nodes[id].toString().equals(String.valueOf(table.nodes[id]));
+            }
+            result.append(same ? " same; " : " different; ");
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Runs FunctionsReturn and MainExists through a measuring pass manager,
+     * along with a pass that counts the numbers in the program and one that
+     * depends on it, and lists the stages, the count, and which passes
+     * have a line in the report.
+     */
+    private static String passes(String program) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(program).lex()).layout();
+        Location loc = new Location(tokens.get(0).loc, tokens.get(tokens.size() - 1).loc);
+        final AtomicInteger numbers = new AtomicInteger();
+        final StringBuilder result = new StringBuilder();
+        
+        PassManager manager = new PassManager(true);
+        manager.add(FunctionsReturn.pass());
+        manager.add(MainExists.pass(loc));
+        manager.add(new PassManager.Pass("Numbers", EnumSet.of(PassManager.Kind.Expression)) {
+            public Visitor<String, Parsed> visitor(PassManager.Context context, AST.Declaration<String, Parsed> d) {
+                return new Visitor<String, Parsed>() {
+                    public Action enterExpression(AST.Expression<String, Parsed> e) {
+                        if (e.tag == AST.ExpressionTag.Number) { numbers.incrementAndGet(); }
+                        return Action.Continue;
+                    }
+                };
+            }
+        });
+        manager.add(new PassManager.Pass("Total", EnumSet.noneOf(PassManager.Kind.class), "Numbers") {
+            public Visitor<String, Parsed> visitor(PassManager.Context context, AST.Declaration<String, Parsed> d) {
+                return new Visitor<String, Parsed>() { };
+            }
+            public void finish() {
+                result.append("numbers " + numbers.get() + ";");
+            }
+        });
+        
+        for (ArrayList<PassManager.Pass> stage: manager.stages()) {
+            for (PassManager.Pass pass: stage) {
+                result.append(" " + pass.name);
+            }
+            result.append(";");
+        }
+        manager.run(Parser.parse(tokens));
+        for (String line: manager.report().split("\n")) {
+            result.append(" " + line.substring(0, line.indexOf(':')));
+        }
+        return result.toString();
+    }
+    
+    /**
+     * Runs MainExists over one program and then, with the same pass manager,
+     * over another.
+     */
+    private static String mainTwice(String first, String second) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(second).lex()).layout();
+        Location loc = new Location(tokens.get(0).loc, tokens.get(tokens.size() - 1).loc);
+        PassManager manager = new PassManager(false);
+        manager.add(MainExists.pass(loc));
+        manager.run(Parser.parse(new Layout(new Lexer(first).lex()).layout()));
+        manager.run(Parser.parse(tokens));
+        return "ok";
+    }
+    
+    private static ArrayList<AST.Binding<String, Parsed>> bindings(ArrayList<AST.Declaration<String, Parsed>> ds) {
+        final ArrayList<AST.Binding<String, Parsed>> bindings = new ArrayList<AST.Binding<String, Parsed>>();
+        Visitor.walk(ds, new Visitor<String, Parsed>() {
+            public Action enterBinding(AST.Binding<String, Parsed> b) {
+                bindings.add(b);
+                return Action.Continue;
+            }
+        });
+        return bindings;
+    }
+    
+    private static final Location HERE = new Location(1,1);
+    
+    private static Types.TypeVar var(int id) {
+        return new Types.TypeVar(id);
+    }
+    
+    private static Types.Known<ResolvedName, Types.Poly> ground(Types.GroundTag tag) {
+        return new Types.Known<ResolvedName, Types.Poly>(new Types.Ground(tag));
+    }
+    
+    private static String uses(CrossReference xref, ResolvedName name) {
+        String result = "";
+        for (int d: xref.declarationsUsing(name)) {
+            result += d + ":" + Arrays.toString(xref.uses(d, name)) + " ";
+        }
+        return result;
+    }
+    
     public static final TestHarness.TestCase[] cases = {
         new Matches() {
             public String name() { return "Functions return 1"; }
@@ -149,6 +617,90 @@ public final class TestChecker {
                 return checkReturns("def foo() () { return 0 }; def bar() () { return 0 }; def baz() () { a b }");
             }
         },
+        new Crashes() {
+            public String name() { return "Functions return 17"; }
+            public String expected() { return "@1,1,1,68 The function may reach the end of control flow without returning a value."; }
+            public String userCode() throws CompilerError {
+                return checkReturns("def foo() () do forever { if a then { break } else { }; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Functions return 18"; }
+            public String expected() { return "ok"; }
+            public String userCode() throws CompilerError {
+                return checkReturns("def foo() () do if a then { return () } else { if b then { } else { return () }; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Functions return 19"; }
+            public String expected() { return "ok"; }
+            public String userCode() throws CompilerError {
+                return checkReturns("def foo() () do a forever { forever { return (); break a } }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Functions return 20"; }
+            public String expected() { return "@1,1,1,49 The function may reach the end of control flow without returning a value."; }
+            public String userCode() throws CompilerError {
+                return checkReturns("def foo() () do if a then { } else { return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Control flow 1"; }
+            public String expected() { return "0:3/1 1:/0 2:/0 3:5,6/1 4:2/1 5:4/0 6:1/1 order 0 3 6 1 5 4 2"; }
+            public String userCode() throws CompilerError {
+                return controlFlow("def foo() () do let a = 1; forever { if a then { break } else { return () } }; a b");
+            }
+        },
+        new Matches() {
+            public String name() { return "Control flow 2"; }
+            public String expected() { return "0:3/0 1:/0 2:/0 3:5/0 4:1/1 5:5/0 6:4/0 order 0 3 5"; }
+            public String userCode() throws CompilerError {
+                return controlFlow("def foo() () do a forever { forever { } ; break a }; return ()");
+            }
+        },
+        new Matches() {
+            public String name() { return "Dominators 1"; }
+            public String expected() { return "0<-1[] 3<0[3] 6<3[3] 7<6[3,7] 11<7[3] 8<11[3] 12<8[3] 9<7[7] 10<9[7] 5<3[] 4<5[] 1<4[] a@3 -1 1; b@7 0 2; "; }
+            public String userCode() throws CompilerError {
+                return dominators("def foo() () do let a = 1; a forever { if a then { break a } else { b forever { if a then { a = 2 } else { break b } } } }; return ()");
+            }
+        },
+        new Matches() {
+            public String name() { return "Dominators 2"; }
+            public String expected() { return "0<-1[] 3<0[3] 5<3[3] 8<5[3] 6<8[3] 7<5[] 1<7[] a@3 -1 1; @5 -1 0; "; }
+            public String userCode() throws CompilerError {
+                return dominators("def foo() () do a forever { forever { if a then { return () } else { break } }; a = 1 }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Dominators 3"; }
+            public String expected() { return "9010 true 1 2 6001"; }
+            public String userCode() throws CompilerError {
+                return manyBlocks(3000);
+            }
+        },
+        new Matches() {
+            public String name() { return "Liveness 1"; }
+            public String expected() { return "{ a b } { b c } | { c d } | { c } | | { c d } | | "; }
+            public String userCode() throws CompilerError {
+                return liveness("def f(a: Int8, b: Int8) Int8 do let var c = a; let d = b; forever { if c < d then { c = c + 1 } else { return c } }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Liveness 2"; }
+            public String expected() { return "{ a p b } { a p b } { a p b e } { a p b e q } { a p b e q } { a p b q } { a b q } { b q v } { b q } | | "; }
+            public String userCode() throws CompilerError {
+                return liveness("def f(a: Int8, p: Ptr[var Int8]) Int8 do let var b = a; let var e: Buffer[2, var Int8] = [a, a]; let q = &b; b = 1; e[a] = 2; *p = 3; let u, v = (a, a); (u, b) = (v, 1); return *q");
+            }
+        },
+        new Matches() {
+            public String name() { return "Liveness 3"; }
+            public String expected() { return "3001 1"; }
+            public String userCode() throws CompilerError {
+                return manyLocals(3000);
+            }
+        },
         new Crashes() {
             public String name() { return "Main exists 1"; }
             public String expected() { return "@1,1,1,50 A function named main must exist."; }
@@ -197,6 +749,517 @@ public final class TestChecker {
             public String userCode() throws CompilerError {
                 return mainExists("def main(a: ()) Int32 {}");
             }
+        },
+        new Matches() {
+            public String name() { return "Resolve names 1"; }
+            public String expected() { return "[G f][B +][A x 0][G one]"; }
+            public String userCode() throws CompilerError {
+                return resolve("let one = 1; def f(x: Int32) Int32 do return f (x + one)");
+            }
+        },
+        new Matches() {
+            public String name() { return "Resolve names 2"; }
+            public String expected() { return "[A a 0][L a 0][L a 1][L a 1][L a 0][L a 0][L a 0]"; }
+            public String userCode() throws CompilerError {
+                return resolve("def f(a: Int32) Int32 { let a = a; { let a = a; a a }; a a; return a }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Resolve names 3"; }
+            public String expected() { return "@1,36,1,37 The variable b is not in scope."; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () { { let b = 1 }; return b }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Resolve names 4"; }
+            public String expected() { return "@1,16,1,29 The global name f has already been defined."; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () {}; def f() () {}");
+            }
+        },
+        new Matches() {
+            public String name() { return "Resolve names 5"; }
+            public String expected() { return "[L a 0][L b 3][A a 0]"; }
+            public String userCode() throws CompilerError {
+                return resolve("def f(a: Int32) Int32 { { let a = 1; { let a = 2; let b = 3 }; let b = 4; return a b }; return a }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Resolve names 6"; }
+            public String expected() { return "@1,40,1,41 The variable c is not in scope."; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () { { { let c = 1 } }; return c }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Resolve names 7"; }
+            public String expected() { return "[G g][B ()][G f][G x]"; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () { return g () }; def g() () { return f x }; let x = 1");
+            }
+        },
+        new Matches() {
+            public String name() { return "Resolve names 8"; }
+            public String expected() { return "[G y]"; }
+            public String userCode() throws CompilerError {
+                return resolve("let x = y; let y = 1");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Resolve names 9"; }
+            public String expected() { return "@1,21,1,22 The variable a is not in scope."; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () { return a }; def g() () { return b }; def f() () { return c }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Frame layout 1"; }
+            public String expected() { return "size 16 a@0 b@4 x@8 y@8 z@12"; }
+            public String userCode() throws CompilerError {
+                return frame("def f(a: Int32, b: Int8) Int32 { { let x = 1 }; { let y = 2; let z = 3 }; return a }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Frame layout 2"; }
+            public String expected() { return "size 12 p@0 a@2 x@4 y@4 z@8 w@4"; }
+            public String userCode() throws CompilerError {
+                return frame("def f(p: Boolean, a: UInt16) Int32 { if p then { let x = 1 } else { let y = 2; forever { let z = 3 } }; let w = 4; return 0 }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Frame layout 3"; }
+            public String expected() { return "size 16 # Implicit argument@0 x@0 y@12"; }
+            public String userCode() throws CompilerError {
+                return frame("def f() () { let x = [1, 2, 3]; let y = 1; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Frame layout 4"; }
+            public String expected() { return "@1,1,1,53 The buffer of 4294967296 elements is too large."; }
+            public String userCode() throws CompilerError {
+                return frame("def f(a: Buffer[4294967296, Int64]) () { return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Cross reference 1"; }
+            public String expected() { return "0:[0] 1:[0, 1] 2:[0] | 0:[0] 2:[0] "; }
+            public String userCode() throws CompilerError {
+                return crossReference("def f() () { return f () }; def g() () { return f (f ()) }; let x = f",
+                                      "def f() () { return f () }; def g() () { return x }; let x = f");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Cross reference 2"; }
+            public String expected() { return "@1,29,1,55 The global name h is new, so the whole program has to be resolved again."; }
+            public String userCode() throws CompilerError {
+                return crossReference("def f() () { return f () }; def g() () { return f () }",
+                                      "def f() () { return f () }; def h() () { return f () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Cross reference 3"; }
+            public String expected() { return "@1,27,1,60 The signature of g has changed, so the whole program has to be resolved again."; }
+            public String userCode() throws CompilerError {
+                return crossReference("def f() () { return f () }; def g() () { return f () }",
+                                      "def f() () { return () }; def g(a: Int8) () { return f () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Cross reference 4"; }
+            public String expected() { return "@1,27,1,53 The global name h belongs to another declaration, so the whole program has to be resolved again."; }
+            public String userCode() throws CompilerError {
+                return crossReference("def f() () { return f () }; def g() () { return f () }; def h() () { return () }",
+                                      "def f() () { return () }; def h() () { return f () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Cross reference 5"; }
+            public String expected() { return "@1,27,1,36 The global name y is gone, so the whole program has to be resolved again."; }
+            public String userCode() throws CompilerError {
+                return crossReference("def f() () { return () }; let x, y = (f (), 1)",
+                                      "def f() () { return () }; let x = f ()");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Resolve names 10"; }
+            public String expected() { return "@1,27,1,51 The global name f has already been defined."; }
+            public String userCode() throws CompilerError {
+                return resolve("def f() () { return () }; def f() () { return () }; def g() () { return b }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Elaboration 1"; }
+            public String expected() { return "[ y ][ x ][ f g ][ z ]"; }
+            public String userCode() throws CompilerError {
+                return elaborate("let x = y; let y = 1; def f() () { return g x }; def g() () { return f () }; let z = f ()");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Elaboration 2"; }
+            public String expected() { return "@1,5,1,10 The global x depends on its own value."; }
+            public String userCode() throws CompilerError {
+                return elaborate("let x = f (); def f() () { return x }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Elaboration 3"; }
+            public String expected() { return "@1,5,1,10 The global x depends on its own value."; }
+            public String userCode() throws CompilerError {
+                return elaborate("let x = x");
+            }
+        },
+        new Matches() {
+            public String name() { return "Elaboration 4"; }
+            public String expected() { return "same"; }
+            public String userCode() throws CompilerError {
+                return sameKey("def f() () { return () }; def g() () { return f () }; def h() () { return 1 }",
+                               "def h() () { return 2 }; def f() () { return () }; def g() () { return f () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Elaboration 5"; }
+            public String expected() { return "different"; }
+            public String userCode() throws CompilerError {
+                return sameKey("def f() () { return () }; def g() () { return f () }",
+                               "def f() () { return 1 }; def g() () { return f () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Unify 1"; }
+            public String expected() { return "(Ptr <(Ground Int32)>)"; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(2, 0);
+                u.unify(HERE, var(0), new Types.Ptr<ResolvedName, Types.Poly>(Mode.Var, var(1)));
+                u.unify(HERE, ground(Types.GroundTag.Int32), var(1));
+                return u.resolve(var(0)).toString();
+            }
+        },
+        new Crashes() {
+            public String name() { return "Unify 2"; }
+            public String expected() { return "@1,1,1,1 The type (Ptr (TypeVar 0)) would have to contain itself."; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(2, 0);
+                u.unify(HERE, var(0), var(1));
+                u.unify(HERE, var(1), new Types.Ptr<ResolvedName, Types.Poly>(Mode.Var, var(0)));
+                return "ok";
+            }
+        },
+        new Crashes() {
+            public String name() { return "Unify 3"; }
+            public String expected() { return "@1,1,1,1 The type checker expected a pointer but found a buffer."; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(1, 1);
+                u.unify(HERE, new Types.Ptr<ResolvedName, Types.Poly>(Mode.Var, var(0)),
+                              new Types.Buffer<ResolvedName, Types.Poly>(new Types.NatVar(0), Mode.Var, var(0)));
+                return "ok";
+            }
+        },
+        new Matches() {
+            public String name() { return "Unify 4"; }
+            public String expected() { return "<(Ground Int8)> (TypeVar 1)"; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(2, 0);
+                int mark = u.mark();
+                try {
+                    u.unify(HERE, var(0), var(1));
+                    u.unify(HERE, var(0), ground(Types.GroundTag.Int32));
+                    u.unify(HERE, var(1), ground(Types.GroundTag.Int8));
+                    return "ok";
+                } catch (CompilerError e) {
+                    u.rollback(mark);
+                }
+                u.unify(HERE, var(0), ground(Types.GroundTag.Int8));
+                return u.resolve(var(0)) + " " + u.resolve(var(1));
+            }
+        },
+        new Matches() {
+            public String name() { return "Unify 5"; }
+            public String expected() { return "(Buffer <{4}> <(Ground UInt8)>)"; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(1, 2);
+                u.unify(HERE, new Types.Buffer<ResolvedName, Types.Poly>(new Types.NatVar(0), Mode.Var, var(0)),
+                              new Types.Buffer<ResolvedName, Types.Poly>(new Types.NatVar(1), Mode.Var, ground(Types.GroundTag.UInt8)));
+                u.unify(HERE, new Types.NatVar(1), new Types.NatLiteral(4));
+                return u.resolve(new Types.Buffer<ResolvedName, Types.Poly>(new Types.NatVar(0), Mode.Var, var(0))).toString();
+            }
+        },
+        new Matches() {
+            public String name() { return "Unify 6"; }
+            public String expected() { return "<(Ground Int64)>"; }
+            public String userCode() throws CompilerError {
+                // A long chain, which must not be followed recursively.
+                int n = 100000;
+                Unifier u = new Unifier(n, 0);
+                for (int i = 1; i < n; i++) {
+                    u.unify(HERE, var(i), var(i - 1));
+                }
+                u.unify(HERE, var(n - 1), ground(Types.GroundTag.Int64));
+                return u.resolve(var(0)).toString();
+            }
+        },
+        new Matches() {
+            public String name() { return "Type classes 1"; }
+            public String expected() { return "<(Ground Int32)> <(Ground Int32)> <(Ground Boolean)> <(Ground UInt64)>"; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(4, 0);
+                u.constrain(HERE, var(0), Types.TypeClass.Num);
+                u.constrain(HERE, var(1), Types.TypeClass.Bits);
+                u.unify(HERE, var(0), var(1));
+                u.constrain(HERE, var(0), Types.TypeClass.Signed);
+                u.constrain(HERE, var(3), Types.TypeClass.Index);
+                u.constrain(HERE, var(2), Types.TypeClass.Bits);
+                u.unify(HERE, ground(Types.GroundTag.Boolean), var(2));
+                u.defaults();
+                return u.resolve(var(0)) + " " + u.resolve(var(1)) + " " + u.resolve(var(2)) + " " + u.resolve(var(3));
+            }
+        },
+        new Crashes() {
+            public String name() { return "Type classes 2"; }
+            public String expected() { return "@1,1,1,1 No type is in every type class this value has to be in."; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(2, 0);
+                u.constrain(HERE, var(0), Types.TypeClass.Signed);
+                u.unify(HERE, var(0), var(1));
+                u.constrain(HERE, var(1), Types.TypeClass.Index);
+                return "ok";
+            }
+        },
+        new Crashes() {
+            public String name() { return "Type classes 3"; }
+            public String expected() { return "@1,1,1,1 The type Boolean is not in every type class this value has to be in."; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(1, 0);
+                u.constrain(HERE, var(0), Types.TypeClass.Num);
+                u.unify(HERE, var(0), ground(Types.GroundTag.Boolean));
+                return "ok";
+            }
+        },
+        new Crashes() {
+            public String name() { return "Type classes 4"; }
+            public String expected() { return "@1,1,1,1 The type checker expected a number but found a pointer."; }
+            public String userCode() throws CompilerError {
+                Unifier u = new Unifier(1, 0);
+                u.constrain(HERE, new Types.Ptr<ResolvedName, Types.Poly>(Mode.Var, var(0)), Types.TypeClass.Num);
+                return "ok";
+            }
+        },
+        new Matches() {
+            public String name() { return "Buffer sizes 1"; }
+            public String expected() { return "a:? b:3 c:3 "; }
+            public String userCode() throws CompilerError {
+                return bufferSizes("def f(a: Buffer[_, Int8]) () { let b: Buffer[_, Int8] = [1, 2, 3]; let c: Buffer[_, Int8] = b; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Buffer sizes 2"; }
+            public String expected() { return "a:? b:5 c:5 d:4 "; }
+            public String userCode() throws CompilerError {
+                return bufferSizes("def f(p: Boolean, a: Buffer[_, Int8], var b: Buffer[_, Int8]) Buffer[4, Int8] { let c: Buffer[_, Int8] = [1, 2, 3, 4, 5]; b = c; let d: Buffer[_, Int8] = if p then [1, 2, 3, 4] else [5, 6, 7, 8]; return d }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Buffer sizes 3"; }
+            public String expected() { return "@1,39,1,48 The type checker expected the size 2 but found the size 3."; }
+            public String userCode() throws CompilerError {
+                return bufferSizes("def f() () { let b: Buffer[2, Int8] = [1, 2, 3]; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Infer types 1"; }
+            public String expected() { return "b:<(Ground Int8)> c:(Buffer <{2}> <(Ground Int8)>) d:<(Ground Int8)> e:<(Ground Int8)> "; }
+            public String userCode() throws CompilerError {
+                return infer("def f(a: Int8) () { let b = a; let c = [b, b]; let d = c[0]; let e = b + d; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Infer types 2"; }
+            public String expected() { return "g:<(Ground Int32)> x:<(Ground Int64)> y:<(Ground Int32)> z:<(Ground Boolean)> "; }
+            public String userCode() throws CompilerError {
+                return infer("let g = 2; def f() Int64 { let x = 1; let y = g; let z = x < 3; return x }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Infer types 3"; }
+            public String expected() { return "@1,31,1,32 The type Boolean is not in every type class this value has to be in."; }
+            public String userCode() throws CompilerError {
+                return infer("def f() () { let a: Boolean = 1; return () }; def g(a: Int8) () { let b: Boolean = a; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Infer types 4"; }
+            public String expected() { return "q:<(Ground Int16)> r:(Ptr <(Ground Int16)>) s:<(Ground Int16)> t:<(Ground Boolean)> "; }
+            public String userCode() throws CompilerError {
+                return infer("def f(p: Ptr[Int16]) () { let q = *p; let r = &q; let s, t = (q, true); return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Infer types 5"; }
+            public String expected() { return "c:(Buffer <{3}> <(Ground Int32)>) b:(Buffer <{3}> <(Ground Int32)>) "; }
+            public String userCode() throws CompilerError {
+                return infer("let c = b; let b = [1, 2, 3]");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Infer types 6"; }
+            public String expected() { return "@1,34,1,35 The type of g can't be determined."; }
+            public String userCode() throws CompilerError {
+                return infer("def id(x: _) _ { return x }; let g = id");
+            }
+        },
+        new Matches() {
+            public String name() { return "Monomorphize 1"; }
+            public String expected() { return "id(Arrow [{@1,8,1,9 const x (Ground Int8)}]->(Ground Int8)); id(Arrow [{@1,8,1,9 const x (Ground Int32)}]->(Ground Int32)); main(Arrow [{@1,72,1,73 const u (Ground Unit)}]->(Ground Int32)) (Ground Int8) (Ground Int8) (Ground Int8) (Ground Int32); "; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def id(x: _) _ { return x }; def unused(x: _) _ { return x }; def main(u: ()) Int32 { let a: Int8 = 1; let b = id(a); let c = id(b); let d = id(2); return d }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Monomorphize 2"; }
+            public String expected() { return "first(Arrow [{@1,11,1,12 const b (Buffer {2} (Ground Int32))}]->(Ground Int32)); first(Arrow [{@1,11,1,12 const b (Buffer {3} (Ground Int32))}]->(Ground Int32)); main(Arrow [{@1,56,1,57 const u (Ground Unit)}]->(Ground Int32)) (Buffer {2} (Ground Int32)) (Buffer {3} (Ground Int32)) (Ground Int32) (Ground Int32); "; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def first(b: Buffer[_, _]) _ { return b[0] }; def main(u: ()) Int32 { let a: Buffer[2, Int32] = [1, 2]; let c: Buffer[3, Int32] = [1, 2, 3]; let x = first(a); let y = first(c); return x + y }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Monomorphize 3"; }
+            public String expected() { return "@1,43,1,44 The type checker expected Int8 but found Boolean."; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def both(x: _, y: _) Int32 { let z = x == y; return 1 }; def main(u: ()) Int32 { let a: Int8 = 1; return both(a, true) }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Opaque 1"; }
+            public String expected() { return "@1,73,1,77 The type checker expected a buffer but found a ground type."; }
+            public String userCode() throws CompilerError {
+                return infer("def f(a: Buffer[_, Int8]) Int8 { return a[0] }; def g() () { let x = f (true); return () }; def main() () { return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Opaque 2"; }
+            public String expected() { return "f(Arrow [{@1,7,1,8 const a (Buffer {2} (Ground Int8))}]->(Ground Int8)); main(Arrow [{@1,57,1,59 const # Implicit argument (Ground Unit)}]->(Ground Unit)) (Ground Int8); "; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def f(a: Buffer[_, Int8]) Int8 { return a[0] }; def main() () { let x = f ([1, 2]); return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 1"; }
+            public String expected() { return "@1,25,1,26 The name a isn't var, so it can't be assigned."; }
+            public String userCode() throws CompilerError {
+                return infer("def f() () { let a = 1; a = 2; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Modes 2"; }
+            public String expected() { return "a:<(Ground Int16)> b:(Buffer <{2}> <(Ground Int8)>) c:(Buffer <{2}> <(Ground Int32)>) q:(Ptr <(Ground Int16)>) "; }
+            public String userCode() throws CompilerError {
+                return infer("def f(p: Ptr[var Int16]) () { let var a = 1; a = 2; *p = a; let var b: Buffer[2, var Int8] = [1, 2]; b[0] = 3; let var c = [1, 2]; c[1] = 4; let q: Ptr[var Int16] = &a; *q = 5; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 3"; }
+            public String expected() { return "@1,28,1,29 The type checker expected a pointer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return infer("def f(p: Ptr[Int16]) () { *p = 1; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 4"; }
+            public String expected() { return "@1,56,1,57 The type checker expected a pointer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return infer("def f() () { let a: Int16 = 1; let q: Ptr[var Int16] = &a; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 5"; }
+            public String expected() { return "@1,51,1,52 The type checker expected a buffer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return infer("def f() () { let var b: Buffer[2, Int8] = [1, 2]; b[0] = 3; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Modes 6"; }
+            public String expected() { return "v:<(Ground Int8)> k:<(Ground Int8)> p:(Ptr <(Ground Int8)>) "; }
+            public String userCode() throws CompilerError {
+                return infer("def f(c: Boolean) Int8 { let var v: Int8 = 1; let k: Int8 = 2; let p = if c then &v else &k; return *p }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Modes 7"; }
+            public String expected() { return "v:<(Ground Int8)> k:<(Ground Int8)> p:(Ptr <(Ground Int8)>) "; }
+            public String userCode() throws CompilerError {
+                return infer("def f(c: Boolean) Int8 { let var v: Int8 = 1; let k: Int8 = 2; let p = if c then &k else &v; return *p }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 8"; }
+            public String expected() { return "@1,93,1,94 The type checker expected a pointer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return infer("def f(c: Boolean) () { let var v: Int8 = 1; let k: Int8 = 2; let p = if c then &v else &k; *p = 3; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 9"; }
+            public String expected() { return "@1,93,1,94 The type checker expected a pointer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return infer("def f(c: Boolean) () { let var v: Int8 = 1; let k: Int8 = 2; let p = if c then &k else &v; *p = 3; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Modes 10"; }
+            public String expected() { return "f(Arrow [{@1,7,1,8 const x (Ptr (Ground Int32))}]->(Ptr (Ground Int32))); main(Arrow [{@1,34,1,36 const # Implicit argument (Ground Unit)}]->(Ground Unit)) (Ground Int32) (Ptr (Ground Int32)); "; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def f(x) _ { return x }; def main() () { let var y: Int32 = 1; let p = f (&y); *p = 2; return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Modes 11"; }
+            public String expected() { return "@1,21,1,22 The type checker expected a pointer with var contents but found one with const contents."; }
+            public String userCode() throws CompilerError {
+                return monomorphize("def f(x) _ { return x }; def main() () { let y: Int32 = 1; let p = f (&y); *p = 2; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Bidirectional 1"; }
+            public String expected() { return "f: <(Ground Int8)> <(Ground Int8)> (Buffer <{2}> <(Ground Int8)>) <(Ground Int8)> <(Ground Int8)> <(Ground Boolean)> same; "; }
+            public String userCode() throws CompilerError {
+                return bidirectional("def f(a: Int8, p: Ptr[Int8]) Int8 { let b: Int8 = a + 1; let c = b * a; let d: Buffer[2, Int8] = [a, c]; let e = if c < 3 then d[0] else *p; let g, h = (e, true); if not h then { return 1 - g } else { return f(e, &c) } }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Bidirectional 2"; }
+            public String expected() { return "f: (Ptr <(Ground Int16)>) same; g: inferred; h: inferred; "; }
+            public String userCode() throws CompilerError {
+                return bidirectional("def f(var a: Int16) () { a = 2; let q: Ptr[var Int16] = &a; *q = a + 1; return () }; def g() Int64 { let x = 1; return x }; def h(a: Int16) () { let q: Ptr[var Int16] = &a; return () }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Pass manager 1"; }
+            public String expected() { return " FunctionsReturn MainExists Numbers; Total;numbers 5; FunctionsReturn MainExists Numbers Total"; }
+            public String userCode() throws CompilerError {
+                return passes("let n = 1; def f(a: Int8) Int8 { if a < 2 then { return a } else { return f(a - 1) + 1 } }; def main(u: ()) Int32 { return 0 }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Pass manager 2"; }
+            public String expected() { return "@1,1,1,60 The function may reach the end of control flow without returning a value."; }
+            public String userCode() throws CompilerError {
+                return passes("def f(a: Int8) Int8 { if a < 2 then { return a } else { } }; def g() Int8 { }; def main(u: ()) Int32 { return 0 }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Pass manager 3"; }
+            public String expected() { return "@1,1,1,25 A function named main must exist."; }
+            public String userCode() throws CompilerError {
+                return passes("def f() () { return () }");
+            }
+        },
+        new Crashes() {
+            public String name() { return "Pass manager 4"; }
+            public String expected() { return "@1,1,1,25 A function named main must exist."; }
+            public String userCode() throws CompilerError {
+                return mainTwice("def main(u: ()) Int32 { return 0 }", "def f() () { return () }");
+            }
         }
     };
 }
@@ -1,14 +1,21 @@
 package rubble.test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
+import rubble.data.AST;
 import rubble.data.CompilerError;
+import rubble.data.Footprint;
 import rubble.data.Location;
 import rubble.data.Token;
+import rubble.data.Types;
+import rubble.data.Visitor;
 import rubble.parser.Declaration;
 import rubble.parser.Expression;
 import rubble.parser.Lexer;
 import rubble.parser.Layout;
+import rubble.parser.Parser;
 import rubble.parser.Statement;
 import rubble.parser.Type;
 import rubble.test.TestHarness.*;
@@ -46,6 +53,44 @@ public final class TestParser {
         return new Type(loc, tokens).parse(0).toString();
     }
     
+    private static String printStmt(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        Location loc = (tokens.size() == 0) ? new Location(1,1) : new Location(tokens.get(0).loc, tokens.get(tokens.size() - 1).loc);
+        StringWriter out = new StringWriter();
+        try {
+            new Statement(loc, tokens).parse(0).print(out);
+        } catch (IOException e) {
+            return e.toString();
+        }
+        return out.toString();
+    }
+    
+    private static String footprint(String decl) throws CompilerError {
+        ArrayList<Token> tokens = new Layout(new Lexer(decl).lex()).layout();
+        Footprint f = new Footprint();
+        f.addTokens(tokens);
+        f.addDeclarations(Parser.parse(tokens));
+        String rows = "";
+        for (String kind: new String[] { "Token.Identifier", "Expression.Apply", "Expression.Variable", "Statement.Return", "Type.Unknown" }) {
+            Footprint.Row r = f.rows().get(kind);
+            rows += kind + " " + ((r == null) ? 0 : r.count) + " ";
+        }
+        return rows;
+    }
+    
+    private static String ids(String decls) throws CompilerError {
+        ArrayList<AST.Declaration<String, Types.Parsed>> ds = Parser.parse(new Layout(new Lexer(decls).lex()).layout());
+        final StringBuilder out = new StringBuilder();
+        Visitor.walk(ds, new Visitor<String, Types.Parsed>() {
+            public Action enterDeclaration(AST.Declaration<String, Types.Parsed> d) { out.append("d").append(d.id).append(" "); return Action.Continue; }
+            public Action enterBinding(AST.Binding<String, Types.Parsed> b) { out.append("b").append(b.id).append(" "); return Action.Continue; }
+            public Action enterStatement(AST.Statement<String, Types.Parsed> s) { out.append("s").append(s.id).append(" "); return Action.Continue; }
+            public Action enterExpression(AST.Expression<String, Types.Parsed> e) { out.append("e").append(e.id).append(" "); return Action.Continue; }
+            public Action enterLValue(AST.LValue<String, Types.Parsed> l) { out.append("l").append(l.id).append(" "); return Action.Continue; }
+        });
+        return out.toString();
+    }
+    
     public static final TestHarness.TestCase[] cases = {
         new Matches() {
             public String name() { return "Expression 1"; }
@@ -601,6 +646,34 @@ public final class TestParser {
             public String userCode() throws CompilerError {
                 return parseDecl("let do a = 1; b = 2");
             }
+        },
+        new Matches() {
+            public String name() { return "Ids 1"; }
+            public String expected() { return "d15 s5 e4 e1 e3 e0 e2 s10 b9 e8 e6 e7 s14 l12 e13 "; }
+            public String userCode() throws CompilerError {
+                return ids("def f(a) Int8 do return a + 1; let x = f 1; y = x");
+            }
+        },
+        new Matches() {
+            public String name() { return "Ids 2"; }
+            public String expected() { return "d13 s12 l8 l6 l5 e1 l7 e11 e9 e10 "; }
+            public String userCode() throws CompilerError {
+                return ids("def f() () do a[i], b = c, 2");
+            }
+        },
+        new Matches() {
+            public String name() { return "Print 1"; }
+            public String expected() { return "(IfS @1,1,1,3 (Var @1,4,1,5 {x}) (Return @1,13,1,19 (Tuple @1,20,1,34 (Var @1,21,1,22 {x})(Index @1,24,1,30 [@1,24,1,30 (Var @1,25,1,26 {x})(Var @1,28,1,29 {x})] (@1,31,1,32 {0})))) (Assign @1,44,1,45 (IndexL @1,44,1,45 (Direct @1,44,1,45 {a})[(@1,46,1,47 {0})]) (& @1,51,1,52 (Var @1,52,1,53 {x})))(Assign @1,55,1,61 (TupleL @1,55,1,61 (Direct @1,56,1,57 {b})(Direct @1,59,1,60 {c})) (* @1,64,1,65 (Var @1,65,1,66 {x}))))"; }
+            public String userCode() throws CompilerError {
+                return printStmt("if x then { return (x, [x, x][0]) } else { a[0] = &x; (b, c) = *x }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Footprint 1"; }
+            public String expected() { return "Token.Identifier 6 Expression.Apply 2 Expression.Variable 4 Statement.Return 1 Type.Unknown 1 "; }
+            public String userCode() throws CompilerError {
+                return footprint("def f() () do return a b c; let x = y");
+            }
         }
     };
 }
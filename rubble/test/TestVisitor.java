@@ -0,0 +1,151 @@
+package rubble.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rubble.data.AST;
+import rubble.data.CompilerError;
+import rubble.data.PositionIndex;
+import rubble.data.StructuralHash;
+import rubble.data.Types.Parsed;
+import rubble.data.Visitor;
+import rubble.parser.Layout;
+import rubble.parser.Lexer;
+import rubble.parser.Parser;
+import rubble.test.TestHarness.*;
+
+/**
+ * Tests the shared AST traversal.
+ * 
+ * Copyright (c) 2011 Jared Putnam
+ * Released under the terms of the 2-clause BSD license, which should be
+ * included with this source.
+ */
+public final class TestVisitor {
+    
+    private static ArrayList<AST.Declaration<String, Parsed>> parse(String source) throws CompilerError {
+        return Parser.parse(new Layout(new Lexer(source).lex()).layout());
+    }
+    
+    private static final class Trace extends Visitor<String, Parsed> {
+        
+        public final StringBuilder trace = new StringBuilder();
+        private final String stopAt;
+        
+        public Trace(String stopAt) {
+            this.stopAt = stopAt;
+        }
+        
+        public Action enterStatement(AST.Statement<String, Parsed> s) {
+            trace.append(s.tag.toString()).append(' ');
+            return s.tag.toString().equals(stopAt) ? Action.Stop : Action.Continue;
+        }
+        
+        public Action enterExpression(AST.Expression<String, Parsed> e) {
+            trace.append(e.tag.toString()).append(' ');
+            return e.tag == AST.ExpressionTag.Apply ? Action.Skip : Action.Continue;
+        }
+    }
+    
+    private static final class Depth extends Visitor.Fold<String, Parsed, Integer> {
+        
+        private Integer deepest(List<Integer> children) {
+            int result = 0;
+            for (Integer child: children) {
+                result = Math.max(result, child);
+            }
+            return result + 1;
+        }
+        
+        protected Integer foldDeclaration(AST.Declaration<String, Parsed> d, List<Integer> children) { return deepest(children); }
+        protected Integer foldBinding(AST.Binding<String, Parsed> b, List<Integer> children) { return deepest(children); }
+        protected Integer foldStatement(AST.Statement<String, Parsed> s, List<Integer> children) { return deepest(children); }
+        protected Integer foldExpression(AST.Expression<String, Parsed> e, List<Integer> children) { return deepest(children); }
+        protected Integer foldLValue(AST.LValue<String, Parsed> l, List<Integer> children) { return deepest(children); }
+    }
+    
+    /**
+     * Compares the body hashes of the first two declarations, which must be
+     * functions, and their whole hashes.
+     */
+    private static String sameBodies(String source) throws CompilerError {
+        ArrayList<AST.Declaration<String, Parsed>> ds = parse(source);
+        StructuralHash first = StructuralHash.of(ds.get(0));
+        StructuralHash second = StructuralHash.of(ds.get(1));
+        boolean bodies = first.body((AST.Def<String, Parsed>)ds.get(0)) == second.body((AST.Def<String, Parsed>)ds.get(1));
+        boolean whole = first.declaration() == second.declaration();
+        return bodies + " " + whole;
+    }
+    
+    public static final TestHarness.TestCase[] cases = {
+        new Matches() {
+            public String name() { return "Visitor 1"; }
+            public String expected() { return "Let Variable Assign Apply IfS Variable Return Number Return Tuple Number Number  | Let Variable Assign Apply IfS Variable Return "; }
+            public String userCode() throws CompilerError {
+                ArrayList<AST.Declaration<String, Parsed>> ds = parse("def f() () do let a = b; c = d e; if f then { return 1 } else { return 2, 3 }");
+                Trace all = new Trace("");
+                Trace early = new Trace("Return");
+                Visitor.walk(ds, new Trace(""), all, early);
+                return all.trace.toString() + " | " + early.trace.toString();
+            }
+        },
+        new Matches() {
+            public String name() { return "Visitor 2"; }
+            public String expected() { return "[6, 3]"; }
+            public String userCode() throws CompilerError {
+                Depth depth = new Depth();
+                Visitor.walk(parse("def f() () { forever { return a b c } }; let x = 1"), depth);
+                return depth.results().toString();
+            }
+        },
+        new Matches() {
+            public String name() { return "Position index 1"; }
+            public String expected() { return "(Var @1,22,1,23 {a}) (A @1,22,1,23 (Var @1,22,1,23 {a}) $ (Var @1,24,1,25 {b})) | (@2,9,2,10 {1}) | (Tuple @4,10,4,16 (Var @4,11,4,12 {d})(Var @4,14,4,15 {e})) | (@4,5,4,6 {0}) | g null null"; }
+            public String userCode() throws CompilerError {
+                ArrayList<AST.Declaration<String, Parsed>> ds = parse("def f() () do return a b\nlet x = 1\ndef g() () do\n  c[0] = (d, e)");
+                PositionIndex<String, Parsed> index = new PositionIndex<String, Parsed>(ds);
+                return index.nodeAt(1, 22) + " " + index.parent(index.nodeAt(1, 22)) + " | "
+                    + index.nodeAt(2, 9) + " | " + index.nodeAt(4, 12) + " | " + index.nodeAt(4, 5) + " | "
+                    + index.defAt(4, 3).name + " " + index.defAt(2, 1) + " " + index.nodeAt(9, 1);
+            }
+        },
+        new Matches() {
+            public String name() { return "Position index 2"; }
+            public String expected() { return "(Tuple @2,22,2,28 (Var @2,23,2,24 {c})(Var @2,26,2,27 {d})) (Var @2,26,2,27 {d})"; }
+            public String userCode() throws CompilerError {
+                ArrayList<AST.Declaration<String, Parsed>> ds = parse("def f() () do return a b\ndef g() () do return c");
+                PositionIndex<String, Parsed> index = new PositionIndex<String, Parsed>(ds);
+                index.replace(1, parse("def f() () do return a b\ndef g() () do return (c, d)").get(1));
+                return index.nodeAt(2, 22) + " " + index.nodeAt(2, 26);
+            }
+        },
+        new Matches() {
+            public String name() { return "Structural hash 1"; }
+            public String expected() { return "true false"; }
+            public String userCode() throws CompilerError {
+                return sameBodies("def f() () do return a b\n\ndef g() () do\n    return   a b");
+            }
+        },
+        new Matches() {
+            public String name() { return "Structural hash 2"; }
+            public String expected() { return "true true"; }
+            public String userCode() throws CompilerError {
+                return sameBodies("def f() () { return a b }; def f() () { return a b }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Structural hash 3"; }
+            public String expected() { return "false false"; }
+            public String userCode() throws CompilerError {
+                return sameBodies("def f() () { if a then { b c; d e } else { } }; def f() () { if a then { b c } else { d e } }");
+            }
+        },
+        new Matches() {
+            public String name() { return "Structural hash 4"; }
+            public String expected() { return "false false"; }
+            public String userCode() throws CompilerError {
+                return sameBodies("def f() () { return a b }; def f() () { return a c }");
+            }
+        }
+    };
+}